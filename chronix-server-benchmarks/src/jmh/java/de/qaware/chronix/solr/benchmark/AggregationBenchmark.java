@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.solr.benchmark;
+
+import de.qaware.chronix.server.functions.ChronixAggregation;
+import de.qaware.chronix.server.functions.FunctionValueMap;
+import de.qaware.chronix.timeseries.MetricTimeSeries;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the aggregations of the metric type
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class AggregationBenchmark {
+
+    @Param({"1000", "100000", "1000000", "10000000"})
+    private int points;
+
+    @Param({"avg", "min", "max", "sum", "count", "dev", "last", "first", "range", "diff", "sdiff", "p:0.99", "integral"})
+    private String function;
+
+    private MetricTimeSeries timeSeries;
+    private ChronixAggregation<MetricTimeSeries> aggregation;
+
+    @Setup(Level.Trial)
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        timeSeries = TimeSeriesGenerator.timeSeries(points);
+        aggregation = (ChronixAggregation<MetricTimeSeries>) TimeSeriesGenerator.function(function);
+    }
+
+    /**
+     * The aggregations do not modify the (already sorted) time series. Hence it is shared between the invocations.
+     */
+    @Benchmark
+    public FunctionValueMap aggregate() {
+        FunctionValueMap functionValueMap = new FunctionValueMap(1, 0, 0);
+        aggregation.execute(timeSeries, functionValueMap);
+        return functionValueMap;
+    }
+}
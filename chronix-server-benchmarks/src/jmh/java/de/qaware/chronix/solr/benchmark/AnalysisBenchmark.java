@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.solr.benchmark;
+
+import de.qaware.chronix.server.functions.ChronixAnalysis;
+import de.qaware.chronix.server.functions.ChronixPairAnalysis;
+import de.qaware.chronix.server.functions.FunctionValueMap;
+import de.qaware.chronix.timeseries.MetricTimeSeries;
+import org.apache.solr.common.util.Pair;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the analyses of the metric type
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class AnalysisBenchmark {
+
+    @Param({"1000", "100000", "1000000", "10000000"})
+    private int points;
+
+    @Param({"trend", "outlier", "frequency:10,6", "fastdtw:(metric:*),5,0.8"})
+    private String function;
+
+    private MetricTimeSeries timeSeries;
+    private MetricTimeSeries other;
+    private ChronixAnalysis analysis;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        timeSeries = TimeSeriesGenerator.timeSeries(points);
+        other = TimeSeriesGenerator.timeSeries(points);
+        analysis = (ChronixAnalysis) TimeSeriesGenerator.function(function);
+    }
+
+    @Benchmark
+    @SuppressWarnings("unchecked")
+    public FunctionValueMap analyze() {
+        FunctionValueMap functionValueMap = new FunctionValueMap(0, 1, 0);
+        if (analysis instanceof ChronixPairAnalysis) {
+            ((ChronixPairAnalysis<Pair<MetricTimeSeries, MetricTimeSeries>>) analysis).execute(new Pair<>(timeSeries, other), functionValueMap);
+        } else {
+            ((ChronixAnalysis<MetricTimeSeries>) analysis).execute(timeSeries, functionValueMap);
+        }
+        return functionValueMap;
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.solr.benchmark;
+
+import de.qaware.chronix.Schema;
+import de.qaware.chronix.solr.type.metric.ChunkCodec;
+import de.qaware.chronix.solr.type.metric.ChunkCodecs;
+import de.qaware.chronix.solr.type.metric.SolrDocumentBuilder;
+import de.qaware.chronix.timeseries.MetricTimeSeries;
+import org.apache.solr.common.SolrDocument;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the chunk codecs.
+ * The encode benchmark reports the size of the encoded chunks as secondary results,
+ * the bytes per point are the encoded bytes divided by the encoded points.
+ * The monitoring shape models the Chronix test data set described in HURENCE.md, the data set itself is not shipped.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class CodecBenchmark {
+
+    @Param({"1000000"})
+    private int points;
+
+    @Param({"1024", "8192"})
+    private int chunkSize;
+
+    @Param({"protobuf", "gorilla"})
+    private String codec;
+
+    @Param({"sine", "monitoring"})
+    private String shape;
+
+    private ChunkCodec chunkCodec;
+    private long[] timestamps;
+    private double[] values;
+    private List<SolrDocument> chunks;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        MetricTimeSeries timeSeries = "monitoring".equals(shape)
+                ? TimeSeriesGenerator.monitoring(points)
+                : TimeSeriesGenerator.timeSeries(points);
+        chunkCodec = ChunkCodecs.byName(codec);
+        timestamps = timeSeries.getTimestampsAsArray();
+        values = timeSeries.getValuesAsArray();
+        chunks = TimeSeriesGenerator.chunks(timeSeries, chunkSize, chunkCodec);
+    }
+
+    @Benchmark
+    public int encode(EncodedSize size) {
+        int bytes = 0;
+        for (int from = 0; from < points; from += chunkSize) {
+            bytes += chunkCodec.encode(timestamps, values, from, Math.min(from + chunkSize, points)).length;
+        }
+        size.encodedBytes += bytes;
+        size.encodedPoints += points;
+        return bytes;
+    }
+
+    @Benchmark
+    public MetricTimeSeries decode() {
+        MetricTimeSeries.Builder timeSeries = new MetricTimeSeries.Builder("", "");
+        for (SolrDocument chunk : chunks) {
+            long start = (long) chunk.getFieldValue(Schema.START);
+            long end = (long) chunk.getFieldValue(Schema.END);
+            byte[] data = ((ByteBuffer) chunk.getFieldValue(Schema.DATA)).array();
+            chunkCodec.decode(data, start, end, start, end, timeSeries);
+        }
+        return timeSeries.build();
+    }
+
+    @Benchmark
+    public MetricTimeSeries reduce() {
+        return SolrDocumentBuilder.reduceDocumentToTimeSeries(0, Long.MAX_VALUE, chunks, true);
+    }
+
+    /**
+     * Counts the encoded bytes and points of an iteration.
+     */
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class EncodedSize {
+        public long encodedBytes;
+        public long encodedPoints;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            encodedBytes = 0;
+            encodedPoints = 0;
+        }
+    }
+}
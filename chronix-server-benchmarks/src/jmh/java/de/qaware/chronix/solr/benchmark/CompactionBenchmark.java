@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.solr.benchmark;
+
+import de.qaware.chronix.Schema;
+import de.qaware.chronix.solr.benchmark.legacy.LegacyLazyCompactor;
+import de.qaware.chronix.solr.compaction.CompactionResult;
+import de.qaware.chronix.solr.compaction.LazyCompactor;
+import de.qaware.chronix.solr.type.metric.ChunkCodecs;
+import org.apache.lucene.document.Document;
+import org.apache.solr.schema.BinaryField;
+import org.apache.solr.schema.IndexSchema;
+import org.apache.solr.schema.LongPointField;
+import org.apache.solr.schema.SchemaField;
+import org.apache.solr.schema.StrField;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the compaction of small chunks into large ones.
+ * The legacy compactor converts each document into a solr document and a metric time series.
+ * The codec only applies to the compacted documents of the current compactor, the stored chunks are protobuf.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class CompactionBenchmark {
+
+    @Param({"100000", "1000000"})
+    private int points;
+
+    @Param({"128"})
+    private int chunkSize;
+
+    @Param({"10000"})
+    private int pointsPerChunk;
+
+    @Param({"protobuf", "gorilla"})
+    private String codec;
+
+    private List<Document> chunks;
+    private IndexSchema schema;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        chunks = TimeSeriesGenerator.storedChunks(TimeSeriesGenerator.timeSeries(points), chunkSize);
+        schema = new BenchmarkSchema();
+    }
+
+    @Benchmark
+    public void compact(Blackhole blackhole) {
+        consume(new LazyCompactor(pointsPerChunk, ChunkCodecs.byName(codec), schema).compact(chunks), blackhole);
+    }
+
+    @Benchmark
+    public void legacy(Blackhole blackhole) {
+        consume(new LegacyLazyCompactor(pointsPerChunk, schema).compact(chunks), blackhole);
+    }
+
+    private static void consume(Iterable<CompactionResult> results, Blackhole blackhole) {
+        for (CompactionResult result : results) {
+            blackhole.consume(result.getOutputDocuments());
+        }
+    }
+
+    /**
+     * The fields of the stored chunks without a solr core
+     */
+    private static final class BenchmarkSchema extends IndexSchema {
+        private final Map<String, SchemaField> schemaFields = new HashMap<>();
+
+        private BenchmarkSchema() {
+            super(null, null);
+            schemaFields.put(Schema.NAME, new SchemaField(Schema.NAME, new StrField()));
+            schemaFields.put(Schema.TYPE, new SchemaField(Schema.TYPE, new StrField()));
+            schemaFields.put(Schema.START, new SchemaField(Schema.START, new LongPointField()));
+            schemaFields.put(Schema.END, new SchemaField(Schema.END, new LongPointField()));
+            schemaFields.put(Schema.DATA, new SchemaField(Schema.DATA, new BinaryField()));
+            schemaFields.put("host", new SchemaField("host", new StrField()));
+        }
+
+        @Override
+        public SchemaField getField(String fieldName) {
+            return schemaFields.get(fieldName);
+        }
+    }
+}
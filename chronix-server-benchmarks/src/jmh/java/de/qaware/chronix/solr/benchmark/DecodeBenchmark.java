@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.solr.benchmark;
+
+import de.qaware.chronix.solr.type.metric.ChunkStatistics;
+import de.qaware.chronix.solr.type.metric.SolrDocumentBuilder;
+import de.qaware.chronix.timeseries.MetricTimeSeries;
+import org.apache.solr.common.SolrDocument;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the reduction of protobuf compressed chunks into a single time series
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class DecodeBenchmark {
+
+    @Param({"1000", "100000", "1000000", "10000000"})
+    private int points;
+
+    @Param({"128", "1024", "8192"})
+    private int chunkSize;
+
+    private List<SolrDocument> chunks;
+    private long queryStart;
+    private long queryEnd;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        MetricTimeSeries timeSeries = TimeSeriesGenerator.timeSeries(points);
+        chunks = TimeSeriesGenerator.chunks(timeSeries, chunkSize);
+        //a query range that cuts the first and the last chunk
+        queryStart = timeSeries.getTime(Math.min(chunkSize / 2, points - 1));
+        queryEnd = timeSeries.getTime(Math.max(points - chunkSize / 2, 0));
+    }
+
+    @Benchmark
+    public MetricTimeSeries reduce() {
+        return SolrDocumentBuilder.reduceDocumentToTimeSeries(queryStart, queryEnd, chunks, true);
+    }
+
+    @Benchmark
+    public MetricTimeSeries reduceWithoutData() {
+        return SolrDocumentBuilder.reduceDocumentToTimeSeries(queryStart, queryEnd, chunks, false);
+    }
+
+    @Benchmark
+    public ChunkStatistics reduceWithStatistics() {
+        ChunkStatistics statistics = new ChunkStatistics();
+        SolrDocumentBuilder.reduceDocumentToTimeSeries(queryStart, queryEnd, chunks, statistics);
+        return statistics;
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.solr.benchmark;
+
+import de.qaware.chronix.server.functions.ChronixTransformation;
+import de.qaware.chronix.server.functions.FunctionValueMap;
+import de.qaware.chronix.server.types.ChronixTimeSeries;
+import de.qaware.chronix.solr.type.metric.MetricType;
+import de.qaware.chronix.timeseries.MetricTimeSeries;
+import org.apache.solr.common.SolrDocument;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the downsampling transformations against returning the raw data of a dashboard query.
+ * Every benchmark converts the chunks and serializes the result as json.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class DownsamplingBenchmark {
+
+    /**
+     * A day and a week of points per second
+     */
+    @Param({"86400", "604800"})
+    private int points;
+
+    private final MetricType type = new MetricType();
+    private List<SolrDocument> chunks;
+    private long queryStart;
+    private long queryEnd;
+    private List<ChronixTransformation> bucket;
+    private List<ChronixTransformation> lttb;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        MetricTimeSeries timeSeries = TimeSeriesGenerator.timeSeries(points);
+        chunks = TimeSeriesGenerator.chunks(timeSeries, 60);
+        queryStart = timeSeries.getStart();
+        queryEnd = timeSeries.getEnd();
+        bucket = Collections.singletonList((ChronixTransformation) TimeSeriesGenerator.function("bucket:1m,avg"));
+        lttb = Collections.singletonList((ChronixTransformation) TimeSeriesGenerator.function("lttb:1000"));
+    }
+
+    @Benchmark
+    public String raw() {
+        return type.convert(chunks, queryStart, queryEnd, true).dataAsJson();
+    }
+
+    @Benchmark
+    public String bucket() {
+        return transform(bucket);
+    }
+
+    @Benchmark
+    public String lttb() {
+        return transform(lttb);
+    }
+
+    private String transform(List<ChronixTransformation> transformations) {
+        ChronixTimeSeries timeSeries = type.convertForTransformations(chunks, queryStart, queryEnd, transformations);
+        for (ChronixTransformation transformation : transformations) {
+            timeSeries.applyTransformation(transformation, new FunctionValueMap(0, 0, 1));
+        }
+        return timeSeries.dataAsJson();
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.solr.benchmark;
+
+import de.qaware.chronix.server.functions.ChronixTransformation;
+import de.qaware.chronix.server.functions.FunctionValueMap;
+import de.qaware.chronix.timeseries.MetricTimeSeries;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the moving averages with windows that are large compared to the interval of the points.
+ * The points of the generated time series have an interval of one second.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class MovingAverageBenchmark {
+
+    @Param({"1000000"})
+    private int points;
+
+    @Param({"movavg:1,MINUTES", "movavg:1,HOURS", "smovavg:60", "smovavg:3600"})
+    private String function;
+
+    private MetricTimeSeries original;
+    private ChronixTransformation<MetricTimeSeries> transformation;
+
+    @Setup(Level.Trial)
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        original = TimeSeriesGenerator.timeSeries(points);
+        transformation = (ChronixTransformation<MetricTimeSeries>) TimeSeriesGenerator.function(function);
+    }
+
+    /**
+     * The moving averages modify the time series. Hence every invocation transforms a fresh copy.
+     * The time of the copy is measured by {@link #copy()}.
+     */
+    @Benchmark
+    public MetricTimeSeries movingAverage() {
+        MetricTimeSeries timeSeries = TimeSeriesGenerator.copy(original);
+        transformation.execute(timeSeries, new FunctionValueMap(0, 0, 1));
+        return timeSeries;
+    }
+
+    /**
+     * The baseline of {@link #movingAverage()}
+     */
+    @Benchmark
+    public MetricTimeSeries copy() {
+        return TimeSeriesGenerator.copy(original);
+    }
+}
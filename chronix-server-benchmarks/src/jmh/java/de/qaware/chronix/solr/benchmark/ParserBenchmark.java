@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.solr.benchmark;
+
+import de.qaware.chronix.solr.benchmark.legacy.LegacyGraphiteFormatParser;
+import de.qaware.chronix.solr.benchmark.legacy.LegacyInfluxDbFormatParser;
+import de.qaware.chronix.solr.benchmark.legacy.LegacyOpenTsdbTelnetFormatParser;
+import de.qaware.chronix.solr.benchmark.legacy.LegacyPrometheusTextFormatParser;
+import de.qaware.chronix.solr.ingestion.format.*;
+import de.qaware.chronix.timeseries.MetricTimeSeries;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the byte level line parsers of the ingestion handler with the string based implementations they replaced.
+ * The payload holds the given number of lines spread over the given number of series.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class ParserBenchmark {
+
+    private static final long START = 1475754111L;
+
+    @Param({"100000"})
+    private int lines;
+
+    @Param({"1000"})
+    private int series;
+
+    @Param({"graphite", "influxdb", "opentsdb", "prometheus"})
+    private String format;
+
+    private byte[] payload;
+    private FormatParser legacy;
+    private FormatParser parser;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Clock clock = () -> Instant.ofEpochSecond(START);
+        switch (format) {
+            case "graphite":
+                legacy = new LegacyGraphiteFormatParser();
+                parser = new GraphiteFormatParser();
+                break;
+            case "influxdb":
+                legacy = new LegacyInfluxDbFormatParser(clock);
+                parser = new InfluxDbFormatParser(clock);
+                break;
+            case "opentsdb":
+                legacy = new LegacyOpenTsdbTelnetFormatParser();
+                parser = new OpenTsdbTelnetFormatParser();
+                break;
+            case "prometheus":
+                legacy = new LegacyPrometheusTextFormatParser(clock);
+                parser = new PrometheusTextFormatParser(clock);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown format " + format);
+        }
+        payload = payload(format, lines, series);
+    }
+
+    @Benchmark
+    public Iterable<MetricTimeSeries> legacy() throws FormatParseException {
+        return legacy.parse(new ByteArrayInputStream(payload));
+    }
+
+    @Benchmark
+    public Iterable<MetricTimeSeries> bytes() throws FormatParseException {
+        return parser.parse(new ByteArrayInputStream(payload));
+    }
+
+    private static byte[] payload(String format, int lines, int series) {
+        Random random = new Random(42);
+        StringBuilder payload = new StringBuilder();
+        if ("prometheus".equals(format)) {
+            payload.append("# HELP http_requests_total The total number of HTTP requests.\n");
+            payload.append("# TYPE http_requests_total counter\n");
+        }
+
+        for (int i = 0; i < lines; i++) {
+            int id = random.nextInt(series);
+            long second = START + i / series;
+            double value = Math.round(random.nextDouble() * 100_000) / 100.0;
+
+            switch (format) {
+                case "graphite":
+                    payload.append("servers.host").append(id).append(".cpu.load ").append(value).append(' ').append(second);
+                    break;
+                case "influxdb":
+                    payload.append("cpu_load,host=server").append(id).append(",region=eu-west value=").append(value)
+                            .append(' ').append(second * 1_000_000_000L);
+                    break;
+                case "opentsdb":
+                    payload.append("put sys.cpu.user ").append(second).append(' ').append(value)
+                            .append(" host=server").append(id).append(" cpu=0");
+                    break;
+                default:
+                    payload.append("http_requests_total{method=\"post\",host=\"server").append(id).append("\"} ")
+                            .append(value).append(' ').append(second * 1000);
+                    break;
+            }
+            payload.append('\n');
+        }
+        return payload.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.solr.benchmark;
+
+import de.qaware.chronix.solr.ingestion.format.*;
+import de.qaware.chronix.timeseries.MetricTimeSeries;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the Prometheus remote write parser with the text format parser on the same samples. Both payloads hold
+ * the given number of samples spread over the given number of series, as counters with method and host labels.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class RemoteWriteBenchmark {
+
+    private static final long START = 1475754111000L;
+
+    @Param({"100000"})
+    private int samples;
+
+    @Param({"1000"})
+    private int series;
+
+    private byte[] text;
+    private byte[] remoteWrite;
+    private FormatParser textParser;
+    private FormatParser remoteWriteParser;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        textParser = new PrometheusTextFormatParser(() -> Instant.ofEpochMilli(START));
+        remoteWriteParser = new PrometheusRemoteWriteFormatParser();
+
+        StringBuilder textPayload = new StringBuilder();
+        textPayload.append("# HELP http_requests_total The total number of HTTP requests.\n");
+        textPayload.append("# TYPE http_requests_total counter\n");
+        ByteArrayOutputStream request = new ByteArrayOutputStream();
+
+        // Remote write sends the samples of a series together, the text lines are in the same order
+        Random random = new Random(42);
+        int perSeries = samples / series;
+        for (int id = 0; id < series; id++) {
+            ByteArrayOutputStream timeSeries = new ByteArrayOutputStream();
+            label(timeSeries, "__name__", "http_requests_total");
+            label(timeSeries, "method", "post");
+            label(timeSeries, "host", "server" + id);
+            for (int i = 0; i < perSeries; i++) {
+                long timestamp = START + i * 15_000L;
+                double value = Math.round(random.nextDouble() * 100_000) / 100.0;
+                textPayload.append("http_requests_total{method=\"post\",host=\"server").append(id).append("\"} ")
+                        .append(value).append(' ').append(timestamp).append('\n');
+                sample(timeSeries, value, timestamp);
+            }
+            bytes(request, 1, timeSeries.toByteArray());
+        }
+
+        text = textPayload.toString().getBytes(StandardCharsets.UTF_8);
+        byte[] uncompressed = request.toByteArray();
+        remoteWrite = Snappy.compress(uncompressed, 0, uncompressed.length);
+    }
+
+    @Benchmark
+    public Iterable<MetricTimeSeries> text() throws FormatParseException {
+        return textParser.parse(new ByteArrayInputStream(text));
+    }
+
+    @Benchmark
+    public Iterable<MetricTimeSeries> remoteWrite() throws FormatParseException {
+        return remoteWriteParser.parse(new ByteArrayInputStream(remoteWrite));
+    }
+
+    private static void label(ByteArrayOutputStream timeSeries, String name, String value) {
+        ByteArrayOutputStream label = new ByteArrayOutputStream();
+        bytes(label, 1, name.getBytes(StandardCharsets.UTF_8));
+        bytes(label, 2, value.getBytes(StandardCharsets.UTF_8));
+        bytes(timeSeries, 1, label.toByteArray());
+    }
+
+    private static void sample(ByteArrayOutputStream timeSeries, double value, long timestamp) {
+        ByteArrayOutputStream sample = new ByteArrayOutputStream();
+        varint(sample, 1 << 3 | 1);
+        long bits = Double.doubleToLongBits(value);
+        for (int b = 0; b < 8; b++) {
+            sample.write((int) (bits >>> (8 * b)));
+        }
+        varint(sample, 2 << 3);
+        varint(sample, timestamp);
+        bytes(timeSeries, 2, sample.toByteArray());
+    }
+
+    private static void bytes(ByteArrayOutputStream out, int field, byte[] value) {
+        varint(out, field << 3 | 2);
+        varint(out, value.length);
+        out.write(value, 0, value.length);
+    }
+
+    private static void varint(ByteArrayOutputStream out, long value) {
+        long remaining = value;
+        while ((remaining & ~0x7FL) != 0) {
+            out.write((int) (remaining & 0x7F | 0x80));
+            remaining >>>= 7;
+        }
+        out.write((int) remaining);
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.solr.benchmark;
+
+import de.qaware.chronix.Schema;
+import de.qaware.chronix.converter.BinaryTimeSeries;
+import de.qaware.chronix.converter.MetricTimeSeriesConverter;
+import de.qaware.chronix.converter.common.DoubleList;
+import de.qaware.chronix.converter.common.LongList;
+import de.qaware.chronix.server.functions.ChronixFunction;
+import de.qaware.chronix.solr.type.metric.ChunkCodec;
+import de.qaware.chronix.solr.type.metric.ChunkCodecs;
+import de.qaware.chronix.solr.type.metric.ChunkStatistics;
+import de.qaware.chronix.solr.type.metric.MetricType;
+import de.qaware.chronix.timeseries.MetricTimeSeries;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.StoredField;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrInputDocument;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates the synthetic time series and chunks of the benchmarks
+ */
+final class TimeSeriesGenerator {
+
+    private static final long START = 1_500_000_000_000L;
+    private static final long INTERVAL = 1000;
+    private static final long MONITORING_INTERVAL = 10_000;
+    private static final long SEED = 4711;
+
+    private TimeSeriesGenerator() {
+        //avoid instances
+    }
+
+    /**
+     * Creates a time series with a point per second.
+     * The values are a sine wave with noise, hence functions like distinct or vectorization do not degenerate.
+     *
+     * @param points the amount of points
+     * @return a sorted metric time series
+     */
+    static MetricTimeSeries timeSeries(int points) {
+        Random random = new Random(SEED);
+        LongList timestamps = new LongList(points);
+        DoubleList values = new DoubleList(points);
+        for (int i = 0; i < points; i++) {
+            timestamps.add(START + i * INTERVAL);
+            values.add(Math.round(100 * Math.sin(i / 100.0) + random.nextGaussian() * 10));
+        }
+        return new MetricTimeSeries.Builder("benchmark", "metric")
+                .attribute("host", "benchmark")
+                .points(timestamps, values)
+                .build();
+    }
+
+    /**
+     * Creates a time series shaped like the monitoring data of the Chronix test data set (see HURENCE.md).
+     * The points are collected every ten seconds with a few milliseconds of jitter.
+     * The values are percentages with a single decimal that often stay unchanged between two points.
+     *
+     * @param points the amount of points
+     * @return a sorted metric time series
+     */
+    static MetricTimeSeries monitoring(int points) {
+        Random random = new Random(SEED);
+        LongList timestamps = new LongList(points);
+        DoubleList values = new DoubleList(points);
+        long timestamp = START;
+        double value = 50;
+        for (int i = 0; i < points; i++) {
+            timestamp += MONITORING_INTERVAL + random.nextInt(5) - 2;
+            if (random.nextInt(4) == 0) {
+                value = Math.round(Math.max(0, Math.min(100, value + random.nextGaussian() * 5)) * 10) / 10.0;
+            }
+            timestamps.add(timestamp);
+            values.add(value);
+        }
+        return new MetricTimeSeries.Builder("monitoring", "metric")
+                .attribute("host", "benchmark")
+                .points(timestamps, values)
+                .build();
+    }
+
+    /**
+     * @param timeSeries the time series
+     * @return a copy of the time series that can be modified
+     */
+    static MetricTimeSeries copy(MetricTimeSeries timeSeries) {
+        long[] timestamps = timeSeries.getTimestampsAsArray();
+        double[] values = timeSeries.getValuesAsArray();
+        return new MetricTimeSeries.Builder(timeSeries.getName(), timeSeries.getType())
+                .attributes(timeSeries.attributes())
+                .points(new LongList(timestamps, timestamps.length), new DoubleList(values, values.length))
+                .build();
+    }
+
+    /**
+     * Splits the time series into compressed chunks as they are stored in the index
+     *
+     * @param timeSeries the time series
+     * @param chunkSize  the amount of points per chunk
+     * @return the chunks as solr documents including the statistics
+     */
+    static List<SolrDocument> chunks(MetricTimeSeries timeSeries, int chunkSize) {
+        MetricTimeSeriesConverter converter = new MetricTimeSeriesConverter();
+        List<SolrDocument> chunks = new ArrayList<>(timeSeries.size() / chunkSize + 1);
+
+        for (int offset = 0; offset < timeSeries.size(); offset += chunkSize) {
+            MetricTimeSeries.Builder chunk = new MetricTimeSeries.Builder(timeSeries.getName(), timeSeries.getType())
+                    .attributes(timeSeries.attributes());
+            for (int i = offset; i < Math.min(offset + chunkSize, timeSeries.size()); i++) {
+                chunk.point(timeSeries.getTime(i), timeSeries.getValue(i));
+            }
+            MetricTimeSeries chunkTimeSeries = chunk.build();
+            BinaryTimeSeries binary = converter.to(chunkTimeSeries);
+
+            SolrDocument doc = new SolrDocument();
+            doc.addField(Schema.NAME, binary.getName());
+            doc.addField(Schema.TYPE, binary.getType());
+            doc.addField(Schema.START, binary.getStart());
+            doc.addField(Schema.END, binary.getEnd());
+            doc.addField(Schema.DATA, ByteBuffer.wrap(binary.getPoints()));
+            doc.addField("host", binary.get("host"));
+
+            SolrInputDocument statistics = new SolrInputDocument();
+            ChunkStatistics.of(chunkTimeSeries, true).addTo(statistics);
+            statistics.getFieldNames().forEach(field -> doc.addField(field, statistics.getFieldValue(field)));
+
+            chunks.add(doc);
+        }
+        return chunks;
+    }
+
+    /**
+     * Splits the time series into chunks encoded with the given codec as they are stored by the compaction
+     *
+     * @param timeSeries the time series
+     * @param chunkSize  the amount of points per chunk
+     * @param codec      the codec of the chunks
+     * @return the chunks as solr documents including the statistics and the codec
+     */
+    static List<SolrDocument> chunks(MetricTimeSeries timeSeries, int chunkSize, ChunkCodec codec) {
+        List<SolrDocument> chunks = chunks(timeSeries, chunkSize);
+        long[] timestamps = timeSeries.getTimestampsAsArray();
+        double[] values = timeSeries.getValuesAsArray();
+        for (int chunk = 0; chunk < chunks.size(); chunk++) {
+            int from = chunk * chunkSize;
+            int to = Math.min(from + chunkSize, timestamps.length);
+            chunks.get(chunk).setField(Schema.DATA, ByteBuffer.wrap(codec.encode(timestamps, values, from, to)));
+            chunks.get(chunk).setField(ChunkCodecs.FIELD, codec.id());
+        }
+        return chunks;
+    }
+
+    /**
+     * Splits the time series into compressed chunks as they are stored in the index
+     *
+     * @param timeSeries the time series
+     * @param chunkSize  the amount of points per chunk
+     * @return the chunks as stored lucene documents
+     */
+    static List<Document> storedChunks(MetricTimeSeries timeSeries, int chunkSize) {
+        List<Document> chunks = new ArrayList<>();
+        for (SolrDocument chunk : chunks(timeSeries, chunkSize)) {
+            Document doc = new Document();
+            doc.add(new StoredField(Schema.NAME, (String) chunk.getFieldValue(Schema.NAME)));
+            doc.add(new StoredField(Schema.TYPE, (String) chunk.getFieldValue(Schema.TYPE)));
+            doc.add(new StoredField(Schema.START, (long) chunk.getFieldValue(Schema.START)));
+            doc.add(new StoredField(Schema.END, (long) chunk.getFieldValue(Schema.END)));
+            doc.add(new StoredField(Schema.DATA, ((ByteBuffer) chunk.getFieldValue(Schema.DATA)).array()));
+            doc.add(new StoredField("host", (String) chunk.getFieldValue("host")));
+            chunks.add(doc);
+        }
+        return chunks;
+    }
+
+    /**
+     * Creates a function of the metric type from its query representation, e.g. p:0.99 or movavg:10,SECONDS
+     *
+     * @param expression the function with its arguments
+     * @return the function
+     */
+    static ChronixFunction function(String expression) {
+        int separator = expression.indexOf(':');
+        String name = separator < 0 ? expression : expression.substring(0, separator);
+        String[] args = separator < 0 ? new String[0] : expression.substring(separator + 1).split(",");
+
+        ChronixFunction function = new MetricType().getFunction(name, args);
+        if (function == null) {
+            throw new IllegalArgumentException("Unknown function " + expression);
+        }
+        return function;
+    }
+}
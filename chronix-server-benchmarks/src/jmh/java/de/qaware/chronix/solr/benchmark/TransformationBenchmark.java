@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.solr.benchmark;
+
+import de.qaware.chronix.server.functions.ChronixTransformation;
+import de.qaware.chronix.server.functions.FunctionValueMap;
+import de.qaware.chronix.timeseries.MetricTimeSeries;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the transformations of the metric type
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class TransformationBenchmark {
+
+    @Param({"1000", "100000", "1000000", "10000000"})
+    private int points;
+
+    @Param({"add:5", "sub:5", "vector:0.01", "bottom:10", "top:10", "movavg:10,SECONDS", "smovavg:10",
+            "scale:2", "divide:2", "derivative", "nnderivative", "timeshift:10,SECONDS", "distinct",
+            "bucket:1m,avg", "lttb:1000"})
+    private String function;
+
+    private MetricTimeSeries original;
+    private ChronixTransformation<MetricTimeSeries> transformation;
+
+    @Setup(Level.Trial)
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        original = TimeSeriesGenerator.timeSeries(points);
+        transformation = (ChronixTransformation<MetricTimeSeries>) TimeSeriesGenerator.function(function);
+    }
+
+    /**
+     * The transformations modify the time series. Hence every invocation transforms a fresh copy.
+     * The time of the copy is measured by {@link #copy()}.
+     */
+    @Benchmark
+    public MetricTimeSeries transform() {
+        MetricTimeSeries timeSeries = TimeSeriesGenerator.copy(original);
+        transformation.execute(timeSeries, new FunctionValueMap(0, 0, 1));
+        return timeSeries;
+    }
+
+    /**
+     * The baseline of {@link #transform()}
+     */
+    @Benchmark
+    public MetricTimeSeries copy() {
+        return TimeSeriesGenerator.copy(original);
+    }
+}
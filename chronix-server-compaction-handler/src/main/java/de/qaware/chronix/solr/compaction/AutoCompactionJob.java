@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.solr.compaction;
+
+import org.quartz.DisallowConcurrentExecution;
+import org.quartz.Job;
+import org.quartz.JobExecutionContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The quartz job that compacts the fragmented time series of a core.
+ */
+@DisallowConcurrentExecution
+public class AutoCompactionJob implements Job {
+
+    /**
+     * The key of the {@link ChronixAutoCompactionHandler} in the job data
+     */
+    public static final String HANDLER = "handler";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AutoCompactionJob.class);
+
+    /**
+     * Executes the compaction of the handler.
+     *
+     * @param context the current job context
+     */
+    @Override
+    public void execute(JobExecutionContext context) {
+        LOGGER.info("Starting auto compaction job");
+        ChronixAutoCompactionHandler handler = (ChronixAutoCompactionHandler) context.getMergedJobDataMap().get(HANDLER);
+        handler.compactFragmented();
+    }
+}
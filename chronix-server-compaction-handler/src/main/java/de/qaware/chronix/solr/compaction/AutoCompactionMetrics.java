@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.solr.compaction;
+
+import com.codahale.metrics.Gauge;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The progress of the auto compaction.
+ * Exposed in the response of the auto compaction handler and as gauges of the solr metrics.
+ */
+public class AutoCompactionMetrics {
+    private final AtomicLong runs = new AtomicLong();
+    private final AtomicLong compactedTimeSeries = new AtomicLong();
+    private final AtomicLong failedTimeSeries = new AtomicLong();
+    private final AtomicLong removedDocuments = new AtomicLong();
+    private final AtomicLong addedDocuments = new AtomicLong();
+    private final AtomicLong pausedMillis = new AtomicLong();
+    private volatile boolean running;
+    private volatile boolean paused;
+    private volatile long lastRunStart;
+    private volatile long lastRunMillis;
+    private volatile long candidates;
+    private volatile long pending;
+
+    void runStarted(long now) {
+        runs.incrementAndGet();
+        running = true;
+        lastRunStart = now;
+        candidates = 0;
+        pending = 0;
+    }
+
+    void runFinished(long now) {
+        running = false;
+        paused = false;
+        pending = 0;
+        lastRunMillis = now - lastRunStart;
+    }
+
+    void candidates(int count) {
+        candidates = count;
+        pending = count;
+    }
+
+    void compacted(long removed, long added) {
+        compactedTimeSeries.incrementAndGet();
+        removedDocuments.addAndGet(removed);
+        addedDocuments.addAndGet(added);
+        pending--;
+    }
+
+    void failed() {
+        failedTimeSeries.incrementAndGet();
+        pending--;
+    }
+
+    void paused(boolean paused) {
+        this.paused = paused;
+    }
+
+    void pausedFor(long millis) {
+        pausedMillis.addAndGet(millis);
+    }
+
+    /**
+     * @return the metrics by their name
+     */
+    public Map<String, Gauge<?>> gauges() {
+        Map<String, Gauge<?>> gauges = new LinkedHashMap<>();
+        gauges.put("running", () -> running);
+        gauges.put("paused", () -> paused);
+        gauges.put("runs", runs::get);
+        gauges.put("lastRunStart", () -> lastRunStart);
+        gauges.put("lastRunMillis", () -> lastRunMillis);
+        gauges.put("candidates", () -> candidates);
+        gauges.put("pending", () -> pending);
+        gauges.put("compactedTimeSeries", compactedTimeSeries::get);
+        gauges.put("failedTimeSeries", failedTimeSeries::get);
+        gauges.put("removedDocuments", removedDocuments::get);
+        gauges.put("addedDocuments", addedDocuments::get);
+        gauges.put("pausedMillis", pausedMillis::get);
+        return gauges;
+    }
+
+    /**
+     * @return the current values of the metrics
+     */
+    public NamedList<Object> toNamedList() {
+        NamedList<Object> result = new SimpleOrderedMap<>();
+        gauges().forEach((name, gauge) -> result.add(name, gauge.getValue()));
+        return result;
+    }
+}
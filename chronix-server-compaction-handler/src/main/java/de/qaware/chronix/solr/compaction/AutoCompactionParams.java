@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.solr.compaction;
+
+/**
+ * Defines the invariants of the auto compaction handler.
+ */
+public final class AutoCompactionParams {
+
+    /**
+     * No instantiation required.
+     */
+    private AutoCompactionParams() {
+
+    }
+
+    /**
+     * Comma separated list of field names. Represents the primary key of a time series.
+     * Required, the auto compaction is disabled without a join key.
+     */
+    public static final String JOIN_KEY = CompactionHandlerParams.JOIN_KEY;
+
+    /**
+     * Lucene filter query constraining the documents that are compacted.
+     * Optional, all documents are considered by default.
+     */
+    public static final String FQ = CompactionHandlerParams.FQ;
+
+    /**
+     * Number of data points merged into a single document.
+     * Default value: 10000.
+     */
+    public static final String POINTS_PER_CHUNK = CompactionHandlerParams.POINTS_PER_CHUNK;
+
+    /**
+     * A time series is fragmented if the average number of points of its documents is below this threshold.
+     * Default value: 1000.
+     */
+    public static final String MIN_POINTS_PER_CHUNK = "minPointsPerChunk";
+
+    /**
+     * Minutes between two compaction runs.
+     * Default value: 60.
+     */
+    public static final String COMPACT_EVERY = "compactEvery";
+
+    /**
+     * Maximum number of time series compacted in a single run.
+     * Default value: 100.
+     */
+    public static final String MAX_TIME_SERIES = "maxTimeSeries";
+
+    /**
+     * Maximum duration of a single run in seconds. Includes the time paused due to query load.
+     * Default value: 600.
+     */
+    public static final String MAX_RUN_SECONDS = "maxRunSeconds";
+
+    /**
+     * Share of the time a run spends compacting. The remaining time the run sleeps between two time series.
+     * A budget of 0.25 compacts for a second and sleeps for three seconds.
+     * Default value: 0.25.
+     */
+    public static final String BUDGET = "budget";
+
+    /**
+     * The run pauses while the one minute rate of the query handlers exceeds this number of requests per second.
+     * A rate of zero or below never pauses.
+     * Default value: 10.
+     */
+    public static final String MAX_QUERY_RATE = "maxQueryRate";
+
+    /**
+     * The codec of the compacted documents, either gorilla or protobuf.
+     * Default value: protobuf.
+     */
+    public static final String CODEC = CompactionHandlerParams.CODEC;
+
+    /**
+     * If true, time series with documents of another codec are compacted as well, even if they are not fragmented.
+     * Hence the documents are re-encoded with the codec over time.
+     * Default value: false.
+     */
+    public static final String REENCODE = "reencode";
+}
@@ -0,0 +1,416 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.solr.compaction;
+
+import com.codahale.metrics.Timer;
+import de.qaware.chronix.solr.type.metric.ChunkCodec;
+import de.qaware.chronix.solr.type.metric.ChunkCodecs;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.core.CloseHook;
+import org.apache.solr.core.SolrCore;
+import org.apache.solr.handler.RequestHandlerBase;
+import org.apache.solr.metrics.SolrMetricManager;
+import org.apache.solr.request.LocalSolrQueryRequest;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.response.SolrQueryResponse;
+import org.apache.solr.search.SyntaxError;
+import org.apache.solr.util.plugin.SolrCoreAware;
+import org.quartz.JobDetail;
+import org.quartz.JobKey;
+import org.quartz.Scheduler;
+import org.quartz.SchedulerException;
+import org.quartz.Trigger;
+import org.quartz.impl.StdSchedulerFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static de.qaware.chronix.solr.compaction.AutoCompactionParams.*;
+import static org.apache.commons.lang3.StringUtils.isBlank;
+import static org.quartz.DateBuilder.IntervalUnit.MINUTE;
+import static org.quartz.DateBuilder.futureDate;
+import static org.quartz.JobBuilder.newJob;
+import static org.quartz.SimpleScheduleBuilder.simpleSchedule;
+import static org.quartz.TriggerBuilder.newTrigger;
+
+/**
+ * Compacts fragmented time series in the background.
+ * <p>
+ * A quartz job periodically determines the time series whose documents hold less points than a threshold on
+ * average and compacts them with the {@link ChronixCompactionHandler}, the most fragmented time series first.
+ * A run is limited by the number of time series, its duration and a budget of the time spent compacting.
+ * It pauses while the query rate of the core is high. A request to the handler returns the progress of the
+ * compaction, the same values are exposed as solr metrics.
+ * <p>
+ * A example configuration could be:
+ * <code>
+ * <requestHandler name="/autocompact"
+ * class="de.qaware.chronix.solr.compaction.ChronixAutoCompactionHandler">
+ * <lst name="invariants">
+ * <str name="joinKey">name,type</str>
+ * <str name="minPointsPerChunk">1000</str>
+ * <str name="ppc">10000</str>
+ * <str name="compactEvery">60</str>
+ * <str name="maxTimeSeries">100</str>
+ * <str name="maxRunSeconds">600</str>
+ * <str name="budget">0.25</str>
+ * <str name="maxQueryRate">10</str>
+ * <str name="codec">protobuf</str>
+ * <str name="reencode">false</str>
+ * </lst>
+ * </requestHandler>
+ * </code>
+ */
+public class ChronixAutoCompactionHandler extends RequestHandlerBase implements SolrCoreAware {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ChronixAutoCompactionHandler.class);
+    private static final long PAUSE_MILLIS = 1000;
+
+    private final DependencyProvider depProvider;
+    private final AutoCompactionMetrics metrics = new AutoCompactionMetrics();
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    private String joinKey;
+    private String fq;
+    private int ppc;
+    private int minPointsPerChunk;
+    private int compactEvery;
+    private int maxTimeSeries;
+    private long maxRunMillis;
+    private double budget;
+    private double maxQueryRate;
+    private ChunkCodec codec;
+    private boolean reencode;
+
+    private SolrCore core;
+    private Scheduler scheduler;
+    private JobKey jobKey;
+
+    /**
+     * Creates a new instance. Constructor used by Solr.
+     */
+    public ChronixAutoCompactionHandler() {
+        this(new DependencyProvider());
+    }
+
+    /**
+     * Creates a new instance. Constructor used by tests.
+     *
+     * @param depProvider the dependency provider
+     */
+    public ChronixAutoCompactionHandler(DependencyProvider depProvider) {
+        this.depProvider = depProvider;
+    }
+
+    @Override
+    public void init(NamedList args) {
+        super.init(args);
+        SolrParams params = invariants == null ? new ModifiableSolrParams() : invariants;
+        this.joinKey = params.get(JOIN_KEY);
+        this.fq = isBlank(params.get(FQ)) ? null : params.get(FQ);
+        this.ppc = params.getInt(POINTS_PER_CHUNK, 10000);
+        this.minPointsPerChunk = params.getInt(MIN_POINTS_PER_CHUNK, 1000);
+        this.compactEvery = params.getInt(COMPACT_EVERY, 60);
+        this.maxTimeSeries = params.getInt(MAX_TIME_SERIES, 100);
+        this.maxRunMillis = params.getLong(MAX_RUN_SECONDS, 600) * 1000;
+        this.budget = Math.min(1, Math.max(0.01, params.getDouble(BUDGET, 0.25)));
+        this.maxQueryRate = params.getDouble(MAX_QUERY_RATE, 10);
+        this.codec = ChunkCodecs.byName(params.get(CODEC, ChunkCodecs.DEFAULT.name()));
+        this.reencode = params.getBool(REENCODE, false);
+    }
+
+    @Override
+    public void inform(SolrCore core) {
+        this.core = core;
+        if (isBlank(joinKey)) {
+            LOGGER.warn("No join key given. The auto compaction is disabled.");
+            return;
+        }
+        scheduleCompaction(core.getName());
+        core.addCloseHook(new CloseHook() {
+            @Override
+            public void preClose(SolrCore core) {
+                unscheduleCompaction();
+            }
+
+            @Override
+            public void postClose(SolrCore core) {
+                //nothing to do
+            }
+        });
+    }
+
+    /**
+     * Sets up the periodic compaction job of the core.
+     */
+    private void scheduleCompaction(String coreName) {
+        try {
+            scheduler = depProvider.scheduler();
+            jobKey = new JobKey("Auto_Compaction_Job_" + coreName);
+
+            JobDetail compactionJob = newJob(AutoCompactionJob.class)
+                    .withIdentity(jobKey)
+                    .build();
+            compactionJob.getJobDataMap().put(AutoCompactionJob.HANDLER, this);
+
+            Trigger trigger = newTrigger()
+                    .withIdentity("Auto_Compaction_Trigger_" + coreName)
+                    .startAt(futureDate(compactEvery, MINUTE))
+                    .withSchedule(simpleSchedule()
+                            .withIntervalInMinutes(compactEvery)
+                            .repeatForever()
+                            .withMisfireHandlingInstructionNextWithRemainingCount())
+                    .build();
+
+            scheduler.scheduleJob(compactionJob, trigger);
+            scheduler.start();
+        } catch (SchedulerException e) {
+            LOGGER.warn("Could not schedule the auto compaction.", e);
+        }
+    }
+
+    /**
+     * Removes the compaction job when the core is closed
+     */
+    private void unscheduleCompaction() {
+        try {
+            scheduler.deleteJob(jobKey);
+        } catch (SchedulerException e) {
+            LOGGER.warn("Could not remove the auto compaction job.", e);
+        }
+    }
+
+    @Override
+    public void initializeMetrics(SolrMetricManager manager, String registryName, String tag, String scope) {
+        super.initializeMetrics(manager, registryName, tag, scope);
+        metrics.gauges().forEach((name, gauge) ->
+                manager.registerGauge(this, registryName, gauge, tag, true, name, getCategory().toString(), scope));
+    }
+
+    @Override
+    public void handleRequestBody(SolrQueryRequest req, SolrQueryResponse rsp) {
+        rsp.add("enabled", !isBlank(joinKey));
+        rsp.add("metrics", metrics.toNamedList());
+    }
+
+    /**
+     * Compacts the fragmented time series within the limits of a run.
+     * Returns immediately if a run is already in progress.
+     */
+    public void compactFragmented() {
+        if (isBlank(joinKey) || !running.compareAndSet(false, true)) {
+            return;
+        }
+        long start = depProvider.currentTimeMillis();
+        long deadline = start + maxRunMillis;
+        metrics.runStarted(start);
+        try {
+            List<FragmentedTimeSeries> candidates = findFragmented();
+            metrics.candidates(candidates.size());
+            LOGGER.info("Found {} fragmented time series", candidates.size());
+
+            int compacted = 0;
+            for (FragmentedTimeSeries candidate : candidates) {
+                if (compacted == maxTimeSeries || !awaitLowQueryLoad(deadline)) {
+                    break;
+                }
+                long compactionStart = depProvider.currentTimeMillis();
+                compact(candidate);
+                compacted++;
+
+                //stay within the budget by sleeping in proportion to the time spent compacting,
+                //but not beyond the end of the run or the interval of the runs
+                long now = depProvider.currentTimeMillis();
+                long pauseMillis = (long) ((now - compactionStart) * (1 - budget) / budget);
+                pauseMillis = Math.min(pauseMillis, Math.min(deadline - now, TimeUnit.MINUTES.toMillis(compactEvery)));
+                if (pauseMillis > 0) {
+                    depProvider.sleep(pauseMillis);
+                }
+            }
+        } catch (IOException | SyntaxError e) {
+            LOGGER.warn("Could not determine the fragmented time series.", e);
+        } catch (InterruptedException e) {
+            LOGGER.info("Auto compaction interrupted.");
+            Thread.currentThread().interrupt();
+        } finally {
+            metrics.runFinished(depProvider.currentTimeMillis());
+            running.set(false);
+        }
+    }
+
+    private List<FragmentedTimeSeries> findFragmented() throws IOException, SyntaxError {
+        try (SolrQueryRequest req = depProvider.request(core, new ModifiableSolrParams())) {
+            return depProvider.fragmentationService(req).find(joinKey, fq, minPointsPerChunk, reencode ? codec : null);
+        }
+    }
+
+    /**
+     * Waits until the query rate is below the maximum
+     *
+     * @param deadline the end of the run
+     * @return false if the run ends before the query rate drops
+     */
+    private boolean awaitLowQueryLoad(long deadline) throws InterruptedException {
+        try {
+            while (maxQueryRate > 0 && depProvider.queryRate(core) > maxQueryRate) {
+                if (depProvider.currentTimeMillis() + PAUSE_MILLIS > deadline) {
+                    return false;
+                }
+                metrics.paused(true);
+                depProvider.sleep(PAUSE_MILLIS);
+                metrics.pausedFor(PAUSE_MILLIS);
+            }
+            return depProvider.currentTimeMillis() < deadline;
+        } finally {
+            metrics.paused(false);
+        }
+    }
+
+    @SuppressWarnings("PMD.AvoidCatchingGenericException")
+    private void compact(FragmentedTimeSeries candidate) {
+        ModifiableSolrParams params = new ModifiableSolrParams();
+        params.set(FQ, ChronixCompactionHandler.and(candidate.getId().toQuery(), fq));
+        params.set(POINTS_PER_CHUNK, ppc);
+        params.set(CODEC, codec.name());
+
+        SolrQueryResponse rsp = new SolrQueryResponse();
+        try (SolrQueryRequest req = depProvider.request(core, params)) {
+            depProvider.compactionHandler().handleRequestBody(req, rsp);
+            if (failed(rsp)) {
+                metrics.failed();
+            } else {
+                metrics.compacted(sum(rsp, "oldNumDocs:"), sum(rsp, "newNumDocs:"));
+            }
+        } catch (Exception e) {
+            LOGGER.warn("Could not compact time series {}", candidate, e);
+            metrics.failed();
+        }
+    }
+
+    /**
+     * @return true if the compaction handler reports a time series whose compaction failed after all retries
+     */
+    private static boolean failed(SolrQueryResponse rsp) {
+        NamedList<?> values = rsp.getValues();
+        for (int i = 0; i < values.size(); i++) {
+            String name = values.getName(i);
+            if (name != null && name.endsWith(" error:")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static long sum(SolrQueryResponse rsp, String suffix) {
+        NamedList<?> values = rsp.getValues();
+        long sum = 0;
+        for (int i = 0; i < values.size(); i++) {
+            String name = values.getName(i);
+            if (name != null && name.endsWith(suffix)) {
+                sum += ((Number) values.getVal(i)).longValue();
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * @return the progress of the auto compaction
+     */
+    public AutoCompactionMetrics getMetrics() {
+        return metrics;
+    }
+
+    @Override
+    public String getDescription() {
+        return "The Chronix auto compaction handler.";
+    }
+
+    /**
+     * Provides dependencies and thereby facilitates testing.
+     */
+    public static class DependencyProvider {
+
+        /**
+         * @return the quartz scheduler
+         * @throws SchedulerException iff the scheduler could not be created
+         */
+        public Scheduler scheduler() throws SchedulerException {
+            return new StdSchedulerFactory().getScheduler();
+        }
+
+        /**
+         * @param core   the solr core
+         * @param params the request params
+         * @return a local request that must be closed
+         */
+        public SolrQueryRequest request(SolrCore core, SolrParams params) {
+            return new LocalSolrQueryRequest(core, params);
+        }
+
+        /**
+         * @param req the solr query request
+         * @return the fragmentation service
+         */
+        public FragmentationService fragmentationService(SolrQueryRequest req) {
+            return new FragmentationService(req, new SolrQueryResponse());
+        }
+
+        /**
+         * @return the compaction handler
+         */
+        public ChronixCompactionHandler compactionHandler() {
+            return new ChronixCompactionHandler();
+        }
+
+        /**
+         * @param core the solr core
+         * @return the summed one minute rate of the query handlers in requests per second
+         */
+        public double queryRate(SolrCore core) {
+            return core.getMetricRegistry()
+                    .getTimers((name, metric) -> name.startsWith("QUERY.")
+                            && name.endsWith(".requestTimes")
+                            && !name.endsWith(".distrib.requestTimes")
+                            && !name.endsWith(".local.requestTimes"))
+                    .values().stream()
+                    .mapToDouble(Timer::getOneMinuteRate)
+                    .sum();
+        }
+
+        /**
+         * @return the current time in milliseconds
+         */
+        public long currentTimeMillis() {
+            return System.currentTimeMillis();
+        }
+
+        /**
+         * @param millis the milliseconds to sleep
+         * @throws InterruptedException if the thread is interrupted
+         */
+        public void sleep(long millis) throws InterruptedException {
+            if (millis > 0) {
+                Thread.sleep(millis);
+            }
+        }
+    }
+}
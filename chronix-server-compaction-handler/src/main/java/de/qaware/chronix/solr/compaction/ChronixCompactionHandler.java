@@ -15,6 +15,9 @@
  */
 package de.qaware.chronix.solr.compaction;
 
+import de.qaware.chronix.solr.compaction.CompactionScheduler.Result;
+import de.qaware.chronix.solr.type.metric.ChunkCodec;
+import de.qaware.chronix.solr.type.metric.ChunkCodecs;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.search.*;
 import org.apache.solr.common.SolrInputDocument;
@@ -29,10 +32,18 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.util.LinkedList;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 
+import static de.qaware.chronix.Schema.ID;
 import static de.qaware.chronix.Schema.START;
 import static de.qaware.chronix.solr.compaction.CompactionHandlerParams.*;
 import static java.lang.String.join;
@@ -80,10 +91,23 @@ public class ChronixCompactionHandler extends RequestHandlerBase {
         String fq = req.getParams().get(FQ);
         int ppc = req.getParams().getInt(POINTS_PER_CHUNK, 10000);
         int pageSize = req.getParams().getInt(PAGE_SIZE, 100);
+        int workers = req.getParams().getInt(WORKERS, Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+        int retries = req.getParams().getInt(RETRIES, 2);
+        boolean stream = req.getParams().getBool(STREAM, false);
+        String codecName = req.getParams().get(CODEC, ChunkCodecs.DEFAULT.name());
 
         depProvider.init(req, rsp);
 
-        LazyCompactor compactor = depProvider.compactor(ppc, req.getSearcher().getSchema());
+        ChunkCodec codec;
+        try {
+            codec = ChunkCodecs.byName(codecName);
+        } catch (IllegalArgumentException e) {
+            LOGGER.error("Unknown codec {}.", codecName);
+            rsp.add("error", e.getMessage());
+            return;
+        }
+
+        LazyCompactor compactor = depProvider.compactor(ppc, codec, req.getSearcher().getSchema());
         LazyDocumentLoader documentLoader = depProvider.documentLoader(pageSize, req.getSearcher());
 
         if (isBlank(joinKey) && isBlank(fq)) {
@@ -94,64 +118,167 @@ public class ChronixCompactionHandler extends RequestHandlerBase {
             return;
         }
 
-        //no join key => compact documents matching fq
+        Map<String, String> timeSeries = new LinkedHashMap<>();
         if (isBlank(joinKey)) {
-            compact(documentLoader, compactor, rsp, fq, fq);
-            depProvider.solrUpdateService().commit();
-            return;
+            //no join key => compact documents matching fq
+            timeSeries.put(fq, fq);
+        } else {
+            //determine time series identified by joinKey
+            SolrFacetService facetService = depProvider.solrFacetService();
+            Query filterQuery = isBlank(fq) ? new MatchAllDocsQuery() : depProvider.parser(fq).getQuery();
+            List<NamedList<Object>> pivotResult = facetService.pivot(joinKey, filterQuery);
+            facetService.toTimeSeriesIds(pivotResult)
+                    .forEach(tsId -> timeSeries.put(tsId.toString(), and(tsId.toQuery(), fq)));
         }
 
-        //determine time series identified by joinKey
-        SolrFacetService facetService = depProvider.solrFacetService();
-        Query filterQuery = isBlank(fq) ? new MatchAllDocsQuery() : depProvider.parser(fq).getQuery();
-        List<NamedList<Object>> pivotResult = facetService.pivot(joinKey, filterQuery);
-
         //compact each time series' constituting documents
-        facetService.toTimeSeriesIds(pivotResult)
-                .parallelStream()
-                .forEach(tsId -> compact(documentLoader, compactor, rsp, tsId.toString(), and(tsId.toQuery(), fq)));
+        Iterator<Result> results = depProvider.scheduler(workers, retries).compact(
+                timeSeries,
+                () -> depProvider.solrUpdateService(req, new SolrQueryResponse()),
+                (updateService, tsId, q, attempt) -> compact(documentLoader, compactor, updateService, tsId, q, pageSize, attempt));
 
-        depProvider.solrUpdateService().commit();
-    }
+        if (stream) {
+            rsp.add("timeseries", new CommitOnLast(results, depProvider.solrUpdateService()));
+            return;
+        }
 
-    private void compact(LazyDocumentLoader loader, LazyCompactor compactor, SolrQueryResponse rsp, String tsId, String q) {
-        try {
-            doCompact(loader, compactor, rsp, tsId, q);
-        } catch (IOException | SyntaxError e) {
-            // throw unchecked in order to call method from lambda expressions
-            throw new IllegalStateException(e);
+        while (results.hasNext()) {
+            Result result = results.next();
+            rsp.add("timeseries " + result.getTsId() + " oldNumDocs:", result.getOldNumDocs());
+            rsp.add("timeseries " + result.getTsId() + " newNumDocs:", result.getNewNumDocs());
+            if (result.getError() != null) {
+                rsp.add("timeseries " + result.getTsId() + " error:", result.getError());
+            }
         }
+        depProvider.solrUpdateService().commit();
     }
 
-    private void doCompact(LazyDocumentLoader documentLoader,
+    /**
+     * Compacts the documents matching the query.
+     * The compacted documents are added and the original documents they cover are deleted as soon as
+     * a batch is full. Hence only a batch of documents is held in memory independent of the
+     * length of the time series.
+     * <p>
+     * If adding a batch fails, the documents of the batch that were already added are deleted again and the
+     * original documents of the batch are kept. A retry replaces the documents of the previous batches, as the
+     * compactor derives the ids from the documents it reads. Points of a kept document that a previous batch has
+     * already written are merged by the next compaction, as it merges points with the same timestamp.
+     * A compacted document is never deleted even if it has the id of an original document.
+     */
+    private Result compact(LazyDocumentLoader documentLoader,
                            LazyCompactor compactor,
-                           SolrQueryResponse rsp,
+                           SolrUpdateService updateService,
                            String tsId,
-                           String q) throws IOException, SyntaxError {
+                           String q,
+                           int batchSize,
+                           int attempt) throws IOException, SyntaxError {
         Query query = depProvider.parser(q).getQuery();
 
         Iterable<Document> docs = documentLoader.load(query, SORT);
         Iterable<CompactionResult> compactionResults = compactor.compact(docs);
 
-        List<Document> docsToDelete = new LinkedList<>();
-        List<SolrInputDocument> docsToAdd = new LinkedList<>();
+        List<SolrInputDocument> docsToAdd = new ArrayList<>();
+        Set<String> idsToDelete = new LinkedHashSet<>();
+        long oldNumDocs = 0;
+        long newNumDocs = 0;
+
+        for (CompactionResult result : compactionResults) {
+            result.getInputDocuments().forEach(doc -> idsToDelete.add(doc.get(ID)));
+            docsToAdd.addAll(result.getOutputDocuments());
+            oldNumDocs += result.getInputDocuments().size();
+            newNumDocs += result.getOutputDocuments().size();
 
-        compactionResults.forEach(it -> {
-            docsToDelete.addAll(it.getInputDocuments());
-            docsToAdd.addAll(it.getOutputDocuments());
-        });
+            if (idsToDelete.size() >= batchSize || docsToAdd.size() >= batchSize) {
+                update(updateService, tsId, docsToAdd, idsToDelete);
+            }
+        }
+        update(updateService, tsId, docsToAdd, idsToDelete);
 
-        depProvider.solrUpdateService().add(docsToAdd);
-        depProvider.solrUpdateService().delete(docsToDelete);
+        return Result.completed(tsId, oldNumDocs, newNumDocs, attempt);
+    }
 
-        rsp.add("timeseries " + tsId + " oldNumDocs:", docsToDelete.size());
-        rsp.add("timeseries " + tsId + " newNumDocs:", docsToAdd.size());
+    /**
+     * Adds the compacted documents before the original documents are deleted and clears both.
+     * The original documents are kept and the added documents are deleted again if the documents could not be added.
+     */
+    private static void update(SolrUpdateService updateService,
+                               String tsId,
+                               List<SolrInputDocument> docsToAdd,
+                               Set<String> idsToDelete) throws IOException {
+        Set<String> addedIds = new HashSet<>();
+        if (!docsToAdd.isEmpty()) {
+            docsToAdd.forEach(doc -> addedIds.add(String.valueOf(doc.getFieldValue(ID))));
+            try {
+                updateService.add(docsToAdd);
+            } catch (IOException | RuntimeException e) {
+                rollback(updateService, tsId, addedIds, idsToDelete, e);
+                throw e;
+            }
+            docsToAdd.clear();
+        }
+        idsToDelete.removeAll(addedIds);
+        if (!idsToDelete.isEmpty()) {
+            updateService.deleteById(idsToDelete);
+            idsToDelete.clear();
+        }
     }
 
-    private String and(String... clauses) {
+    /**
+     * Deletes the compacted documents of a failed batch except the ones that replaced an original document.
+     */
+    private static void rollback(SolrUpdateService updateService,
+                                 String tsId,
+                                 Set<String> addedIds,
+                                 Set<String> idsToDelete,
+                                 Exception cause) {
+        addedIds.removeAll(idsToDelete);
+        try {
+            updateService.deleteById(addedIds);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Could not delete the compacted documents of the failed time series {}", tsId, e);
+            cause.addSuppressed(e);
+        }
+    }
+
+    /**
+     * @param clauses the query clauses, null clauses are ignored
+     * @return the conjunction of the clauses
+     */
+    static String and(String... clauses) {
         return stream(clauses).filter(Objects::nonNull).map(it -> join("", "(", it, ")")).collect(joining(" AND "));
     }
 
+    /**
+     * Streams the results into the response and commits the changes after the last result.
+     */
+    private static final class CommitOnLast implements Iterator<NamedList<Object>> {
+        private final Iterator<Result> results;
+        private final SolrUpdateService updateService;
+
+        private CommitOnLast(Iterator<Result> results, SolrUpdateService updateService) {
+            this.results = results;
+            this.updateService = updateService;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return results.hasNext();
+        }
+
+        @Override
+        public NamedList<Object> next() {
+            NamedList<Object> result = results.next().toNamedList();
+            if (!results.hasNext()) {
+                try {
+                    updateService.commit();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            return result;
+        }
+    }
+
     /**
      * Provides dependencies and thereby facilitates testing.
      */
@@ -179,6 +306,24 @@ public class ChronixCompactionHandler extends RequestHandlerBase {
             return updateService;
         }
 
+        /**
+         * @param req the solr query request
+         * @param rsp the solr query response
+         * @return a new solr update service with its own update processor
+         */
+        public SolrUpdateService solrUpdateService(SolrQueryRequest req, SolrQueryResponse rsp) {
+            return new SolrUpdateService(req, rsp);
+        }
+
+        /**
+         * @param workers the maximal number of time series compacted in parallel
+         * @param retries the number of retries of a failed time series
+         * @return the compaction scheduler
+         */
+        public CompactionScheduler scheduler(int workers, int retries) {
+            return new CompactionScheduler(workers, retries);
+        }
+
         /**
          * @param pageSize the page size
          * @param searcher the searcher
@@ -190,11 +335,12 @@ public class ChronixCompactionHandler extends RequestHandlerBase {
 
         /**
          * @param pointsPerChunk the pointsPerChunk
+         * @param codec          the codec of the compacted documents
          * @param schema         the schema
          * @return the compactor
          */
-        public LazyCompactor compactor(int pointsPerChunk, IndexSchema schema) {
-            return new LazyCompactor(pointsPerChunk, schema);
+        public LazyCompactor compactor(int pointsPerChunk, ChunkCodec codec, IndexSchema schema) {
+            return new LazyCompactor(pointsPerChunk, codec, schema);
         }
 
         /**
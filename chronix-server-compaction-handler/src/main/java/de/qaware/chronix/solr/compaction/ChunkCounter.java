@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.solr.compaction;
+
+import de.qaware.chronix.solr.type.metric.ChunkCodec;
+import de.qaware.chronix.solr.type.metric.ChunkCodecs;
+import de.qaware.chronix.solr.type.metric.ChunkStatistics;
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.search.ScoreMode;
+import org.apache.lucene.search.SimpleCollector;
+
+import java.io.IOException;
+
+/**
+ * Counts the documents and their points using the doc values of the statistics.
+ * Documents without statistics are counted but their points are unknown.
+ * Documents without a codec are counted as protobuf encoded.
+ */
+public class ChunkCounter extends SimpleCollector {
+    private final int codec;
+    private NumericDocValues counts;
+    private NumericDocValues codecs;
+    private long chunks;
+    private long chunksOfOtherCodecs;
+    private long chunksWithStatistics;
+    private long points;
+
+    /**
+     * Creates a new instance that counts the documents of other codecs than the default codec of the compaction
+     */
+    public ChunkCounter() {
+        this(ChunkCodecs.DEFAULT);
+    }
+
+    /**
+     * @param codec the codec, documents of other codecs are counted separately
+     */
+    public ChunkCounter(ChunkCodec codec) {
+        this.codec = codec.id();
+    }
+
+    @Override
+    protected void doSetNextReader(LeafReaderContext context) throws IOException {
+        counts = DocValues.getNumeric(context.reader(), ChunkStatistics.COUNT);
+        codecs = DocValues.getNumeric(context.reader(), ChunkCodecs.FIELD);
+    }
+
+    @Override
+    public void collect(int doc) throws IOException {
+        chunks++;
+        if (counts.advanceExact(doc)) {
+            chunksWithStatistics++;
+            points += counts.longValue();
+        }
+        long chunkCodec = codecs.advanceExact(doc) ? codecs.longValue() : ChunkCodecs.PROTOBUF.id();
+        if (chunkCodec != codec) {
+            chunksOfOtherCodecs++;
+        }
+    }
+
+    @Override
+    public ScoreMode scoreMode() {
+        return ScoreMode.COMPLETE_NO_SCORES;
+    }
+
+    /**
+     * @return the number of documents
+     */
+    public long getChunks() {
+        return chunks;
+    }
+
+    /**
+     * @return the number of documents encoded with another codec
+     */
+    public long getChunksOfOtherCodecs() {
+        return chunksOfOtherCodecs;
+    }
+
+    /**
+     * @return the average number of points of the documents with statistics, NaN if no document has statistics
+     */
+    public double getPointsPerChunk() {
+        return chunksWithStatistics == 0 ? Double.NaN : (double) points / chunksWithStatistics;
+    }
+}
@@ -43,6 +43,7 @@ public final class CompactionHandlerParams {
 
     /**
      * Number of documents to be loaded into memory at a time.
+     * Also bounds the number of documents added and deleted at a time.
      * Unofficial parameter for testing purposes only. May be removed at any time.
      * Default value: 100
      */
@@ -56,4 +57,32 @@ public final class CompactionHandlerParams {
      * (i.e.: the same values for the given join key fields) *and* matching the filter query will be compacted.
      */
     public static final String FQ = "fq";
-}
\ No newline at end of file
+
+    /**
+     * Number of time series compacted in parallel. Each worker uses its own update processor.
+     * Default value: half of the available processors, at least one.
+     */
+    public static final String WORKERS = "workers";
+
+    /**
+     * Number of retries of a time series whose compaction failed.
+     * Default value: 2
+     */
+    public static final String RETRIES = "retries";
+
+    /**
+     * If true, the response lists each time series as soon as its compaction is completed.
+     * The changes are committed after the last time series.
+     * Default value: false
+     */
+    public static final String STREAM = "stream";
+
+    /**
+     * The codec of the compacted documents, either gorilla or protobuf.
+     * Compaction decodes each document with the codec it was stored with, hence compacting
+     * a time series re-encodes all of its documents with this codec.
+     * Only clients that read the data with the codec field can read gorilla documents.
+     * Default value: protobuf
+     */
+    public static final String CODEC = "codec";
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.solr.compaction;
+
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
+import org.apache.solr.search.SyntaxError;
+import org.apache.solr.util.DefaultSolrThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Compacts time series on a dedicated pool of workers.
+ * <p>
+ * Each worker takes the next time series from a shared list and uses its own update service,
+ * as update processors must not be used concurrently. The compaction of a time series is retried
+ * if it fails and a failure never affects the other time series.
+ */
+public class CompactionScheduler {
+    private static final Logger LOGGER = LoggerFactory.getLogger(CompactionScheduler.class);
+
+    private final int workers;
+    private final int retries;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param workers the maximal number of time series compacted in parallel
+     * @param retries the number of retries of a failed time series
+     */
+    public CompactionScheduler(int workers, int retries) {
+        if (workers < 1 || retries < 0) {
+            throw new IllegalArgumentException("Workers must be positive and retries must not be negative. Got "
+                    + workers + ", " + retries);
+        }
+        this.workers = workers;
+        this.retries = retries;
+    }
+
+    /**
+     * Starts the compaction of the given time series and returns immediately.
+     *
+     * @param timeSeries     the queries of the time series by their id
+     * @param updateServices creates the update service of a worker, called once per worker by the calling thread
+     * @param compactor      compacts a single time series
+     * @return the results in the order of completion, the iterator blocks until the next time series is completed
+     */
+    public Iterator<Result> compact(Map<String, String> timeSeries, Supplier<SolrUpdateService> updateServices, Compactor compactor) {
+        Iterator<Map.Entry<String, String>> pending = timeSeries.entrySet().iterator();
+        BlockingQueue<Result> results = new LinkedBlockingQueue<>();
+        int threads = Math.max(1, Math.min(workers, timeSeries.size()));
+
+        List<SolrUpdateService> services = new ArrayList<>(threads);
+        for (int i = 0; i < threads; i++) {
+            services.add(updateServices.get());
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new DefaultSolrThreadFactory("chronixCompaction"));
+        services.forEach(service -> executor.execute(() -> work(pending, service, compactor, results)));
+        executor.shutdown();
+
+        return new Results(results, timeSeries.size(), executor);
+    }
+
+    private void work(Iterator<Map.Entry<String, String>> pending,
+                      SolrUpdateService updateService,
+                      Compactor compactor,
+                      BlockingQueue<Result> results) {
+        try {
+            Map.Entry<String, String> timeSeries;
+            while ((timeSeries = next(pending)) != null) {
+                String tsId = timeSeries.getKey();
+                try {
+                    results.add(compact(updateService, compactor, tsId, timeSeries.getValue()));
+                } catch (Error e) {
+                    //report the time series anyway, otherwise the results never complete
+                    results.add(Result.failed(tsId, 1, new IllegalStateException(e)));
+                    throw e;
+                }
+            }
+        } finally {
+            try {
+                updateService.finish();
+            } catch (IOException | RuntimeException e) {
+                LOGGER.warn("Could not finish the update processor of a compaction worker.", e);
+            }
+        }
+    }
+
+    private static Map.Entry<String, String> next(Iterator<Map.Entry<String, String>> pending) {
+        synchronized (pending) {
+            return pending.hasNext() ? pending.next() : null;
+        }
+    }
+
+    /**
+     * Compacts a single time series. Never throws, a failure is part of the result.
+     */
+    private Result compact(SolrUpdateService updateService, Compactor compactor, String tsId, String q) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return compactor.compact(updateService, tsId, q, attempt);
+            } catch (SyntaxError e) {
+                LOGGER.warn("Could not compact time series {}", tsId, e);
+                return Result.failed(tsId, attempt, e);
+            } catch (IOException | RuntimeException e) {
+                if (attempt > retries) {
+                    LOGGER.warn("Could not compact time series {} after {} attempts", tsId, attempt, e);
+                    return Result.failed(tsId, attempt, e);
+                }
+                LOGGER.info("Retrying the compaction of time series {} after attempt {} failed", tsId, attempt, e);
+            }
+        }
+    }
+
+    /**
+     * Compacts a single time series.
+     */
+    @FunctionalInterface
+    public interface Compactor {
+
+        /**
+         * @param updateService the update service of the worker
+         * @param tsId          the time series id
+         * @param q             the query of the documents of the time series
+         * @param attempt       the attempt, starting with one
+         * @return the result of the compaction
+         * @throws IOException iff something goes wrong, the compaction is retried
+         * @throws SyntaxError iff the query is invalid
+         */
+        Result compact(SolrUpdateService updateService, String tsId, String q, int attempt) throws IOException, SyntaxError;
+    }
+
+    /**
+     * The result of the compaction of a single time series.
+     */
+    public static final class Result {
+        private final String tsId;
+        private final long oldNumDocs;
+        private final long newNumDocs;
+        private final int attempts;
+        private final String error;
+
+        private Result(String tsId, long oldNumDocs, long newNumDocs, int attempts, String error) {
+            this.tsId = tsId;
+            this.oldNumDocs = oldNumDocs;
+            this.newNumDocs = newNumDocs;
+            this.attempts = attempts;
+            this.error = error;
+        }
+
+        /**
+         * @param tsId       the time series id
+         * @param oldNumDocs the number of compacted documents
+         * @param newNumDocs the number of documents written
+         * @param attempts   the number of attempts
+         * @return the result of a successful compaction
+         */
+        public static Result completed(String tsId, long oldNumDocs, long newNumDocs, int attempts) {
+            return new Result(tsId, oldNumDocs, newNumDocs, attempts, null);
+        }
+
+        /**
+         * @param tsId     the time series id
+         * @param attempts the number of attempts
+         * @param cause    the failure of the last attempt
+         * @return the result of a failed compaction
+         */
+        public static Result failed(String tsId, int attempts, Exception cause) {
+            return new Result(tsId, 0, 0, attempts, String.valueOf(cause.getMessage()));
+        }
+
+        public String getTsId() {
+            return tsId;
+        }
+
+        public long getOldNumDocs() {
+            return oldNumDocs;
+        }
+
+        public long getNewNumDocs() {
+            return newNumDocs;
+        }
+
+        public int getAttempts() {
+            return attempts;
+        }
+
+        /**
+         * @return the message of the failure, null if the compaction succeeded
+         */
+        public String getError() {
+            return error;
+        }
+
+        /**
+         * @return the result as part of the response
+         */
+        public NamedList<Object> toNamedList() {
+            NamedList<Object> result = new SimpleOrderedMap<>();
+            result.add("timeseries", tsId);
+            result.add("oldNumDocs", oldNumDocs);
+            result.add("newNumDocs", newNumDocs);
+            result.add("attempts", attempts);
+            if (error != null) {
+                result.add("error", error);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Takes the results from the queue as they are completed.
+     * The last result is returned after all workers have finished their update processors.
+     */
+    private static final class Results implements Iterator<Result> {
+        private final BlockingQueue<Result> results;
+        private final int expected;
+        private final ExecutorService executor;
+        private int taken;
+
+        private Results(BlockingQueue<Result> results, int expected, ExecutorService executor) {
+            this.results = results;
+            this.expected = expected;
+            this.executor = executor;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return taken < expected;
+        }
+
+        @Override
+        public Result next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            try {
+                Result result = results.take();
+                if (++taken == expected) {
+                    executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+                }
+                return result;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for the compaction", e);
+            }
+        }
+    }
+}
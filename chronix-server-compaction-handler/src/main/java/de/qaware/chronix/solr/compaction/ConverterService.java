@@ -17,6 +17,7 @@ package de.qaware.chronix.solr.compaction;
 
 import de.qaware.chronix.converter.BinaryTimeSeries;
 import de.qaware.chronix.converter.MetricTimeSeriesConverter;
+import de.qaware.chronix.solr.type.metric.ChunkStatistics;
 import de.qaware.chronix.timeseries.MetricTimeSeries;
 import org.apache.lucene.document.Document;
 import org.apache.solr.common.SolrDocument;
@@ -50,6 +51,7 @@ public class ConverterService {
      * <p>
      * In order to avoid write conflicts,  the resulting document does not contain
      * the attribute "_version_" and the attribute "id" is set to a random UUID.
+     * The chunk statistics are calculated from the points of the time series.
      *
      * @param mts the time series
      * @return solr input document representing the given time series
@@ -62,6 +64,7 @@ public class ConverterService {
                 .filter(it -> !"_version_".equals(it.getKey()))
                 .forEach(it -> inputDocument.addField(it.getKey(), it.getValue()));
         inputDocument.setField("id", UUID.randomUUID().toString());
+        ChunkStatistics.of(mts, true).addTo(inputDocument);
         return inputDocument;
     }
 
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.solr.compaction;
+
+import de.qaware.chronix.solr.type.metric.ChunkCodec;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.Query;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.response.SolrQueryResponse;
+import org.apache.solr.search.QParser;
+import org.apache.solr.search.SyntaxError;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.apache.commons.lang3.StringUtils.isBlank;
+
+/**
+ * Finds the time series that are stored in too many small documents
+ * or, if requested, in documents of an outdated codec.
+ */
+public class FragmentationService {
+    private final SolrQueryRequest req;
+    private final SolrFacetService facetService;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param req the solr query request
+     * @param rsp the solr query response
+     */
+    public FragmentationService(SolrQueryRequest req, SolrQueryResponse rsp) {
+        this(req, new SolrFacetService(req, rsp));
+    }
+
+    /**
+     * Creates a new instance. Facilitates testing.
+     *
+     * @param req          the solr query request
+     * @param facetService the facet service
+     */
+    FragmentationService(SolrQueryRequest req, SolrFacetService facetService) {
+        this.req = req;
+        this.facetService = facetService;
+    }
+
+    /**
+     * Determines the time series identified by the join key whose documents hold less points than the threshold
+     * on average. Time series with a single document are never fragmented. The points of documents without
+     * chunk statistics are estimated from the documents of the time series with statistics. Time series without
+     * any statistics were stored before the statistics were introduced, hence they are fragmented if they have
+     * more than one document. Compacting them adds the statistics.
+     *
+     * @param joinKey           the comma separated list of fields identifying a time series
+     * @param fq                the filter query, may be blank
+     * @param minPointsPerChunk the threshold of the average points per document
+     * @return the fragmented time series, worst first
+     * @throws IOException iff something goes wrong
+     * @throws SyntaxError iff the filter query is invalid
+     */
+    public List<FragmentedTimeSeries> find(String joinKey, String fq, int minPointsPerChunk) throws IOException, SyntaxError {
+        return find(joinKey, fq, minPointsPerChunk, null);
+    }
+
+    /**
+     * Determines the time series identified by the join key that are fragmented (see {@link #find(String, String, int)})
+     * or have documents that are not encoded with the given codec.
+     *
+     * @param joinKey           the comma separated list of fields identifying a time series
+     * @param fq                the filter query, may be blank
+     * @param minPointsPerChunk the threshold of the average points per document
+     * @param codec             the codec of the compacted documents, null if the codec of the documents is irrelevant
+     * @return the fragmented time series and the time series to re-encode, worst first
+     * @throws IOException iff something goes wrong
+     * @throws SyntaxError iff the filter query is invalid
+     */
+    public List<FragmentedTimeSeries> find(String joinKey, String fq, int minPointsPerChunk, ChunkCodec codec) throws IOException, SyntaxError {
+        String filter = isBlank(fq) ? null : fq;
+        Query filterQuery = filter == null ? new MatchAllDocsQuery() : query(filter);
+
+        List<FragmentedTimeSeries> result = new ArrayList<>();
+        for (TimeSeriesId tsId : facetService.toTimeSeriesIds(facetService.pivot(joinKey, filterQuery))) {
+            ChunkCounter counter = codec == null ? new ChunkCounter() : new ChunkCounter(codec);
+            req.getSearcher().search(query(ChronixCompactionHandler.and(tsId.toQuery(), filter)), counter);
+
+            double pointsPerChunk = counter.getPointsPerChunk();
+            boolean fragmented = counter.getChunks() > 1 && (Double.isNaN(pointsPerChunk) || pointsPerChunk < minPointsPerChunk);
+            if (fragmented || (codec != null && counter.getChunksOfOtherCodecs() > 0)) {
+                result.add(new FragmentedTimeSeries(tsId, counter.getChunks(), pointsPerChunk));
+            }
+        }
+        result.sort(FragmentedTimeSeries.WORST_FIRST);
+        return result;
+    }
+
+    /**
+     * @param q the query string
+     * @return the parsed query
+     * @throws SyntaxError iff the query is invalid
+     */
+    Query query(String q) throws SyntaxError {
+        return QParser.getParser(q, req).getQuery();
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.solr.compaction;
+
+import java.util.Comparator;
+
+/**
+ * A time series whose documents hold only a few points each.
+ */
+public class FragmentedTimeSeries {
+
+    /**
+     * Orders the time series with the least points per document first.
+     * Time series with the same amount of points per document are ordered by the number of documents (descending).
+     * Time series without chunk statistics, i.e. an unknown amount of points per document (NaN), are ordered last.
+     */
+    public static final Comparator<FragmentedTimeSeries> WORST_FIRST = Comparator
+            .comparingDouble(FragmentedTimeSeries::getPointsPerChunk)
+            .thenComparing(Comparator.comparingLong(FragmentedTimeSeries::getChunks).reversed());
+
+    private final TimeSeriesId id;
+    private final long chunks;
+    private final double pointsPerChunk;
+
+    /**
+     * Creates a new instance
+     *
+     * @param id             the id of the time series
+     * @param chunks         the number of documents of the time series
+     * @param pointsPerChunk the average number of points per document, NaN if unknown
+     */
+    public FragmentedTimeSeries(TimeSeriesId id, long chunks, double pointsPerChunk) {
+        this.id = id;
+        this.chunks = chunks;
+        this.pointsPerChunk = pointsPerChunk;
+    }
+
+    public TimeSeriesId getId() {
+        return id;
+    }
+
+    public long getChunks() {
+        return chunks;
+    }
+
+    public double getPointsPerChunk() {
+        return pointsPerChunk;
+    }
+
+    @Override
+    public String toString() {
+        return id + " chunks:" + chunks + " pointsPerChunk:" + pointsPerChunk;
+    }
+}
@@ -15,38 +15,66 @@
  */
 package de.qaware.chronix.solr.compaction;
 
-import de.qaware.chronix.converter.common.DoubleList;
-import de.qaware.chronix.converter.common.LongList;
-import de.qaware.chronix.timeseries.MetricTimeSeries;
+import de.qaware.chronix.solr.type.metric.ChunkCodec;
+import de.qaware.chronix.solr.type.metric.ChunkCodecs;
+import de.qaware.chronix.solr.type.metric.ChunkStatistics;
+import de.qaware.chronix.solr.type.metric.DuplicatePolicy;
 import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.util.BytesRef;
 import org.apache.solr.common.SolrInputDocument;
 import org.apache.solr.schema.IndexSchema;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
 
-import static de.qaware.chronix.solr.compaction.ListUtils.subList;
-import static de.qaware.chronix.solr.compaction.ListUtils.sublist;
-import static java.lang.Math.min;
+import static de.qaware.chronix.Schema.DATA;
+import static de.qaware.chronix.Schema.END;
+import static de.qaware.chronix.Schema.ID;
+import static de.qaware.chronix.Schema.START;
 
 /**
  * Takes documents and merges them to larger ones.
+ * <p>
+ * The chunks are decoded into primitive buffers and the compacted chunks are encoded directly from them.
+ * The documents are expected in the order of their start. Overlapping chunks are merged by timestamp and points
+ * with the same timestamp are merged with the {@link DuplicatePolicy#LAST} policy, the default of the ingestion.
+ * Points are only written once the next document starts after them, hence the compacted chunks are sorted.
+ * Each chunk is decoded with the codec it was stored with, the compacted chunks are encoded with the given codec.
+ * Hence compacting a time series also upgrades the codec of its chunks, even of chunks that are large enough.
+ * The attributes of the compacted documents are copied from the first document.
+ * The input documents of a result are the documents whose points are all written by the compacted documents
+ * of this or a previous result, hence they can be deleted as soon as these are added.
+ * The ids of the compacted documents are derived from the ids of the documents read for a result.
+ * Hence compacting the same documents again yields the same ids, whereas documents compacted
+ * together with the compacted documents of a previous run get new ones.
  *
  * @author alex.christ
  */
 public class LazyCompactor {
+    private static final String VERSION = "_version_";
     private final IndexSchema schema;
+    private final ChunkCodec codec;
+    private final DuplicatePolicy duplicates = DuplicatePolicy.LAST;
     private int ppc;
 
     /**
      * Creates an instance.
      *
      * @param pointsPerChunk the number of data points to be merged into a single document.
-     * @param schema    the current solr schema
+     * @param codec          the codec of the compacted documents
+     * @param schema         the current solr schema
      */
-    public LazyCompactor(int pointsPerChunk, IndexSchema schema) {
+    public LazyCompactor(int pointsPerChunk, ChunkCodec codec, IndexSchema schema) {
         this.ppc = pointsPerChunk;
+        this.codec = codec;
         this.schema = schema;
     }
 
@@ -60,20 +88,24 @@ public class LazyCompactor {
         return new LazyCompactionResultSet(documents, schema);
     }
 
-    private final class LazyCompactionResultSet implements Iterator<CompactionResult>, Iterable<CompactionResult> {
+    private final class LazyCompactionResultSet implements Iterator<CompactionResult>, Iterable<CompactionResult>, ChunkCodec.PointSink {
         private final Iterator<Document> documents;
-        private final ConverterService converterService;
+        private Document following;
+        //the documents whose points are not all written yet and their last timestamp
+        private final Map<Document, Long> unwritten = new LinkedHashMap<>();
         private final IndexSchema schema;
-        private LongList timestamps;
-        private DoubleList values;
-        private MetricTimeSeries currTs;
+        private SolrInputDocument attributes;
+        private final StringBuilder inputIds = new StringBuilder();
+        private int chunk;
+        private long[] timestamps;
+        private double[] values;
+        private int size;
 
         private LazyCompactionResultSet(Iterable<Document> documents, IndexSchema schema) {
             this.documents = documents.iterator();
             this.schema = schema;
-            this.converterService = new ConverterService();
-            this.timestamps = new LongList();
-            this.values = new DoubleList();
+            this.timestamps = new long[Math.max(ppc, 16)];
+            this.values = new double[timestamps.length];
         }
 
         @Override
@@ -83,69 +115,204 @@ public class LazyCompactor {
 
         @Override
         public boolean hasNext() {
-            return documents.hasNext();
+            return following != null || documents.hasNext();
         }
 
         @Override
         @SuppressWarnings("PMD.AvoidBranchingStatementAsLastInLoop")
         public CompactionResult next() {
-            Set<Document> inputDocs = new HashSet<>();
             Set<SolrInputDocument> outputDocs = new HashSet<>();
-            while (documents.hasNext()) {
-                Document doc = documents.next();
-                inputDocs.add(doc);
+            inputIds.setLength(0);
+            chunk = 0;
+            while (hasNext()) {
+                Document doc = nextDocument();
+                String id = doc.get(ID);
+                if (id != null) {
+                    inputIds.append(id).append(',');
+                }
 
-                currTs = converterService.toTimeSeries(doc, schema);
-                timestamps.addAll(currTs.getTimestamps());
-                values.addAll(currTs.getValues());
+                if (attributes == null) {
+                    attributes = attributes(doc);
+                }
+                unwritten.put(doc, decode(doc));
 
-                if (timestamps.size() < ppc) {
+                //the documents are ordered by their start, hence the points before the following document are complete
+                int complete = following == null ? size : firstIndex(toLong(following.getField(START)));
+                if (complete < ppc) {
                     continue;
                 }
 
                 int index = 0;
-                while (index + ppc <= timestamps.size()) {
-                    MetricTimeSeries slice = copyWithDataRange(currTs, index, index + ppc);
-                    outputDocs.add(toSolrInputDocument(slice));
+                while (index + ppc <= complete) {
+                    outputDocs.add(toSolrInputDocument(index, index + ppc));
                     index += ppc;
                 }
 
-                // reduce timestamps and values to windows
-                int start = min(index, timestamps.size());
-                int end = timestamps.size();
-                timestamps = sublist(timestamps, start, end);
-                values = subList(values, start, end);
+                // keep the widows at the beginning of the buffers
+                System.arraycopy(timestamps, index, timestamps, 0, size - index);
+                System.arraycopy(values, index, values, 0, size - index);
+                size -= index;
 
                 break;
             }
             // write widows when all data points have been read
-            if (!hasNext() && timestamps.size() > 0) {
-                MetricTimeSeries slice = copyWithDataRange(currTs, 0, timestamps.size());
-                outputDocs.add(converterService.toInputDocument(slice));
+            if (!hasNext() && size > 0) {
+                outputDocs.add(toSolrInputDocument(0, size));
+                size = 0;
+            }
+
+            return new CompactionResult(written(), outputDocs);
+        }
+
+        /**
+         * @return the documents whose points are all written, i.e. whose last point is before the buffered points
+         */
+        private Set<Document> written() {
+            Set<Document> written = new HashSet<>();
+            Iterator<Map.Entry<Document, Long>> it = unwritten.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<Document, Long> doc = it.next();
+                if (size == 0 || doc.getValue() < timestamps[0]) {
+                    written.add(doc.getKey());
+                    it.remove();
+                }
+            }
+            return written;
+        }
+
+        /**
+         * @return the next document, the document after it is kept to know up to where the points are complete
+         */
+        private Document nextDocument() {
+            Document doc = following != null ? following : documents.next();
+            following = documents.hasNext() ? documents.next() : null;
+            return doc;
+        }
+
+        /**
+         * Copies the fields of the given document except the data, its range and the fields
+         * that are set for each compacted document.
+         */
+        private SolrInputDocument attributes(Document doc) {
+            SolrInputDocument result = new SolrInputDocument();
+            for (IndexableField field : doc) {
+                String name = field.name();
+                if (DATA.equals(name) || START.equals(name) || END.equals(name) || ID.equals(name)
+                        || VERSION.equals(name) || ChunkCodecs.FIELD.equals(name)
+                        || ChunkStatistics.isStatisticsField(name)) {
+                    continue;
+                }
+                Object value = schema.getField(name).getType().toObject(field);
+                if (value instanceof ByteBuffer) {
+                    value = ((ByteBuffer) value).array();
+                }
+                result.addField(name, value);
+            }
+            return result;
+        }
+
+        /**
+         * Decodes the points of the given document with its codec and merges them into the sorted buffers.
+         * All points are decoded, even those outside of the stored range of the chunk.
+         *
+         * @return the last timestamp of the document
+         */
+        private long decode(Document doc) {
+            long start = toLong(doc.getField(START));
+            long end = toLong(doc.getField(END));
+            BytesRef data = doc.getBinaryValue(DATA);
+            byte[] bytes = data.offset == 0 && data.length == data.bytes.length
+                    ? data.bytes
+                    : Arrays.copyOfRange(data.bytes, data.offset, data.offset + data.length);
+
+            IndexableField codecField = doc.getField(ChunkCodecs.FIELD);
+            ChunkCodec chunkCodec = ChunkCodecs.ofField(codecField == null ? null : codecField.numericValue());
+
+            int from = size;
+            chunkCodec.decode(bytes, start, end, Long.MIN_VALUE, Long.MAX_VALUE, this);
+
+            //only the buffered points at or after the first decoded point have to be merged
+            long first = Long.MAX_VALUE;
+            long last = Long.MIN_VALUE;
+            for (int i = from; i < size; i++) {
+                first = Math.min(first, timestamps[i]);
+                last = Math.max(last, timestamps[i]);
             }
+            size = duplicates.apply(timestamps, values, firstIndex(first, from), size);
+            return last;
+        }
 
-            return new CompactionResult(inputDocs, outputDocs);
+        @Override
+        public void point(long timestamp, double value) {
+            ensureCapacity(size + 1);
+            timestamps[size] = timestamp;
+            values[size] = value;
+            size++;
         }
 
         /**
-         * Calls {@link ConverterService#toInputDocument(MetricTimeSeries)} twice.
-         * The second call should'nt be necessary since it seems to be side effect free.
-         * Ff it's only called once, the resulting document sometimes contains wrong data.
+         * @return the position of the first buffered point at or after the timestamp
          */
-        private SolrInputDocument toSolrInputDocument(MetricTimeSeries slice) {
-            @SuppressWarnings("UnusedAssignment")
-            SolrInputDocument solrDoc = converterService.toInputDocument(slice);
-            solrDoc = converterService.toInputDocument(slice);
+        private int firstIndex(long timestamp) {
+            return firstIndex(timestamp, size);
+        }
+
+        /**
+         * @return the position of the first point before the given end at or after the timestamp, requires sorted points
+         */
+        private int firstIndex(long timestamp, int end) {
+            int low = 0;
+            int high = end;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (timestamps[mid] < timestamp) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        private long toLong(IndexableField field) {
+            return ((Number) schema.getField(field.name()).getType().toObject(field)).longValue();
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (capacity > timestamps.length) {
+                int grown = Math.max(capacity, timestamps.length + (timestamps.length >> 1));
+                timestamps = Arrays.copyOf(timestamps, grown);
+                values = Arrays.copyOf(values, grown);
+            }
+        }
+
+        /**
+         * Encodes the points between from (inclusive) and to (exclusive) into a new document.
+         */
+        private SolrInputDocument toSolrInputDocument(int from, int to) {
+            SolrInputDocument solrDoc = attributes.deepCopy();
+            ChunkStatistics statistics = new ChunkStatistics(true);
+            for (int i = from; i < to; i++) {
+                statistics.add(timestamps[i], values[i]);
+            }
+            solrDoc.setField(ID, nextId());
+            solrDoc.setField(START, statistics.getFirstTimestamp());
+            solrDoc.setField(END, statistics.getLastTimestamp());
+            solrDoc.setField(DATA, codec.encode(timestamps, values, from, to));
+            solrDoc.setField(ChunkCodecs.FIELD, codec.id());
+            statistics.addTo(solrDoc);
             return solrDoc;
         }
 
-        private MetricTimeSeries copyWithDataRange(MetricTimeSeries ts, int start, int end) {
-            return converterService.copy(ts)
-                    .points(sublist(timestamps, start, end),
-                            subList(values, start, end))
-                    .start(timestamps.get(start))
-                    .end(timestamps.get(end - 1))
-                    .build();
+        /**
+         * @return the id of the next compacted document of the current result, random if the inputs have no ids
+         */
+        private String nextId() {
+            int index = chunk++;
+            if (inputIds.length() == 0) {
+                return UUID.randomUUID().toString();
+            }
+            return UUID.nameUUIDFromBytes((inputIds.toString() + index).getBytes(StandardCharsets.UTF_8)).toString();
         }
     }
-}
\ No newline at end of file
+}
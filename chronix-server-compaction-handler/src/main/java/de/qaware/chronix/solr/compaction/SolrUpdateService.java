@@ -26,9 +26,9 @@ import org.apache.solr.update.processor.UpdateRequestProcessor;
 
 import java.io.IOException;
 import java.util.Collection;
+import java.util.stream.Collectors;
 
 import static de.qaware.chronix.Schema.ID;
-import static java.util.stream.Collectors.joining;
 
 /**
  * Executes update actions on solr.
@@ -100,6 +100,19 @@ public class SolrUpdateService {
         updateProcessor.processCommit(new CommitUpdateCommand(req, false));
     }
 
+    /**
+     * Finishes and closes the update processor. The service must not be used afterwards.
+     *
+     * @throws IOException iff something goes wrong
+     */
+    public void finish() throws IOException {
+        try {
+            updateProcessor.finish();
+        } finally {
+            updateProcessor.close();
+        }
+    }
+
     /**
      * Deletes documents identified by the given documents.
      *
@@ -107,10 +120,23 @@ public class SolrUpdateService {
      * @throws IOException iff something goes wrong
      */
     public void delete(Collection<Document> docs) throws IOException {
-        DeleteUpdateCommand cmd = new DeleteUpdateCommand(req);
-        cmd.commitWithin = COMMIT_WITHIN;
-        cmd.setFlags(DeleteUpdateCommand.BUFFERING);
-        cmd.setQuery("{!terms f=" + ID + "}" + docs.stream().map(it -> it.get(ID)).collect(joining(",")));
-        updateProcessor.processDelete(cmd);
+        deleteById(docs.stream().map(doc -> doc.get(ID)).collect(Collectors.toList()));
+    }
+
+    /**
+     * Deletes the documents with the given ids.
+     * Each id is deleted with a delete by id command, which solr applies directly instead of executing a query.
+     *
+     * @param ids the ids of the documents
+     * @throws IOException iff something goes wrong
+     */
+    public void deleteById(Collection<String> ids) throws IOException {
+        for (String id : ids) {
+            DeleteUpdateCommand cmd = new DeleteUpdateCommand(req);
+            cmd.commitWithin = COMMIT_WITHIN;
+            cmd.setFlags(DeleteUpdateCommand.BUFFERING);
+            cmd.setId(id);
+            updateProcessor.processDelete(cmd);
+        }
     }
 }
@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.solr.compaction
+
+import org.quartz.JobDataMap
+import org.quartz.JobExecutionContext
+import spock.lang.Specification
+
+/**
+ * Test case for {@link AutoCompactionJob}.
+ */
+class AutoCompactionJobTest extends Specification {
+
+    def "test execute"() {
+        given:
+        def handler = Mock(ChronixAutoCompactionHandler)
+        def context = Mock(JobExecutionContext)
+        context.getMergedJobDataMap() >> new JobDataMap([(AutoCompactionJob.HANDLER): handler])
+
+        when:
+        new AutoCompactionJob().execute(context)
+
+        then:
+        1 * handler.compactFragmented()
+    }
+}
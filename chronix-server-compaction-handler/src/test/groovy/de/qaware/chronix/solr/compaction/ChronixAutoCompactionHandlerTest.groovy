@@ -0,0 +1,237 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.solr.compaction
+
+import de.qaware.chronix.solr.type.metric.ChunkCodecs
+import org.apache.solr.common.params.SolrParams
+import org.apache.solr.common.util.NamedList
+import org.apache.solr.request.SolrQueryRequest
+import org.apache.solr.response.SolrQueryResponse
+import spock.lang.Specification
+
+import static de.qaware.chronix.solr.compaction.AutoCompactionParams.*
+
+/**
+ * Test case for {@link ChronixAutoCompactionHandler}.
+ */
+class ChronixAutoCompactionHandlerTest extends Specification {
+    ChronixAutoCompactionHandler handler
+    ChronixAutoCompactionHandler.DependencyProvider dependencyProvider
+    FragmentationService fragmentationService
+    ChronixCompactionHandler compactionHandler
+    List<SolrParams> compactions
+    long clock
+    long compactionMillis
+
+    def setup() {
+        clock = 0
+        compactionMillis = 100
+        compactions = []
+        fragmentationService = Mock()
+        compactionHandler = Mock()
+        compactionHandler.handleRequestBody(_, _) >> { SolrQueryRequest req, SolrQueryResponse rsp ->
+            compactions << req.getParams()
+            clock += compactionMillis
+            rsp.add("timeseries ${req.getParams().get(FQ)} oldNumDocs:".toString(), 10)
+            rsp.add("timeseries ${req.getParams().get(FQ)} newNumDocs:".toString(), 1)
+        }
+        dependencyProvider = Mock(ChronixAutoCompactionHandler.DependencyProvider) {
+            request(_, _) >> { core, SolrParams params -> Mock(SolrQueryRequest) { getParams() >> params } }
+            fragmentationService(_) >> fragmentationService
+            compactionHandler() >> compactionHandler
+            currentTimeMillis() >> { clock }
+            sleep(_) >> { long millis -> clock += millis }
+        }
+        handler = new ChronixAutoCompactionHandler(dependencyProvider)
+    }
+
+    def "test get description"() {
+        expect:
+        handler.getDescription() != null
+    }
+
+    def "test fragmented time series are compacted within the limits of a run"() {
+        given:
+        init((JOIN_KEY): 'metric', (MAX_TIME_SERIES): '2', (POINTS_PER_CHUNK): '500', (MIN_POINTS_PER_CHUNK): '200')
+        fragmentationService.find('metric', null, 200, null) >> candidates('cpu', 'heap', 'disk')
+
+        when:
+        handler.compactFragmented()
+
+        then:
+        compactions.collect { it.get(FQ) } == ['(metric:"cpu")', '(metric:"heap")']
+        compactions.every { it.getInt(POINTS_PER_CHUNK) == 500 }
+        //budget of 0.25 => three times the compaction time
+        2 * dependencyProvider.sleep(300) >> { clock += 300 }
+
+        def metrics = handler.getMetrics().toNamedList()
+        metrics.get('runs') == 1
+        metrics.get('running') == false
+        metrics.get('candidates') == 3
+        metrics.get('pending') == 0
+        metrics.get('compactedTimeSeries') == 2
+        metrics.get('removedDocuments') == 20
+        metrics.get('addedDocuments') == 2
+        metrics.get('lastRunMillis') == 800
+    }
+
+    def "test the pause is clamped to #expectedPause"() {
+        given:
+        init((JOIN_KEY): 'metric', (BUDGET): '0.01', (MAX_RUN_SECONDS): maxRunSeconds, (COMPACT_EVERY): compactEvery)
+        fragmentationService.find(*_) >> candidates('cpu', 'heap')
+        compactionMillis = 10_000
+
+        when:
+        handler.compactFragmented()
+
+        then:
+        //the budget asks for a pause of 990 seconds
+        compacted * dependencyProvider.sleep(expectedPause) >> { clock += expectedPause }
+        compactions.size() == compacted
+
+        where:
+        maxRunSeconds | compactEvery || expectedPause | compacted
+        '15'          | '60'         || 5000          | 1
+        '600'         | '1'          || 60000         | 2
+    }
+
+    def "test the documents of another codec are re-encoded"() {
+        given:
+        init((JOIN_KEY): 'metric', (CODEC): 'gorilla', (REENCODE): 'true', (BUDGET): '1')
+        fragmentationService.find('metric', null, 1000, ChunkCodecs.GORILLA) >> candidates('cpu')
+
+        when:
+        handler.compactFragmented()
+
+        then:
+        compactions.collect { it.get(CODEC) } == ['gorilla']
+    }
+
+    def "test the default codec"() {
+        given:
+        init((JOIN_KEY): 'metric', (BUDGET): '1')
+        fragmentationService.find('metric', null, 1000, null) >> candidates('cpu')
+
+        when:
+        handler.compactFragmented()
+
+        then:
+        compactions.collect { it.get(CODEC) } == ['protobuf']
+    }
+
+    def "test the filter query is combined with the time series"() {
+        given:
+        init((JOIN_KEY): 'metric', (FQ): 'host:h01', (BUDGET): '1')
+        fragmentationService.find('metric', 'host:h01', 1000, null) >> candidates('cpu')
+
+        when:
+        handler.compactFragmented()
+
+        then:
+        compactions.collect { it.get(FQ) } == ['(metric:"cpu") AND (host:h01)']
+        0 * dependencyProvider.sleep({ it > 0 })
+    }
+
+    def "test compaction pauses while the query rate is high"() {
+        given:
+        init((JOIN_KEY): 'metric', (MAX_QUERY_RATE): '10', (BUDGET): '1')
+        fragmentationService.find(*_) >> candidates('cpu')
+        dependencyProvider.queryRate(_) >>> [20d, 11d, 5d]
+
+        when:
+        handler.compactFragmented()
+
+        then:
+        2 * dependencyProvider.sleep(1000) >> { clock += 1000 }
+        compactions.size() == 1
+        handler.getMetrics().toNamedList().get('pausedMillis') == 2000
+        handler.getMetrics().toNamedList().get('paused') == false
+    }
+
+    def "test run ends if the query rate stays high"() {
+        given:
+        init((JOIN_KEY): 'metric', (MAX_RUN_SECONDS): '5')
+        fragmentationService.find(*_) >> candidates('cpu', 'heap')
+        dependencyProvider.queryRate(_) >> 100d
+
+        when:
+        handler.compactFragmented()
+
+        then:
+        compactions.isEmpty()
+        handler.getMetrics().toNamedList().get('pausedMillis') == 5000
+        handler.getMetrics().toNamedList().get('pending') == 0
+    }
+
+    def "test failed compaction is counted"() {
+        given:
+        init((JOIN_KEY): 'metric')
+        fragmentationService.find(*_) >> candidates('cpu', 'heap')
+
+        when:
+        handler.compactFragmented()
+
+        then:
+        2 * compactionHandler.handleRequestBody(_, _) >> { throw new IOException("failed") } >> {}
+        def metrics = handler.getMetrics().toNamedList()
+        metrics.get('failedTimeSeries') == 1
+        metrics.get('compactedTimeSeries') == 1
+    }
+
+    def "test disabled without join key"() {
+        given:
+        init([:])
+        def rsp = new SolrQueryResponse()
+
+        when:
+        handler.compactFragmented()
+        handler.handleRequestBody(Mock(SolrQueryRequest), rsp)
+
+        then:
+        0 * fragmentationService.find(*_)
+        rsp.getValues().get('enabled') == false
+        rsp.getValues().get('metrics').get('runs') == 0
+    }
+
+    def "test request returns the metrics"() {
+        given:
+        init((JOIN_KEY): 'metric')
+        fragmentationService.find(*_) >> []
+        def rsp = new SolrQueryResponse()
+
+        when:
+        handler.compactFragmented()
+        handler.handleRequestBody(Mock(SolrQueryRequest), rsp)
+
+        then:
+        rsp.getValues().get('enabled') == true
+        rsp.getValues().get('metrics').get('runs') == 1
+        rsp.getValues().get('metrics').get('candidates') == 0
+        handler.getMetrics().gauges().keySet() == rsp.getValues().get('metrics').asShallowMap().keySet()
+    }
+
+    def init(Map<String, String> invariants) {
+        def args = new NamedList()
+        def params = new NamedList()
+        invariants.each { params.add(it.key, it.value) }
+        args.add('invariants', params)
+        handler.init(args)
+    }
+
+    static List<FragmentedTimeSeries> candidates(String... metrics) {
+        metrics.collect { new FragmentedTimeSeries(new TimeSeriesId([metric: it]), 10, 1) }
+    }
+}
@@ -15,15 +15,24 @@
  */
 package de.qaware.chronix.solr.compaction
 
+import de.qaware.chronix.solr.type.metric.ChunkCodecs
+import de.qaware.chronix.timeseries.MetricTimeSeries
 import org.apache.lucene.document.Document
+import org.apache.lucene.document.Field
+import org.apache.lucene.document.StringField
 import org.apache.solr.common.SolrInputDocument
 import org.apache.solr.common.params.ModifiableSolrParams
 import org.apache.solr.request.SolrQueryRequest
 import org.apache.solr.response.SolrQueryResponse
+import org.apache.solr.schema.IndexSchema
+import org.apache.solr.schema.SchemaField
+import org.apache.solr.schema.StrField
+import org.apache.solr.schema.TrieDoubleField
 import org.apache.solr.search.QParser
 import org.apache.solr.search.SolrIndexSearcher
 import spock.lang.Specification
 
+import static de.qaware.chronix.Schema.*
 import static de.qaware.chronix.solr.compaction.CompactionHandlerParams.*
 
 /**
@@ -58,6 +67,7 @@ class ChronixCompactionHandlerTest extends Specification {
             solrFacetService(*_) >> facetService
             solrUpdateService(*_) >> updateService
             parser(*_) >> Mock(QParser)
+            scheduler(*_) >> { int workers, int retries -> new CompactionScheduler(workers, retries) }
         }
         def dependencyProvider = dependencyProvider
         handler = new ChronixCompactionHandler(dependencyProvider)
@@ -76,8 +86,8 @@ class ChronixCompactionHandlerTest extends Specification {
     def "test simple request"() {
         given:
         facetService.toTimeSeriesIds(_) >> [new TimeSeriesId([metric: 'cpu'])]
-        def inputDocs = [new Document()] as Set
-        def outputDocs = [new SolrInputDocument()] as Set
+        def inputDocs = [inputDoc('in')] as Set
+        def outputDocs = [outputDoc('out')] as Set
         compactor.compact(_) >> [new CompactionResult(inputDocs, outputDocs)]
         params.add(JOIN_KEY, 'metric,host')
 
@@ -87,10 +97,243 @@ class ChronixCompactionHandlerTest extends Specification {
         then:
         1 * rsp.add('timeseries [metric:cpu] oldNumDocs:', 1)
         1 * rsp.add('timeseries [metric:cpu] newNumDocs:', 1)
-        1 * updateService.delete([inputDocs[0]])
+        1 * updateService.deleteById(['in'] as Set)
         1 * updateService.add([outputDocs[0]])
         1 * dependencyProvider.documentLoader(100, _) >> documentLoader
-        1 * dependencyProvider.compactor(10000, _) >> compactor
+        1 * dependencyProvider.compactor(10000, ChunkCodecs.PROTOBUF, _) >> compactor
+    }
+
+    def "test documents are updated in batches"() {
+        given:
+        facetService.toTimeSeriesIds(_) >> [new TimeSeriesId([metric: 'cpu'])]
+        def inputDocs = (0..<5).collect { inputDoc("in-$it") }
+        def outputDocs = (0..<5).collect { outputDoc("out-$it") }
+        compactor.compact(_) >> (0..<5).collect {
+            new CompactionResult([inputDocs[it]] as Set, [outputDocs[it]] as Set)
+        }
+        params.add(JOIN_KEY, 'metric,host')
+        params.add(PAGE_SIZE, '2')
+
+        when:
+        handler.handleRequestBody(req, rsp)
+
+        then:
+        1 * dependencyProvider.documentLoader(2, _) >> documentLoader
+        1 * dependencyProvider.compactor(10000, ChunkCodecs.PROTOBUF, _) >> compactor
+
+        then:
+        1 * updateService.add(outputDocs[0..1])
+
+        then:
+        1 * updateService.deleteById(['in-0', 'in-1'] as Set)
+
+        then:
+        1 * updateService.add(outputDocs[2..3])
+
+        then:
+        1 * updateService.deleteById(['in-2', 'in-3'] as Set)
+
+        then:
+        1 * updateService.add([outputDocs[4]])
+
+        then:
+        1 * updateService.deleteById(['in-4'] as Set)
+
+        then:
+        1 * rsp.add('timeseries [metric:cpu] oldNumDocs:', 5)
+        1 * rsp.add('timeseries [metric:cpu] newNumDocs:', 5)
+    }
+
+    def "test each worker uses its own update service"() {
+        given:
+        def timeSeries = (0..<4).collect { new TimeSeriesId([metric: "cpu$it" as String]) }
+        facetService.toTimeSeriesIds(_) >> timeSeries
+        compactor.compact(_) >> { [new CompactionResult([inputDoc('in')] as Set, [outputDoc('out')] as Set)] }
+        def services = (0..<2).collect { Mock(SolrUpdateService) }
+        params.add(JOIN_KEY, 'metric')
+        params.add(WORKERS, '2')
+
+        when:
+        handler.handleRequestBody(req, rsp)
+
+        then:
+        2 * dependencyProvider.solrUpdateService(req, _) >>> services
+        1 * services[0].finish()
+        1 * services[1].finish()
+        4 * rsp.add({ it.endsWith('oldNumDocs:') }, 1)
+        1 * dependencyProvider.documentLoader(100, _) >> documentLoader
+        1 * dependencyProvider.compactor(10000, ChunkCodecs.PROTOBUF, _) >> compactor
+
+        then:
+        1 * updateService.commit()
+    }
+
+    def "test failed time series are retried"() {
+        given:
+        facetService.toTimeSeriesIds(_) >> [new TimeSeriesId([metric: 'cpu'])]
+        def inputDocs = [inputDoc('in')] as Set
+        def outputDocs = [outputDoc('out')] as Set
+        compactor.compact(_) >> [new CompactionResult(inputDocs, outputDocs)]
+        params.add(JOIN_KEY, 'metric')
+        params.add(RETRIES, '1')
+
+        when:
+        handler.handleRequestBody(req, rsp)
+
+        then:
+        2 * updateService.add([outputDocs[0]]) >> { throw new IOException('unavailable') } >> {}
+        1 * updateService.deleteById(['out'] as Set)
+        1 * updateService.deleteById(['in'] as Set)
+        1 * rsp.add('timeseries [metric:cpu] oldNumDocs:', 1)
+        1 * rsp.add('timeseries [metric:cpu] newNumDocs:', 1)
+        0 * rsp.add('timeseries [metric:cpu] error:', _)
+        1 * updateService.commit()
+        1 * dependencyProvider.documentLoader(100, _) >> documentLoader
+        1 * dependencyProvider.compactor(10000, ChunkCodecs.PROTOBUF, _) >> compactor
+    }
+
+    def "test a failed time series does not affect the others"() {
+        given:
+        def failing = new TimeSeriesId([metric: 'failing'])
+        def succeeding = new TimeSeriesId([metric: 'succeeding'])
+        facetService.toTimeSeriesIds(_) >> [failing, succeeding]
+        def failingDocs = [outputDoc('failing')] as Set
+        compactor.compact(_) >>> [
+                [new CompactionResult([inputDoc('failing-in')] as Set, failingDocs)],
+                [new CompactionResult([inputDoc('succeeding-in')] as Set, [outputDoc('succeeding')] as Set)]
+        ]
+        updateService.add(failingDocs.toList()) >> { throw new IOException('unavailable') }
+        params.add(JOIN_KEY, 'metric')
+        params.add(WORKERS, '1')
+        params.add(RETRIES, '0')
+
+        when:
+        handler.handleRequestBody(req, rsp)
+
+        then:
+        1 * rsp.add('timeseries [metric:failing] oldNumDocs:', 0)
+        1 * rsp.add('timeseries [metric:failing] error:', 'unavailable')
+        1 * rsp.add('timeseries [metric:succeeding] oldNumDocs:', 1)
+        1 * rsp.add('timeseries [metric:succeeding] newNumDocs:', 1)
+        0 * updateService.deleteById(['failing-in'] as Set)
+        1 * updateService.commit()
+        1 * dependencyProvider.documentLoader(100, _) >> documentLoader
+        1 * dependencyProvider.compactor(10000, ChunkCodecs.PROTOBUF, _) >> compactor
+    }
+
+    def "test a failed batch is rolled back and compacted again"() {
+        given:
+        def schema = Mock(IndexSchema)
+        schema.getField(START) >> new SchemaField(START, new TrieDoubleField())
+        schema.getField(END) >> new SchemaField(END, new TrieDoubleField())
+        schema.getField(NAME) >> new SchemaField(NAME, new StrField())
+        Map<String, Document> index = (0..<6).collectEntries {
+            def doc = TestUtils.doc('cpu', [(2l * it + 1): 10d * it, (2l * it + 2): 10d * it + 5])
+            doc.add(new StringField(ID, "id-$it" as String, Field.Store.YES))
+            ["id-$it" as String, doc]
+        }
+        def points = { index.values().collectMany { decode(it) }.sort() }
+        def original = points()
+        def failing = true
+        def adds = 0
+
+        facetService.toTimeSeriesIds(_) >> [new TimeSeriesId([metric: 'cpu'])]
+        dependencyProvider.documentLoader(*_) >> documentLoader
+        dependencyProvider.compactor(*_) >> new LazyCompactor(4, ChunkCodecs.PROTOBUF, schema)
+        documentLoader.load(*_) >> { new ArrayList<>(index.values()).sort { it.getField(START).numericValue() } }
+        updateService.add(_) >> { args ->
+            if (failing && ++adds == 2) {
+                throw new IOException('unavailable')
+            }
+            args[0].each { SolrInputDocument doc -> index[doc.getFieldValue(ID) as String] = toDocument(doc) }
+        }
+        updateService.deleteById(_) >> { args -> args[0].each { index.remove(it) } }
+        params.add(JOIN_KEY, 'metric')
+        params.add(PAGE_SIZE, '1')
+        params.add(RETRIES, '0')
+
+        when:
+        handler.handleRequestBody(req, rsp)
+
+        then:
+        1 * rsp.add('timeseries [metric:cpu] error:', 'unavailable')
+        index.size() == 5
+        index.keySet().containsAll((2..<6).collect { "id-$it" as String })
+        points() == original
+
+        when:
+        failing = false
+        handler.handleRequestBody(req, rsp)
+
+        then:
+        0 * rsp.add('timeseries [metric:cpu] error:', _)
+        index.size() == 3
+        !index.keySet().any { it.startsWith('id-') }
+        points() == original
+    }
+
+    def "test stream the results"() {
+        given:
+        facetService.toTimeSeriesIds(_) >> [new TimeSeriesId([metric: 'cpu']), new TimeSeriesId([metric: 'mem'])]
+        compactor.compact(_) >> { [new CompactionResult([inputDoc('in')] as Set, [outputDoc('out')] as Set)] }
+        params.add(JOIN_KEY, 'metric')
+        params.add(STREAM, 'true')
+        Iterator results = null
+
+        when:
+        handler.handleRequestBody(req, rsp)
+
+        then:
+        1 * rsp.add('timeseries', _) >> { String name, Iterator it -> results = it }
+        0 * updateService.commit()
+        1 * dependencyProvider.documentLoader(100, _) >> documentLoader
+        1 * dependencyProvider.compactor(10000, ChunkCodecs.PROTOBUF, _) >> compactor
+
+        when:
+        def first = results.next()
+
+        then:
+        first.get('oldNumDocs') == 1
+        first.get('newNumDocs') == 1
+        first.get('attempts') == 1
+        0 * updateService.commit()
+
+        when:
+        def last = results.next()
+
+        then:
+        [first, last].collect { it.get('timeseries') } as Set == ['[metric:cpu]', '[metric:mem]'] as Set
+        !results.hasNext()
+        1 * updateService.commit()
+    }
+
+    def "test codec"() {
+        given:
+        facetService.toTimeSeriesIds(_) >> [new TimeSeriesId([:])]
+        compactor.compact(_) >> [new CompactionResult([] as Set, [] as Set)]
+        params.add(JOIN_KEY, 'metric')
+        params.add(CODEC, 'gorilla')
+
+        when:
+        handler.handleRequestBody(req, rsp)
+
+        then:
+        1 * dependencyProvider.documentLoader(100, _) >> documentLoader
+        1 * dependencyProvider.compactor(10000, ChunkCodecs.GORILLA, _) >> compactor
+    }
+
+    def "test unknown codec"() {
+        given:
+        params.add(JOIN_KEY, 'metric')
+        params.add(CODEC, 'lz4')
+
+        when:
+        handler.handleRequestBody(req, rsp)
+
+        then:
+        1 * rsp.add('error', 'Unknown chunk codec lz4')
+        0 * dependencyProvider.compactor(*_)
+        0 * updateService.commit()
     }
 
     def "test parameters"() {
@@ -107,6 +350,33 @@ class ChronixCompactionHandlerTest extends Specification {
         then:
         1 * facetService.pivot('metric,host', _)
         1 * dependencyProvider.documentLoader(112, _) >> documentLoader
-        1 * dependencyProvider.compactor(327, _) >> compactor
+        1 * dependencyProvider.compactor(327, ChunkCodecs.PROTOBUF, _) >> compactor
+    }
+
+    List<Double> decode(Document doc) {
+        long start = doc.getField(START).numericValue().longValue()
+        long end = doc.getField(END).numericValue().longValue()
+        def builder = new MetricTimeSeries.Builder('cpu', 'metric')
+        ChunkCodecs.PROTOBUF.decode(doc.getBinaryValue(DATA).bytes, start, end, start, end, builder)
+        builder.build().points().collect { it.value }
+    }
+
+    Document toDocument(SolrInputDocument solrDoc) {
+        def doc = TestUtils.doc('cpu', solrDoc.getFieldValue(START) as long, solrDoc.getFieldValue(END) as long,
+                solrDoc.getFieldValue(DATA) as byte[])
+        doc.add(new StringField(ID, solrDoc.getFieldValue(ID) as String, Field.Store.YES))
+        doc
+    }
+
+    Document inputDoc(String id) {
+        def doc = new Document()
+        doc.add(new StringField(ID, id, Field.Store.YES))
+        doc
+    }
+
+    SolrInputDocument outputDoc(String id) {
+        def doc = new SolrInputDocument()
+        doc.setField(ID, id)
+        doc
     }
-}
\ No newline at end of file
+}
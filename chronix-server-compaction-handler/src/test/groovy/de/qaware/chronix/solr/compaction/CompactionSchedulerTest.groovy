@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.solr.compaction
+
+import de.qaware.chronix.solr.compaction.CompactionScheduler.Result
+import org.apache.solr.search.SyntaxError
+import spock.lang.Specification
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Test case for {@link CompactionScheduler}.
+ */
+class CompactionSchedulerTest extends Specification {
+
+    def "test invalid arguments"() {
+        when:
+        new CompactionScheduler(workers, retries)
+
+        then:
+        thrown IllegalArgumentException
+
+        where:
+        workers | retries
+        0       | 0
+        1       | -1
+    }
+
+    def "test time series are compacted in parallel"() {
+        given:
+        def timeSeries = ['a': 'q-a', 'b': 'q-b', 'c': 'q-c']
+        def started = new CountDownLatch(3)
+        def threads = ConcurrentHashMap.newKeySet()
+        def services = (0..<3).collect { Mock(SolrUpdateService) }
+        def created = services.iterator()
+
+        when:
+        def results = new CompactionScheduler(4, 0).compact(timeSeries, { created.next() }, { service, tsId, q, attempt ->
+            threads << Thread.currentThread()
+            started.countDown()
+            //every time series waits for the others, hence they must run in parallel
+            assert started.await(10, TimeUnit.SECONDS)
+            Result.completed(tsId, 2, 1, attempt)
+        }).toList()
+
+        then:
+        results*.tsId as Set == ['a', 'b', 'c'] as Set
+        results.every { it.oldNumDocs == 2 && it.newNumDocs == 1 && it.error == null }
+        threads.size() == 3
+        threads.every { it.name.startsWith('chronixCompaction') }
+        1 * services[0].finish()
+        1 * services[1].finish()
+        1 * services[2].finish()
+    }
+
+    def "test the number of workers is bounded"() {
+        given:
+        def timeSeries = (0..<10).collectEntries { ["$it" as String, "q-$it" as String] }
+        def services = []
+        def running = new AtomicInteger()
+        def maxRunning = new AtomicInteger()
+
+        when:
+        def results = new CompactionScheduler(2, 0).compact(timeSeries, {
+            def service = Mock(SolrUpdateService)
+            services << service
+            service
+        }, { service, tsId, q, attempt ->
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math.&max)
+            Thread.sleep(5)
+            running.decrementAndGet()
+            Result.completed(tsId, 1, 1, attempt)
+        }).toList()
+
+        then:
+        results.size() == 10
+        services.size() == 2
+        maxRunning.get() <= 2
+    }
+
+    def "test failed time series are retried"() {
+        given:
+        def attempts = [:].withDefault { 0 }
+
+        when:
+        def results = new CompactionScheduler(1, 2).compact(['a': 'q-a'], { Mock(SolrUpdateService) }, { service, tsId, q, attempt ->
+            attempts[tsId]++
+            if (attempt < 3) {
+                throw new IOException('unavailable')
+            }
+            Result.completed(tsId, 1, 1, attempt)
+        }).toList()
+
+        then:
+        attempts['a'] == 3
+        results.size() == 1
+        results[0].attempts == 3
+        results[0].error == null
+    }
+
+    def "test a failed time series does not affect the others"() {
+        when:
+        def results = new CompactionScheduler(1, 1).compact(['a': 'q-a', 'b': 'q-b', 'c': 'q-c'], { Mock(SolrUpdateService) }, { service, tsId, q, attempt ->
+            if (tsId == 'a') {
+                throw new IllegalStateException('broken')
+            }
+            if (tsId == 'b') {
+                throw new SyntaxError('invalid')
+            }
+            Result.completed(tsId, 1, 1, attempt)
+        }).toList()
+
+        then:
+        results*.tsId == ['a', 'b', 'c']
+        results[0].error == 'broken'
+        results[0].attempts == 2
+        results[1].error == 'invalid'
+        results[1].attempts == 1
+        results[2].error == null
+    }
+
+    def "test no time series"() {
+        given:
+        def service = Mock(SolrUpdateService)
+
+        when:
+        def results = new CompactionScheduler(2, 0).compact([:], { service }, { updateService, tsId, q, attempt -> null })
+
+        then:
+        !results.hasNext()
+    }
+
+    def "test result to named list"() {
+        when:
+        def completed = Result.completed('a', 3, 1, 2).toNamedList()
+        def failed = Result.failed('b', 3, new IOException('unavailable')).toNamedList()
+
+        then:
+        completed.get('timeseries') == 'a'
+        completed.get('oldNumDocs') == 3
+        completed.get('newNumDocs') == 1
+        completed.get('attempts') == 2
+        completed.get('error') == null
+        failed.get('attempts') == 3
+        failed.get('error') == 'unavailable'
+    }
+}
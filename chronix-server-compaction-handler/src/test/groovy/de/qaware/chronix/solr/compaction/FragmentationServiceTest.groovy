@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.solr.compaction
+
+import de.qaware.chronix.solr.type.metric.ChunkCodecs
+import de.qaware.chronix.solr.type.metric.ChunkStatistics
+import org.apache.lucene.document.Document
+import org.apache.lucene.document.Field
+import org.apache.lucene.document.NumericDocValuesField
+import org.apache.lucene.document.StringField
+import org.apache.lucene.index.DirectoryReader
+import org.apache.lucene.index.IndexWriter
+import org.apache.lucene.index.IndexWriterConfig
+import org.apache.lucene.index.Term
+import org.apache.lucene.search.BooleanClause
+import org.apache.lucene.search.BooleanQuery
+import org.apache.lucene.search.Collector
+import org.apache.lucene.search.IndexSearcher
+import org.apache.lucene.search.MatchAllDocsQuery
+import org.apache.lucene.search.Query
+import org.apache.lucene.search.TermQuery
+import org.apache.lucene.store.ByteBuffersDirectory
+import org.apache.solr.request.SolrQueryRequest
+import org.apache.solr.search.SolrIndexSearcher
+import spock.lang.Specification
+import spock.lang.Unroll
+
+/**
+ * Test case for {@link FragmentationService} and {@link ChunkCounter}.
+ */
+class FragmentationServiceTest extends Specification {
+    FragmentationService service
+    SolrFacetService facetService
+    IndexSearcher luceneSearcher
+
+    def setup() {
+        def directory = new ByteBuffersDirectory()
+        new IndexWriter(directory, new IndexWriterConfig()).withCloseable { writer ->
+            //cpu: 4 chunks with 10 points, heap: 2 gorilla chunks with 500 points, disk: 1 chunk, mem: 3 chunks without stats,
+            //net: 2 chunks with 100 points and 1 without stats, swap: 1 chunk without stats
+            4.times { writer.addDocument(chunk('cpu', 10)) }
+            2.times { writer.addDocument(chunk('heap', 500, ChunkCodecs.GORILLA.id())) }
+            writer.addDocument(chunk('disk', 1))
+            3.times { writer.addDocument(chunk('mem', null)) }
+            writer.addDocument(chunk('net', 100))
+            writer.addDocument(chunk('net', 100))
+            writer.addDocument(chunk('net', null))
+            writer.addDocument(chunk('swap', null))
+        }
+        luceneSearcher = new IndexSearcher(DirectoryReader.open(directory))
+
+        def searcher = Mock(SolrIndexSearcher)
+        searcher.search(_ as Query, _ as Collector) >> { Query q, Collector c -> luceneSearcher.search(q, c) }
+        def req = Mock(SolrQueryRequest)
+        req.getSearcher() >> searcher
+
+        facetService = Mock()
+        facetService.toTimeSeriesIds(_) >> ['cpu', 'heap', 'disk', 'mem', 'net', 'swap'].collect { new TimeSeriesId([metric: it]) }
+
+        service = Spy(FragmentationService, constructorArgs: [req, facetService])
+        service.query(_) >> { String q -> toQuery(q) }
+    }
+
+    def "test fragmented time series are found worst first"() {
+        when:
+        def result = service.find('metric', null, 200)
+
+        then:
+        1 * facetService.pivot('metric', { it instanceof MatchAllDocsQuery }) >> []
+        result.collect { it.id.toString() } == ['[metric:cpu]', '[metric:net]', '[metric:mem]']
+        result[0].chunks == 4
+        result[0].pointsPerChunk == 10d
+        result[1].chunks == 3
+        result[1].pointsPerChunk == 100d
+        result[2].chunks == 3
+        result[2].pointsPerChunk.naN
+    }
+
+    def "test time series without statistics are found if they have more than one document"() {
+        when:
+        def result = service.find('metric', null, 1)
+
+        then:
+        result.collect { it.id.toString() } == ['[metric:mem]']
+        result[0].chunks == 3
+        result[0].pointsPerChunk.naN
+    }
+
+    def "test threshold"() {
+        expect:
+        service.find('metric', null, threshold).collect { it.id.toString() } == expected
+
+        where:
+        threshold || expected
+        10        || ['[metric:mem]']
+        11        || ['[metric:cpu]', '[metric:mem]']
+        1000      || ['[metric:cpu]', '[metric:net]', '[metric:heap]', '[metric:mem]']
+    }
+
+    def "test filter query"() {
+        when:
+        def result = service.find('metric', 'metric:heap', 1000)
+
+        then:
+        1 * facetService.pivot('metric', { it instanceof TermQuery }) >> []
+        result.collect { it.id.toString() } == ['[metric:heap]']
+    }
+
+    @Unroll
+    def "test time series with documents of another codec than #codec.name() are found"() {
+        expect:
+        service.find('metric', null, 200, codec).collect { it.id.toString() } == expected
+
+        where:
+        codec                | expected
+        ChunkCodecs.GORILLA  | ['[metric:disk]', '[metric:cpu]', '[metric:net]', '[metric:mem]', '[metric:swap]']
+        ChunkCodecs.PROTOBUF | ['[metric:cpu]', '[metric:net]', '[metric:heap]', '[metric:mem]']
+    }
+
+    def "test worst first order"() {
+        given:
+        def a = new FragmentedTimeSeries(new TimeSeriesId([metric: 'a']), 2, 50)
+        def b = new FragmentedTimeSeries(new TimeSeriesId([metric: 'b']), 5, 50)
+        def c = new FragmentedTimeSeries(new TimeSeriesId([metric: 'c']), 100, 10)
+
+        expect:
+        [a, b, c].toSorted(FragmentedTimeSeries.WORST_FIRST) == [c, b, a]
+    }
+
+    /**
+     * Supports the queries metric:"x" and (metric:"x") AND (metric:y)
+     */
+    static Query toQuery(String q) {
+        def terms = (q =~ /metric:"?(\w+)"?/).collect { new TermQuery(new Term('metric', it[1])) }
+        def query = new BooleanQuery.Builder()
+        terms.each { query.add(it, BooleanClause.Occur.MUST) }
+        terms.size() == 1 ? terms[0] : query.build()
+    }
+
+    static Document chunk(String metric, Long points, Integer codec = null) {
+        def doc = new Document()
+        doc.add(new StringField('metric', metric, Field.Store.YES))
+        if (points != null) {
+            doc.add(new NumericDocValuesField(ChunkStatistics.COUNT, points))
+        }
+        if (codec != null) {
+            doc.add(new NumericDocValuesField(ChunkCodecs.FIELD, codec))
+        }
+        doc
+    }
+}
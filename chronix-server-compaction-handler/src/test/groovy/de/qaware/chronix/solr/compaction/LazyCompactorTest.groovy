@@ -15,6 +15,13 @@
  */
 package de.qaware.chronix.solr.compaction
 
+import de.qaware.chronix.solr.type.metric.ChunkCodecs
+import de.qaware.chronix.solr.type.metric.ChunkStatistics
+import de.qaware.chronix.timeseries.MetricTimeSeries
+import org.apache.lucene.document.Document
+import org.apache.lucene.document.Field
+import org.apache.lucene.document.StoredField
+import org.apache.lucene.document.StringField
 import org.apache.solr.schema.*
 import spock.lang.Specification
 
@@ -35,6 +42,7 @@ class LazyCompactorTest extends Specification {
         schema.getField(END) >> new SchemaField(END, new TrieDoubleField())
         schema.getField(NAME) >> new SchemaField(NAME, new StrField())
         schema.getField(DATA) >> new SchemaField(DATA, new BinaryField())
+        schema.getField('host') >> new SchemaField('host', new StrField())
     }
 
     def "test one document compaction"() {
@@ -42,7 +50,7 @@ class LazyCompactorTest extends Specification {
         def doc = doc 'load_avg', [1: 10, 2: 20]
 
         when:
-        def result = new LazyCompactor(2, schema).compact([doc]).toList()
+        def result = new LazyCompactor(2, ChunkCodecs.PROTOBUF, schema).compact([doc]).toList()
         def outDoc1 = result[0].outputDocuments[0]
 
         then:
@@ -58,7 +66,7 @@ class LazyCompactorTest extends Specification {
         def doc2 = doc 'load_avg', [3: 30, 4: 40]
 
         when:
-        def result = new LazyCompactor(4, schema).compact([doc1, doc2]).toList()
+        def result = new LazyCompactor(4, ChunkCodecs.PROTOBUF, schema).compact([doc1, doc2]).toList()
         def outDoc1 = result[0].outputDocuments[0]
 
         then:
@@ -76,7 +84,7 @@ class LazyCompactorTest extends Specification {
         def doc3 = doc 'load_avg', [5: 50, 6: 60]
 
         when:
-        def result = new LazyCompactor(4, schema).compact([doc1, doc2, doc3]).toList()
+        def result = new LazyCompactor(4, ChunkCodecs.PROTOBUF, schema).compact([doc1, doc2, doc3]).toList()
         def outDoc1 = result[0].outputDocuments[0]
         def outDoc2 = result[1].outputDocuments[0]
 
@@ -94,7 +102,7 @@ class LazyCompactorTest extends Specification {
         def doc = doc 'load_avg', [1: 10, 2: 20]
 
         when:
-        def result = new LazyCompactor(2, schema).compact([doc]).toList()
+        def result = new LazyCompactor(2, ChunkCodecs.PROTOBUF, schema).compact([doc]).toList()
         def outDoc1 = result[0].outputDocuments[0]
 
         then:
@@ -103,4 +111,151 @@ class LazyCompactorTest extends Specification {
         result[0].outputDocuments.size() == 1
         outDoc1 hasAttributes((START): 1, (END): 2, (NAME): 'load_avg', (DATA): compress(1: 10, 2: 20))
     }
-}
\ No newline at end of file
+
+    def "test chunks are split across documents"() {
+        given:
+        def docs = (0..<5).collect { doc 'load_avg', [(2 * it + 1): 10 * it, (2 * it + 2): 10 * it + 5] }
+
+        when:
+        def result = new LazyCompactor(3, ChunkCodecs.PROTOBUF, schema).compact(docs).toList()
+        def outDocs = result.collectMany { it.outputDocuments }.sort { it[START].value }
+
+        then:
+        result.collectMany { it.inputDocuments } as Set == docs as Set
+        outDocs.size() == 4
+        outDocs[0] hasAttributes((START): 1, (END): 3, (DATA): compress(1: 0, 2: 5, 3: 10))
+        outDocs[1] hasAttributes((START): 4, (END): 6, (DATA): compress(4: 15, 5: 20, 6: 25))
+        outDocs[2] hasAttributes((START): 7, (END): 9, (DATA): compress(7: 30, 8: 35, 9: 40))
+        outDocs[3] hasAttributes((START): 10, (END): 10, (DATA): compress(10: 45))
+    }
+
+    def "test attributes are copied from the first document"() {
+        given:
+        def doc1 = doc 'load_avg', [1: 10, 2: 20]
+        doc1.add(new StringField('host', 'server', Field.Store.YES))
+        doc1.add(new StringField(ID, 'old-id', Field.Store.YES))
+        doc1.add(new StoredField('_version_', 42l))
+        doc1.add(new StoredField(ChunkStatistics.COUNT, 2l))
+        def doc2 = doc 'load_avg', [3: 30, 4: 40]
+
+        when:
+        def outDoc = new LazyCompactor(4, ChunkCodecs.PROTOBUF, schema).compact([doc1, doc2]).toList()[0].outputDocuments[0]
+
+        then:
+        outDoc hasAttributes((NAME): 'load_avg', 'host': 'server', (START): 1, (END): 4)
+        outDoc[ID].value != 'old-id'
+        outDoc['_version_'] == null
+        outDoc[ChunkStatistics.COUNT].value == 4
+        outDoc[ChunkStatistics.SUM].value == 100
+        outDoc[ChunkStatistics.SORTED].value
+    }
+
+    def "test ids are derived from the input documents"() {
+        given:
+        def docs = (0..<3).collect {
+            def doc = doc 'load_avg', [(2 * it + 1): 10 * it, (2 * it + 2): 10 * it + 5]
+            doc.add(new StringField(ID, "id-$it" as String, Field.Store.YES))
+            doc
+        }
+
+        when:
+        def ids = { new LazyCompactor(4, ChunkCodecs.PROTOBUF, schema).compact(docs).collectMany { it.outputDocuments*.getFieldValue(ID) } as Set }
+        def first = ids()
+        def second = ids()
+
+        then:
+        first.size() == 2
+        first == second
+        !first.contains('id-0')
+    }
+
+    def "test documents compacted with other documents get new ids"() {
+        given:
+        def docs = (0..<3).collect {
+            def doc = doc 'load_avg', [(2 * it + 1): 10 * it, (2 * it + 2): 10 * it + 5]
+            doc.add(new StringField(ID, "id-$it" as String, Field.Store.YES))
+            doc
+        }
+        def ids = { List input -> new LazyCompactor(6, ChunkCodecs.PROTOBUF, schema).compact(input).collectMany { it.outputDocuments*.getFieldValue(ID) } }
+
+        expect:
+        ids(docs[0..1]) != ids(docs)
+    }
+
+    def "test chunks are decoded with their codec and encoded with the given codec"() {
+        given:
+        def gorilla = doc 'load_avg', 1, 2, ChunkCodecs.GORILLA.encode([1l, 2l] as long[], [10d, 20d] as double[], 0, 2)
+        gorilla.add(new StoredField(ChunkCodecs.FIELD, ChunkCodecs.GORILLA.id()))
+        def protobuf = doc 'load_avg', [3: 30, 4: 40]
+
+        when:
+        def outDoc = new LazyCompactor(4, ChunkCodecs.GORILLA, schema).compact([gorilla, protobuf]).toList()[0].outputDocuments[0]
+        def points = new MetricTimeSeries.Builder('load_avg', 'metric')
+        ChunkCodecs.GORILLA.decode(outDoc[DATA].value as byte[], 1, 4, 1, 4, points)
+
+        then:
+        outDoc[ChunkCodecs.FIELD].value == ChunkCodecs.GORILLA.id()
+        outDoc hasAttributes((NAME): 'load_avg', (START): 1, (END): 4)
+        points.build().getTimestampsAsArray() == [1l, 2l, 3l, 4l] as long[]
+        points.build().getValuesAsArray() == [10d, 20d, 30d, 40d] as double[]
+    }
+
+    def "test overlapping chunks are merged by timestamp"() {
+        given:
+        def first = gorilla 'load_avg', [1l: 10d, 5l: 50d, 3l: 30d, 7l: 70d]
+        def second = gorilla 'load_avg', [2l: 20d, 4l: 40d, 5l: 55d, 6l: 60d, 9l: 90d]
+
+        when:
+        def result = new LazyCompactor(3, ChunkCodecs.GORILLA, schema).compact([first, second]).toList()
+        def outDocs = result.collectMany { it.outputDocuments }.sort { it[START].value }
+        def points = outDocs.collect { outDoc ->
+            def builder = new MetricTimeSeries.Builder('load_avg', 'metric')
+            ChunkCodecs.GORILLA.decode(outDoc[DATA].value as byte[], outDoc[START].value as long, outDoc[END].value as long, Long.MIN_VALUE, Long.MAX_VALUE, builder)
+            builder.build()
+        }
+
+        then:
+        outDocs.size() == 3
+        points*.getTimestampsAsArray() == [[1l, 2l, 3l], [4l, 5l, 6l], [7l, 9l]].collect { it as long[] }
+        points*.getValuesAsArray() == [[10d, 20d, 30d], [40d, 55d, 60d], [70d, 90d]].collect { it as double[] }
+        outDocs*.getFieldValue(START) == [1l, 4l, 7l]
+        outDocs*.getFieldValue(END) == [3l, 6l, 9l]
+        outDocs*.getFieldValue(ChunkStatistics.SORTED) == [true, true, true]
+    }
+
+    def "test points are written once the next chunk starts after them and inputs once all their points are"() {
+        given:
+        def first = gorilla 'load_avg', [1l: 10d, 2l: 20d, 3l: 30d, 4l: 40d]
+        def second = gorilla 'load_avg', [3l: 31d, 5l: 50d]
+        def third = gorilla 'load_avg', [6l: 60d, 7l: 70d]
+
+        when:
+        def result = new LazyCompactor(2, ChunkCodecs.GORILLA, schema).compact([first, second, third]).toList()
+
+        then:
+        result.size() == 3
+        result*.inputDocuments == [[] as Set, [first] as Set, [second, third] as Set]
+        result.collect { it.outputDocuments*.getFieldValue(START) as Set } == [[1l] as Set, [3l] as Set, [5l, 7l] as Set]
+    }
+
+    def "test a single chunk is re-encoded"() {
+        given:
+        def protobuf = doc 'load_avg', [1: 10, 2: 20]
+
+        when:
+        def result = new LazyCompactor(2, ChunkCodecs.GORILLA, schema).compact([protobuf]).toList()
+        def outDoc = result[0].outputDocuments[0]
+
+        then:
+        result[0].inputDocuments == [protobuf] as Set
+        outDoc[ChunkCodecs.FIELD].value == ChunkCodecs.GORILLA.id()
+        outDoc[DATA].value == ChunkCodecs.GORILLA.encode([1l, 2l] as long[], [10d, 20d] as double[], 0, 2)
+    }
+
+    Document gorilla(String metric, Map<Long, Double> points) {
+        def doc = doc(metric, points.keySet().min(), points.keySet().max(),
+                ChunkCodecs.GORILLA.encode(points.keySet() as long[], points.values() as double[], 0, points.size()))
+        doc.add(new StoredField(ChunkCodecs.FIELD, ChunkCodecs.GORILLA.id()))
+        doc
+    }
+}
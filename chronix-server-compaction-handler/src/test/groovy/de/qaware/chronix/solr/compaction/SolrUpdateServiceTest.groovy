@@ -51,7 +51,43 @@ class SolrUpdateServiceTest extends Specification {
         service.delete([doc])
 
         then:
-        1 * updateProcessor.processDelete({ it.query == "{!terms f=$ID}some-id" })
+        1 * updateProcessor.processDelete({ it.id == 'some-id' && it.query == null })
+    }
+
+    def "test deleting each document by its id"() {
+        given:
+        def docs = (0..<3).collect { id ->
+            new Document().with {
+                add(new StringField(ID, "id-$id", Field.Store.YES))
+                (Document) it
+            }
+        }
+
+        when:
+        service.delete(docs)
+
+        then:
+        1 * updateProcessor.processDelete({ it.id == 'id-0' })
+        1 * updateProcessor.processDelete({ it.id == 'id-1' })
+        1 * updateProcessor.processDelete({ it.id == 'id-2' })
+        0 * updateProcessor.processDelete(_)
+    }
+
+    def "test deleting by id"() {
+        when:
+        service.deleteById(['id-1', 'id-2'])
+
+        then:
+        1 * updateProcessor.processDelete({ it.id == 'id-1' })
+        1 * updateProcessor.processDelete({ it.id == 'id-2' })
+    }
+
+    def "test deleting nothing"() {
+        when:
+        service.delete([])
+
+        then:
+        0 * updateProcessor.processDelete(_)
     }
 
     def "test adding"() {
@@ -16,31 +16,60 @@
 package de.qaware.chronix.solr.ingestion;
 
 import de.qaware.chronix.converter.MetricTimeSeriesConverter;
+import de.qaware.chronix.solr.ingestion.format.ChunkLimits;
+import de.qaware.chronix.solr.ingestion.format.FormatParseException;
 import de.qaware.chronix.solr.ingestion.format.FormatParser;
+import de.qaware.chronix.solr.ingestion.format.SeriesKeyRegistry;
+import de.qaware.chronix.solr.ingestion.format.StreamingFormatParser;
+import de.qaware.chronix.solr.ingestion.head.HeadBlock;
+import de.qaware.chronix.server.types.HeadRecords;
+import de.qaware.chronix.solr.type.metric.ChunkStatistics;
+import de.qaware.chronix.solr.type.metric.DuplicatePolicy;
 import de.qaware.chronix.timeseries.MetricTimeSeries;
+import org.apache.solr.common.SolrException;
 import org.apache.solr.common.SolrInputDocument;
 import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.core.CloseHook;
+import org.apache.solr.core.SolrCore;
 import org.apache.solr.handler.RequestHandlerBase;
+import org.apache.solr.metrics.SolrMetricManager;
+import org.apache.solr.request.LocalSolrQueryRequest;
 import org.apache.solr.request.SolrQueryRequest;
 import org.apache.solr.response.SolrQueryResponse;
 import org.apache.solr.update.AddUpdateCommand;
 import org.apache.solr.update.CommitUpdateCommand;
+import org.apache.solr.update.DocumentBuilder;
 import org.apache.solr.update.processor.UpdateRequestProcessor;
 import org.apache.solr.update.processor.UpdateRequestProcessorChain;
+import org.apache.solr.util.plugin.SolrCoreAware;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.PushbackInputStream;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.zip.GZIPInputStream;
 
 /**
  * Abstract class for every ingestion handler.
  * <p>
  * The concrete class only has to provide a suitable {@link FormatParser} instance.
+ * The parsed time series are converted and added by the configured {@link IngestionPipeline}.
+ * A {@link StreamingFormatParser} passes its chunks on while the payload is read. Hence the chunks before a parse
+ * error can already be added, but the handler doesn't commit them.
+ * <p>
+ * Handlers of line protocols can also keep tcp and udp sockets open, see {@link LineProtocolListener}.
+ * The maximum number of series keys a streaming parser remembers is the maxSeriesKeys init arg,
+ * see {@link SeriesKeyRegistry}.
+ * <p>
+ * With a {@link HeadBlock} the time series are buffered and indexed as full chunks. The request returns once the
+ * points are written to the log of the head block, the commit parameter is ignored.
  */
-public abstract class AbstractIngestionHandler extends RequestHandlerBase {
+public abstract class AbstractIngestionHandler extends RequestHandlerBase implements SolrCoreAware {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(AbstractIngestionHandler.class);
 
@@ -59,6 +88,10 @@ public abstract class AbstractIngestionHandler extends RequestHandlerBase {
     }
 
     private final FormatParser formatParser;
+    private volatile IngestionPipeline pipeline = IngestionPipeline.of(null);
+    private volatile LineProtocolListener listener;
+    private volatile HeadBlock headBlock;
+    private volatile SolrCore core;
 
     /**
      * Constructor.
@@ -69,6 +102,123 @@ public abstract class AbstractIngestionHandler extends RequestHandlerBase {
         this.formatParser = formatParser;
     }
 
+    @Override
+    public void init(NamedList args) {
+        super.init(args);
+        IngestionPipeline configured = IngestionPipeline.of(args);
+        pipeline.shutdown();
+        pipeline = configured;
+
+        if (formatParser instanceof StreamingFormatParser) {
+            SeriesKeyRegistry seriesKeys = ((StreamingFormatParser) formatParser).getSeriesKeys();
+            if (seriesKeys != null) {
+                seriesKeys.configure(args);
+            }
+        }
+
+        if (listener != null) {
+            listener.close();
+        }
+        listener = LineProtocolListener.of(args, getClass().getSimpleName(), this::ingestLines);
+        if (listener != null && !isLineProtocol()) {
+            LOGGER.warn("{} does not parse a line protocol, ignoring the listener", getClass().getSimpleName());
+            listener = null;
+        }
+
+        if (headBlock != null) {
+            headBlock.close();
+        }
+        headBlock = HeadBlock.of(args, getClass().getSimpleName());
+    }
+
+    @Override
+    public void initializeMetrics(SolrMetricManager manager, String registryName, String tag, String scope) {
+        super.initializeMetrics(manager, registryName, tag, scope);
+        if (listener != null) {
+            listener.initializeMetrics(this, manager, registryName, tag, scope);
+        }
+        if (headBlock != null) {
+            headBlock.initializeMetrics(this, manager, registryName, tag, scope);
+        }
+        if (formatParser instanceof StreamingFormatParser) {
+            SeriesKeyRegistry seriesKeys = ((StreamingFormatParser) formatParser).getSeriesKeys();
+            if (seriesKeys != null) {
+                seriesKeys.initializeMetrics(this, manager, registryName, tag, scope);
+            }
+        }
+    }
+
+    @Override
+    public void inform(SolrCore core) {
+        this.core = core;
+        if (headBlock != null) {
+            try {
+                headBlock.open(Paths.get(core.getDataDir()),
+                        this::convert,
+                        document -> DocumentBuilder.toDocument(document, core.getLatestSchema()),
+                        core.getLatestSchema().getIndexAnalyzer(),
+                        new HeadBlockSink());
+            } catch (IOException e) {
+                throw new SolrException(SolrException.ErrorCode.SERVER_ERROR, "Could not open the head block of " + getClass().getSimpleName(), e);
+            }
+            HeadRecords.register(core, headBlock);
+        }
+        if (listener != null) {
+            try {
+                listener.start();
+            } catch (IOException e) {
+                throw new SolrException(SolrException.ErrorCode.SERVER_ERROR, "Could not start the listener of " + getClass().getSimpleName(), e);
+            }
+        }
+
+        core.addCloseHook(new CloseHook() {
+            @Override
+            public void preClose(SolrCore core) {
+                if (listener != null) {
+                    listener.close();
+                }
+                if (headBlock != null) {
+                    HeadRecords.unregister(core, headBlock);
+                    headBlock.close();
+                }
+                pipeline.shutdown();
+            }
+
+            @Override
+            public void postClose(SolrCore core) {
+                //nothing to do
+            }
+        });
+    }
+
+    /**
+     * @return true if the format is a line protocol that can be received by a {@link LineProtocolListener}
+     */
+    protected boolean isLineProtocol() {
+        return formatParser instanceof StreamingFormatParser;
+    }
+
+    /**
+     * @return the listener for the line protocol or null if there is no listener configured
+     */
+    public LineProtocolListener getListener() {
+        return listener;
+    }
+
+    /**
+     * @return the head block that buffers the time series or null if there is no head block configured
+     */
+    public HeadBlock getHeadBlock() {
+        return headBlock;
+    }
+
+    /**
+     * @return the pipeline that converts and adds the time series
+     */
+    public IngestionPipeline getPipeline() {
+        return pipeline;
+    }
+
     @Override
     @SuppressWarnings("PMD.SignatureDeclareThrowsException")
     public void handleRequestBody(SolrQueryRequest req, SolrQueryResponse rsp) throws Exception {
@@ -85,17 +235,36 @@ public abstract class AbstractIngestionHandler extends RequestHandlerBase {
         InputStream stream = req.getContentStreams().iterator().next().getStream();
         stream = detectGzip(stream);
 
-        MetricTimeSeriesConverter converter = new MetricTimeSeriesConverter();
+        if (headBlock != null) {
+            if (formatParser instanceof StreamingFormatParser) {
+                ((StreamingFormatParser) formatParser).parse(stream, pipeline.getChunkLimits(), headBlock::append);
+            } else {
+                for (MetricTimeSeries series : formatParser.parse(stream)) {
+                    headBlock.append(series);
+                }
+            }
+            headBlock.sync();
+            return;
+        }
 
         UpdateRequestProcessorChain processorChain = req.getCore().getUpdateProcessorChain(req.getParams());
         UpdateRequestProcessor processor = processorChain.createProcessor(req, rsp);
+        IngestionPipeline.Ingestion ingestion = pipeline.start(this::convert, documents -> {
+            for (SolrInputDocument document : documents) {
+                storeDocument(document, processor, req, -1);
+            }
+        });
         try {
-            for (MetricTimeSeries series : formatParser.parse(stream)) {
-                SolrInputDocument document = new SolrInputDocument();
-                converter.to(series).getFields().forEach(document::addField);
-                storeDocument(document, processor, req);
+            if (formatParser instanceof StreamingFormatParser) {
+                ((StreamingFormatParser) formatParser).parse(stream, pipeline.getChunkLimits(), ingestion);
+            } else {
+                for (MetricTimeSeries series : formatParser.parse(stream)) {
+                    ingestion.accept(series);
+                }
             }
+            IngestionPipeline.Timings timings = ingestion.finish();
 
+            long commitStart = System.nanoTime();
             if (commit) {
                 LOGGER.debug("Committing transaction...");
                 processor.processCommit(new CommitUpdateCommand(req, false));
@@ -103,11 +272,102 @@ public abstract class AbstractIngestionHandler extends RequestHandlerBase {
             } else {
                 LOGGER.debug("Only adding documents.");
             }
+            rsp.add("timing", timings.toNamedList(System.nanoTime() - commitStart));
         } finally {
+            ingestion.cancel();
             processor.finish();
         }
     }
 
+    /**
+     * Indexes the lines received by the listener.
+     *
+     * @param lines        the complete lines
+     * @param length       the number of valid bytes
+     * @param commitWithin the commit within of the added documents in milliseconds
+     * @throws IOException if the documents could not be added
+     */
+    private void ingestLines(byte[] lines, int length, int commitWithin) throws IOException {
+        //the listener is only started for line protocols, which are parsed by streaming parsers
+        Iterable<MetricTimeSeries> timeSeries = parseLines((StreamingFormatParser) formatParser, lines, length);
+
+        if (headBlock != null) {
+            for (MetricTimeSeries series : timeSeries) {
+                headBlock.append(series);
+            }
+            headBlock.sync();
+            return;
+        }
+
+        try (SolrQueryRequest req = new LocalSolrQueryRequest(core, new ModifiableSolrParams())) {
+            SolrQueryResponse rsp = new SolrQueryResponse();
+            UpdateRequestProcessor processor = core.getUpdateProcessorChain(req.getParams()).createProcessor(req, rsp);
+            try {
+                pipeline.ingest(timeSeries, this::convert, documents -> {
+                    for (SolrInputDocument document : documents) {
+                        storeDocument(document, processor, req, commitWithin);
+                    }
+                });
+            } finally {
+                processor.finish();
+            }
+        }
+    }
+
+    /**
+     * Parses the lines received by the listener. The lines of many clients are in one batch,
+     * hence lines that can't be parsed are skipped instead of dropping the whole batch.
+     *
+     * @param formatParser the format parser of a line protocol
+     * @param lines        the complete lines
+     * @param length       the number of valid bytes
+     * @return the parsed time series
+     */
+    static Iterable<MetricTimeSeries> parseLines(StreamingFormatParser formatParser, byte[] lines, int length) {
+        List<MetricTimeSeries> result = new ArrayList<>();
+        int[] skipped = new int[1];
+        try {
+            formatParser.parseLines(lines, 0, length, ChunkLimits.UNLIMITED, result::add, e -> {
+                skipped[0]++;
+                LOGGER.debug("Skipping line: {}", e.getMessage());
+            });
+        } catch (FormatParseException | IOException e) {
+            //every line protocol skips the invalid lines and the list does not throw
+            throw new IllegalStateException("Could not parse the lines", e);
+        }
+        if (skipped[0] > 0) {
+            LOGGER.warn("Skipped {} lines that can't be parsed", skipped[0]);
+        }
+        return result;
+    }
+
+    /**
+     * Converts the time series into a solr document with the duplicate policy of the pipeline.
+     *
+     * @param series the time series
+     * @return the solr document with the sorted chunk and its statistics
+     */
+    private SolrInputDocument convert(MetricTimeSeries series) {
+        return toDocument(series, pipeline.getDuplicatePolicy());
+    }
+
+    /**
+     * Converts the time series into a solr document. Called concurrently by the converter threads.
+     *
+     * @param chunk      the time series
+     * @param duplicates merges the points with the same timestamp
+     * @return the solr document with the sorted and compressed chunk and its statistics
+     */
+    static SolrInputDocument toDocument(MetricTimeSeries chunk, DuplicatePolicy duplicates) {
+        //the chunk is flagged as sorted, the query does not sort it again
+        MetricTimeSeries series = duplicates.apply(chunk);
+        SolrInputDocument document = new SolrInputDocument();
+        new MetricTimeSeriesConverter().to(series).getFields().forEach(document::addField);
+        //the statistics are used to answer aggregations without decompressing the chunk
+        ChunkStatistics.of(series, true).addTo(document);
+        return document;
+    }
+
     /**
      * Sets the response format to JSON.
      *
@@ -120,10 +380,43 @@ public abstract class AbstractIngestionHandler extends RequestHandlerBase {
         req.setParams(params);
     }
 
-    private void storeDocument(SolrInputDocument document, UpdateRequestProcessor processor, SolrQueryRequest req) throws IOException {
+    /**
+     * Indexes the chunks flushed by the head block
+     */
+    private final class HeadBlockSink implements HeadBlock.Sink {
+
+        @Override
+        public void add(List<SolrInputDocument> documents) throws IOException {
+            try (SolrQueryRequest req = new LocalSolrQueryRequest(core, new ModifiableSolrParams())) {
+                UpdateRequestProcessor processor = core.getUpdateProcessorChain(req.getParams()).createProcessor(req, new SolrQueryResponse());
+                try {
+                    for (SolrInputDocument document : documents) {
+                        storeDocument(document, processor, req, -1);
+                    }
+                } finally {
+                    processor.finish();
+                }
+            }
+        }
+
+        @Override
+        public void commit() throws IOException {
+            try (SolrQueryRequest req = new LocalSolrQueryRequest(core, new ModifiableSolrParams())) {
+                UpdateRequestProcessor processor = core.getUpdateProcessorChain(req.getParams()).createProcessor(req, new SolrQueryResponse());
+                try {
+                    processor.processCommit(new CommitUpdateCommand(req, false));
+                } finally {
+                    processor.finish();
+                }
+            }
+        }
+    }
+
+    private void storeDocument(SolrInputDocument document, UpdateRequestProcessor processor, SolrQueryRequest req, int commitWithin) throws IOException {
         LOGGER.debug("Adding Solr document...");
         AddUpdateCommand cmd = new AddUpdateCommand(req);
         cmd.solrDoc = document;
+        cmd.commitWithin = commitWithin;
         processor.processAdd(cmd);
         LOGGER.debug("Added Solr document");
     }
@@ -0,0 +1,447 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.solr.ingestion;
+
+import de.qaware.chronix.solr.ingestion.format.ChunkLimits;
+import de.qaware.chronix.solr.ingestion.format.StreamingFormatParser;
+import de.qaware.chronix.solr.type.metric.DuplicatePolicy;
+import de.qaware.chronix.timeseries.MetricTimeSeries;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
+import org.apache.solr.util.DefaultSolrThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Pipeline that converts the parsed time series into solr documents and adds them in batches.
+ * <p>
+ * The pipeline is configured in the solrconfig.xml within the ingestion request handler:
+ * <pre>
+ * &lt;lst name="ingestionPipeline"&gt;
+ *     &lt;int name="converterThreads"&gt;4&lt;/int&gt;
+ *     &lt;int name="queueSize"&gt;1024&lt;/int&gt;
+ *     &lt;int name="batchSize"&gt;100&lt;/int&gt;
+ *     &lt;int name="pointsPerChunk"&gt;10000&lt;/int&gt;
+ *     &lt;long name="maxBufferedBytes"&gt;67108864&lt;/long&gt;
+ *     &lt;str name="duplicates"&gt;last&lt;/str&gt;
+ * &lt;/lst&gt;
+ * </pre>
+ * The request thread parses the time series and hands them to the converter threads, which serialize and compress
+ * the chunks in parallel. At most queue size time series of a request are in flight, so a large payload does not
+ * pile up in memory. The converter threads are shared by all requests and queue at most queue size time series.
+ * If the queue is full, the request thread converts the time series itself, which also slows down its parsing. The request thread collects the documents in the order of the time series and adds them to solr
+ * in batches of batch size, because the update processors are not thread safe.
+ * Without converter threads (the default) the request thread converts the time series itself.
+ * <p>
+ * A {@link StreamingFormatParser} passes the time series on in chunks of points per chunk points and flushes all
+ * buffered points once they exceed max buffered bytes. The chunks are indexed while the payload is still read.
+ * Both limits are disabled by default.
+ * <p>
+ * Every chunk is sorted by its timestamps before it is stored. Points with the same timestamp are merged by the
+ * {@link DuplicatePolicy} (first, last or avg, the default is last). Hence the query neither sorts nor deduplicates
+ * the chunks again.
+ */
+public final class IngestionPipeline {
+
+    /**
+     * The name of the init args in the solrconfig.xml
+     */
+    public static final String CONFIG = "ingestionPipeline";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(IngestionPipeline.class);
+    private static final long KEEP_ALIVE_SECONDS = 60;
+    private static final int DEFAULT_QUEUE_SIZE = 1024;
+    private static final int DEFAULT_BATCH_SIZE = 100;
+
+    private final ThreadPoolExecutor executor;
+    private final int converterThreads;
+    private final int queueSize;
+    private final int batchSize;
+    private final ChunkLimits chunkLimits;
+    private final DuplicatePolicy duplicatePolicy;
+
+    /**
+     * Consumes the converted documents
+     */
+    @FunctionalInterface
+    public interface DocumentSink {
+        /**
+         * @param documents the next batch of documents in the order of the time series
+         * @throws IOException if the documents could not be added
+         */
+        void add(List<SolrInputDocument> documents) throws IOException;
+    }
+
+    /**
+     * Constructs a new ingestion pipeline
+     *
+     * @param converterThreads the number of threads that convert the time series, 0 to convert them in the request thread
+     * @param queueSize        the maximal number of time series of a request that are converted concurrently
+     * @param batchSize        the number of documents that are added at once
+     */
+    public IngestionPipeline(int converterThreads, int queueSize, int batchSize) {
+        this(converterThreads, queueSize, batchSize, ChunkLimits.UNLIMITED);
+    }
+
+    /**
+     * Constructs a new ingestion pipeline
+     *
+     * @param converterThreads the number of threads that convert the time series, 0 to convert them in the request thread
+     * @param queueSize        the maximal number of time series of a request that are converted concurrently
+     * @param batchSize        the number of documents that are added at once
+     * @param chunkLimits      the limits when a streaming format parser passes a chunk on
+     */
+    public IngestionPipeline(int converterThreads, int queueSize, int batchSize, ChunkLimits chunkLimits) {
+        this(converterThreads, queueSize, batchSize, chunkLimits, DuplicatePolicy.LAST);
+    }
+
+    /**
+     * Constructs a new ingestion pipeline
+     *
+     * @param converterThreads the number of threads that convert the time series, 0 to convert them in the request thread
+     * @param queueSize        the maximal number of time series of a request that are converted concurrently
+     * @param batchSize        the number of documents that are added at once
+     * @param chunkLimits      the limits when a streaming format parser passes a chunk on
+     * @param duplicatePolicy  merges the points of a chunk with the same timestamp
+     */
+    public IngestionPipeline(int converterThreads, int queueSize, int batchSize, ChunkLimits chunkLimits, DuplicatePolicy duplicatePolicy) {
+        if (converterThreads < 0 || queueSize < 1 || batchSize < 1) {
+            throw new IllegalArgumentException("Converter threads must not be negative, queue size and batch size must be positive. Got "
+                    + converterThreads + ", " + queueSize + ", " + batchSize);
+        }
+        this.converterThreads = converterThreads;
+        this.queueSize = queueSize;
+        this.batchSize = batchSize;
+        this.chunkLimits = chunkLimits;
+        this.duplicatePolicy = duplicatePolicy;
+        if (converterThreads == 0) {
+            this.executor = null;
+        } else {
+            //the queue is shared by all requests, a full queue rejects the conversion and the request thread runs it
+            this.executor = new ThreadPoolExecutor(converterThreads, converterThreads,
+                    KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(queueSize),
+                    new DefaultSolrThreadFactory("chronixIngestion"));
+            //idle pipelines do not hold threads
+            this.executor.allowCoreThreadTimeOut(true);
+        }
+    }
+
+    /**
+     * Creates an ingestion pipeline from the init args of the request handler.
+     *
+     * @param initArgs the init args of the request handler, can be null
+     * @return the configured ingestion pipeline
+     */
+    public static IngestionPipeline of(NamedList initArgs) {
+        NamedList config = initArgs == null ? null : (NamedList) initArgs.get(CONFIG);
+
+        int converterThreads = intArg(config, "converterThreads", 0);
+        int queueSize = intArg(config, "queueSize", DEFAULT_QUEUE_SIZE);
+        int batchSize = intArg(config, "batchSize", DEFAULT_BATCH_SIZE);
+        ChunkLimits chunkLimits = new ChunkLimits(intArg(config, "pointsPerChunk", 0), longArg(config, "maxBufferedBytes", 0));
+        Object duplicates = config == null ? null : config.get("duplicates");
+        DuplicatePolicy duplicatePolicy = duplicates == null ? DuplicatePolicy.LAST : DuplicatePolicy.of(duplicates.toString());
+
+        LOGGER.debug("Ingestion pipeline with {} converter threads, queue size {}, batch size {}, {} and duplicate policy {}",
+                converterThreads, queueSize, batchSize, chunkLimits, duplicatePolicy);
+        return new IngestionPipeline(converterThreads, queueSize, batchSize, chunkLimits, duplicatePolicy);
+    }
+
+    private static int intArg(NamedList config, String name, int defaultValue) {
+        return Math.toIntExact(longArg(config, name, defaultValue));
+    }
+
+    private static long longArg(NamedList config, String name, long defaultValue) {
+        Object value = config == null ? null : config.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        return value instanceof Number ? ((Number) value).longValue() : Long.parseLong(value.toString().trim());
+    }
+
+    /**
+     * Converts the time series and passes the documents in batches to the sink.
+     * The method returns when all documents are passed to the sink.
+     *
+     * @param timeSeries the parsed time series, the iterator is only used by the calling thread
+     * @param converter  converts a time series into a solr document, called concurrently
+     * @param sink       the sink for the documents, only called by the calling thread
+     * @return the timings of the stages
+     * @throws IOException if the sink or the converter fails
+     */
+    public Timings ingest(Iterable<MetricTimeSeries> timeSeries, Function<MetricTimeSeries, SolrInputDocument> converter, DocumentSink sink) throws IOException {
+        Ingestion ingestion = start(converter, sink);
+        try {
+            for (MetricTimeSeries series : timeSeries) {
+                ingestion.accept(series);
+            }
+            return ingestion.finish();
+        } finally {
+            ingestion.cancel();
+        }
+    }
+
+    /**
+     * Starts an ingestion that the time series are pushed into, e.g. by a {@link StreamingFormatParser}.
+     * The caller has to {@link Ingestion#finish()} the ingestion and to {@link Ingestion#cancel()} it if something fails.
+     *
+     * @param converter converts a time series into a solr document, called concurrently
+     * @param sink      the sink for the documents, only called by the calling thread
+     * @return the ingestion
+     */
+    public Ingestion start(Function<MetricTimeSeries, SolrInputDocument> converter, DocumentSink sink) {
+        return new Ingestion(converter, sink);
+    }
+
+    /**
+     * @return the limits when a streaming format parser passes a chunk on
+     */
+    public ChunkLimits getChunkLimits() {
+        return chunkLimits;
+    }
+
+    /**
+     * @return the policy that merges the points of a chunk with the same timestamp
+     */
+    public DuplicatePolicy getDuplicatePolicy() {
+        return duplicatePolicy;
+    }
+
+    /**
+     * @return the number of converter threads
+     */
+    public int getConverterThreads() {
+        return converterThreads;
+    }
+
+    /**
+     * Shuts the converter threads down. Conversions that are already queued are finished.
+     */
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * A single ingestion request. The time series are pushed by the request thread.
+     * The time between two time series is accounted as parse time.
+     */
+    public final class Ingestion implements StreamingFormatParser.ChunkConsumer {
+        private final Function<MetricTimeSeries, SolrInputDocument> converter;
+        private final DocumentSink sink;
+        private final List<SolrInputDocument> batch = new ArrayList<>(batchSize);
+        private final Deque<Future<SolrInputDocument>> inFlight = new ArrayDeque<>();
+        private final AtomicLong convertNanos = new AtomicLong();
+        private final Timings timings = new Timings();
+        private long idleSince = System.nanoTime();
+
+        private Ingestion(Function<MetricTimeSeries, SolrInputDocument> converter, DocumentSink sink) {
+            this.converter = converter;
+            this.sink = sink;
+        }
+
+        /**
+         * Converts the time series, in the background if there are converter threads.
+         * Blocks if queue size time series are in flight. Converts the time series in the calling thread
+         * if the converter threads are busy and their queue is full.
+         *
+         * @param series the time series
+         * @throws IOException if the sink or the converter fails
+         */
+        @Override
+        public void accept(MetricTimeSeries series) throws IOException {
+            timings.parse += System.nanoTime() - idleSince;
+
+            if (executor == null) {
+                collect(convert(series));
+            } else {
+                inFlight.add(submit(series));
+                //collect the converted documents in order without waiting for the others
+                while (!inFlight.isEmpty() && (inFlight.size() >= queueSize || inFlight.peek().isDone())) {
+                    collect(inFlight.poll());
+                }
+            }
+
+            idleSince = System.nanoTime();
+        }
+
+        /**
+         * Waits for the time series in flight and passes the remaining documents to the sink.
+         *
+         * @return the timings of the stages
+         * @throws IOException if the sink or the converter fails
+         */
+        public Timings finish() throws IOException {
+            timings.parse += System.nanoTime() - idleSince;
+            while (!inFlight.isEmpty()) {
+                collect(inFlight.poll());
+            }
+            flush();
+            return timings;
+        }
+
+        /**
+         * Cancels the time series in flight. Does nothing if the ingestion is finished.
+         */
+        public void cancel() {
+            //if something failed, the other time series are not needed anymore
+            for (Future<SolrInputDocument> future : inFlight) {
+                future.cancel(true);
+            }
+            inFlight.clear();
+        }
+
+        private Future<SolrInputDocument> submit(MetricTimeSeries series) {
+            try {
+                return executor.submit(() -> convert(series));
+            } catch (RejectedExecutionException e) {
+                //the queue is full or the pipeline is shut down
+                return CompletableFuture.completedFuture(convert(series));
+            }
+        }
+
+        private SolrInputDocument convert(MetricTimeSeries series) {
+            long start = System.nanoTime();
+            SolrInputDocument document = converter.apply(series);
+            convertNanos.addAndGet(System.nanoTime() - start);
+            return document;
+        }
+
+        private void collect(Future<SolrInputDocument> future) throws IOException {
+            long start = System.nanoTime();
+            try {
+                SolrInputDocument document = future.get();
+                timings.wait += System.nanoTime() - start;
+                collect(document);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the converted time series");
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new IOException("Could not convert time series", cause);
+            }
+        }
+
+        private void collect(SolrInputDocument document) throws IOException {
+            batch.add(document);
+            if (batch.size() >= batchSize) {
+                flush();
+            }
+        }
+
+        private void flush() throws IOException {
+            timings.convert = convertNanos.get();
+            if (batch.isEmpty()) {
+                return;
+            }
+            long start = System.nanoTime();
+            sink.add(batch);
+            timings.add += System.nanoTime() - start;
+            timings.documents += batch.size();
+            batch.clear();
+        }
+    }
+
+    /**
+     * The time spent in the stages of an ingestion request
+     */
+    public static final class Timings {
+        private long documents;
+        private long parse;
+        private long convert;
+        private long wait;
+        private long add;
+
+        /**
+         * @return the number of added documents
+         */
+        public long getDocuments() {
+            return documents;
+        }
+
+        /**
+         * @return the nanoseconds spent in parsing the payload
+         */
+        public long getParseNanos() {
+            return parse;
+        }
+
+        /**
+         * @return the nanoseconds spent in converting the time series, summed up over all converter threads
+         */
+        public long getConvertNanos() {
+            return convert;
+        }
+
+        /**
+         * @return the nanoseconds the request thread waited for converted time series
+         */
+        public long getWaitNanos() {
+            return wait;
+        }
+
+        /**
+         * @return the nanoseconds spent in adding the documents to solr
+         */
+        public long getAddNanos() {
+            return add;
+        }
+
+        /**
+         * @param commitNanos the nanoseconds spent in the commit
+         * @return the timings in milliseconds for the response
+         */
+        public NamedList<Object> toNamedList(long commitNanos) {
+            NamedList<Object> result = new SimpleOrderedMap<>();
+            result.add("documents", documents);
+            result.add("parse", millis(parse));
+            result.add("convert", millis(convert));
+            result.add("wait", millis(wait));
+            result.add("add", millis(add));
+            result.add("commit", millis(commitNanos));
+            return result;
+        }
+
+        private static double millis(long nanos) {
+            return nanos / 1_000_000.0;
+        }
+    }
+}
@@ -0,0 +1,547 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.solr.ingestion;
+
+import com.codahale.metrics.Gauge;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.core.SolrInfoBean;
+import org.apache.solr.metrics.SolrMetricManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Listens on tcp and udp ports for line protocols, e.g. Graphite plaintext or OpenTSDB telnet.
+ * <p>
+ * The listener is configured in the solrconfig.xml within the ingestion request handler:
+ * <pre>
+ * &lt;lst name="listener"&gt;
+ *     &lt;str name="host"&gt;0.0.0.0&lt;/str&gt;
+ *     &lt;int name="tcpPort"&gt;2003&lt;/int&gt;
+ *     &lt;int name="udpPort"&gt;2003&lt;/int&gt;
+ *     &lt;int name="flushBytes"&gt;1048576&lt;/int&gt;
+ *     &lt;int name="flushMillis"&gt;1000&lt;/int&gt;
+ *     &lt;int name="commitWithin"&gt;1000&lt;/int&gt;
+ * &lt;/lst&gt;
+ * </pre>
+ * A single selector thread keeps the tcp connections open and reads all sockets. The complete lines of all
+ * connections and datagrams are collected into a batch. A batch is passed on once it holds flush bytes or flush
+ * millis have passed. A separate thread indexes the batches, so reading and indexing overlap. If the indexing falls
+ * behind, the selector thread waits and tcp applies back pressure to the clients. Every line has to stand alone,
+ * as the lines of the connections are interleaved.
+ */
+public final class LineProtocolListener implements Closeable {
+
+    /**
+     * The name of the init args in the solrconfig.xml
+     */
+    public static final String CONFIG = "listener";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LineProtocolListener.class);
+    private static final int DEFAULT_FLUSH_BYTES = 1024 * 1024;
+    private static final int DEFAULT_FLUSH_MILLIS = 1000;
+    private static final int DEFAULT_COMMIT_WITHIN = 1000;
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_LINE_LENGTH = 1024 * 1024;
+    private static final int PENDING_BATCHES = 2;
+    private static final long RATE_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * Indexes the batches of lines
+     */
+    @FunctionalInterface
+    public interface BatchHandler {
+        /**
+         * @param lines        the complete lines, each terminated by a line feed
+         * @param length       the number of valid bytes
+         * @param commitWithin the commit within of the added documents in milliseconds
+         * @throws Exception if the lines could not be indexed
+         */
+        @SuppressWarnings("PMD.SignatureDeclareThrowsException")
+        void handle(byte[] lines, int length, int commitWithin) throws Exception;
+    }
+
+    private final String name;
+    private final String host;
+    private final int tcpPort;
+    private final int udpPort;
+    private final int flushBytes;
+    private final long flushNanos;
+    private final int commitWithin;
+    private final BatchHandler handler;
+
+    private final BlockingQueue<Batch> pending = new ArrayBlockingQueue<>(PENDING_BATCHES);
+    private final AtomicInteger connections = new AtomicInteger();
+    private final AtomicLong lines = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong failedBatches = new AtomicLong();
+    private volatile double linesPerSecond;
+    private volatile boolean running;
+
+    private Selector selector;
+    private ServerSocketChannel server;
+    private DatagramChannel datagrams;
+    private Thread selectorThread;
+    private Thread indexerThread;
+    private Batch batch;
+
+    /**
+     * Constructs a new listener
+     *
+     * @param name         the name of the listener, used for the thread names
+     * @param host         the host to bind to
+     * @param tcpPort      the tcp port, 0 for an ephemeral port and -1 to disable tcp
+     * @param udpPort      the udp port, 0 for an ephemeral port and -1 to disable udp
+     * @param flushBytes   the size of a batch that is passed on
+     * @param flushMillis  the time after that a batch is passed on
+     * @param commitWithin the commit within of the added documents in milliseconds
+     * @param handler      the handler that indexes the batches
+     */
+    public LineProtocolListener(String name, String host, int tcpPort, int udpPort, int flushBytes, int flushMillis, int commitWithin, BatchHandler handler) {
+        if (tcpPort < -1 || udpPort < -1 || flushBytes < 1 || flushMillis < 1) {
+            throw new IllegalArgumentException("Ports must be -1 or greater, flush bytes and millis must be positive. Got "
+                    + tcpPort + ", " + udpPort + ", " + flushBytes + ", " + flushMillis);
+        }
+        this.name = name;
+        this.host = host;
+        this.tcpPort = tcpPort;
+        this.udpPort = udpPort;
+        this.flushBytes = flushBytes;
+        this.flushNanos = TimeUnit.MILLISECONDS.toNanos(flushMillis);
+        this.commitWithin = commitWithin;
+        this.handler = handler;
+    }
+
+    /**
+     * Creates a listener from the init args of the request handler.
+     *
+     * @param initArgs the init args of the request handler, can be null
+     * @param name     the name of the listener
+     * @param handler  the handler that indexes the batches
+     * @return the configured listener or null if there is no listener configured
+     */
+    public static LineProtocolListener of(NamedList initArgs, String name, BatchHandler handler) {
+        NamedList config = initArgs == null ? null : (NamedList) initArgs.get(CONFIG);
+        if (config == null) {
+            return null;
+        }
+
+        Object host = config.get("host");
+        return new LineProtocolListener(name,
+                host == null ? "0.0.0.0" : host.toString().trim(),
+                intArg(config, "tcpPort", -1),
+                intArg(config, "udpPort", -1),
+                intArg(config, "flushBytes", DEFAULT_FLUSH_BYTES),
+                intArg(config, "flushMillis", DEFAULT_FLUSH_MILLIS),
+                intArg(config, "commitWithin", DEFAULT_COMMIT_WITHIN),
+                handler);
+    }
+
+    private static int intArg(NamedList config, String name, int defaultValue) {
+        Object value = config.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        return value instanceof Number ? ((Number) value).intValue() : Integer.parseInt(value.toString().trim());
+    }
+
+    /**
+     * Binds the ports and starts the threads.
+     *
+     * @throws IOException if a port can't be bound
+     */
+    public synchronized void start() throws IOException {
+        if (running) {
+            return;
+        }
+        selector = Selector.open();
+        try {
+            if (tcpPort >= 0) {
+                server = ServerSocketChannel.open();
+                server.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+                server.bind(new InetSocketAddress(host, tcpPort));
+                server.configureBlocking(false);
+                server.register(selector, SelectionKey.OP_ACCEPT);
+            }
+            if (udpPort >= 0) {
+                datagrams = DatagramChannel.open();
+                datagrams.bind(new InetSocketAddress(host, udpPort));
+                datagrams.configureBlocking(false);
+                datagrams.register(selector, SelectionKey.OP_READ, ByteBuffer.allocate(READ_BUFFER_SIZE));
+            }
+        } catch (IOException e) {
+            closeChannels();
+            throw e;
+        }
+
+        running = true;
+        batch = new Batch(flushBytes);
+        selectorThread = new Thread(this::select, "chronixListener-" + name);
+        indexerThread = new Thread(this::index, "chronixListenerIndexer-" + name);
+        selectorThread.setDaemon(true);
+        indexerThread.setDaemon(true);
+        indexerThread.start();
+        selectorThread.start();
+        LOGGER.info("Listening for {} on tcp {} and udp {}", name, getTcpAddress(), getUdpAddress());
+    }
+
+    /**
+     * Closes the connections and the ports. The lines that are already read are indexed.
+     */
+    @Override
+    public synchronized void close() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        selector.wakeup();
+        join(selectorThread);
+        join(indexerThread);
+        LOGGER.info("Stopped listening for {}", name);
+    }
+
+    private static void join(Thread thread) {
+        try {
+            thread.join(TimeUnit.SECONDS.toMillis(30));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * The loop of the selector thread
+     */
+    private void select() {
+        long nextFlush = System.nanoTime() + flushNanos;
+        long rateWindowStart = System.nanoTime();
+        long rateWindowLines = lines.get();
+        try {
+            while (running) {
+                long timeout = TimeUnit.NANOSECONDS.toMillis(nextFlush - System.nanoTime());
+                selector.select(Math.max(1, timeout));
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    handle(key);
+                }
+
+                long now = System.nanoTime();
+                if (now - nextFlush >= 0) {
+                    flush();
+                    nextFlush = now + flushNanos;
+                }
+                if (now - rateWindowStart >= RATE_WINDOW_NANOS) {
+                    long current = lines.get();
+                    linesPerSecond = (current - rateWindowLines) * (double) RATE_WINDOW_NANOS / (now - rateWindowStart);
+                    rateWindowStart = now;
+                    rateWindowLines = current;
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            LOGGER.error("Listener for {} failed", name, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            running = false;
+            closeChannels();
+            try {
+                flush();
+                //tells the indexer that there are no more batches
+                pending.put(Batch.END);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                indexerThread.interrupt();
+            }
+        }
+    }
+
+    private void handle(SelectionKey key) throws InterruptedException {
+        try {
+            if (!key.isValid()) {
+                return;
+            }
+            if (key.isAcceptable()) {
+                accept();
+            } else if (key.channel() == datagrams) {
+                receive((ByteBuffer) key.attachment());
+            } else if (key.isReadable()) {
+                read(key);
+            }
+        } catch (IOException e) {
+            LOGGER.debug("Closing connection of {} listener", name, e);
+            closeConnection(key);
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = server.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.SO_KEEPALIVE, true);
+            channel.register(selector, SelectionKey.OP_READ, ByteBuffer.allocate(READ_BUFFER_SIZE));
+            connections.incrementAndGet();
+        }
+    }
+
+    private void read(SelectionKey key) throws IOException, InterruptedException {
+        SocketChannel channel = (SocketChannel) key.channel();
+        ByteBuffer buffer = (ByteBuffer) key.attachment();
+
+        int read = channel.read(buffer);
+        if (read < 0) {
+            //the last line does not need a line feed
+            if (buffer.position() > 0) {
+                append(buffer.array(), 0, buffer.position(), true);
+            }
+            closeConnection(key);
+            return;
+        }
+
+        int complete = lastLineFeed(buffer.array(), buffer.position()) + 1;
+        if (complete > 0) {
+            append(buffer.array(), 0, complete, false);
+            buffer.limit(buffer.position());
+            buffer.position(complete);
+            buffer.compact();
+        } else if (!buffer.hasRemaining()) {
+            if (buffer.capacity() >= MAX_LINE_LENGTH) {
+                throw new IOException("Line exceeds " + MAX_LINE_LENGTH + " bytes");
+            }
+            ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+            buffer.flip();
+            larger.put(buffer);
+            key.attach(larger);
+        }
+    }
+
+    private void receive(ByteBuffer buffer) throws IOException, InterruptedException {
+        //every datagram holds complete lines
+        while (datagrams.receive(buffer) != null) {
+            if (buffer.position() > 0) {
+                append(buffer.array(), 0, buffer.position(), buffer.get(buffer.position() - 1) != '\n');
+            }
+            buffer.clear();
+        }
+    }
+
+    private void closeConnection(SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            LOGGER.debug("Could not close connection", e);
+        }
+        if (key.channel() != datagrams) {
+            connections.decrementAndGet();
+        }
+    }
+
+    private void closeChannels() {
+        if (selector == null) {
+            return;
+        }
+        for (SelectionKey key : selector.keys()) {
+            try {
+                key.channel().close();
+            } catch (IOException e) {
+                LOGGER.debug("Could not close channel", e);
+            }
+        }
+        connections.set(0);
+        try {
+            selector.close();
+        } catch (IOException e) {
+            LOGGER.debug("Could not close selector", e);
+        }
+    }
+
+    private static int lastLineFeed(byte[] bytes, int length) {
+        for (int i = length - 1; i >= 0; i--) {
+            if (bytes[i] == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void append(byte[] bytes, int from, int to, boolean terminate) throws InterruptedException {
+        int count = 0;
+        for (int i = from; i < to; i++) {
+            if (bytes[i] == '\n') {
+                count++;
+            }
+        }
+        if (terminate) {
+            count++;
+        }
+        batch.append(bytes, from, to, terminate);
+        lines.addAndGet(count);
+        if (batch.length >= flushBytes) {
+            flush();
+        }
+    }
+
+    /**
+     * Passes the batch to the indexer. Blocks if the indexer falls behind.
+     */
+    private void flush() throws InterruptedException {
+        if (batch == null || batch.length == 0) {
+            return;
+        }
+        pending.put(batch);
+        batch = new Batch(flushBytes);
+    }
+
+    /**
+     * The loop of the indexer thread
+     */
+    private void index() {
+        try {
+            while (true) {
+                Batch next = pending.take();
+                if (next == Batch.END) {
+                    return;
+                }
+                try {
+                    handler.handle(next.bytes, next.length, commitWithin);
+                    batches.incrementAndGet();
+                } catch (Exception e) {
+                    failedBatches.incrementAndGet();
+                    LOGGER.error("Could not index {} bytes received by the {} listener", next.length, name, e);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Registers the metrics of the listener
+     *
+     * @param bean         the solr info bean that owns the listener
+     * @param manager      the solr metric manager
+     * @param registryName the name of the registry
+     * @param tag          the tag of the metrics
+     * @param scope        the scope of the metrics
+     */
+    public void initializeMetrics(SolrInfoBean bean, SolrMetricManager manager, String registryName, String tag, String scope) {
+        String category = bean.getCategory().toString();
+        manager.registerGauge(bean, registryName, (Gauge<Integer>) connections::get, tag, true, "connections", category, scope, CONFIG);
+        manager.registerGauge(bean, registryName, (Gauge<Long>) lines::get, tag, true, "lines", category, scope, CONFIG);
+        manager.registerGauge(bean, registryName, (Gauge<Double>) () -> linesPerSecond, tag, true, "linesPerSecond", category, scope, CONFIG);
+        manager.registerGauge(bean, registryName, (Gauge<Long>) batches::get, tag, true, "batches", category, scope, CONFIG);
+        manager.registerGauge(bean, registryName, (Gauge<Long>) failedBatches::get, tag, true, "failedBatches", category, scope, CONFIG);
+    }
+
+    /**
+     * @return the number of open tcp connections
+     */
+    public int getConnections() {
+        return connections.get();
+    }
+
+    /**
+     * @return the number of received lines
+     */
+    public long getLines() {
+        return lines.get();
+    }
+
+    /**
+     * @return the received lines per second, measured over the last second
+     */
+    public double getLinesPerSecond() {
+        return linesPerSecond;
+    }
+
+    /**
+     * @return the number of indexed batches
+     */
+    public long getBatches() {
+        return batches.get();
+    }
+
+    /**
+     * @return the number of batches that could not be indexed
+     */
+    public long getFailedBatches() {
+        return failedBatches.get();
+    }
+
+    /**
+     * @return the bound tcp address or null if tcp is disabled or the listener is not started
+     */
+    public InetSocketAddress getTcpAddress() {
+        return boundAddress(server == null ? null : server.socket().getLocalSocketAddress());
+    }
+
+    /**
+     * @return the bound udp address or null if udp is disabled or the listener is not started
+     */
+    public InetSocketAddress getUdpAddress() {
+        return boundAddress(datagrams == null ? null : datagrams.socket().getLocalSocketAddress());
+    }
+
+    private static InetSocketAddress boundAddress(Object address) {
+        return address instanceof InetSocketAddress ? (InetSocketAddress) address : null;
+    }
+
+    /**
+     * The complete lines that are passed on at once
+     */
+    private static final class Batch {
+        private static final Batch END = new Batch(0);
+
+        private byte[] bytes;
+        private int length;
+
+        Batch(int capacity) {
+            this.bytes = new byte[Math.min(capacity, READ_BUFFER_SIZE)];
+        }
+
+        void append(byte[] source, int from, int to, boolean terminate) {
+            int required = length + to - from + 1;
+            if (required > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(required, bytes.length * 2));
+            }
+            System.arraycopy(source, from, bytes, length, to - from);
+            length += to - from;
+            if (terminate) {
+                bytes[length++] = '\n';
+            }
+        }
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.solr.ingestion;
+
+import de.qaware.chronix.solr.ingestion.format.PrometheusRemoteWriteFormatParser;
+
+/**
+ * Handler to ingest the Prometheus remote write protocol, i.e. snappy compressed protobuf write requests.
+ */
+public class PrometheusRemoteWriteIngestionHandler extends AbstractIngestionHandler {
+    /**
+     * Constructor.
+     */
+    public PrometheusRemoteWriteIngestionHandler() {
+        super(new PrometheusRemoteWriteFormatParser());
+    }
+
+    @Override
+    protected boolean isLineProtocol() {
+        return false;
+    }
+
+    @Override
+    public String getDescription() {
+        return "The Chronix Prometheus remote write ingestion handler.";
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.solr.ingestion.format;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A sequence of bytes that is used as a hash key, e.g. for the raw bytes of a metric name.
+ * <p>
+ * A key is either a mutable probe that is reset and refilled for every lookup or an immutable copy that is stored in
+ * a map. Only copies must be used as map keys.
+ */
+final class ByteKey {
+
+    private byte[] bytes;
+    private int length;
+    private int hash;
+
+    /**
+     * Constructs an empty and mutable probe.
+     */
+    ByteKey() {
+        this(new byte[64], 0);
+    }
+
+    private ByteKey(byte[] bytes, int length) {
+        this.bytes = bytes;
+        this.length = length;
+    }
+
+    /**
+     * Removes all bytes.
+     *
+     * @return this key
+     */
+    ByteKey reset() {
+        length = 0;
+        hash = 0;
+        return this;
+    }
+
+    /**
+     * Appends the given range of bytes.
+     *
+     * @param source the source bytes
+     * @param from   the first byte (inclusive)
+     * @param to     the last byte (exclusive)
+     * @return this key
+     */
+    ByteKey append(byte[] source, int from, int to) {
+        int count = to - from;
+        ensureCapacity(length + count);
+        System.arraycopy(source, from, bytes, length, count);
+        length += count;
+        hash = 0;
+        return this;
+    }
+
+    /**
+     * Appends a single byte.
+     *
+     * @param value the byte
+     * @return this key
+     */
+    ByteKey append(byte value) {
+        ensureCapacity(length + 1);
+        bytes[length++] = value;
+        hash = 0;
+        return this;
+    }
+
+    /**
+     * @return an immutable copy of this key that can be stored in a map
+     */
+    ByteKey copy() {
+        return new ByteKey(Arrays.copyOf(bytes, length), length);
+    }
+
+    /**
+     * @return the bytes decoded as utf-8 string
+     */
+    String decode() {
+        return new String(bytes, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the number of bytes
+     */
+    int length() {
+        return length;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(capacity, bytes.length * 2));
+        }
+    }
+
+    @Override
+    public int hashCode() {
+        int h = hash;
+        if (h == 0) {
+            h = 1;
+            for (int i = 0; i < length; i++) {
+                h = 31 * h + bytes[i];
+            }
+            hash = h;
+        }
+        return h;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this) {
+            return true;
+        }
+        if (!(obj instanceof ByteKey)) {
+            return false;
+        }
+        ByteKey other = (ByteKey) obj;
+        if (length != other.length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (bytes[i] != other.bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return decode();
+    }
+}
@@ -0,0 +1,495 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.solr.ingestion.format;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Reads lines from raw utf-8 bytes and splits them into tokens without decoding them into strings.
+ * <p>
+ * A token is a range of the internal buffer and only valid until the next line is read. Numbers are parsed
+ * directly from the bytes, strings are only created for metric names, tags and error messages. The line and
+ * token separators are ascii characters and therefore never part of a multi-byte utf-8 sequence.
+ * <p>
+ * Lines end with '\n', '\r' or "\r\n" like {@link java.io.BufferedReader#readLine()}. A tokenizer is not
+ * thread-safe.
+ */
+final class ByteTokenizer {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Longest decimal with exact double arithmetic: the mantissa fits into a long and
+     * the powers of ten up to 1e22 are exact doubles
+     */
+    private static final int MAX_FAST_DIGITS = 18;
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+            1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+    private final InputStream stream;
+    private final StringDictionary dictionary;
+    private final ByteKey internKey = new ByteKey();
+    private final ByteKey seriesKey = new ByteKey();
+
+    private byte[] buffer;
+    private int limit;
+    private int position;
+    private int scanned;
+    private boolean endOfStream;
+    private boolean skipLineFeed;
+
+    private int lineStart;
+    private int lineEnd;
+
+    /**
+     * Constructs a tokenizer that reads the given stream.
+     *
+     * @param stream     the input stream
+     * @param dictionary the dictionary for interned strings
+     */
+    ByteTokenizer(InputStream stream, StringDictionary dictionary) {
+        this.stream = stream;
+        this.dictionary = dictionary;
+        this.buffer = new byte[BUFFER_SIZE];
+    }
+
+    /**
+     * Constructs a tokenizer over the given bytes. The bytes are not copied.
+     *
+     * @param bytes      the bytes
+     * @param offset     the first byte
+     * @param length     the number of bytes
+     * @param dictionary the dictionary for interned strings
+     */
+    ByteTokenizer(byte[] bytes, int offset, int length, StringDictionary dictionary) {
+        this.stream = null;
+        this.dictionary = dictionary;
+        this.buffer = bytes;
+        this.position = offset;
+        this.scanned = offset;
+        this.limit = offset + length;
+        this.endOfStream = true;
+    }
+
+    /**
+     * Constructs a tokenizer over the remaining bytes of the given buffer. Heap buffers are not copied.
+     * The position of the buffer is not changed.
+     *
+     * @param bytes      the buffer
+     * @param dictionary the dictionary for interned strings
+     * @return the tokenizer
+     */
+    static ByteTokenizer of(ByteBuffer bytes, StringDictionary dictionary) {
+        if (bytes.hasArray()) {
+            return new ByteTokenizer(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining(), dictionary);
+        }
+        byte[] copy = new byte[bytes.remaining()];
+        bytes.duplicate().get(copy);
+        return new ByteTokenizer(copy, 0, copy.length, dictionary);
+    }
+
+    /**
+     * Advances to the next line.
+     *
+     * @return false if there are no more lines
+     * @throws IOException if the stream can't be read
+     */
+    boolean nextLine() throws IOException {
+        while (true) {
+            if (skipLineFeed) {
+                if (position == limit && !endOfStream) {
+                    fill();
+                    continue;
+                }
+                if (position < limit && buffer[position] == '\n') {
+                    position++;
+                    scanned = position;
+                }
+                skipLineFeed = false;
+            }
+
+            for (int i = scanned; i < limit; i++) {
+                byte b = buffer[i];
+                if (b == '\n' || b == '\r') {
+                    lineStart = position;
+                    lineEnd = i;
+                    position = i + 1;
+                    scanned = position;
+                    skipLineFeed = b == '\r';
+                    return true;
+                }
+            }
+            scanned = limit;
+
+            if (endOfStream) {
+                if (position < limit) {
+                    lineStart = position;
+                    lineEnd = limit;
+                    position = limit;
+                    return true;
+                }
+                return false;
+            }
+            fill();
+        }
+    }
+
+    /**
+     * Reads more bytes. The unread bytes are moved to the start of the buffer, which grows if a line doesn't fit.
+     */
+    private void fill() throws IOException {
+        if (position > 0) {
+            int remaining = limit - position;
+            System.arraycopy(buffer, position, buffer, 0, remaining);
+            scanned -= position;
+            limit = remaining;
+            position = 0;
+        } else if (limit == buffer.length) {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+
+        int read = stream.read(buffer, limit, buffer.length - limit);
+        if (read < 0) {
+            endOfStream = true;
+        } else {
+            limit += read;
+        }
+    }
+
+    /**
+     * @return the first byte of the current line
+     */
+    int lineStart() {
+        return lineStart;
+    }
+
+    /**
+     * @return the end of the current line (exclusive)
+     */
+    int lineEnd() {
+        return lineEnd;
+    }
+
+    /**
+     * @return true if the current line is empty
+     */
+    boolean isLineEmpty() {
+        return lineStart == lineEnd;
+    }
+
+    /**
+     * @param prefix an ascii prefix
+     * @return true if the current line starts with the given prefix
+     */
+    boolean lineStartsWith(byte[] prefix) {
+        return lineEnd - lineStart >= prefix.length && matches(lineStart, lineStart + prefix.length, prefix);
+    }
+
+    /**
+     * @return the current line as string, e.g. for error messages
+     */
+    String line() {
+        return string(lineStart, lineEnd);
+    }
+
+    /**
+     * Splits the current line like {@link org.apache.commons.lang.StringUtils#split(String, char)}.
+     * Adjacent separators are treated as one.
+     *
+     * @param tokens    the tokens to fill
+     * @param separator the separator
+     * @return the number of tokens
+     */
+    int split(Tokens tokens, byte separator) {
+        return split(tokens, lineStart, lineEnd, separator, -1);
+    }
+
+    /**
+     * Splits the given range like {@link org.apache.commons.lang.StringUtils#split(String, String, int)}.
+     * Adjacent separators are treated as one. If the maximum is reached, the last token holds the remaining bytes.
+     *
+     * @param tokens    the tokens to fill
+     * @param from      the first byte
+     * @param to        the last byte (exclusive)
+     * @param separator the separator
+     * @param max       the maximum number of tokens, zero or negative for no limit
+     * @return the number of tokens
+     */
+    int split(Tokens tokens, int from, int to, byte separator, int max) {
+        tokens.clear();
+        int count = 1;
+        int start = from;
+        int i = from;
+        boolean match = false;
+        while (i < to) {
+            if (buffer[i] == separator) {
+                if (match) {
+                    if (count++ == max) {
+                        i = to;
+                    }
+                    tokens.add(start, i);
+                    match = false;
+                }
+                start = ++i;
+                continue;
+            }
+            match = true;
+            i++;
+        }
+        if (match) {
+            tokens.add(start, i);
+        }
+        return tokens.size();
+    }
+
+    /**
+     * @param value the byte to find
+     * @param from  the first byte
+     * @param to    the last byte (exclusive)
+     * @return the index of the first occurrence or -1
+     */
+    int indexOf(byte value, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buffer[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param index the index
+     * @return the byte at the given index of the current line
+     */
+    byte byteAt(int index) {
+        return buffer[index];
+    }
+
+    /**
+     * @param from  the first byte
+     * @param to    the last byte (exclusive)
+     * @param ascii the ascii bytes to compare
+     * @return true if the range equals the given bytes
+     */
+    boolean matches(int from, int to, byte[] ascii) {
+        if (to - from != ascii.length) {
+            return false;
+        }
+        for (int i = 0; i < ascii.length; i++) {
+            if (buffer[from + i] != ascii[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param from the first byte
+     * @param to   the last byte (exclusive)
+     * @return a new string of the given range
+     */
+    String string(int from, int to) {
+        return new String(buffer, from, to - from, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param from the first byte
+     * @param to   the last byte (exclusive)
+     * @return the interned string of the given range
+     */
+    String intern(int from, int to) {
+        return dictionary.intern(internKey.reset().append(buffer, from, to));
+    }
+
+    /**
+     * Resets the reusable series key to the given range. Use {@link ByteKey#copy()} to store it.
+     *
+     * @param from the first byte
+     * @param to   the last byte (exclusive)
+     * @return the series key
+     */
+    ByteKey seriesKey(int from, int to) {
+        return seriesKey.reset().append(buffer, from, to);
+    }
+
+    /**
+     * Appends a separator and the given range to the series key.
+     *
+     * @param separator the separator
+     * @param from      the first byte
+     * @param to        the last byte (exclusive)
+     * @return the series key
+     */
+    ByteKey appendSeriesKey(byte separator, int from, int to) {
+        return seriesKey.append(separator).append(buffer, from, to);
+    }
+
+    /**
+     * Parses a long with the semantics of {@link Long#parseLong(String)}.
+     *
+     * @param from the first byte
+     * @param to   the last byte (exclusive)
+     * @return the parsed long
+     * @throws NumberFormatException if the range isn't a long
+     */
+    long parseLong(int from, int to) {
+        int i = from;
+        boolean negative = false;
+        if (i < to && (buffer[i] == '-' || buffer[i] == '+')) {
+            negative = buffer[i] == '-';
+            i++;
+        }
+        if (i == to || to - i > MAX_FAST_DIGITS) {
+            return Long.parseLong(string(from, to));
+        }
+
+        long value = 0;
+        for (; i < to; i++) {
+            int digit = buffer[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException("For input string: \"" + string(from, to) + "\"");
+            }
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Parses a double with the semantics of {@link Double#parseDouble(String)}.
+     * <p>
+     * Plain decimals with up to 18 digits and a small exponent are parsed directly from the bytes. The result is
+     * exact because the mantissa and the power of ten are exact doubles and the single multiplication or division
+     * rounds correctly. Everything else, e.g. NaN, Infinity or long decimals, is handed to the JDK.
+     *
+     * @param from the first byte
+     * @param to   the last byte (exclusive)
+     * @return the parsed double
+     * @throws NumberFormatException if the range isn't a double
+     */
+    double parseDouble(int from, int to) {
+        int i = from;
+        boolean negative = false;
+        if (i < to && (buffer[i] == '-' || buffer[i] == '+')) {
+            negative = buffer[i] == '-';
+            i++;
+        }
+
+        long mantissa = 0;
+        int digits = 0;
+        int fractionDigits = 0;
+        for (int digit; i < to && (digit = buffer[i] - '0') >= 0 && digit <= 9; i++) {
+            mantissa = mantissa * 10 + digit;
+            digits++;
+        }
+        if (i < to && buffer[i] == '.') {
+            i++;
+            for (int digit; i < to && (digit = buffer[i] - '0') >= 0 && digit <= 9; i++) {
+                mantissa = mantissa * 10 + digit;
+                digits++;
+                fractionDigits++;
+            }
+        }
+        if (digits == 0 || digits > MAX_FAST_DIGITS) {
+            return Double.parseDouble(string(from, to));
+        }
+
+        int exponent = 0;
+        if (i < to && (buffer[i] == 'e' || buffer[i] == 'E')) {
+            i++;
+            boolean negativeExponent = false;
+            if (i < to && (buffer[i] == '-' || buffer[i] == '+')) {
+                negativeExponent = buffer[i] == '-';
+                i++;
+            }
+            int exponentDigits = 0;
+            for (int digit; i < to && (digit = buffer[i] - '0') >= 0 && digit <= 9 && exponentDigits < 4; i++) {
+                exponent = exponent * 10 + digit;
+                exponentDigits++;
+            }
+            if (exponentDigits == 0) {
+                return Double.parseDouble(string(from, to));
+            }
+            exponent = negativeExponent ? -exponent : exponent;
+        }
+
+        int power = exponent - fractionDigits;
+        if (i != to || mantissa > (1L << 53) || power > 22 || power < -22) {
+            return Double.parseDouble(string(from, to));
+        }
+
+        double value = power >= 0 ? mantissa * POWERS_OF_TEN[power] : mantissa / POWERS_OF_TEN[-power];
+        return negative ? -value : value;
+    }
+
+    /**
+     * A reusable list of tokens, i.e. ranges of the current line.
+     */
+    static final class Tokens {
+        private int[] starts = new int[16];
+        private int[] ends = new int[16];
+        private int size;
+
+        /**
+         * @return the number of tokens
+         */
+        int size() {
+            return size;
+        }
+
+        /**
+         * @param index the token index
+         * @return the first byte of the token
+         */
+        int start(int index) {
+            return starts[index];
+        }
+
+        /**
+         * @param index the token index
+         * @return the end of the token (exclusive)
+         */
+        int end(int index) {
+            return ends[index];
+        }
+
+        /**
+         * @param index the token index
+         * @return the number of bytes of the token
+         */
+        int length(int index) {
+            return ends[index] - starts[index];
+        }
+
+        private void clear() {
+            size = 0;
+        }
+
+        private void add(int start, int end) {
+            if (size == starts.length) {
+                starts = Arrays.copyOf(starts, size * 2);
+                ends = Arrays.copyOf(ends, size * 2);
+            }
+            starts[size] = start;
+            ends[size] = end;
+            size++;
+        }
+    }
+}
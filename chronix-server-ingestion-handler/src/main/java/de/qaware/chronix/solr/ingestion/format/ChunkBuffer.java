@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.solr.ingestion.format;
+
+import de.qaware.chronix.timeseries.MetricTimeSeries;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Buffers the points of the time series of a {@link StreamingFormatParser} and passes them on in chunks.
+ * <p>
+ * The time series are flushed in the order of their keys in a hash map, as the parsers did before they streamed.
+ * A flushed time series keeps its name and tags and starts a new chunk with the next point.
+ *
+ * @param <K> the key that identifies a time series in the format, e.g. name and tags
+ */
+final class ChunkBuffer<K> {
+
+    private static final String METRIC_TYPE = "metric";
+
+    private final Map<K, Series> series = new HashMap<>();
+    // The ids of a SeriesKeyRegistry, an open-addressing table that doesn't box the ids
+    private int[] aliasIds = new int[16];
+    private Series[] aliasSeries = new Series[16];
+    private int aliases;
+    private final StreamingFormatParser.ChunkConsumer consumer;
+    private final int maxPointsPerChunk;
+    private final long maxBufferedPoints;
+    private long bufferedPoints;
+
+    /**
+     * @param limits   the limits when a chunk is passed on
+     * @param consumer the consumer of the chunks
+     */
+    ChunkBuffer(ChunkLimits limits, StreamingFormatParser.ChunkConsumer consumer) {
+        this.consumer = consumer;
+        this.maxPointsPerChunk = limits.maxPointsPerChunk();
+        this.maxBufferedPoints = limits.maxBufferedPoints();
+    }
+
+    /**
+     * @param key the key of the time series
+     * @return the time series or null if it is unknown
+     */
+    Series get(K key) {
+        return series.get(key);
+    }
+
+    /**
+     * Adds a new time series.
+     *
+     * @param key  the key of the time series
+     * @param name the metric name
+     * @param tags the tags, added as attributes to every chunk
+     * @return the new time series
+     */
+    Series add(K key, String name, Map<String, String> tags) {
+        Series added = new Series(name, tags);
+        series.put(key, added);
+        return added;
+    }
+
+    /**
+     * @param id the id of a series key, see {@link SeriesKeyRegistry}
+     * @return the time series or null if the id is unknown
+     */
+    Series aliased(int id) {
+        int mask = aliasIds.length - 1;
+        for (int i = mix(id) & mask; aliasSeries[i] != null; i = (i + 1) & mask) {
+            if (aliasIds[i] == id) {
+                return aliasSeries[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Maps an id of a series key to a time series.
+     *
+     * @param id     the id of a series key, see {@link SeriesKeyRegistry}
+     * @param target the time series
+     */
+    void alias(int id, Series target) {
+        if ((aliases + 1) * 2 > aliasIds.length) {
+            int[] ids = aliasIds;
+            Series[] targets = aliasSeries;
+            aliasIds = new int[ids.length * 2];
+            aliasSeries = new Series[ids.length * 2];
+            for (int i = 0; i < ids.length; i++) {
+                if (targets[i] != null) {
+                    putAlias(ids[i], targets[i]);
+                }
+            }
+        }
+        if (putAlias(id, target)) {
+            aliases++;
+        }
+    }
+
+    private boolean putAlias(int id, Series target) {
+        int mask = aliasIds.length - 1;
+        int i = mix(id) & mask;
+        while (aliasSeries[i] != null) {
+            if (aliasIds[i] == id) {
+                aliasSeries[i] = target;
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+        aliasIds[i] = id;
+        aliasSeries[i] = target;
+        return true;
+    }
+
+    private static int mix(int id) {
+        // The ids are sequential, spread them over the table
+        int h = id * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Adds a point and passes chunks on if the limits are reached.
+     *
+     * @param target    the time series
+     * @param timestamp the timestamp
+     * @param value     the value
+     * @throws IOException if the consumer fails
+     */
+    void point(Series target, long timestamp, double value) throws IOException {
+        target.builder.point(timestamp, value);
+        target.points++;
+        bufferedPoints++;
+
+        if (target.points >= maxPointsPerChunk) {
+            flush(target);
+        }
+        if (bufferedPoints >= maxBufferedPoints) {
+            flush();
+        }
+    }
+
+    /**
+     * Passes the buffered points of all time series on.
+     *
+     * @throws IOException if the consumer fails
+     */
+    void flush() throws IOException {
+        for (Series buffered : series.values()) {
+            if (buffered.points > 0) {
+                flush(buffered);
+            }
+        }
+    }
+
+    private void flush(Series target) throws IOException {
+        MetricTimeSeries chunk = target.builder.build();
+        bufferedPoints -= target.points;
+        target.reset();
+        consumer.accept(chunk);
+    }
+
+    /**
+     * A buffered time series
+     */
+    static final class Series {
+        private final String name;
+        private final Map<String, String> tags;
+        private MetricTimeSeries.Builder builder;
+        private int points;
+
+        private Series(String name, Map<String, String> tags) {
+            this.name = name;
+            this.tags = tags;
+            reset();
+        }
+
+        /**
+         * The built time series keeps the lists of the builder, hence every chunk needs a new builder
+         */
+        private void reset() {
+            builder = new MetricTimeSeries.Builder(name, METRIC_TYPE);
+            for (Map.Entry<String, String> tag : tags.entrySet()) {
+                builder.attribute(tag.getKey(), tag.getValue());
+            }
+            points = 0;
+        }
+    }
+}
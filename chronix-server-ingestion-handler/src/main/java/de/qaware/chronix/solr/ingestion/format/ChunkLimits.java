@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.solr.ingestion.format;
+
+import java.util.Objects;
+
+/**
+ * Limits when a {@link StreamingFormatParser} passes the buffered points of a time series on as a chunk.
+ * <p>
+ * A time series is flushed once it holds points per chunk points, like the chunks of the compaction handler.
+ * All time series are flushed once the buffered points exceed the memory budget. The budget is estimated
+ * with 16 bytes per point, i.e. the timestamp and the value.
+ */
+public final class ChunkLimits {
+
+    /**
+     * No limits, the time series are passed on after the whole payload is parsed
+     */
+    public static final ChunkLimits UNLIMITED = new ChunkLimits(0, 0);
+
+    private static final int BYTES_PER_POINT = Long.BYTES + Double.BYTES;
+
+    private final int pointsPerChunk;
+    private final long maxBufferedBytes;
+
+    /**
+     * Constructs the chunk limits
+     *
+     * @param pointsPerChunk   the maximal number of points of a chunk, 0 for no limit
+     * @param maxBufferedBytes the memory budget for the buffered points of all time series, 0 for no limit
+     */
+    public ChunkLimits(int pointsPerChunk, long maxBufferedBytes) {
+        if (pointsPerChunk < 0 || maxBufferedBytes < 0) {
+            throw new IllegalArgumentException("Points per chunk and buffered bytes must not be negative. Got "
+                    + pointsPerChunk + ", " + maxBufferedBytes);
+        }
+        this.pointsPerChunk = pointsPerChunk;
+        this.maxBufferedBytes = maxBufferedBytes;
+    }
+
+    /**
+     * @return the maximal number of points of a chunk, 0 for no limit
+     */
+    public int getPointsPerChunk() {
+        return pointsPerChunk;
+    }
+
+    /**
+     * @return the memory budget for the buffered points of all time series, 0 for no limit
+     */
+    public long getMaxBufferedBytes() {
+        return maxBufferedBytes;
+    }
+
+    /**
+     * @return the maximal number of points of a chunk
+     */
+    int maxPointsPerChunk() {
+        return pointsPerChunk == 0 ? Integer.MAX_VALUE : pointsPerChunk;
+    }
+
+    /**
+     * @return the maximal number of buffered points of all time series
+     */
+    long maxBufferedPoints() {
+        return maxBufferedBytes == 0 ? Long.MAX_VALUE : Math.max(1, maxBufferedBytes / BYTES_PER_POINT);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        ChunkLimits limits = (ChunkLimits) o;
+        return pointsPerChunk == limits.pointsPerChunk && maxBufferedBytes == limits.maxBufferedBytes;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(pointsPerChunk, maxBufferedBytes);
+    }
+
+    @Override
+    public String toString() {
+        return "ChunkLimits{pointsPerChunk=" + pointsPerChunk + ", maxBufferedBytes=" + maxBufferedBytes + '}';
+    }
+}
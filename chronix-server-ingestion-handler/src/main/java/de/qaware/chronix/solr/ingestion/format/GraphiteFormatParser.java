@@ -15,104 +15,147 @@
  */
 package de.qaware.chronix.solr.ingestion.format;
 
-import de.qaware.chronix.timeseries.MetricTimeSeries;
-import org.apache.commons.lang.StringUtils;
-
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.nio.charset.Charset;
-import java.time.Instant;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.Collections;
 
 /**
  * A format parser for the graphite line procotol.
  * <p>
  * See http://graphite.readthedocs.io/en/latest/feeding-carbon.html
  */
-public class GraphiteFormatParser implements FormatParser {
+public class GraphiteFormatParser implements StreamingFormatParser {
+
     /**
-     * UTF-8 charset. Used for decoding the given input stream.
+     * Interns the metric names of all requests.
      */
-    private static final Charset UTF_8 = Charset.forName("utf-8");
-    private static final String METRIC_TYPE = "metric";
+    private final StringDictionary dictionary = new StringDictionary();
+
+    /**
+     * Maps the series keys of all requests to ids.
+     */
+    private final SeriesKeyRegistry seriesKeys = new SeriesKeyRegistry();
 
     @Override
-    public Iterable<MetricTimeSeries> parse(InputStream stream) throws FormatParseException {
-        Map<String, MetricTimeSeries.Builder> metrics = new HashMap<>();
+    public void parse(InputStream stream, ChunkLimits limits, ChunkConsumer consumer) throws FormatParseException, IOException {
+        parse(new ByteTokenizer(stream, dictionary), limits, consumer, null);
+    }
 
-        BufferedReader reader = new BufferedReader(new InputStreamReader(stream, UTF_8));
-        String line;
-        try {
-            while ((line = reader.readLine()) != null) {
+    @Override
+    public void parseLines(byte[] lines, int offset, int length, ChunkLimits limits, ChunkConsumer consumer,
+                           InvalidLineHandler invalidLines) throws FormatParseException, IOException {
+        parse(new ByteTokenizer(lines, offset, length, dictionary), limits, consumer, invalidLines);
+    }
+
+    /**
+     * Parses the lines of the tokenizer and passes the time series on in chunks.
+     *
+     * @param tokenizer    Tokenizer.
+     * @param limits       Limits when a chunk is passed on.
+     * @param consumer     Consumer of the chunks.
+     * @param invalidLines Handler of the lines that can't be parsed, null to fail on the first one.
+     * @throws FormatParseException If a line can't be parsed without a handler or the stream can't be read.
+     * @throws IOException          If the consumer failed.
+     */
+    private void parse(ByteTokenizer tokenizer, ChunkLimits limits, ChunkConsumer consumer, InvalidLineHandler invalidLines)
+            throws FormatParseException, IOException {
+        ChunkBuffer<String> metrics = new ChunkBuffer<>(limits, consumer);
+
+        ByteTokenizer.Tokens parts = new ByteTokenizer.Tokens();
+        while (nextLine(tokenizer)) {
+            try {
                 // Format is: <metric path> <metric value> <metric timestamp>
-                String[] parts = StringUtils.split(line, ' ');
-                if (parts.length != 3) {
-                    throw new FormatParseException("Expected 3 parts, found " + parts.length + " in line '" + line + "'");
+                if (tokenizer.split(parts, (byte) ' ') != 3) {
+                    throw new FormatParseException("Expected 3 parts, found " + parts.size() + " in line '" + tokenizer.line() + "'");
                 }
 
-                String metricName = getMetricName(parts);
-                double value = getMetricValue(parts);
-                Instant timestamp = getMetricTimestamp(parts);
+                double value = getMetricValue(tokenizer, parts);
+                long timestamp = getMetricTimestamp(tokenizer, parts);
 
                 // If the metric is already known, add a point. Otherwise create the metric and add the point.
-                MetricTimeSeries.Builder metricBuilder = metrics.get(metricName);
-                if (metricBuilder == null) {
-                    metricBuilder = new MetricTimeSeries.Builder(metricName, METRIC_TYPE);
-                    metrics.put(metricName, metricBuilder);
+                int seriesId = seriesKeys.id(tokenizer.seriesKey(parts.start(0), parts.end(0)));
+                ChunkBuffer.Series metric = metrics.aliased(seriesId);
+                if (metric == null) {
+                    String metricName = getMetricName(tokenizer, parts);
+                    metric = metrics.get(metricName);
+                    if (metric == null) {
+                        metric = metrics.add(metricName, metricName, Collections.emptyMap());
+                    }
+                    metrics.alias(seriesId, metric);
                 }
-                metricBuilder.point(timestamp.toEpochMilli(), value);
+                metrics.point(metric, timestamp, value);
+            } catch (FormatParseException e) {
+                if (invalidLines == null) {
+                    throw e;
+                }
+                invalidLines.invalidLine(e);
             }
+        }
+
+        metrics.flush();
+    }
+
+    @Override
+    public SeriesKeyRegistry getSeriesKeys() {
+        return seriesKeys;
+    }
+
+    /**
+     * Advances the tokenizer to the next line.
+     *
+     * @param tokenizer Tokenizer.
+     * @return False if there are no more lines.
+     * @throws FormatParseException If the stream can't be read.
+     */
+    private boolean nextLine(ByteTokenizer tokenizer) throws FormatParseException {
+        try {
+            return tokenizer.nextLine();
         } catch (IOException e) {
             throw new FormatParseException("IO exception while parsing Graphite format", e);
         }
-
-        return metrics.values().stream().map(MetricTimeSeries.Builder::build).collect(Collectors.toList());
     }
 
     /**
      * Extracts the metric timestamp from the parts.
      *
-     * @param parts Parts.
-     * @return Metric timestamp.
+     * @param tokenizer Tokenizer of the current line.
+     * @param parts     Parts.
+     * @return Metric timestamp in milliseconds.
      * @throws FormatParseException If something went wrong while extracting.
      */
-    private Instant getMetricTimestamp(String[] parts) throws FormatParseException {
-        String value = parts[2];
+    private long getMetricTimestamp(ByteTokenizer tokenizer, ByteTokenizer.Tokens parts) throws FormatParseException {
         try {
-            long epochTime = Long.parseLong(value);
-            return Instant.ofEpochSecond(epochTime);
+            long epochTime = tokenizer.parseLong(parts.start(2), parts.end(2));
+            return Math.multiplyExact(epochTime, 1000L);
         } catch (NumberFormatException e) {
-            throw new FormatParseException("Can't convert '" + value + "' to long", e);
+            throw new FormatParseException("Can't convert '" + tokenizer.string(parts.start(2), parts.end(2)) + "' to long", e);
         }
     }
 
     /**
      * Extracts the metric value from the given parts.
      *
-     * @param parts Parts.
+     * @param tokenizer Tokenizer of the current line.
+     * @param parts     Parts.
      * @return Metric value.
      * @throws FormatParseException If something went wrong while extracting.
      */
-    private double getMetricValue(String[] parts) throws FormatParseException {
-        String value = parts[1];
+    private double getMetricValue(ByteTokenizer tokenizer, ByteTokenizer.Tokens parts) throws FormatParseException {
         try {
-            return Double.parseDouble(value);
+            return tokenizer.parseDouble(parts.start(1), parts.end(1));
         } catch (NumberFormatException e) {
-            throw new FormatParseException("Can't convert '" + value + "' to double", e);
+            throw new FormatParseException("Can't convert '" + tokenizer.string(parts.start(1), parts.end(1)) + "' to double", e);
         }
     }
 
     /**
      * Extracts the metric name from the given parts.
      *
-     * @param parts Parts.
+     * @param tokenizer Tokenizer of the current line.
+     * @param parts     Parts.
      * @return Metric name.
      */
-    private String getMetricName(String[] parts) {
-        return parts[0];
+    private String getMetricName(ByteTokenizer tokenizer, ByteTokenizer.Tokens parts) {
+        return tokenizer.intern(parts.start(0), parts.end(0));
     }
 }
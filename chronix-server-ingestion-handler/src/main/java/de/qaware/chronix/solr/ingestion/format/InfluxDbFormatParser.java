@@ -15,32 +15,29 @@
  */
 package de.qaware.chronix.solr.ingestion.format;
 
-import de.qaware.chronix.timeseries.MetricTimeSeries;
-import org.apache.commons.lang.StringUtils;
-
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.nio.charset.Charset;
-import java.time.Instant;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
-import java.util.stream.Collectors;
 
 /**
  * A format parser for the InfluxDB line protocol.
  * <p>
  * See https://docs.influxdata.com/influxdb/v1.0/write_protocols/line_protocol_reference/
  */
-public class InfluxDbFormatParser implements FormatParser {
+public class InfluxDbFormatParser implements StreamingFormatParser {
+    private static final byte[] VALUE = {'v', 'a', 'l', 'u', 'e'};
+
     /**
-     * UTF-8 charset. Used for decoding the given input stream.
+     * Interns the metric names and tag keys of all requests.
      */
-    private static final Charset UTF_8 = Charset.forName("utf-8");
-    private static final String METRIC_TYPE = "metric";
+    private final StringDictionary dictionary = new StringDictionary();
 
+    /**
+     * Maps the series keys of all requests to ids.
+     */
+    private final SeriesKeyRegistry seriesKeys = new SeriesKeyRegistry();
 
     private final Clock clock;
 
@@ -54,116 +51,165 @@ public class InfluxDbFormatParser implements FormatParser {
     }
 
     @Override
-    public Iterable<MetricTimeSeries> parse(InputStream stream) throws FormatParseException {
-        Map<Metric, MetricTimeSeries.Builder> metrics = new HashMap<>();
+    public void parse(InputStream stream, ChunkLimits limits, ChunkConsumer consumer) throws FormatParseException, IOException {
+        parse(new ByteTokenizer(stream, dictionary), limits, consumer, null);
+    }
 
-        BufferedReader reader = new BufferedReader(new InputStreamReader(stream, UTF_8));
-        String line;
-        try {
-            while ((line = reader.readLine()) != null) {
+    @Override
+    public void parseLines(byte[] lines, int offset, int length, ChunkLimits limits, ChunkConsumer consumer,
+                           InvalidLineHandler invalidLines) throws FormatParseException, IOException {
+        parse(new ByteTokenizer(lines, offset, length, dictionary), limits, consumer, invalidLines);
+    }
+
+    /**
+     * Parses the lines of the tokenizer and passes the time series on in chunks.
+     *
+     * @param tokenizer    Tokenizer.
+     * @param limits       Limits when a chunk is passed on.
+     * @param consumer     Consumer of the chunks.
+     * @param invalidLines Handler of the lines that can't be parsed, null to fail on the first one.
+     * @throws FormatParseException If a line can't be parsed without a handler or the stream can't be read.
+     * @throws IOException          If the consumer failed.
+     */
+    private void parse(ByteTokenizer tokenizer, ChunkLimits limits, ChunkConsumer consumer, InvalidLineHandler invalidLines)
+            throws FormatParseException, IOException {
+        ChunkBuffer<Metric> metrics = new ChunkBuffer<>(limits, consumer);
+
+        ByteTokenizer.Tokens parts = new ByteTokenizer.Tokens();
+        ByteTokenizer.Tokens subParts = new ByteTokenizer.Tokens();
+        ByteTokenizer.Tokens tagParts = new ByteTokenizer.Tokens();
+        while (nextLine(tokenizer)) {
+            try {
                 // Format is: {metric},[{tag1}={value1},{tag2}={value2}] value={value} [nanosecond-timestamp]
                 // Example: cpu_load_short,host=server02,region=us-west value=0.55 1422568543702900257
 
-                String[] parts = StringUtils.split(line, ' ');
                 // 2 parts: metric and value. Timestamp and tags are optional.
-                if (parts.length < 2) {
-                    throw new FormatParseException("Expected at least 2 parts, found " + parts.length + " in line '" + line + "'");
+                if (tokenizer.split(parts, (byte) ' ') < 2) {
+                    throw new FormatParseException("Expected at least 2 parts, found " + parts.size() + " in line '" + tokenizer.line() + "'");
                 }
 
-                String metricName = getMetricName(parts);
-                Map<String, String> tags = getMetricTags(parts);
-                double value = getMetricValue(parts);
-                Instant timestamp = getMetricTimestamp(parts);
-
-                // If the metric is already known, add a point. Otherwise create the metric and add the point.
-                Metric metric = new Metric(metricName, tags);
-                MetricTimeSeries.Builder metricBuilder = metrics.get(metric);
-                if (metricBuilder == null) {
-                    metricBuilder = new MetricTimeSeries.Builder(metricName, METRIC_TYPE);
-                    for (Map.Entry<String, String> tagEntry : tags.entrySet()) {
-                        metricBuilder.attribute(tagEntry.getKey(), tagEntry.getValue());
+                // The raw bytes of the metric and its tags, avoids parsing the tags of known metrics again
+                int seriesId = seriesKeys.id(tokenizer.seriesKey(parts.start(0), parts.end(0)));
+                ChunkBuffer.Series series = metrics.aliased(seriesId);
+                if (series == null) {
+                    String metricName = getMetricName(tokenizer, parts, subParts);
+                    Map<String, String> tags = getMetricTags(tokenizer, subParts, tagParts);
+
+                    // If the metric is already known, add a point. Otherwise create the metric and add the point.
+                    Metric metric = new Metric(metricName, tags);
+                    series = metrics.get(metric);
+                    if (series == null) {
+                        series = metrics.add(metric, metricName, tags);
                     }
-                    metrics.put(metric, metricBuilder);
+                    metrics.alias(seriesId, series);
                 }
 
-                metricBuilder.point(timestamp.toEpochMilli(), value);
+                double value = getMetricValue(tokenizer, parts, subParts);
+                long timestamp = getMetricTimestamp(tokenizer, parts);
+
+                metrics.point(series, timestamp, value);
+            } catch (FormatParseException e) {
+                if (invalidLines == null) {
+                    throw e;
+                }
+                invalidLines.invalidLine(e);
             }
-        } catch (IOException e) {
-            throw new FormatParseException("IO exception while parsing OpenTSDB telnet format", e);
         }
 
-        return metrics.values().stream().map(MetricTimeSeries.Builder::build).collect(Collectors.toList());
+        metrics.flush();
+    }
+
+    @Override
+    public SeriesKeyRegistry getSeriesKeys() {
+        return seriesKeys;
+    }
+
+    /**
+     * Advances the tokenizer to the next line.
+     *
+     * @param tokenizer Tokenizer.
+     * @return False if there are no more lines.
+     * @throws FormatParseException If the stream can't be read.
+     */
+    private boolean nextLine(ByteTokenizer tokenizer) throws FormatParseException {
+        try {
+            return tokenizer.nextLine();
+        } catch (IOException e) {
+            throw new FormatParseException("IO exception while parsing InfluxDB format", e);
+        }
     }
 
     /**
      * Extracts the metric timestamp from the parts.
      *
-     * @param parts Parts.
-     * @return Metric timestamp.
+     * @param tokenizer Tokenizer of the current line.
+     * @param parts     Parts.
+     * @return Metric timestamp in milliseconds.
      * @throws FormatParseException If something went wrong while extracting.
      */
-    private Instant getMetricTimestamp(String[] parts) throws FormatParseException {
+    private long getMetricTimestamp(ByteTokenizer tokenizer, ByteTokenizer.Tokens parts) throws FormatParseException {
         // Timestamp is optional. If it's missing, use the local server time
-        if (parts.length < 3) {
-            return clock.now();
+        if (parts.size() < 3) {
+            return clock.now().toEpochMilli();
         }
 
-        String value = parts[2];
         try {
-            long epochTime = Long.parseLong(value);
+            long epochTime = tokenizer.parseLong(parts.start(2), parts.end(2));
 
             // epochTime is in nanoseconds, convert to milliseconds
-            return Instant.ofEpochMilli(epochTime / 1000);
+            return epochTime / 1000;
         } catch (NumberFormatException e) {
-            throw new FormatParseException("Can't convert '" + value + "' to long", e);
+            throw new FormatParseException("Can't convert '" + tokenizer.string(parts.start(2), parts.end(2)) + "' to long", e);
         }
     }
 
     /**
      * Extracts the metric value from the given parts.
      *
-     * @param parts Parts.
+     * @param tokenizer  Tokenizer of the current line.
+     * @param parts      Parts.
+     * @param valueParts Reusable tokens for the parts of the value.
      * @return Metric value.
      * @throws FormatParseException If something went wrong while extracting.
      */
-    private double getMetricValue(String[] parts) throws FormatParseException {
-        String value = parts[1];
+    private double getMetricValue(ByteTokenizer tokenizer, ByteTokenizer.Tokens parts, ByteTokenizer.Tokens valueParts) throws FormatParseException {
+        int start = parts.start(1);
+        int end = parts.end(1);
 
-        String[] valueParts = StringUtils.split(value, "=", 2);
-        if (valueParts.length < 2) {
-            throw new FormatParseException("Expected at least 2 parts, found " + valueParts.length + " in '" + value + "'");
+        if (tokenizer.split(valueParts, start, end, (byte) '=', 2) < 2) {
+            throw new FormatParseException("Expected at least 2 parts, found " + valueParts.size() + " in '" + tokenizer.string(start, end) + "'");
         }
-        if (!valueParts[0].equals("value")) {
-            throw new FormatParseException("Expected first part to be 'value', but was '" + valueParts[0] + "' in '" + value + "'");
+        if (!tokenizer.matches(valueParts.start(0), valueParts.end(0), VALUE)) {
+            throw new FormatParseException("Expected first part to be 'value', but was '" + tokenizer.string(valueParts.start(0), valueParts.end(0))
+                    + "' in '" + tokenizer.string(start, end) + "'");
         }
 
         try {
-            return Double.parseDouble(valueParts[1]);
+            return tokenizer.parseDouble(valueParts.start(1), valueParts.end(1));
         } catch (NumberFormatException e) {
-            throw new FormatParseException("Can't convert '" + value + "' to double", e);
+            throw new FormatParseException("Can't convert '" + tokenizer.string(start, end) + "' to double", e);
         }
 
     }
 
     /**
-     * Extract the metric tags from the parts.
+     * Extract the metric tags from the parts of the metric.
      *
-     * @param parts Parts.
+     * @param tokenizer Tokenizer of the current line.
+     * @param nameParts Name and tags, split by {@link #getMetricName(ByteTokenizer, ByteTokenizer.Tokens, ByteTokenizer.Tokens)}.
+     * @param tagParts  Reusable tokens for the parts of a tag.
      * @return Metric tags.
      * @throws FormatParseException If something went wrong while extracting.
      */
-    private Map<String, String> getMetricTags(String[] parts) throws FormatParseException {
+    private Map<String, String> getMetricTags(ByteTokenizer tokenizer, ByteTokenizer.Tokens nameParts, ByteTokenizer.Tokens tagParts) throws FormatParseException {
         Map<String, String> tags = new HashMap<>();
 
-        String value = parts[0];
-        String[] valueParts = StringUtils.split(value, ',');
-        for (int i = 1; i < valueParts.length; i++) {
-            String tag = valueParts[i];
-            String[] tagParts = StringUtils.split(tag, "=", 2);
-            if (tagParts.length < 2) {
-                throw new FormatParseException("Expected at least 2 parts, found " + tagParts.length + " in '" + tag + "'");
+        for (int i = 1; i < nameParts.size(); i++) {
+            if (tokenizer.split(tagParts, nameParts.start(i), nameParts.end(i), (byte) '=', 2) < 2) {
+                throw new FormatParseException("Expected at least 2 parts, found " + tagParts.size()
+                        + " in '" + tokenizer.string(nameParts.start(i), nameParts.end(i)) + "'");
             }
-            tags.put(tagParts[0], tagParts[1]);
+            tags.put(tokenizer.intern(tagParts.start(0), tagParts.end(0)), tokenizer.string(tagParts.start(1), tagParts.end(1)));
         }
 
         return tags;
@@ -172,18 +218,18 @@ public class InfluxDbFormatParser implements FormatParser {
     /**
      * Extracts the metric name from the given parts.
      *
-     * @param parts Parts.
+     * @param tokenizer Tokenizer of the current line.
+     * @param parts     Parts.
+     * @param nameParts Reusable tokens, filled with the name and the tags.
      * @return Metric name.
      * @throws FormatParseException If something went wrong while extracting.
      */
-    private String getMetricName(String[] parts) throws FormatParseException {
-        String value = parts[0];
-        String[] nameParts = StringUtils.split(value, ',');
-        if (nameParts.length < 1) {
-            throw new FormatParseException("Expected at least 1 part, found " + nameParts.length + " in '" + value + "'");
+    private String getMetricName(ByteTokenizer tokenizer, ByteTokenizer.Tokens parts, ByteTokenizer.Tokens nameParts) throws FormatParseException {
+        if (tokenizer.split(nameParts, parts.start(0), parts.end(0), (byte) ',', -1) < 1) {
+            throw new FormatParseException("Expected at least 1 part, found " + nameParts.size() + " in '" + tokenizer.string(parts.start(0), parts.end(0)) + "'");
         }
 
-        return nameParts[0];
+        return tokenizer.intern(nameParts.start(0), nameParts.end(0));
     }
 
     /**
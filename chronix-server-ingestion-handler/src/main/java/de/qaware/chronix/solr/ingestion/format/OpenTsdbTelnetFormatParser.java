@@ -15,95 +15,141 @@
  */
 package de.qaware.chronix.solr.ingestion.format;
 
-import de.qaware.chronix.timeseries.MetricTimeSeries;
-import org.apache.commons.lang.StringUtils;
-
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.nio.charset.Charset;
-import java.time.Instant;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
-import java.util.stream.Collectors;
 
 /**
  * Parses the OpenTSDB telnet format.
  * <p>
  * See http://opentsdb.net/docs/build/html/user_guide/writing.html.
  */
-public class OpenTsdbTelnetFormatParser implements FormatParser {
+public class OpenTsdbTelnetFormatParser implements StreamingFormatParser {
+    private static final byte[] PUT = {'p', 'u', 't'};
+
+    /**
+     * Interns the metric names and tag keys of all requests.
+     */
+    private final StringDictionary dictionary = new StringDictionary();
+
     /**
-     * UTF-8 charset. Used for decoding the given input stream.
+     * Maps the series keys of all requests to ids.
      */
-    private static final Charset UTF_8 = Charset.forName("utf-8");
-    private static final String METRIC_TYPE = "metric";
+    private final SeriesKeyRegistry seriesKeys = new SeriesKeyRegistry();
 
     @Override
-    public Iterable<MetricTimeSeries> parse(InputStream stream) throws FormatParseException {
-        Map<Metric, MetricTimeSeries.Builder> metrics = new HashMap<>();
+    public void parse(InputStream stream, ChunkLimits limits, ChunkConsumer consumer) throws FormatParseException, IOException {
+        parse(new ByteTokenizer(stream, dictionary), limits, consumer, null);
+    }
 
-        BufferedReader reader = new BufferedReader(new InputStreamReader(stream, UTF_8));
-        String line;
-        try {
-            while ((line = reader.readLine()) != null) {
+    @Override
+    public void parseLines(byte[] lines, int offset, int length, ChunkLimits limits, ChunkConsumer consumer,
+                           InvalidLineHandler invalidLines) throws FormatParseException, IOException {
+        parse(new ByteTokenizer(lines, offset, length, dictionary), limits, consumer, invalidLines);
+    }
+
+    /**
+     * Parses the lines of the tokenizer and passes the time series on in chunks.
+     *
+     * @param tokenizer    Tokenizer.
+     * @param limits       Limits when a chunk is passed on.
+     * @param consumer     Consumer of the chunks.
+     * @param invalidLines Handler of the lines that can't be parsed, null to fail on the first one.
+     * @throws FormatParseException If a line can't be parsed without a handler or the stream can't be read.
+     * @throws IOException          If the consumer failed.
+     */
+    private void parse(ByteTokenizer tokenizer, ChunkLimits limits, ChunkConsumer consumer, InvalidLineHandler invalidLines)
+            throws FormatParseException, IOException {
+        ChunkBuffer<Metric> metrics = new ChunkBuffer<>(limits, consumer);
+
+        ByteTokenizer.Tokens parts = new ByteTokenizer.Tokens();
+        ByteTokenizer.Tokens tagParts = new ByteTokenizer.Tokens();
+        while (nextLine(tokenizer)) {
+            try {
                 // Format is: put <metric> <timestamp> <value> <tagk1=tagv1[ tagk2=tagv2 ...tagkN=tagvN]>
                 // Example: put sys.cpu.user 1356998400 42.5 host=webserver01 cpu=0
 
-                String[] parts = StringUtils.split(line, ' ');
                 // 5 parts, because "Each data point must have at least one tag."
-                if (parts.length < 5) {
-                    throw new FormatParseException("Expected at least 5 parts, found " + parts.length + " in line '" + line + "'");
+                if (tokenizer.split(parts, (byte) ' ') < 5) {
+                    throw new FormatParseException("Expected at least 5 parts, found " + parts.size() + " in line '" + tokenizer.line() + "'");
                 }
 
-                if (!parts[0].equals("put")) {
-                    throw new FormatParseException("Expected first segment to be 'put', but was '" + parts[0] + "'");
+                if (!tokenizer.matches(parts.start(0), parts.end(0), PUT)) {
+                    throw new FormatParseException("Expected first segment to be 'put', but was '" + tokenizer.string(parts.start(0), parts.end(0)) + "'");
                 }
 
-                String metricName = getMetricName(parts);
-                Instant timestamp = getMetricTimestamp(parts);
-                double value = getMetricValue(parts);
-                Map<String, String> tags = getMetricTags(parts);
-
-                // If the metric is already known, add a point. Otherwise create the metric and add the point.
-                Metric metric = new Metric(metricName, tags);
-                MetricTimeSeries.Builder metricBuilder = metrics.get(metric);
-                if (metricBuilder == null) {
-                    metricBuilder = new MetricTimeSeries.Builder(metricName, METRIC_TYPE);
-                    for (Map.Entry<String, String> tagEntry : tags.entrySet()) {
-                        metricBuilder.attribute(tagEntry.getKey(), tagEntry.getValue());
+                long timestamp = getMetricTimestamp(tokenizer, parts);
+                double value = getMetricValue(tokenizer, parts);
+
+                // The metric name can't contain a space, hence name and tags are an unambiguous key
+                tokenizer.seriesKey(parts.start(1), parts.end(1));
+                int seriesId = seriesKeys.id(tokenizer.appendSeriesKey((byte) ' ', parts.start(4), parts.end(parts.size() - 1)));
+                ChunkBuffer.Series series = metrics.aliased(seriesId);
+                if (series == null) {
+                    String metricName = getMetricName(tokenizer, parts);
+                    Map<String, String> tags = getMetricTags(tokenizer, parts, tagParts);
+
+                    // If the metric is already known, add a point. Otherwise create the metric and add the point.
+                    Metric metric = new Metric(metricName, tags);
+                    series = metrics.get(metric);
+                    if (series == null) {
+                        series = metrics.add(metric, metricName, tags);
                     }
-                    metrics.put(metric, metricBuilder);
+                    metrics.alias(seriesId, series);
                 }
 
-                metricBuilder.point(timestamp.toEpochMilli(), value);
+                metrics.point(series, timestamp, value);
+            } catch (FormatParseException e) {
+                if (invalidLines == null) {
+                    throw e;
+                }
+                invalidLines.invalidLine(e);
             }
+        }
+
+        metrics.flush();
+    }
+
+    @Override
+    public SeriesKeyRegistry getSeriesKeys() {
+        return seriesKeys;
+    }
+
+    /**
+     * Advances the tokenizer to the next line.
+     *
+     * @param tokenizer Tokenizer.
+     * @return False if there are no more lines.
+     * @throws FormatParseException If the stream can't be read.
+     */
+    private boolean nextLine(ByteTokenizer tokenizer) throws FormatParseException {
+        try {
+            return tokenizer.nextLine();
         } catch (IOException e) {
             throw new FormatParseException("IO exception while parsing OpenTSDB telnet format", e);
         }
-
-        return metrics.values().stream().map(MetricTimeSeries.Builder::build).collect(Collectors.toList());
     }
 
     /**
      * Extract the metric tags from the parts.
      *
-     * @param parts Parts.
+     * @param tokenizer Tokenizer of the current line.
+     * @param parts     Parts.
+     * @param tagParts  Reusable tokens for the parts of a tag.
      * @return Metric tags.
      */
-    private Map<String, String> getMetricTags(String[] parts) throws FormatParseException {
+    private Map<String, String> getMetricTags(ByteTokenizer tokenizer, ByteTokenizer.Tokens parts, ByteTokenizer.Tokens tagParts) throws FormatParseException {
         Map<String, String> tags = new HashMap<>();
 
-        for (int i = 4; i < parts.length; i++) {
-            String tag = parts[i];
-            String[] tagParts = StringUtils.split(tag, "=", 2);
-            if (tagParts.length != 2) {
-                throw new FormatParseException("Expected 2 tag parts, found " + tagParts.length + " in tag '" + tag + "'");
+        for (int i = 4; i < parts.size(); i++) {
+            if (tokenizer.split(tagParts, parts.start(i), parts.end(i), (byte) '=', 2) != 2) {
+                throw new FormatParseException("Expected 2 tag parts, found " + tagParts.size()
+                        + " in tag '" + tokenizer.string(parts.start(i), parts.end(i)) + "'");
             }
 
-            tags.put(tagParts[0], tagParts[1]);
+            tags.put(tokenizer.intern(tagParts.start(0), tagParts.end(0)), tokenizer.string(tagParts.start(1), tagParts.end(1)));
         }
 
         return tags;
@@ -112,51 +158,54 @@ public class OpenTsdbTelnetFormatParser implements FormatParser {
     /**
      * Extracts the metric timestamp from the parts.
      *
-     * @param parts Parts.
-     * @return Metric timestamp.
+     * @param tokenizer Tokenizer of the current line.
+     * @param parts     Parts.
+     * @return Metric timestamp in milliseconds.
      * @throws FormatParseException If something went wrong while extracting.
      */
-    private Instant getMetricTimestamp(String[] parts) throws FormatParseException {
-        String value = parts[2];
-        try {
-            if (value.length() != 10 && value.length() != 13) {
-                throw new FormatParseException("Expected a timestamp length of 10 or 13, found " + value.length() + " ('" + value + "')");
-            }
+    private long getMetricTimestamp(ByteTokenizer tokenizer, ByteTokenizer.Tokens parts) throws FormatParseException {
+        int length = parts.length(2);
+        if (length != 10 && length != 13) {
+            throw new FormatParseException("Expected a timestamp length of 10 or 13, found " + length
+                    + " ('" + tokenizer.string(parts.start(2), parts.end(2)) + "')");
+        }
 
+        try {
             // 10 digits means seconds, 13 digits mean milliseconds
-            boolean secondResolution = value.length() == 10;
+            boolean secondResolution = length == 10;
 
-            long epochTime = Long.parseLong(value);
-            return secondResolution ? Instant.ofEpochSecond(epochTime) : Instant.ofEpochMilli(epochTime);
+            long epochTime = tokenizer.parseLong(parts.start(2), parts.end(2));
+            return secondResolution ? Math.multiplyExact(epochTime, 1000L) : epochTime;
         } catch (NumberFormatException e) {
-            throw new FormatParseException("Can't convert '" + value + "' to long", e);
+            throw new FormatParseException("Can't convert '" + tokenizer.string(parts.start(2), parts.end(2)) + "' to long", e);
         }
     }
 
     /**
      * Extracts the metric value from the given parts.
      *
-     * @param parts Parts.
+     * @param tokenizer Tokenizer of the current line.
+     * @param parts     Parts.
      * @return Metric value.
      * @throws FormatParseException If something went wrong while extracting.
      */
-    private double getMetricValue(String[] parts) throws FormatParseException {
-        String value = parts[3];
+    private double getMetricValue(ByteTokenizer tokenizer, ByteTokenizer.Tokens parts) throws FormatParseException {
         try {
-            return Double.parseDouble(value);
+            return tokenizer.parseDouble(parts.start(3), parts.end(3));
         } catch (NumberFormatException e) {
-            throw new FormatParseException("Can't convert '" + value + "' to double", e);
+            throw new FormatParseException("Can't convert '" + tokenizer.string(parts.start(3), parts.end(3)) + "' to double", e);
         }
     }
 
     /**
      * Extracts the metric name from the given parts.
      *
-     * @param parts Parts.
+     * @param tokenizer Tokenizer of the current line.
+     * @param parts     Parts.
      * @return Metric name.
      */
-    private String getMetricName(String[] parts) {
-        return parts[1];
+    private String getMetricName(ByteTokenizer tokenizer, ByteTokenizer.Tokens parts) {
+        return tokenizer.intern(parts.start(1), parts.end(1));
     }
 
     /**
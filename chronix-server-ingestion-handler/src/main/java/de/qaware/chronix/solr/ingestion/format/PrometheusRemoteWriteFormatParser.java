@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.solr.ingestion.format;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A format parser for the Prometheus remote write protocol.
+ * <p>
+ * The payload is a snappy compressed protobuf WriteRequest. The samples are decoded straight into the time series,
+ * without generated protobuf classes or a detour over the text format. Every time series of the request is ingested,
+ * whatever its type. The label {@code __name__} is the metric name, the other labels are attributes.
+ * <p>
+ * See https://github.com/prometheus/prometheus/blob/master/prompb/remote.proto
+ */
+public class PrometheusRemoteWriteFormatParser implements StreamingFormatParser {
+    private static final String METRIC_NAME_LABEL = "__name__";
+
+    // WriteRequest
+    private static final int TIMESERIES = 1;
+    // TimeSeries
+    private static final int LABELS = 1;
+    private static final int SAMPLES = 2;
+    // Label
+    private static final int LABEL_NAME = 1;
+    private static final int LABEL_VALUE = 2;
+    // Sample
+    private static final int SAMPLE_VALUE = 1;
+    private static final int SAMPLE_TIMESTAMP = 2;
+
+    /**
+     * Interns the label names and metric names of all requests.
+     */
+    private final StringDictionary dictionary = new StringDictionary();
+
+    /**
+     * Maps the series keys of all requests to ids.
+     */
+    private final SeriesKeyRegistry seriesKeys = new SeriesKeyRegistry();
+
+    @Override
+    public void parse(InputStream stream, ChunkLimits limits, ChunkConsumer consumer) throws FormatParseException, IOException {
+        byte[] compressed = readFully(stream);
+        byte[] request = Snappy.uncompress(compressed, 0, compressed.length);
+
+        ChunkBuffer<Map<String, String>> metrics = new ChunkBuffer<>(limits, consumer);
+        ProtobufReader writeRequest = new ProtobufReader().reset(request, 0, request.length);
+        ProtobufReader timeSeries = new ProtobufReader();
+        ProtobufReader field = new ProtobufReader();
+        ByteKey seriesKey = new ByteKey();
+        ByteKey probe = new ByteKey();
+
+        while (writeRequest.hasRemaining()) {
+            int tag = writeRequest.readTag();
+            if (ProtobufReader.fieldNumber(tag) != TIMESERIES || ProtobufReader.wireType(tag) != ProtobufReader.LENGTH_DELIMITED) {
+                // e.g. the metadata
+                writeRequest.skip(tag);
+                continue;
+            }
+            int length = writeRequest.readLength();
+            int start = writeRequest.position();
+            writeRequest.skipBytes(length);
+
+            // The raw bytes of the labels, avoids decoding the labels of known time series again
+            seriesKey.reset();
+            timeSeries.reset(request, start, start + length);
+            while (timeSeries.hasRemaining()) {
+                int fieldStart = timeSeries.position();
+                int fieldTag = timeSeries.readTag();
+                timeSeries.skip(fieldTag);
+                if (ProtobufReader.fieldNumber(fieldTag) == LABELS) {
+                    seriesKey.append(request, fieldStart, timeSeries.position());
+                }
+            }
+            int seriesId = seriesKeys.id(seriesKey);
+            ChunkBuffer.Series series = metrics.aliased(seriesId);
+            if (series == null) {
+                series = getSeries(metrics, getLabels(request, timeSeries.reset(request, start, start + length), field, probe));
+                metrics.alias(seriesId, series);
+            }
+
+            timeSeries.reset(request, start, start + length);
+            while (timeSeries.hasRemaining()) {
+                int fieldTag = timeSeries.readTag();
+                if (ProtobufReader.fieldNumber(fieldTag) == SAMPLES && ProtobufReader.wireType(fieldTag) == ProtobufReader.LENGTH_DELIMITED) {
+                    int sampleLength = timeSeries.readLength();
+                    int sampleStart = timeSeries.position();
+                    timeSeries.skipBytes(sampleLength);
+                    addSample(metrics, series, field.reset(request, sampleStart, sampleStart + sampleLength));
+                } else {
+                    timeSeries.skip(fieldTag);
+                }
+            }
+        }
+
+        metrics.flush();
+    }
+
+    @Override
+    public SeriesKeyRegistry getSeriesKeys() {
+        return seriesKeys;
+    }
+
+    /**
+     * Reads the whole payload, the snappy block format can't be decompressed as a stream.
+     *
+     * @param stream Input stream.
+     * @return Payload.
+     * @throws FormatParseException If the stream can't be read.
+     */
+    private byte[] readFully(InputStream stream) throws FormatParseException {
+        try {
+            byte[] buffer = new byte[8192];
+            int length = 0;
+            int read;
+            while ((read = stream.read(buffer, length, buffer.length - length)) >= 0) {
+                length += read;
+                if (length == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                }
+            }
+            return Arrays.copyOf(buffer, length);
+        } catch (IOException e) {
+            throw new FormatParseException("IO exception while parsing Prometheus remote write format", e);
+        }
+    }
+
+    /**
+     * Gets a time series from the given metrics buffer. If the time series doesn't exist in the buffer, it will be
+     * created.
+     *
+     * @param metrics Metric buffer.
+     * @param labels  All labels of the time series, including the metric name.
+     * @return Time series.
+     * @throws FormatParseException If the metric name is missing.
+     */
+    private ChunkBuffer.Series getSeries(ChunkBuffer<Map<String, String>> metrics, Map<String, String> labels) throws FormatParseException {
+        ChunkBuffer.Series series = metrics.get(labels);
+        if (series != null) {
+            return series;
+        }
+
+        String metricName = labels.get(METRIC_NAME_LABEL);
+        if (metricName == null) {
+            throw new FormatParseException("Expected a label '" + METRIC_NAME_LABEL + "', found " + labels);
+        }
+        Map<String, String> tags = new HashMap<>(labels);
+        tags.remove(METRIC_NAME_LABEL);
+        return metrics.add(labels, metricName, tags);
+    }
+
+    /**
+     * Decodes the labels of a time series.
+     *
+     * @param request    Uncompressed request.
+     * @param timeSeries Reader of the time series.
+     * @param label      Reusable reader for a label.
+     * @param probe      Reusable key to intern the names.
+     * @return Labels.
+     * @throws FormatParseException If a label is invalid.
+     */
+    private Map<String, String> getLabels(byte[] request, ProtobufReader timeSeries, ProtobufReader label, ByteKey probe) throws FormatParseException {
+        Map<String, String> labels = new HashMap<>();
+        while (timeSeries.hasRemaining()) {
+            int tag = timeSeries.readTag();
+            if (ProtobufReader.fieldNumber(tag) != LABELS || ProtobufReader.wireType(tag) != ProtobufReader.LENGTH_DELIMITED) {
+                timeSeries.skip(tag);
+                continue;
+            }
+            int length = timeSeries.readLength();
+            int start = timeSeries.position();
+            timeSeries.skipBytes(length);
+
+            String name = null;
+            String value = "";
+            label.reset(request, start, start + length);
+            while (label.hasRemaining()) {
+                int labelTag = label.readTag();
+                int field = ProtobufReader.fieldNumber(labelTag);
+                if ((field == LABEL_NAME || field == LABEL_VALUE) && ProtobufReader.wireType(labelTag) == ProtobufReader.LENGTH_DELIMITED) {
+                    int stringLength = label.readLength();
+                    int stringStart = label.position();
+                    label.skipBytes(stringLength);
+                    probe.reset().append(request, stringStart, stringStart + stringLength);
+                    if (field == LABEL_NAME) {
+                        name = dictionary.intern(probe);
+                    } else {
+                        value = METRIC_NAME_LABEL.equals(name) ? dictionary.intern(probe) : probe.decode();
+                    }
+                } else {
+                    label.skip(labelTag);
+                }
+            }
+            if (name == null) {
+                throw new FormatParseException("Expected a label name in time series with labels " + labels);
+            }
+            labels.put(name, value);
+        }
+        return labels;
+    }
+
+    /**
+     * Decodes a sample and adds it to the time series.
+     *
+     * @param metrics Metric buffer.
+     * @param series  Time series.
+     * @param sample  Reader of the sample.
+     * @throws FormatParseException If the sample is invalid.
+     * @throws IOException          If the consumer failed.
+     */
+    private void addSample(ChunkBuffer<Map<String, String>> metrics, ChunkBuffer.Series series, ProtobufReader sample) throws FormatParseException, IOException {
+        // Protobuf omits fields with default values
+        double value = 0;
+        long timestamp = 0;
+        while (sample.hasRemaining()) {
+            int tag = sample.readTag();
+            if (ProtobufReader.fieldNumber(tag) == SAMPLE_VALUE && ProtobufReader.wireType(tag) == ProtobufReader.FIXED_64) {
+                value = sample.readDouble();
+            } else if (ProtobufReader.fieldNumber(tag) == SAMPLE_TIMESTAMP && ProtobufReader.wireType(tag) == ProtobufReader.VARINT) {
+                // milliseconds since epoch
+                timestamp = sample.readVarint();
+            } else {
+                sample.skip(tag);
+            }
+        }
+        metrics.point(series, timestamp, value);
+    }
+}
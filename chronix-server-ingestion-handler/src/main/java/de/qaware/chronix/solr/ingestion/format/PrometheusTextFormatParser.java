@@ -15,37 +15,39 @@
  */
 package de.qaware.chronix.solr.ingestion.format;
 
-import de.qaware.chronix.timeseries.MetricTimeSeries;
-import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.nio.charset.Charset;
-import java.time.Instant;
 import java.util.*;
-import java.util.stream.Collectors;
 
 /**
  * Parses the Prometheus Text format.
  * <p>
  * See https://prometheus.io/docs/instrumenting/exposition_formats/#text-format-details
  */
-public class PrometheusTextFormatParser implements FormatParser {
-    /**
-     * UTF-8 charset. Used for decoding the given input stream.
-     */
-    private static final Charset UTF_8 = Charset.forName("utf-8");
-    private static final String METRIC_TYPE = "metric";
+public class PrometheusTextFormatParser implements StreamingFormatParser {
+    private static final byte[] COMMENT = {'#'};
+    private static final byte[] TYPE = {'#', ' ', 'T', 'Y', 'P', 'E'};
+    private static final byte[] HELP = {'#', ' ', 'H', 'E', 'L', 'P'};
+    private static final byte[] COUNTER = {'c', 'o', 'u', 'n', 't', 'e', 'r'};
 
     /**
      * Logger.
      */
     private static final Logger LOGGER = LoggerFactory.getLogger(PrometheusTextFormatParser.class);
 
+    /**
+     * Interns the metric names and tag keys of all requests.
+     */
+    private final StringDictionary dictionary = new StringDictionary();
+
+    /**
+     * Maps the series keys of all requests to ids.
+     */
+    private final SeriesKeyRegistry seriesKeys = new SeriesKeyRegistry();
+
     /**
      * Clock.
      */
@@ -61,113 +63,173 @@ public class PrometheusTextFormatParser implements FormatParser {
     }
 
     @Override
-    public Iterable<MetricTimeSeries> parse(InputStream stream) throws FormatParseException {
+    public void parse(InputStream stream, ChunkLimits limits, ChunkConsumer consumer) throws FormatParseException, IOException {
+        parse(new ByteTokenizer(stream, dictionary), limits, consumer, null);
+    }
+
+    @Override
+    public void parseLines(byte[] lines, int offset, int length, ChunkLimits limits, ChunkConsumer consumer,
+                           InvalidLineHandler invalidLines) throws FormatParseException, IOException {
+        parse(new ByteTokenizer(lines, offset, length, dictionary), limits, consumer, invalidLines);
+    }
+
+    /**
+     * Parses the lines of the tokenizer and passes the time series on in chunks.
+     *
+     * @param tokenizer    Tokenizer.
+     * @param limits       Limits when a chunk is passed on.
+     * @param consumer     Consumer of the chunks.
+     * @param invalidLines Handler of the lines that can't be parsed, null to fail on the first one.
+     * @throws FormatParseException If a line can't be parsed without a handler or the stream can't be read.
+     * @throws IOException          If the consumer failed.
+     */
+    private void parse(ByteTokenizer tokenizer, ChunkLimits limits, ChunkConsumer consumer, InvalidLineHandler invalidLines)
+            throws FormatParseException, IOException {
         Set<String> validMetricNames = new HashSet<>();
 
-        Map<Metric, MetricTimeSeries.Builder> metrics = new HashMap<>();
+        ChunkBuffer<Metric> metrics = new ChunkBuffer<>(limits, consumer);
 
-        BufferedReader reader = new BufferedReader(new InputStreamReader(stream, UTF_8));
-        String line;
-        try {
-            while ((line = reader.readLine()) != null) {
-                if (line.isEmpty()) {
+        ByteTokenizer.Tokens parts = new ByteTokenizer.Tokens();
+        ByteTokenizer.Tokens tags = new ByteTokenizer.Tokens();
+        ByteTokenizer.Tokens tagParts = new ByteTokenizer.Tokens();
+        while (nextLine(tokenizer)) {
+            try {
+                if (tokenizer.isLineEmpty()) {
                     continue;
                 }
-                if (isHelpLine(line)) {
+                if (tokenizer.lineStartsWith(HELP)) {
                     continue;
                 }
-                if (isTypeLine(line)) {
-                    TypeLine typeLine = parseTypeLine(line);
-                    if (isTypeValid(typeLine)) {
-                        validMetricNames.add(typeLine.getMetricName());
+                if (tokenizer.lineStartsWith(TYPE)) {
+                    String metricName = parseTypeLine(tokenizer, parts);
+                    if (metricName != null) {
+                        validMetricNames.add(metricName);
                     }
 
                     continue;
                 }
-                if (isCommentLine(line)) {
+                if (tokenizer.lineStartsWith(COMMENT)) {
                     continue;
                 }
 
                 // Example: http_requests_total{method="post",code="200"} 1027 1395066363000
-                String[] parts = StringUtils.split(line, ' ');
                 // At least 2 parts, because timestamp is optional
-                if (parts.length < 2) {
-                    throw new FormatParseException("Expected at least 2 parts, found " + parts.length + " in line '" + line + "'");
+                if (tokenizer.split(parts, (byte) ' ') < 2) {
+                    throw new FormatParseException("Expected at least 2 parts, found " + parts.size() + " in line '" + tokenizer.line() + "'");
                 }
 
-                String metricName = getMetricName(parts);
-                if (!validMetricNames.contains(metricName)) {
-                    LOGGER.debug("Ignoring metric {}", metricName);
-                    continue;
+                // The raw bytes of the metric and its tags, a known series of this request has a valid name and parsed tags
+                int seriesId = seriesKeys.id(tokenizer.seriesKey(parts.start(0), parts.end(0)));
+                ChunkBuffer.Series series = metrics.aliased(seriesId);
+                String metricName = null;
+                if (series == null) {
+                    metricName = getMetricName(tokenizer, parts);
+                    if (!validMetricNames.contains(metricName)) {
+                        LOGGER.debug("Ignoring metric {}", metricName);
+                        continue;
+                    }
                 }
 
-                Instant timestamp = getMetricTimestamp(parts);
-                double value = getMetricValue(parts);
-                Map<String, String> tags = getMetricTags(parts);
+                long timestamp = getMetricTimestamp(tokenizer, parts);
+                double value = getMetricValue(tokenizer, parts);
+
+                if (series == null) {
+                    series = getSeries(metrics, metricName, getMetricTags(tokenizer, parts, tags, tagParts));
+                    metrics.alias(seriesId, series);
+                }
 
-                addPoint(metrics, metricName, timestamp, value, tags);
+                metrics.point(series, timestamp, value);
+            } catch (FormatParseException e) {
+                if (invalidLines == null) {
+                    throw e;
+                }
+                invalidLines.invalidLine(e);
             }
-        } catch (IOException e) {
-            throw new FormatParseException("IO exception while parsing OpenTSDB telnet format", e);
         }
 
-        return metrics.values().stream().map(MetricTimeSeries.Builder::build).collect(Collectors.toList());
+        metrics.flush();
+    }
+
+    @Override
+    public SeriesKeyRegistry getSeriesKeys() {
+        return seriesKeys;
     }
 
     /**
-     * Adds a point to the given metrics map. If the metric doesn't exist in the map, it will be created.
+     * Advances the tokenizer to the next line.
      *
-     * @param metrics    Metric map.
+     * @param tokenizer Tokenizer.
+     * @return False if there are no more lines.
+     * @throws FormatParseException If the stream can't be read.
+     */
+    private boolean nextLine(ByteTokenizer tokenizer) throws FormatParseException {
+        try {
+            return tokenizer.nextLine();
+        } catch (IOException e) {
+            throw new FormatParseException("IO exception while parsing Prometheus text format", e);
+        }
+    }
+
+    /**
+     * Gets a metric from the given metrics buffer. If the metric doesn't exist in the buffer, it will be created.
+     *
+     * @param metrics    Metric buffer.
      * @param metricName Name of the metric.
-     * @param timestamp  Timestamp of the point.
-     * @param value      Value of the point.
-     * @param tags       Tags for the metric. These are only used if the metric doesn't already exist in the metrics map.
+     * @param tags       Tags for the metric. These are only used if the metric doesn't already exist in the metrics buffer.
+     * @return The buffered metric.
      */
-    private void addPoint(Map<Metric, MetricTimeSeries.Builder> metrics, String metricName, Instant timestamp, double value, Map<String, String> tags) {
+    private ChunkBuffer.Series getSeries(ChunkBuffer<Metric> metrics, String metricName, Map<String, String> tags) {
         Metric metric = new Metric(metricName, tags);
-        MetricTimeSeries.Builder metricBuilder = metrics.get(metric);
-        if (metricBuilder == null) {
-            metricBuilder = new MetricTimeSeries.Builder(metricName,METRIC_TYPE);
-            for (Map.Entry<String, String> tagEntry : tags.entrySet()) {
-                metricBuilder.attribute(tagEntry.getKey(), tagEntry.getValue());
-            }
-            metrics.put(metric, metricBuilder);
+        ChunkBuffer.Series series = metrics.get(metric);
+        if (series == null) {
+            series = metrics.add(metric, metricName, tags);
         }
 
-        metricBuilder.point(timestamp.toEpochMilli(), value);
+        return series;
     }
 
     /**
      * Extract the metric tags from the parts.
      *
-     * @param parts Parts.
+     * @param tokenizer Tokenizer of the current line.
+     * @param parts     Parts.
+     * @param tags      Reusable tokens for the tags.
+     * @param tagParts  Reusable tokens for the parts of a tag.
      * @return Metric tags.
      */
-    private Map<String, String> getMetricTags(String[] parts) throws FormatParseException {
-        String nameWithTags = parts[0];
+    private Map<String, String> getMetricTags(ByteTokenizer tokenizer, ByteTokenizer.Tokens parts,
+                                              ByteTokenizer.Tokens tags, ByteTokenizer.Tokens tagParts) throws FormatParseException {
+        int start = parts.start(0);
+        int end = parts.end(0);
 
-        int tagStartIndex = nameWithTags.indexOf('{');
+        int tagStartIndex = tokenizer.indexOf((byte) '{', start, end);
         if (tagStartIndex == -1) {
             return Collections.emptyMap();
         }
+        int tagEndIndex = tokenizer.indexOf((byte) '}', tagStartIndex, end);
+        if (tagEndIndex == -1) {
+            throw new FormatParseException("Expected the tags between {}, but there is no '}' in '" + tokenizer.string(start, end) + "'");
+        }
 
-        String tagString = nameWithTags.substring(tagStartIndex + 1, nameWithTags.indexOf('}'));
-        String[] tags = StringUtils.split(tagString, ',');
+        tokenizer.split(tags, tagStartIndex + 1, tagEndIndex, (byte) ',', -1);
 
         Map<String, String> result = new HashMap<>();
 
-        for (String tag : tags) {
-            String[] tagParts = StringUtils.split(tag, "=", 2);
-            if (tagParts.length != 2) {
-                throw new FormatParseException("Expected 2 tag parts, found " + tagParts.length + " in tag '" + tag + "'");
+        for (int i = 0; i < tags.size(); i++) {
+            if (tokenizer.split(tagParts, tags.start(i), tags.end(i), (byte) '=', 2) != 2) {
+                throw new FormatParseException("Expected 2 tag parts, found " + tagParts.size()
+                        + " in tag '" + tokenizer.string(tags.start(i), tags.end(i)) + "'");
             }
-            String tagValue = tagParts[1];
-            if (!tagValue.startsWith("\"") && !tagValue.endsWith("\"")) {
-                throw new FormatParseException("Expected the tag value between \"s, but it isn't. Tag: '" + tag + "'");
+            int valueStart = tagParts.start(1);
+            int valueEnd = tagParts.end(1);
+            boolean quoted = tokenizer.byteAt(valueStart) == '"' || tokenizer.byteAt(valueEnd - 1) == '"';
+            if (!quoted || valueEnd - valueStart < 2) {
+                throw new FormatParseException("Expected the tag value between \"s, but it isn't. Tag: '"
+                        + tokenizer.string(tags.start(i), tags.end(i)) + "'");
             }
 
-            String tagWithoutQuotes = tagValue.substring(1, tagValue.length() - 1);
-            result.put(tagParts[0], tagWithoutQuotes);
+            String tagWithoutQuotes = tokenizer.string(valueStart + 1, valueEnd - 1);
+            result.put(tokenizer.intern(tagParts.start(0), tagParts.end(0)), tagWithoutQuotes);
         }
 
         return result;
@@ -176,111 +238,78 @@ public class PrometheusTextFormatParser implements FormatParser {
     /**
      * Extracts the metric timestamp from the parts.
      *
-     * @param parts Parts.
-     * @return Metric timestamp.
+     * @param tokenizer Tokenizer of the current line.
+     * @param parts     Parts.
+     * @return Metric timestamp in milliseconds.
      * @throws FormatParseException If something went wrong while extracting.
      */
-    private Instant getMetricTimestamp(String[] parts) throws FormatParseException {
+    private long getMetricTimestamp(ByteTokenizer tokenizer, ByteTokenizer.Tokens parts) throws FormatParseException {
         // If the timestamp is missing, wall clock time is assumed.
-        if (parts.length < 3) {
-            return clock.now();
+        if (parts.size() < 3) {
+            return clock.now().toEpochMilli();
         }
 
-        String value = parts[2];
         try {
-            long epochTime = Long.parseLong(value);
-            return Instant.ofEpochMilli(epochTime);
+            return tokenizer.parseLong(parts.start(2), parts.end(2));
         } catch (NumberFormatException e) {
-            throw new FormatParseException("Can't convert '" + value + "' to long", e);
+            throw new FormatParseException("Can't convert '" + tokenizer.string(parts.start(2), parts.end(2)) + "' to long", e);
         }
     }
 
     /**
      * Extracts the metric value from the given parts.
      *
-     * @param parts Parts.
+     * @param tokenizer Tokenizer of the current line.
+     * @param parts     Parts.
      * @return Metric value.
      * @throws FormatParseException If something went wrong while extracting.
      */
-    private double getMetricValue(String[] parts) throws FormatParseException {
-        String value = parts[1];
+    private double getMetricValue(ByteTokenizer tokenizer, ByteTokenizer.Tokens parts) throws FormatParseException {
         try {
-            return Double.parseDouble(value);
+            return tokenizer.parseDouble(parts.start(1), parts.end(1));
         } catch (NumberFormatException e) {
-            throw new FormatParseException("Can't convert '" + value + "' to double", e);
+            throw new FormatParseException("Can't convert '" + tokenizer.string(parts.start(1), parts.end(1)) + "' to double", e);
         }
     }
 
     /**
      * Extracts the metric name from the given parts.
      *
-     * @param parts Parts.
+     * @param tokenizer Tokenizer of the current line.
+     * @param parts     Parts.
      * @return Metric name.
      */
-    private String getMetricName(String[] parts) {
-        String nameWithTags = parts[0];
+    private String getMetricName(ByteTokenizer tokenizer, ByteTokenizer.Tokens parts) {
+        int start = parts.start(0);
+        int end = parts.end(0);
 
-        int tagStartIndex = nameWithTags.indexOf('{');
+        int tagStartIndex = tokenizer.indexOf((byte) '{', start, end);
         if (tagStartIndex == -1) {
-            return nameWithTags;
+            return tokenizer.intern(start, end);
         }
 
-        return nameWithTags.substring(0, tagStartIndex);
-    }
-
-    private boolean isTypeValid(TypeLine typeLine) {
-        return typeLine.getType().equals("counter");
+        return tokenizer.intern(start, tagStartIndex);
     }
 
     /**
      * Parses a type line.
      *
-     * @param line Line to parse.
-     * @return Parsed type line.
+     * @param tokenizer Tokenizer of the current line.
+     * @param parts     Reusable tokens for the parts of the line.
+     * @return The metric name if the type is valid, otherwise null.
      * @throws FormatParseException If something went wrong while parsing.
      */
-    private TypeLine parseTypeLine(String line) throws FormatParseException {
+    private String parseTypeLine(ByteTokenizer tokenizer, ByteTokenizer.Tokens parts) throws FormatParseException {
         // Example: TYPE http_requests_total counter
-        String[] parts = StringUtils.split(line, " ");
-        if (parts.length != 4) {
-            throw new FormatParseException("Expected 4 parts in TYPE line, found " + parts.length + " in line '" + line + "'");
+        if (tokenizer.split(parts, (byte) ' ') != 4) {
+            throw new FormatParseException("Expected 4 parts in TYPE line, found " + parts.size() + " in line '" + tokenizer.line() + "'");
         }
 
         // First two parts are '#' and 'TYPE'
-        return new TypeLine(parts[2], parts[3]);
-    }
-
-    private boolean isCommentLine(String line) {
-        return line.startsWith("#");
-    }
-
-    private boolean isTypeLine(String line) {
-        return line.startsWith("# TYPE");
-    }
-
-    private boolean isHelpLine(String line) {
-        return line.startsWith("# HELP");
-    }
-
-    /**
-     * DTO for a type line.
-     */
-    private static class TypeLine {
-        private final String metricName;
-        private final String type;
-
-        public TypeLine(String metricName, String type) {
-            this.metricName = metricName;
-            this.type = type;
-        }
-
-        public String getMetricName() {
-            return metricName;
-        }
-
-        public String getType() {
-            return type;
+        if (!tokenizer.matches(parts.start(3), parts.end(3), COUNTER)) {
+            return null;
         }
+        return tokenizer.intern(parts.start(2), parts.end(2));
     }
 
     /**
@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.solr.ingestion.format;
+
+/**
+ * Reads the fields of a protocol buffers message from a range of bytes, without generated classes.
+ * <p>
+ * See https://developers.google.com/protocol-buffers/docs/encoding. The reader is reset to the range of a nested
+ * message instead of allocating a new one.
+ */
+final class ProtobufReader {
+
+    static final int VARINT = 0;
+    static final int FIXED_64 = 1;
+    static final int LENGTH_DELIMITED = 2;
+    static final int FIXED_32 = 5;
+
+    private byte[] buffer;
+    private int position;
+    private int limit;
+
+    /**
+     * Resets the reader to the given range.
+     *
+     * @param source the bytes, they are not copied
+     * @param from   the first byte of the message
+     * @param to     the last byte of the message (exclusive)
+     * @return this reader
+     */
+    ProtobufReader reset(byte[] source, int from, int to) {
+        this.buffer = source;
+        this.position = from;
+        this.limit = to;
+        return this;
+    }
+
+    /**
+     * @return true if the message has more fields
+     */
+    boolean hasRemaining() {
+        return position < limit;
+    }
+
+    /**
+     * @return the position of the next byte
+     */
+    int position() {
+        return position;
+    }
+
+    /**
+     * Reads the tag of the next field, i.e. its number and wire type.
+     *
+     * @return the tag
+     * @throws FormatParseException if the message is truncated
+     */
+    int readTag() throws FormatParseException {
+        long tag = readVarint();
+        if (tag >>> 32 != 0 || (tag >>> 3) == 0) {
+            throw new FormatParseException("Invalid protobuf tag " + tag + " at byte " + position);
+        }
+        return (int) tag;
+    }
+
+    /**
+     * @param tag the tag of a field
+     * @return the field number
+     */
+    static int fieldNumber(int tag) {
+        return tag >>> 3;
+    }
+
+    /**
+     * @param tag the tag of a field
+     * @return the wire type
+     */
+    static int wireType(int tag) {
+        return tag & 7;
+    }
+
+    /**
+     * @return the next varint
+     * @throws FormatParseException if the message is truncated
+     */
+    long readVarint() throws FormatParseException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (position >= limit) {
+                throw truncated();
+            }
+            byte b = buffer[position++];
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new FormatParseException("Invalid protobuf varint at byte " + position);
+    }
+
+    /**
+     * @return the next fixed 64 bit value as double
+     * @throws FormatParseException if the message is truncated
+     */
+    double readDouble() throws FormatParseException {
+        if (limit - position < 8) {
+            throw truncated();
+        }
+        long bits = 0;
+        for (int i = 7; i >= 0; i--) {
+            bits = bits << 8 | (buffer[position + i] & 0xFF);
+        }
+        position += 8;
+        return Double.longBitsToDouble(bits);
+    }
+
+    /**
+     * Reads the length of a length delimited field. The reader is then at the first byte of the field.
+     *
+     * @return the length
+     * @throws FormatParseException if the message is truncated
+     */
+    int readLength() throws FormatParseException {
+        long length = readVarint();
+        if (length < 0 || length > limit - position) {
+            throw truncated();
+        }
+        return (int) length;
+    }
+
+    /**
+     * Skips the value of a field.
+     *
+     * @param tag the tag of the field
+     * @throws FormatParseException if the message is truncated or the wire type is unknown
+     */
+    void skip(int tag) throws FormatParseException {
+        switch (wireType(tag)) {
+            case VARINT:
+                readVarint();
+                break;
+            case FIXED_64:
+                skipBytes(8);
+                break;
+            case LENGTH_DELIMITED:
+                skipBytes(readLength());
+                break;
+            case FIXED_32:
+                skipBytes(4);
+                break;
+            default:
+                throw new FormatParseException("Unsupported protobuf wire type " + wireType(tag) + " of field " + fieldNumber(tag));
+        }
+    }
+
+    /**
+     * Skips the given number of bytes, e.g. a length delimited field that was read separately.
+     *
+     * @param count the number of bytes
+     * @throws FormatParseException if the message is truncated
+     */
+    void skipBytes(int count) throws FormatParseException {
+        if (count > limit - position) {
+            throw truncated();
+        }
+        position += count;
+    }
+
+    private FormatParseException truncated() {
+        return new FormatParseException("Truncated protobuf message at byte " + position);
+    }
+}
@@ -0,0 +1,335 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.solr.ingestion.format;
+
+import com.codahale.metrics.Gauge;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.core.SolrInfoBean;
+import org.apache.solr.metrics.SolrMetricManager;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded registry that maps the raw bytes of a series key, e.g. the metric name and its tags, to an integer id.
+ * <p>
+ * The registry is shared by all requests of a parser. It is an open-addressing table that is read without locks,
+ * hence resolving a known key takes one hash probe and doesn't allocate. Unknown keys are registered under a lock.
+ * A parser maps the ids to its buffered time series and only parses the name and tags of a line if the id is unknown
+ * within the request.
+ * <p>
+ * The keys are the bytes as they appear in the payload, so the same tags in a different order are a different key.
+ * Once the registry holds {@code maxSize} keys, a new key evicts a single one by the CLOCK algorithm: a key that was
+ * resolved since the clock hand passed it gets a second chance. Hence the keys of active series stay registered.
+ * Ids are never reused, so a key that is registered again after its eviction gets a new id and costs a single miss.
+ */
+public final class SeriesKeyRegistry {
+
+    /**
+     * The default maximum number of keys
+     */
+    static final int DEFAULT_MAX_SIZE = 100_000;
+
+    /**
+     * The name of the init arg of the request handler with the maximum number of keys
+     */
+    public static final String MAX_SIZE_ARG = "maxSeriesKeys";
+
+    private static final String CONFIG = "seriesKeys";
+
+    /**
+     * Marks the slot of an evicted key. Lookups probe past it, a new key can take the slot.
+     */
+    private static final Entry TOMBSTONE = new Entry(null, 0, -1);
+
+    private final AtomicLong evicted = new AtomicLong();
+    private final AtomicLong registered = new AtomicLong();
+    private volatile Table table;
+    private volatile int maxSize;
+    // guarded by this
+    private int nextId;
+
+    /**
+     * Constructs a registry with the default maximum size.
+     */
+    SeriesKeyRegistry() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Constructs a registry.
+     *
+     * @param maxSize the maximum number of keys before the registry evicts keys
+     */
+    SeriesKeyRegistry(int maxSize) {
+        checkMaxSize(maxSize);
+        this.maxSize = maxSize;
+        this.table = new Table(capacity(maxSize));
+    }
+
+    private static void checkMaxSize(int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("maxSize must be positive, was " + maxSize);
+        }
+    }
+
+    private static int capacity(int maxSize) {
+        // At most half of the slots hold keys, which keeps the probe sequences short
+        return Integer.highestOneBit(Math.max(maxSize * 2 - 1, 1)) << 1;
+    }
+
+    /**
+     * Resizes the registry to the maximum number of keys in the init args of the request handler.
+     *
+     * @param initArgs the init args of the request handler, can be null
+     */
+    public void configure(NamedList initArgs) {
+        Object value = initArgs == null ? null : initArgs.get(MAX_SIZE_ARG);
+        if (value == null) {
+            resize(DEFAULT_MAX_SIZE);
+        } else {
+            resize(value instanceof Number ? ((Number) value).intValue() : Integer.parseInt(value.toString().trim()));
+        }
+    }
+
+    /**
+     * Changes the maximum number of keys. The registered keys are kept unless the registry shrinks, in which
+     * case the keys are evicted by the CLOCK algorithm until the new maximum is reached.
+     *
+     * @param maxSize the maximum number of keys before the registry evicts keys
+     */
+    public synchronized void resize(int maxSize) {
+        checkMaxSize(maxSize);
+        if (maxSize == this.maxSize) {
+            return;
+        }
+        Table current = table;
+        while (current.size > maxSize) {
+            evictOne(current);
+        }
+        this.maxSize = maxSize;
+        table = current.copy(capacity(maxSize));
+    }
+
+    /**
+     * Returns the id of the given key and registers the key if it is unknown.
+     *
+     * @param key the bytes of the key, the key is copied before it is registered
+     * @return the id of the key
+     */
+    int id(ByteKey key) {
+        int hash = spread(key.hashCode());
+        Table current = table;
+        int mask = current.entries.length() - 1;
+        int index = hash & mask;
+        for (int probes = 0; probes <= mask; probes++, index = (index + 1) & mask) {
+            Entry entry = current.entries.get(index);
+            if (entry == null) {
+                break;
+            }
+            if (entry != TOMBSTONE && entry.hash == hash && entry.key.equals(key)) {
+                entry.reference();
+                return entry.id;
+            }
+        }
+        return register(key, hash);
+    }
+
+    /**
+     * Registers the key if another thread hasn't registered it in the meantime.
+     *
+     * @param key  the key
+     * @param hash the spread hash of the key
+     * @return the id of the key
+     */
+    private synchronized int register(ByteKey key, int hash) {
+        Table current = table;
+        int mask = current.entries.length() - 1;
+        int index = hash & mask;
+        int free = -1;
+        for (int probes = 0; probes <= mask; probes++, index = (index + 1) & mask) {
+            Entry entry = current.entries.get(index);
+            if (entry == null) {
+                if (free < 0) {
+                    free = index;
+                }
+                break;
+            }
+            if (entry == TOMBSTONE) {
+                if (free < 0) {
+                    free = index;
+                }
+            } else if (entry.hash == hash && entry.key.equals(key)) {
+                entry.reference();
+                return entry.id;
+            }
+        }
+
+        if (current.size >= maxSize) {
+            // the eviction only turns keys into tombstones, the free slot stays free
+            evictOne(current);
+        }
+        Entry added = new Entry(key.copy(), hash, nextId++);
+        if (current.entries.get(free) == TOMBSTONE) {
+            current.tombstones--;
+        }
+        current.entries.set(free, added);
+        current.size++;
+        registered.incrementAndGet();
+
+        // Lookups only stop at empty slots, hence the tombstones are dropped before they fill the table
+        if (current.size + current.tombstones > current.entries.length() / 4 * 3) {
+            table = current.copy(current.entries.length());
+        }
+        return added.id;
+    }
+
+    /**
+     * Advances the clock hand to the next key that was not resolved since the hand passed it and evicts the key.
+     * The keys that the hand passes lose their second chance.
+     *
+     * @param current the table, must hold at least one key
+     */
+    private void evictOne(Table current) {
+        int mask = current.entries.length() - 1;
+        while (true) {
+            int index = current.hand;
+            current.hand = (index + 1) & mask;
+            Entry entry = current.entries.get(index);
+            if (entry == null || entry == TOMBSTONE) {
+                continue;
+            }
+            if (entry.referenced) {
+                entry.referenced = false;
+            } else {
+                current.entries.set(index, TOMBSTONE);
+                current.size--;
+                current.tombstones++;
+                evicted.incrementAndGet();
+                return;
+            }
+        }
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Registers the metrics of the registry, i.e. the cardinality of the series keys.
+     *
+     * @param bean         the parent bean, e.g. the ingestion handler
+     * @param manager      the metric manager
+     * @param registryName the name of the metric registry
+     * @param tag          the tag of the bean
+     * @param scope        the scope of the bean
+     */
+    public void initializeMetrics(SolrInfoBean bean, SolrMetricManager manager, String registryName, String tag, String scope) {
+        String category = bean.getCategory().toString();
+        manager.registerGauge(bean, registryName, (Gauge<Integer>) this::size, tag, true, "size", category, scope, CONFIG);
+        manager.registerGauge(bean, registryName, (Gauge<Long>) registered::get, tag, true, "registered", category, scope, CONFIG);
+        manager.registerGauge(bean, registryName, (Gauge<Long>) evicted::get, tag, true, "evicted", category, scope, CONFIG);
+    }
+
+    /**
+     * @return the number of registered keys, i.e. the current cardinality
+     */
+    public int size() {
+        return table.size;
+    }
+
+    /**
+     * @return the maximum number of keys before the registry evicts keys
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @return the number of keys that were registered since the registry was created
+     */
+    public long getRegistered() {
+        return registered.get();
+    }
+
+    /**
+     * @return the number of keys that were evicted
+     */
+    public long getEvicted() {
+        return evicted.get();
+    }
+
+    /**
+     * The slots and their bookkeeping. The slots are read without locks, everything else is guarded by the registry.
+     */
+    private static final class Table {
+        private final AtomicReferenceArray<Entry> entries;
+        private volatile int size;
+        private int tombstones;
+        private int hand;
+
+        private Table(int capacity) {
+            this.entries = new AtomicReferenceArray<>(capacity);
+        }
+
+        /**
+         * @param capacity the capacity of the copy, must hold the keys with at least one empty slot
+         * @return a copy of the registered keys without the tombstones
+         */
+        private Table copy(int capacity) {
+            Table copy = new Table(capacity);
+            int mask = capacity - 1;
+            for (int i = 0; i < entries.length(); i++) {
+                Entry entry = entries.get(i);
+                if (entry == null || entry == TOMBSTONE) {
+                    continue;
+                }
+                int index = entry.hash & mask;
+                while (copy.entries.get(index) != null) {
+                    index = (index + 1) & mask;
+                }
+                copy.entries.set(index, entry);
+            }
+            copy.size = size;
+            copy.hand = hand & mask;
+            return copy;
+        }
+    }
+
+    /**
+     * A registered key
+     */
+    private static final class Entry {
+        private final ByteKey key;
+        private final int hash;
+        private final int id;
+        // the second chance of the CLOCK eviction, set on every hit
+        private volatile boolean referenced;
+
+        private Entry(ByteKey key, int hash, int id) {
+            this.key = key;
+            this.hash = hash;
+            this.id = id;
+        }
+
+        private void reference() {
+            // only written if it changes, the hits of a hot key don't contend on the cache line
+            if (!referenced) {
+                referenced = true;
+            }
+        }
+    }
+}
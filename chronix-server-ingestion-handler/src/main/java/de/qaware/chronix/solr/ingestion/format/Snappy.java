@@ -0,0 +1,259 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.solr.ingestion.format;
+
+import java.util.Arrays;
+
+/**
+ * A pure Java implementation of the snappy block format, as used by the Prometheus remote write protocol.
+ * <p>
+ * See https://github.com/google/snappy/blob/master/format_description.txt. The framing format of snappy streams is
+ * not supported.
+ */
+public final class Snappy {
+
+    private static final int LITERAL = 0;
+    private static final int COPY_1_BYTE_OFFSET = 1;
+    private static final int COPY_2_BYTE_OFFSET = 2;
+    private static final int COPY_4_BYTE_OFFSET = 3;
+
+    /**
+     * The compressor finds matches within blocks of that size, hence every offset fits into two bytes
+     */
+    private static final int BLOCK_SIZE = 1 << 16;
+    private static final int HASH_TABLE_BITS = 14;
+    private static final int MIN_MATCH = 4;
+
+    /**
+     * A copy of 64 bytes in 3 bytes is the best ratio an element can reach
+     */
+    private static final int MAX_RATIO = 22;
+
+    private Snappy() {
+        //avoid instances
+    }
+
+    /**
+     * Decompresses a snappy block.
+     *
+     * @param input  the compressed bytes
+     * @param offset the first compressed byte
+     * @param length the number of compressed bytes
+     * @return the uncompressed bytes
+     * @throws FormatParseException if the bytes are not a valid snappy block
+     */
+    public static byte[] uncompress(byte[] input, int offset, int length) throws FormatParseException {
+        int end = offset + length;
+        int in = offset;
+
+        // The preamble is the uncompressed length as varint
+        long uncompressedLength = 0;
+        for (int shift = 0; ; shift += 7) {
+            if (in == end || shift > 28) {
+                throw new FormatParseException("Invalid snappy preamble");
+            }
+            int b = input[in++];
+            uncompressedLength |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                break;
+            }
+        }
+        if (uncompressedLength > (long) length * MAX_RATIO || uncompressedLength > Integer.MAX_VALUE - 8) {
+            throw new FormatParseException("Invalid snappy length " + uncompressedLength + " of " + length + " compressed bytes");
+        }
+
+        byte[] output = new byte[(int) uncompressedLength];
+        int out = 0;
+        while (in < end) {
+            int tag = input[in++] & 0xFF;
+            int elementLength;
+            int copyOffset;
+            switch (tag & 3) {
+                case LITERAL:
+                    elementLength = tag >>> 2;
+                    if (elementLength >= 60) {
+                        int bytes = elementLength - 59;
+                        if (in + bytes > end) {
+                            throw new FormatParseException("Truncated snappy literal");
+                        }
+                        elementLength = readLittleEndian(input, in, bytes);
+                        in += bytes;
+                    }
+                    elementLength++;
+                    if (elementLength <= 0 || elementLength > end - in || elementLength > output.length - out) {
+                        throw new FormatParseException("Invalid snappy literal of " + elementLength + " bytes");
+                    }
+                    System.arraycopy(input, in, output, out, elementLength);
+                    in += elementLength;
+                    out += elementLength;
+                    continue;
+                case COPY_1_BYTE_OFFSET:
+                    if (in + 1 > end) {
+                        throw new FormatParseException("Truncated snappy copy");
+                    }
+                    elementLength = 4 + ((tag >>> 2) & 7);
+                    copyOffset = ((tag >>> 5) << 8) | (input[in++] & 0xFF);
+                    break;
+                case COPY_2_BYTE_OFFSET:
+                    if (in + 2 > end) {
+                        throw new FormatParseException("Truncated snappy copy");
+                    }
+                    elementLength = 1 + (tag >>> 2);
+                    copyOffset = readLittleEndian(input, in, 2);
+                    in += 2;
+                    break;
+                default:
+                    if (in + 4 > end) {
+                        throw new FormatParseException("Truncated snappy copy");
+                    }
+                    elementLength = 1 + (tag >>> 2);
+                    copyOffset = readLittleEndian(input, in, 4);
+                    in += 4;
+                    break;
+            }
+
+            if (copyOffset <= 0 || copyOffset > out || elementLength > output.length - out) {
+                throw new FormatParseException("Invalid snappy copy of " + elementLength + " bytes at offset " + copyOffset);
+            }
+            // The source and the target overlap if the offset is smaller than the length, e.g. for repeated bytes
+            int from = out - copyOffset;
+            for (int i = 0; i < elementLength; i++) {
+                output[out++] = output[from + i];
+            }
+        }
+
+        if (out != output.length) {
+            throw new FormatParseException("Expected " + output.length + " uncompressed snappy bytes, found " + out);
+        }
+        return output;
+    }
+
+    /**
+     * Compresses bytes into a snappy block.
+     *
+     * @param input  the uncompressed bytes
+     * @param offset the first uncompressed byte
+     * @param length the number of uncompressed bytes
+     * @return the compressed bytes
+     */
+    public static byte[] compress(byte[] input, int offset, int length) {
+        byte[] output = new byte[32 + length + length / 6];
+        int out = 0;
+
+        for (int remaining = length; ; remaining >>>= 7) {
+            if (remaining < 0x80) {
+                output[out++] = (byte) remaining;
+                break;
+            }
+            output[out++] = (byte) (remaining | 0x80);
+        }
+
+        int[] table = new int[1 << HASH_TABLE_BITS];
+        int end = offset + length;
+        for (int block = offset; block < end; block += BLOCK_SIZE) {
+            out = compressBlock(input, block, Math.min(block + BLOCK_SIZE, end), output, out, table);
+        }
+        return Arrays.copyOf(output, out);
+    }
+
+    private static int compressBlock(byte[] input, int start, int end, byte[] output, int out, int[] table) {
+        Arrays.fill(table, -1);
+        int next = start;
+        int position = start;
+        int limit = end - MIN_MATCH;
+        while (position <= limit) {
+            int value = readInt(input, position);
+            int hash = (value * 0x1E35A7BD) >>> (32 - HASH_TABLE_BITS);
+            int candidate = table[hash];
+            table[hash] = position;
+            if (candidate < 0 || readInt(input, candidate) != value) {
+                // Skip faster through incompressible data
+                position += 1 + ((position - next) >>> 5);
+                continue;
+            }
+
+            int matchLength = MIN_MATCH;
+            while (position + matchLength < end && input[candidate + matchLength] == input[position + matchLength]) {
+                matchLength++;
+            }
+            out = writeLiteral(input, next, position, output, out);
+            out = writeCopy(position - candidate, matchLength, output, out);
+            position += matchLength;
+            next = position;
+        }
+        return writeLiteral(input, next, end, output, out);
+    }
+
+    private static int writeLiteral(byte[] input, int from, int to, byte[] output, int out) {
+        int length = to - from;
+        if (length == 0) {
+            return out;
+        }
+        int n = length - 1;
+        if (n < 60) {
+            output[out++] = (byte) (n << 2 | LITERAL);
+        } else {
+            int bytes = n < 1 << 8 ? 1 : n < 1 << 16 ? 2 : n < 1 << 24 ? 3 : 4;
+            output[out++] = (byte) ((59 + bytes) << 2 | LITERAL);
+            for (int i = 0; i < bytes; i++) {
+                output[out++] = (byte) (n >>> (8 * i));
+            }
+        }
+        System.arraycopy(input, from, output, out, length);
+        return out + length;
+    }
+
+    private static int writeCopy(int copyOffset, int length, byte[] output, int out) {
+        int remaining = length;
+        // A copy with a two byte offset holds at most 64 bytes, keep at least 4 bytes for the last copy
+        while (remaining >= 68) {
+            out = writeCopy2(copyOffset, 64, output, out);
+            remaining -= 64;
+        }
+        if (remaining > 64) {
+            out = writeCopy2(copyOffset, 60, output, out);
+            remaining -= 60;
+        }
+        if (remaining < 12 && copyOffset < 2048) {
+            output[out++] = (byte) ((copyOffset >>> 8) << 5 | (remaining - 4) << 2 | COPY_1_BYTE_OFFSET);
+            output[out++] = (byte) copyOffset;
+            return out;
+        }
+        return writeCopy2(copyOffset, remaining, output, out);
+    }
+
+    private static int writeCopy2(int copyOffset, int length, byte[] output, int out) {
+        output[out++] = (byte) ((length - 1) << 2 | COPY_2_BYTE_OFFSET);
+        output[out++] = (byte) copyOffset;
+        output[out++] = (byte) (copyOffset >>> 8);
+        return out;
+    }
+
+    private static int readInt(byte[] input, int position) {
+        return (input[position] & 0xFF)
+                | (input[position + 1] & 0xFF) << 8
+                | (input[position + 2] & 0xFF) << 16
+                | (input[position + 3] & 0xFF) << 24;
+    }
+
+    private static int readLittleEndian(byte[] input, int position, int bytes) {
+        int value = 0;
+        for (int i = 0; i < bytes; i++) {
+            value |= (input[position + i] & 0xFF) << (8 * i);
+        }
+        return value;
+    }
+}
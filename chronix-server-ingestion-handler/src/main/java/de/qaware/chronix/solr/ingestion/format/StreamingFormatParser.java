@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.solr.ingestion.format;
+
+import de.qaware.chronix.timeseries.MetricTimeSeries;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A format parser that passes the time series on in chunks while it reads the input stream.
+ * <p>
+ * The parser buffers the points of every time series until the {@link ChunkLimits} are reached. Hence a payload
+ * doesn't have to fit into memory and the chunks can be indexed while the payload is still read. A time series can
+ * be passed on in several chunks, which are in the order of the payload.
+ */
+public interface StreamingFormatParser extends FormatParser {
+
+    /**
+     * Consumes the chunks of a {@link StreamingFormatParser}
+     */
+    @FunctionalInterface
+    interface ChunkConsumer {
+        /**
+         * @param chunk the next chunk of a time series, the chunk is not changed by the parser afterwards
+         * @throws IOException if the chunk could not be consumed
+         */
+        void accept(MetricTimeSeries chunk) throws IOException;
+    }
+
+    /**
+     * Handles the lines that can't be parsed by {@link #parseLines(byte[], int, int, ChunkLimits, ChunkConsumer, InvalidLineHandler)}
+     */
+    @FunctionalInterface
+    interface InvalidLineHandler {
+        /**
+         * @param e the reason why the line is skipped
+         */
+        void invalidLine(FormatParseException e);
+    }
+
+    /**
+     * Parses the given input stream and passes the time series on in chunks.
+     *
+     * @param stream   Input stream.
+     * @param limits   Limits when a chunk is passed on.
+     * @param consumer Consumer of the chunks.
+     * @throws FormatParseException If something went wrong while parsing the format.
+     * @throws IOException          If the consumer failed.
+     */
+    void parse(InputStream stream, ChunkLimits limits, ChunkConsumer consumer) throws FormatParseException, IOException;
+
+    /**
+     * Parses the given lines and passes the time series on in chunks. The lines are not copied. Lines that can't be
+     * parsed are passed to the handler and skipped, hence the lines of many clients can be parsed at once.
+     * <p>
+     * The default implementation is for formats that aren't line based and fails on the first invalid line.
+     *
+     * @param lines        the lines
+     * @param offset       the first byte of the lines
+     * @param length       the number of bytes
+     * @param limits       Limits when a chunk is passed on.
+     * @param consumer     Consumer of the chunks.
+     * @param invalidLines Handler of the lines that can't be parsed.
+     * @throws FormatParseException If the format can't be parsed.
+     * @throws IOException          If the consumer failed.
+     */
+    default void parseLines(byte[] lines, int offset, int length, ChunkLimits limits, ChunkConsumer consumer,
+                            InvalidLineHandler invalidLines) throws FormatParseException, IOException {
+        parse(new ByteArrayInputStream(lines, offset, length), limits, consumer);
+    }
+
+    /**
+     * @return the registry of the series keys that is shared by all requests or null if the parser doesn't have one
+     */
+    default SeriesKeyRegistry getSeriesKeys() {
+        return null;
+    }
+
+    /**
+     * Parses the whole input stream and returns every time series in one chunk.
+     *
+     * @param stream Input stream.
+     * @return Metric time series.
+     * @throws FormatParseException If something went wrong while parsing the format.
+     */
+    @Override
+    default Iterable<MetricTimeSeries> parse(InputStream stream) throws FormatParseException {
+        List<MetricTimeSeries> result = new ArrayList<>();
+        try {
+            parse(stream, ChunkLimits.UNLIMITED, result::add);
+        } catch (IOException e) {
+            //the list does not throw, every other io exception is a format parse exception
+            throw new FormatParseException("Unexpected io exception", e);
+        }
+        return result;
+    }
+}
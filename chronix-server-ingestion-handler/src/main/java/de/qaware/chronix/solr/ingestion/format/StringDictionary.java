@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.solr.ingestion.format;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A bounded dictionary that interns strings decoded from raw bytes, e.g. metric names and tag keys.
+ * <p>
+ * Looking up a known string neither decodes the bytes nor allocates, and all lines of the same metric share one
+ * string instance. The dictionary is shared by all requests of a parser and hence thread-safe. Once it holds
+ * {@code maxSize} entries, unknown strings are decoded but no longer added, so a stream of unique names can't
+ * grow it without limit.
+ */
+final class StringDictionary {
+
+    /**
+     * The default maximum number of entries
+     */
+    static final int DEFAULT_MAX_SIZE = 100_000;
+
+    private final ConcurrentMap<ByteKey, String> entries = new ConcurrentHashMap<>();
+    private final int maxSize;
+
+    /**
+     * Constructs a dictionary with the default maximum size.
+     */
+    StringDictionary() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Constructs a dictionary.
+     *
+     * @param maxSize the maximum number of interned strings
+     */
+    StringDictionary(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Returns the string of the given bytes.
+     *
+     * @param key the bytes, the key is copied before it is added to the dictionary
+     * @return the interned string or a new string if the dictionary is full
+     */
+    String intern(ByteKey key) {
+        String value = entries.get(key);
+        if (value != null) {
+            return value;
+        }
+
+        value = key.decode();
+        if (entries.size() < maxSize) {
+            String existing = entries.putIfAbsent(key.copy(), value);
+            if (existing != null) {
+                return existing;
+            }
+        }
+        return value;
+    }
+
+    /**
+     * @return the number of interned strings
+     */
+    int size() {
+        return entries.size();
+    }
+}
@@ -0,0 +1,689 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.solr.ingestion.head;
+
+import com.codahale.metrics.Gauge;
+import de.qaware.chronix.Schema;
+import de.qaware.chronix.server.types.HeadRecords;
+import de.qaware.chronix.timeseries.MetricTimeSeries;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.search.Query;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.core.SolrInfoBean;
+import org.apache.solr.metrics.SolrMetricManager;
+import org.apache.solr.search.SolrIndexSearcher;
+import org.apache.solr.util.DefaultSolrThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Buffers the ingested points per time series and indexes them as full chunks.
+ * <p>
+ * The head block is configured in the solrconfig.xml within the ingestion request handler:
+ * <pre>
+ * &lt;lst name="headBlock"&gt;
+ *     &lt;int name="pointsPerChunk"&gt;10000&lt;/int&gt;
+ *     &lt;long name="maxAgeMillis"&gt;600000&lt;/long&gt;
+ *     &lt;long name="flushMillis"&gt;1000&lt;/long&gt;
+ *     &lt;str name="walDirectory"&gt;head/graphite&lt;/str&gt;
+ *     &lt;long name="walSegmentBytes"&gt;67108864&lt;/long&gt;
+ *     &lt;bool name="fsync"&gt;true&lt;/bool&gt;
+ * &lt;/lst&gt;
+ * </pre>
+ * Without a head block every time series of a request becomes its own document. Collectors that push every few
+ * seconds hence produce many tiny chunks. The head block instead appends the points of a time series to primitive
+ * arrays and writes them to an append-only log in the wal directory (relative to the data directory of the core).
+ * A flush thread indexes a chunk once a time series has points per chunk points, and the remaining points once
+ * the oldest of them is max age millis old. The chunks are committed and the flush is written to the log.
+ * A checkpoint writes the remaining points into a new log segment once the current segment exceeds the wal
+ * segment bytes. After a crash the log is replayed, hence the buffered points are not lost.
+ * <p>
+ * The ids of the chunks are derived from the time series and the first timestamp of the chunk. Hence a chunk that
+ * is flushed again, because the flush failed or the process crashed before the flush was written to the log,
+ * replaces the chunk that was already indexed.
+ * <p>
+ * The head block is registered as {@link HeadRecords}, so queries see the buffered points. The time series are
+ * selected by the query of the request on an in-memory index of their fields. The converted record of a time series
+ * is kept until its points change, hence repeated queries do not compress the buffered points again. The chunks of
+ * a flush stay visible to the searchers that were opened before the flush for some seconds.
+ */
+public final class HeadBlock implements HeadRecords, Closeable {
+
+    /**
+     * The name of the init args in the solrconfig.xml
+     */
+    public static final String CONFIG = "headBlock";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(HeadBlock.class);
+    private static final int DEFAULT_POINTS_PER_CHUNK = 10_000;
+    private static final long DEFAULT_MAX_AGE_MILLIS = TimeUnit.MINUTES.toMillis(10);
+    private static final long DEFAULT_FLUSH_MILLIS = 1000;
+    private static final long DEFAULT_WAL_SEGMENT_BYTES = 64L * 1024 * 1024;
+    private static final long RECENT_NANOS = TimeUnit.SECONDS.toNanos(10);
+    private static final String RECENT_KEY = "recent-";
+
+    /**
+     * Indexes the flushed chunks
+     */
+    public interface Sink {
+        /**
+         * @param documents the documents of the chunks
+         * @throws IOException if the documents could not be added
+         */
+        void add(List<SolrInputDocument> documents) throws IOException;
+
+        /**
+         * Commits the added documents and opens a new searcher
+         *
+         * @throws IOException if the commit failed
+         */
+        void commit() throws IOException;
+    }
+
+    private final String name;
+    private final int pointsPerChunk;
+    private final long maxAgeNanos;
+    private final long flushMillis;
+    private final String walDirectory;
+    private final long walSegmentBytes;
+    private final boolean fsync;
+
+    private final Map<String, HeadSeries> series = new ConcurrentHashMap<>();
+    private final Map<String, Recent> recent = new LinkedHashMap<>();
+    private final Set<String> dirty = new LinkedHashSet<>();
+    private final Map<String, Converted> converted = new HashMap<>();
+    private final AtomicLong flushedChunks = new AtomicLong();
+    private final AtomicLong failedFlushes = new AtomicLong();
+    private volatile long points;
+    private long recentSequence;
+    private int nextWalId;
+
+    private Function<MetricTimeSeries, SolrInputDocument> converter;
+    private Function<SolrInputDocument, Document> documentBuilder;
+    private Sink sink;
+    private WriteAheadLog wal;
+    private HeadIndex index;
+    private ScheduledExecutorService flusher;
+    private volatile boolean open;
+
+    /**
+     * A flushed chunk that is visible to the searchers opened before the flush
+     */
+    private static final class Recent {
+        private final long visibleNanos;
+        private final SolrInputDocument document;
+        private final SolrInputDocument fields;
+
+        private Recent(long visibleNanos, SolrInputDocument document, SolrInputDocument fields) {
+            this.visibleNanos = visibleNanos;
+            this.document = document;
+            this.fields = fields;
+        }
+    }
+
+    /**
+     * The record of a version of a buffered time series
+     */
+    private static final class Converted {
+        private final HeadSeries head;
+        private final long version;
+        private final SolrInputDocument document;
+
+        private Converted(HeadSeries head, long version, SolrInputDocument document) {
+            this.head = head;
+            this.version = version;
+            this.document = document;
+        }
+
+        private boolean isCurrent(HeadSeries current) {
+            return head == current && version == current.getVersion();
+        }
+    }
+
+    /**
+     * Constructs a new head block
+     *
+     * @param name            the name of the head block, used for the thread name
+     * @param pointsPerChunk  the number of points of a full chunk
+     * @param maxAgeMillis    the time after that the points of a time series are indexed
+     * @param flushMillis     the interval of the flush thread
+     * @param walDirectory    the directory of the log, relative to the data directory
+     * @param walSegmentBytes the size of a log segment that triggers a checkpoint
+     * @param fsync           true to force the log to the disk before a request returns
+     */
+    public HeadBlock(String name, int pointsPerChunk, long maxAgeMillis, long flushMillis, String walDirectory, long walSegmentBytes, boolean fsync) {
+        if (pointsPerChunk < 1 || maxAgeMillis < 0 || flushMillis < 1 || walSegmentBytes < 1) {
+            throw new IllegalArgumentException("Points per chunk, flush millis and wal segment bytes must be positive, max age must not be negative. Got "
+                    + pointsPerChunk + ", " + maxAgeMillis + ", " + flushMillis + ", " + walSegmentBytes);
+        }
+        this.name = name;
+        this.pointsPerChunk = pointsPerChunk;
+        this.maxAgeNanos = TimeUnit.MILLISECONDS.toNanos(maxAgeMillis);
+        this.flushMillis = flushMillis;
+        this.walDirectory = walDirectory;
+        this.walSegmentBytes = walSegmentBytes;
+        this.fsync = fsync;
+    }
+
+    /**
+     * Creates a head block from the init args of the request handler.
+     *
+     * @param initArgs the init args of the request handler, can be null
+     * @param name     the name of the head block
+     * @return the configured head block or null if there is no head block configured
+     */
+    public static HeadBlock of(NamedList initArgs, String name) {
+        NamedList config = initArgs == null ? null : (NamedList) initArgs.get(CONFIG);
+        if (config == null) {
+            return null;
+        }
+
+        Object walDirectory = config.get("walDirectory");
+        Object fsync = config.get("fsync");
+        return new HeadBlock(name,
+                (int) longArg(config, "pointsPerChunk", DEFAULT_POINTS_PER_CHUNK),
+                longArg(config, "maxAgeMillis", DEFAULT_MAX_AGE_MILLIS),
+                longArg(config, "flushMillis", DEFAULT_FLUSH_MILLIS),
+                walDirectory == null ? "head/" + name : walDirectory.toString().trim(),
+                longArg(config, "walSegmentBytes", DEFAULT_WAL_SEGMENT_BYTES),
+                fsync == null || Boolean.parseBoolean(fsync.toString().trim()));
+    }
+
+    private static long longArg(NamedList config, String name, long defaultValue) {
+        Object value = config.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        return value instanceof Number ? ((Number) value).longValue() : Long.parseLong(value.toString().trim());
+    }
+
+    /**
+     * Replays the log and starts the flush thread.
+     *
+     * @param dataDirectory   the data directory of the core
+     * @param converter       converts a chunk into a document with the compressed data
+     * @param documentBuilder builds the lucene document of the fields of a time series like the solr index does
+     * @param analyzer        the index analyzer of the schema
+     * @param sink            indexes the flushed chunks
+     * @throws IOException if the log could not be read
+     */
+    public synchronized void open(Path dataDirectory,
+                                  Function<MetricTimeSeries, SolrInputDocument> converter,
+                                  Function<SolrInputDocument, Document> documentBuilder,
+                                  Analyzer analyzer,
+                                  Sink sink) throws IOException {
+        if (open) {
+            return;
+        }
+        this.converter = converter;
+        this.documentBuilder = documentBuilder;
+        this.sink = sink;
+        this.index = new HeadIndex(analyzer);
+        this.wal = new WriteAheadLog(dataDirectory.resolve(walDirectory), fsync);
+        replay();
+        checkpoint();
+        open = true;
+
+        flusher = Executors.newSingleThreadScheduledExecutor(new DefaultSolrThreadFactory("chronixHead-" + name));
+        flusher.scheduleWithFixedDelay(this::flushQuietly, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+        LOGGER.info("Opened the head block of {} with {} series and {} points", name, series.size(), points);
+    }
+
+    /**
+     * Adds the points of a time series. The points are written to the log, call {@link #sync()} before the
+     * request returns.
+     *
+     * @param timeSeries the time series
+     * @throws IOException if the points could not be written to the log
+     */
+    public void append(MetricTimeSeries timeSeries) throws IOException {
+        ensureOpen();
+        if (timeSeries.isEmpty()) {
+            return;
+        }
+        Map<String, Object> attributes = timeSeries.attributes();
+        String key = HeadSeries.keyOf(timeSeries.getName(), timeSeries.getType(), attributes);
+        long[] timestamps = timeSeries.getTimestampsAsArray();
+        double[] values = timeSeries.getValuesAsArray();
+
+        if (!series.containsKey(key)) {
+            //fails like adding the document would do if a field does not fit the schema
+            documentBuilder.apply(fieldsOf(key, timeSeries.getName(), timeSeries.getType(), attributes, timestamps[0], timestamps[0]));
+        }
+
+        synchronized (this) {
+            ensureOpen();
+            HeadSeries head = series.computeIfAbsent(key, k -> new HeadSeries(k, timeSeries.getName(), timeSeries.getType(), attributes));
+            wal.writeAppend(define(head), timestamps, values, 0, timestamps.length);
+            head.add(timestamps, values, 0, timestamps.length, System.nanoTime());
+            points += timestamps.length;
+            dirty.add(key);
+        }
+    }
+
+    /**
+     * Forces the appended points to the log
+     *
+     * @throws IOException if the log could not be written
+     */
+    public synchronized void sync() throws IOException {
+        ensureOpen();
+        wal.sync();
+    }
+
+    @Override
+    public List<SolrDocument> find(Query query, SolrIndexSearcher searcher) throws IOException {
+        return find(query, searcher.getOpenNanoTime());
+    }
+
+    /**
+     * @param query          the query
+     * @param searcherOpened the time the searcher of the request was opened
+     * @return the buffered time series and the recently flushed chunks that match the query
+     * @throws IOException if the query could not be evaluated
+     */
+    List<SolrDocument> find(Query query, long searcherOpened) throws IOException {
+        List<HeadSeries> changed = new ArrayList<>();
+        List<Long> versions = new ArrayList<>();
+        List<MetricTimeSeries> buffered = new ArrayList<>();
+        List<SolrInputDocument> documents = new ArrayList<>();
+
+        HeadIndex headIndex;
+        synchronized (this) {
+            if (!open) {
+                return Collections.emptyList();
+            }
+            headIndex = index;
+        }
+
+        synchronized (headIndex) {
+            synchronized (this) {
+                if (!open) {
+                    //closed while waiting for the index
+                    return Collections.emptyList();
+                }
+            }
+            updateIndex();
+            List<String> keys = headIndex.search(query);
+            synchronized (this) {
+                for (String key : keys) {
+                    HeadSeries head = series.get(key);
+                    Recent chunk = recent.get(key);
+                    Converted record = converted.get(key);
+                    if (head != null && head.size() > 0 && record != null && record.isCurrent(head)) {
+                        documents.add(record.document);
+                    } else if (head != null && head.size() > 0) {
+                        changed.add(head);
+                        versions.add(head.getVersion());
+                        buffered.add(head.toTimeSeries(0, head.size()));
+                    } else if (chunk != null && chunk.visibleNanos - searcherOpened >= 0) {
+                        //the searcher was opened before the chunk was added
+                        documents.add(chunk.document);
+                    }
+                }
+            }
+        }
+
+        //convert outside of the locks, the record is kept as long as the series is not changed
+        for (int i = 0; i < buffered.size(); i++) {
+            SolrInputDocument document = converter.apply(buffered.get(i));
+            documents.add(document);
+            HeadSeries head = changed.get(i);
+            synchronized (this) {
+                if (series.get(head.getKey()) == head) {
+                    converted.put(head.getKey(), new Converted(head, versions.get(i), document));
+                }
+            }
+        }
+        List<SolrDocument> records = new ArrayList<>(documents.size());
+        for (SolrInputDocument document : documents) {
+            records.add(toSolrDocument(document));
+        }
+        return records;
+    }
+
+    /**
+     * Applies the changed time series to the in-memory index. Called while holding the index lock.
+     */
+    private void updateIndex() throws IOException {
+        Map<String, SolrInputDocument> updates = new HashMap<>();
+        synchronized (this) {
+            for (String key : dirty) {
+                HeadSeries head = series.get(key);
+                Recent chunk = recent.get(key);
+                if (head != null && head.size() > 0) {
+                    updates.put(key, fieldsOf(key, head.getName(), head.getType(), head.getAttributes(), head.getStart(), head.getEnd()));
+                } else if (chunk != null) {
+                    updates.put(key, chunk.fields);
+                } else {
+                    updates.put(key, null);
+                }
+            }
+            dirty.clear();
+        }
+
+        for (Map.Entry<String, SolrInputDocument> update : updates.entrySet()) {
+            if (update.getValue() == null) {
+                index.delete(update.getKey());
+            } else {
+                index.update(update.getKey(), documentBuilder.apply(update.getValue()));
+            }
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush(System.nanoTime());
+        } catch (IOException | RuntimeException e) {
+            failedFlushes.incrementAndGet();
+            LOGGER.warn("Could not flush the head block of {}", name, e);
+        }
+    }
+
+    /**
+     * Indexes the full chunks and the time series whose oldest point is older than max age.
+     *
+     * @param nanos the current time
+     * @throws IOException if the chunks could not be indexed or the log could not be written
+     */
+    void flush(long nanos) throws IOException {
+        List<HeadSeries> flushed = new ArrayList<>();
+        List<Integer> counts = new ArrayList<>();
+        List<String> keys = new ArrayList<>();
+        List<MetricTimeSeries> chunks = new ArrayList<>();
+        synchronized (this) {
+            ensureOpen();
+            for (HeadSeries head : series.values()) {
+                int count = head.size();
+                if (nanos - head.getOldestNanos() < maxAgeNanos) {
+                    //only the full chunks
+                    count -= count % pointsPerChunk;
+                }
+                if (count == 0) {
+                    continue;
+                }
+                for (int from = 0; from < count; from += pointsPerChunk) {
+                    chunks.add(head.toTimeSeries(from, Math.min(count, from + pointsPerChunk)));
+                    keys.add(head.getKey());
+                }
+                flushed.add(head);
+                counts.add(count);
+            }
+        }
+
+        if (!chunks.isEmpty()) {
+            List<SolrInputDocument> documents = new ArrayList<>(chunks.size());
+            for (int i = 0; i < chunks.size(); i++) {
+                SolrInputDocument document = converter.apply(chunks.get(i));
+                MetricTimeSeries chunk = chunks.get(i);
+                document.setField(Schema.ID, chunkId(keys.get(i), chunk.getTime(0), chunk.getTime(chunk.size() - 1), chunk.size()));
+                documents.add(document);
+            }
+            sink.add(documents);
+
+            //every searcher opened from now on sees the added documents
+            long visibleNanos = System.nanoTime();
+            synchronized (this) {
+                for (int i = 0; i < flushed.size(); i++) {
+                    HeadSeries head = flushed.get(i);
+                    int count = counts.get(i);
+                    wal.writeFlush(define(head), count);
+                    head.removeOldest(count, nanos);
+                    points -= count;
+                    if (head.size() == 0) {
+                        series.remove(head.getKey());
+                    }
+                    converted.remove(head.getKey());
+                    dirty.add(head.getKey());
+                }
+                for (int i = 0; i < chunks.size(); i++) {
+                    MetricTimeSeries chunk = chunks.get(i);
+                    String key = RECENT_KEY + recentSequence++;
+                    SolrInputDocument fields = fieldsOf(key, chunk.getName(), chunk.getType(), chunk.attributes(), chunk.getStart(), chunk.getEnd());
+                    recent.put(key, new Recent(visibleNanos, documents.get(i), fields));
+                    dirty.add(key);
+                }
+            }
+            flushedChunks.addAndGet(chunks.size());
+
+            sink.commit();
+            synchronized (this) {
+                wal.sync();
+            }
+        }
+
+        synchronized (this) {
+            for (Iterator<Map.Entry<String, Recent>> it = recent.entrySet().iterator(); it.hasNext(); ) {
+                Map.Entry<String, Recent> chunk = it.next();
+                if (nanos - chunk.getValue().visibleNanos < RECENT_NANOS) {
+                    break;
+                }
+                it.remove();
+                dirty.add(chunk.getKey());
+            }
+            if (wal.size() > walSegmentBytes) {
+                checkpoint();
+            }
+        }
+    }
+
+    /**
+     * Writes the buffered points into a new segment and deletes the older segments
+     */
+    private synchronized void checkpoint() throws IOException {
+        wal.startSegment();
+        nextWalId = 0;
+        for (HeadSeries head : series.values()) {
+            head.setWalId(-1);
+            wal.writeAppend(define(head), head.getTimestamps(), head.getValues(), 0, head.size());
+        }
+        wal.deleteOlderSegments();
+    }
+
+    /**
+     * @param head the series
+     * @return the id of the series in the current segment of the log
+     */
+    private int define(HeadSeries head) throws IOException {
+        if (head.getWalId() < 0) {
+            head.setWalId(nextWalId++);
+            wal.writeSeries(head.getWalId(), head.getName(), head.getType(), head.getAttributes());
+        }
+        return head.getWalId();
+    }
+
+    private void replay() throws IOException {
+        long nanos = System.nanoTime();
+        Map<Integer, HeadSeries> ids = new HashMap<>();
+        wal.replay(new WriteAheadLog.Visitor() {
+            @Override
+            public void segment() {
+                ids.clear();
+            }
+
+            @Override
+            public void series(int id, String name, String type, Map<String, Object> attributes) {
+                String key = HeadSeries.keyOf(name, type, attributes);
+                ids.put(id, series.computeIfAbsent(key, k -> new HeadSeries(k, name, type, attributes)));
+            }
+
+            @Override
+            public void append(int id, long[] timestamps, double[] values) {
+                HeadSeries head = ids.get(id);
+                head.add(timestamps, values, 0, timestamps.length, nanos);
+                points += timestamps.length;
+            }
+
+            @Override
+            public void flush(int id, int count) {
+                HeadSeries head = ids.get(id);
+                int removed = Math.min(count, head.size());
+                head.removeOldest(removed, nanos);
+                points -= removed;
+            }
+        });
+        series.values().removeIf(head -> head.size() == 0);
+        dirty.addAll(series.keySet());
+    }
+
+    private void ensureOpen() {
+        if (!open) {
+            throw new IllegalStateException("The head block of " + name + " is not open");
+        }
+    }
+
+    /**
+     * Stops the flush thread and closes the log. The buffered points are restored from the log on the next open.
+     */
+    @Override
+    public void close() {
+        ScheduledExecutorService executor;
+        synchronized (this) {
+            if (!open) {
+                return;
+            }
+            executor = flusher;
+        }
+        executor.shutdown();
+        try {
+            executor.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            open = false;
+            converted.clear();
+            try {
+                wal.close();
+            } catch (IOException e) {
+                LOGGER.warn("Could not close the log of {}", name, e);
+            }
+        }
+        synchronized (index) {
+            try {
+                index.close();
+            } catch (IOException e) {
+                LOGGER.debug("Could not close the index of {}", name, e);
+            }
+        }
+        LOGGER.info("Closed the head block of {}", name);
+    }
+
+    /**
+     * Registers the gauges of the head block for the request handler
+     *
+     * @param bean         the request handler
+     * @param manager      the metric manager
+     * @param registryName the name of the registry
+     * @param tag          the tag of the request handler
+     * @param scope        the scope of the request handler
+     */
+    public void initializeMetrics(SolrInfoBean bean, SolrMetricManager manager, String registryName, String tag, String scope) {
+        String category = bean.getCategory().toString();
+        manager.registerGauge(bean, registryName, (Gauge<Integer>) series::size, tag, true, "series", category, scope, CONFIG);
+        manager.registerGauge(bean, registryName, (Gauge<Long>) () -> points, tag, true, "points", category, scope, CONFIG);
+        manager.registerGauge(bean, registryName, (Gauge<Long>) flushedChunks::get, tag, true, "flushedChunks", category, scope, CONFIG);
+        manager.registerGauge(bean, registryName, (Gauge<Long>) failedFlushes::get, tag, true, "failedFlushes", category, scope, CONFIG);
+    }
+
+    /**
+     * @return the number of buffered time series
+     */
+    public int getSeries() {
+        return series.size();
+    }
+
+    /**
+     * @return the number of buffered points
+     */
+    public long getPoints() {
+        return points;
+    }
+
+    /**
+     * @return the number of indexed chunks
+     */
+    public long getFlushedChunks() {
+        return flushedChunks.get();
+    }
+
+    /**
+     * @return the number of flushes that failed
+     */
+    public long getFailedFlushes() {
+        return failedFlushes.get();
+    }
+
+    /**
+     * @param key            the key of the time series
+     * @param firstTimestamp the timestamp of the first point of the chunk
+     * @param lastTimestamp  the timestamp of the last point of the chunk
+     * @param points         the number of points of the chunk
+     * @return the id of the chunk, the same for a chunk that is flushed again but different for chunks of the
+     * time series that only start at the same timestamp
+     */
+    static String chunkId(String key, long firstTimestamp, long lastTimestamp, int points) {
+        String name = key + ':' + firstTimestamp + ':' + lastTimestamp + ':' + points;
+        return UUID.nameUUIDFromBytes(name.getBytes(StandardCharsets.UTF_8)).toString();
+    }
+
+    private static SolrInputDocument fieldsOf(String key, String name, String type, Map<String, Object> attributes, long start, long end) {
+        SolrInputDocument fields = new SolrInputDocument();
+        attributes.forEach(fields::addField);
+        fields.setField(Schema.ID, key);
+        fields.setField(Schema.NAME, name);
+        fields.setField(Schema.TYPE, type);
+        fields.setField(Schema.START, start);
+        fields.setField(Schema.END, end);
+        return fields;
+    }
+
+    private static SolrDocument toSolrDocument(SolrInputDocument document) {
+        SolrDocument record = new SolrDocument();
+        for (String field : document.getFieldNames()) {
+            for (Object value : document.getFieldValues(field)) {
+                //binary fields are read as byte buffers from the index
+                record.addField(field, value instanceof byte[] ? ByteBuffer.wrap((byte[]) value) : value);
+            }
+        }
+        return record;
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.solr.ingestion.head;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreMode;
+import org.apache.lucene.search.SimpleCollector;
+import org.apache.lucene.store.ByteBuffersDirectory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * In-memory index of the time series in the head block.
+ * <p>
+ * Every time series has a document with its fields (without the data), built like the documents in the solr index.
+ * Hence the query of a request selects the buffered time series like the indexed ones.
+ * Not thread safe. Guarded by the head block.
+ */
+final class HeadIndex implements Closeable {
+
+    /**
+     * The field that holds the key of the time series in the head block
+     */
+    static final String KEY = "_head_key_";
+
+    private final ByteBuffersDirectory directory = new ByteBuffersDirectory();
+    private final IndexWriter writer;
+    private DirectoryReader reader;
+
+    /**
+     * @param analyzer the analyzer of the fields, the index analyzer of the schema
+     * @throws IOException if the index could not be created
+     */
+    HeadIndex(Analyzer analyzer) throws IOException {
+        writer = new IndexWriter(directory, new IndexWriterConfig(analyzer));
+        reader = DirectoryReader.open(writer);
+    }
+
+    /**
+     * Adds or replaces the document of a time series
+     *
+     * @param key      the key of the time series
+     * @param document the document with the fields of the time series
+     * @throws IOException if the document could not be added
+     */
+    void update(String key, Document document) throws IOException {
+        document.add(new StringField(KEY, key, Field.Store.YES));
+        writer.updateDocument(new Term(KEY, key), document);
+    }
+
+    /**
+     * @param key the key of the time series to remove
+     * @throws IOException if the document could not be removed
+     */
+    void delete(String key) throws IOException {
+        writer.deleteDocuments(new Term(KEY, key));
+    }
+
+    /**
+     * @param query the query
+     * @return the keys of the matching time series
+     * @throws IOException if the query could not be evaluated
+     */
+    List<String> search(Query query) throws IOException {
+        DirectoryReader changed = DirectoryReader.openIfChanged(reader, writer);
+        if (changed != null) {
+            reader.close();
+            reader = changed;
+        }
+
+        IndexSearcher searcher = new IndexSearcher(reader);
+        List<Integer> docIds = new ArrayList<>();
+        searcher.search(query, new SimpleCollector() {
+            private int docBase;
+
+            @Override
+            protected void doSetNextReader(LeafReaderContext context) {
+                docBase = context.docBase;
+            }
+
+            @Override
+            public void collect(int doc) {
+                docIds.add(docBase + doc);
+            }
+
+            @Override
+            public ScoreMode scoreMode() {
+                return ScoreMode.COMPLETE_NO_SCORES;
+            }
+        });
+
+        Set<String> keyField = Collections.singleton(KEY);
+        List<String> keys = new ArrayList<>(docIds.size());
+        for (int docId : docIds) {
+            keys.add(searcher.doc(docId, keyField).get(KEY));
+        }
+        return keys;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+        writer.close();
+        directory.close();
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.solr.ingestion.head;
+
+import de.qaware.chronix.converter.common.DoubleList;
+import de.qaware.chronix.converter.common.LongList;
+import de.qaware.chronix.timeseries.MetricTimeSeries;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The buffered points of a single time series.
+ * <p>
+ * The points are kept in the order they were added. Flushes remove the oldest points.
+ * Not thread safe. Guarded by the head block.
+ */
+final class HeadSeries {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final String key;
+    private final String name;
+    private final String type;
+    private final Map<String, Object> attributes;
+
+    private long[] timestamps = new long[INITIAL_CAPACITY];
+    private double[] values = new double[INITIAL_CAPACITY];
+    private int size;
+    private long start = Long.MAX_VALUE;
+    private long end = Long.MIN_VALUE;
+    private long oldestNanos;
+    private int walId = -1;
+    private long version;
+
+    HeadSeries(String key, String name, String type, Map<String, Object> attributes) {
+        this.key = key;
+        this.name = name;
+        this.type = type;
+        this.attributes = attributes;
+    }
+
+    /**
+     * The key identifies the time series like the default join key: the name, the type and the attributes.
+     *
+     * @param name       the name of the time series
+     * @param type       the type of the time series
+     * @param attributes the attributes of the time series
+     * @return the key of the time series
+     */
+    static String keyOf(String name, String type, Map<String, Object> attributes) {
+        StringBuilder key = new StringBuilder(name).append('-').append(type).append('[');
+        boolean first = true;
+        for (Map.Entry<String, Object> attribute : new TreeMap<>(attributes).entrySet()) {
+            if (!first) {
+                key.append(',');
+            }
+            key.append(attribute.getKey()).append(':').append(attribute.getValue());
+            first = false;
+        }
+        return key.append(']').toString();
+    }
+
+    /**
+     * Adds points to the series
+     *
+     * @param newTimestamps the timestamps
+     * @param newValues     the values
+     * @param from          the first point (inclusive)
+     * @param to            the last point (exclusive)
+     * @param nanos         the time the points were added
+     */
+    void add(long[] newTimestamps, double[] newValues, int from, int to, long nanos) {
+        int count = to - from;
+        if (count == 0) {
+            return;
+        }
+        if (size == 0) {
+            oldestNanos = nanos;
+        }
+        ensureCapacity(size + count);
+        System.arraycopy(newTimestamps, from, timestamps, size, count);
+        System.arraycopy(newValues, from, values, size, count);
+        for (int i = from; i < to; i++) {
+            start = Math.min(start, newTimestamps[i]);
+            end = Math.max(end, newTimestamps[i]);
+        }
+        size += count;
+        version++;
+    }
+
+    /**
+     * Removes the oldest points of the series
+     *
+     * @param count the number of points to remove
+     * @param nanos the time the points were removed. The remaining points are treated as added at that time.
+     */
+    void removeOldest(int count, long nanos) {
+        System.arraycopy(timestamps, count, timestamps, 0, size - count);
+        System.arraycopy(values, count, values, 0, size - count);
+        size -= count;
+        version++;
+        oldestNanos = nanos;
+        start = Long.MAX_VALUE;
+        end = Long.MIN_VALUE;
+        for (int i = 0; i < size; i++) {
+            start = Math.min(start, timestamps[i]);
+            end = Math.max(end, timestamps[i]);
+        }
+    }
+
+    /**
+     * @param from the first point (inclusive)
+     * @param to   the last point (exclusive)
+     * @return a copy of the points as time series
+     */
+    MetricTimeSeries toTimeSeries(int from, int to) {
+        return new MetricTimeSeries.Builder(name, type)
+                .attributes(attributes)
+                .points(new LongList(Arrays.copyOfRange(timestamps, from, to), to - from),
+                        new DoubleList(Arrays.copyOfRange(values, from, to), to - from))
+                .build();
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > timestamps.length) {
+            int newCapacity = Math.max(capacity, timestamps.length * 2);
+            timestamps = Arrays.copyOf(timestamps, newCapacity);
+            values = Arrays.copyOf(values, newCapacity);
+        }
+    }
+
+    String getKey() {
+        return key;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    String getType() {
+        return type;
+    }
+
+    Map<String, Object> getAttributes() {
+        return attributes;
+    }
+
+    long[] getTimestamps() {
+        return timestamps;
+    }
+
+    double[] getValues() {
+        return values;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return the version of the points, changes whenever points are added or removed
+     */
+    long getVersion() {
+        return version;
+    }
+
+    long getStart() {
+        return start;
+    }
+
+    long getEnd() {
+        return end;
+    }
+
+    /**
+     * @return the time the oldest point was added
+     */
+    long getOldestNanos() {
+        return oldestNanos;
+    }
+
+    /**
+     * @return the id of the series in the current segment of the log, -1 if the series is not yet defined there
+     */
+    int getWalId() {
+        return walId;
+    }
+
+    void setWalId(int walId) {
+        this.walId = walId;
+    }
+}
@@ -0,0 +1,365 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.solr.ingestion.head;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of the points in the head block.
+ * <p>
+ * The log is split into segments. A record consists of its type, the length of the payload, the payload and
+ * a checksum. Within a segment a series is defined once by a series record and referenced by its id afterwards.
+ * An append record holds the points that were added to a series, a flush record the number of points of a series
+ * that were indexed. A checkpoint writes the remaining points into a new segment and deletes the older segments.
+ * <p>
+ * Not thread safe. The head block writes the log while holding its lock.
+ */
+final class WriteAheadLog implements Closeable {
+
+    static final byte SERIES = 1;
+    static final byte APPEND = 2;
+    static final byte FLUSH = 3;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(WriteAheadLog.class);
+    private static final String PREFIX = "wal-";
+    private static final String SUFFIX = ".log";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final byte STRING = 's';
+    private static final byte LONG = 'l';
+    private static final byte INT = 'i';
+    private static final byte DOUBLE = 'd';
+    private static final byte FLOAT = 'f';
+    private static final byte BOOLEAN = 'b';
+
+    private final Path directory;
+    private final boolean fsync;
+    private final ByteArrayOutputStream payload = new ByteArrayOutputStream();
+    private final DataOutputStream payloadOut = new DataOutputStream(payload);
+    private final CRC32 crc = new CRC32();
+
+    private long segment;
+    private FileOutputStream file;
+    private DataOutputStream out;
+    private long size;
+
+    /**
+     * Reads the records of a log
+     */
+    interface Visitor {
+        /**
+         * Called before the records of a segment. The ids of the series are only valid within a segment.
+         */
+        void segment();
+
+        /**
+         * @param id         the id of the series within the segment
+         * @param name       the name of the series
+         * @param type       the type of the series
+         * @param attributes the attributes of the series
+         */
+        void series(int id, String name, String type, Map<String, Object> attributes);
+
+        /**
+         * @param id         the id of the series within the segment
+         * @param timestamps the added timestamps
+         * @param values     the added values
+         */
+        void append(int id, long[] timestamps, double[] values);
+
+        /**
+         * @param id    the id of the series within the segment
+         * @param count the number of the oldest points of the series that were indexed
+         */
+        void flush(int id, int count);
+    }
+
+    /**
+     * @param directory the directory of the segments
+     * @param fsync     true if {@link #sync()} forces the records to the disk
+     * @throws IOException if the directory could not be created
+     */
+    WriteAheadLog(Path directory, boolean fsync) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.fsync = fsync;
+    }
+
+    /**
+     * Reads the records of all segments in the order they were written.
+     * A segment that ends with an incomplete or corrupt record is read up to that record.
+     *
+     * @param visitor the visitor of the records
+     * @throws IOException if a segment could not be read
+     */
+    void replay(Visitor visitor) throws IOException {
+        for (Path path : segments()) {
+            visitor.segment();
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), BUFFER_SIZE))) {
+                while (readRecord(in, visitor)) {
+                    //next record
+                }
+            } catch (EOFException e) {
+                LOGGER.warn("Segment {} ends with an incomplete record", path);
+            }
+            segment = Math.max(segment, number(path));
+        }
+    }
+
+    /**
+     * Starts a new segment. The older segments are deleted by {@link #deleteOlderSegments()}.
+     *
+     * @throws IOException if the segment could not be created
+     */
+    void startSegment() throws IOException {
+        closeSegment();
+        segment++;
+        file = new FileOutputStream(directory.resolve(name(segment)).toFile());
+        out = new DataOutputStream(new BufferedOutputStream(file, BUFFER_SIZE));
+        size = 0;
+    }
+
+    /**
+     * Syncs the current segment and deletes all segments before it
+     *
+     * @throws IOException if a segment could not be deleted
+     */
+    void deleteOlderSegments() throws IOException {
+        sync();
+        for (Path path : segments()) {
+            if (number(path) < segment) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    void writeSeries(int id, String name, String type, Map<String, Object> attributes) throws IOException {
+        payloadOut.writeInt(id);
+        payloadOut.writeUTF(name);
+        payloadOut.writeUTF(type);
+        payloadOut.writeInt(attributes.size());
+        for (Map.Entry<String, Object> attribute : attributes.entrySet()) {
+            payloadOut.writeUTF(attribute.getKey());
+            writeValue(attribute.getValue());
+        }
+        writeRecord(SERIES);
+    }
+
+    void writeAppend(int id, long[] timestamps, double[] values, int from, int to) throws IOException {
+        payloadOut.writeInt(id);
+        payloadOut.writeInt(to - from);
+        for (int i = from; i < to; i++) {
+            payloadOut.writeLong(timestamps[i]);
+        }
+        for (int i = from; i < to; i++) {
+            payloadOut.writeDouble(values[i]);
+        }
+        writeRecord(APPEND);
+    }
+
+    void writeFlush(int id, int count) throws IOException {
+        payloadOut.writeInt(id);
+        payloadOut.writeInt(count);
+        writeRecord(FLUSH);
+    }
+
+    /**
+     * Writes the buffered records to the current segment and forces them to the disk if configured
+     *
+     * @throws IOException if the records could not be written
+     */
+    void sync() throws IOException {
+        if (out == null) {
+            return;
+        }
+        out.flush();
+        if (fsync) {
+            file.getChannel().force(false);
+        }
+    }
+
+    /**
+     * @return the bytes written to the current segment
+     */
+    long size() {
+        return size;
+    }
+
+    @Override
+    public void close() throws IOException {
+        closeSegment();
+    }
+
+    private void closeSegment() throws IOException {
+        if (out != null) {
+            sync();
+            out.close();
+            out = null;
+            file = null;
+        }
+    }
+
+    private void writeRecord(byte type) throws IOException {
+        crc.reset();
+        crc.update(type);
+        crc.update(payload.toByteArray(), 0, payload.size());
+        out.writeByte(type);
+        out.writeInt(payload.size());
+        payload.writeTo(out);
+        out.writeInt((int) crc.getValue());
+        size += 1 + 4 + payload.size() + 4;
+        payload.reset();
+    }
+
+    private void writeValue(Object value) throws IOException {
+        if (value instanceof Long) {
+            payloadOut.writeByte(LONG);
+            payloadOut.writeLong((Long) value);
+        } else if (value instanceof Integer) {
+            payloadOut.writeByte(INT);
+            payloadOut.writeInt((Integer) value);
+        } else if (value instanceof Double) {
+            payloadOut.writeByte(DOUBLE);
+            payloadOut.writeDouble((Double) value);
+        } else if (value instanceof Float) {
+            payloadOut.writeByte(FLOAT);
+            payloadOut.writeFloat((Float) value);
+        } else if (value instanceof Boolean) {
+            payloadOut.writeByte(BOOLEAN);
+            payloadOut.writeBoolean((Boolean) value);
+        } else {
+            payloadOut.writeByte(STRING);
+            payloadOut.writeUTF(String.valueOf(value));
+        }
+    }
+
+    private static Object readValue(DataInputStream in) throws IOException {
+        byte tag = in.readByte();
+        switch (tag) {
+            case LONG:
+                return in.readLong();
+            case INT:
+                return in.readInt();
+            case DOUBLE:
+                return in.readDouble();
+            case FLOAT:
+                return in.readFloat();
+            case BOOLEAN:
+                return in.readBoolean();
+            case STRING:
+                return in.readUTF();
+            default:
+                throw new IOException("Unknown attribute type " + tag);
+        }
+    }
+
+    private boolean readRecord(DataInputStream in, Visitor visitor) throws IOException {
+        int type = in.read();
+        if (type < 0) {
+            return false;
+        }
+        int length = in.readInt();
+        if (length < 0) {
+            LOGGER.warn("Skipping the rest of the segment after a record with a negative length");
+            return false;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        int checksum = in.readInt();
+
+        crc.reset();
+        crc.update(type);
+        crc.update(bytes, 0, length);
+        if ((int) crc.getValue() != checksum) {
+            LOGGER.warn("Skipping the rest of the segment after a corrupt record");
+            return false;
+        }
+
+        DataInputStream record = new DataInputStream(new ByteArrayInputStream(bytes));
+        int id = record.readInt();
+        switch (type) {
+            case SERIES:
+                String name = record.readUTF();
+                String seriesType = record.readUTF();
+                int attributeCount = record.readInt();
+                Map<String, Object> attributes = new LinkedHashMap<>();
+                for (int i = 0; i < attributeCount; i++) {
+                    attributes.put(record.readUTF(), readValue(record));
+                }
+                visitor.series(id, name, seriesType, attributes);
+                break;
+            case APPEND:
+                int count = record.readInt();
+                long[] timestamps = new long[count];
+                double[] values = new double[count];
+                for (int i = 0; i < count; i++) {
+                    timestamps[i] = record.readLong();
+                }
+                for (int i = 0; i < count; i++) {
+                    values[i] = record.readDouble();
+                }
+                visitor.append(id, timestamps, values);
+                break;
+            case FLUSH:
+                visitor.flush(id, record.readInt());
+                break;
+            default:
+                throw new IOException("Unknown record type " + type);
+        }
+        return true;
+    }
+
+    private List<Path> segments() throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> paths = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+            for (Path path : paths) {
+                segments.add(path);
+            }
+        }
+        //the names are zero padded, hence they sort in the order of the segments
+        Collections.sort(segments);
+        return segments;
+    }
+
+    private static String name(long segment) {
+        return String.format("%s%020d%s", PREFIX, segment, SUFFIX);
+    }
+
+    private static long number(Path path) {
+        String name = path.getFileName().toString();
+        return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+    }
+}
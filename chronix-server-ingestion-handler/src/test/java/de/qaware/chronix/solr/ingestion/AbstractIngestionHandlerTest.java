@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.solr.ingestion;
+
+import com.google.common.collect.Lists;
+import de.qaware.chronix.Schema;
+import de.qaware.chronix.solr.ingestion.format.GraphiteFormatParser;
+import de.qaware.chronix.solr.type.metric.ChunkStatistics;
+import de.qaware.chronix.solr.type.metric.DuplicatePolicy;
+import de.qaware.chronix.timeseries.MetricTimeSeries;
+import org.apache.solr.common.SolrInputDocument;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class AbstractIngestionHandlerTest {
+
+    @Test
+    public void testParseLines() throws Exception {
+        byte[] lines = "a.b 1 1475754111\nc.d 2 1475754112\n".getBytes(StandardCharsets.UTF_8);
+
+        List<MetricTimeSeries> series = Lists.newArrayList(AbstractIngestionHandler.parseLines(new GraphiteFormatParser(), lines, lines.length));
+
+        assertThat(series.size(), is(2));
+    }
+
+    @Test
+    public void testParseLinesSkipsBrokenLines() throws Exception {
+        byte[] lines = "a.b 1 1475754111\nbroken\na.b 2 1475754112\na.b x 1475754113\nignored".getBytes(StandardCharsets.UTF_8);
+
+        // Only the complete lines before the last line feed are parsed
+        int length = lines.length - "ignored".length();
+        List<MetricTimeSeries> series = Lists.newArrayList(AbstractIngestionHandler.parseLines(new GraphiteFormatParser(), lines, length));
+
+        assertThat(series.size(), is(1));
+        assertThat(series.get(0).getName(), is("a.b"));
+        assertThat(series.get(0).getValuesAsArray(), is(new double[]{1, 2}));
+    }
+
+    @Test
+    public void testToDocumentSortsTheChunk() throws Exception {
+        MetricTimeSeries series = new MetricTimeSeries.Builder("cpu", "metric")
+                .point(3, 3).point(1, 1).point(2, 2).point(1, 4)
+                .build();
+
+        SolrInputDocument document = AbstractIngestionHandler.toDocument(series, DuplicatePolicy.LAST);
+
+        assertThat(document.getFieldValue(ChunkStatistics.SORTED), is(true));
+        assertThat(document.getFieldValue(ChunkStatistics.COUNT), is(3L));
+        assertThat(document.getFieldValue(ChunkStatistics.FIRST), is(4.0));
+        assertThat(document.getFieldValue(Schema.START), is(1L));
+        assertThat(document.getFieldValue(Schema.END), is(3L));
+    }
+}
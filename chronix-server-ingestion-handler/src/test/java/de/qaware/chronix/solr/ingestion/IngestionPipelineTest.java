@@ -0,0 +1,291 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.solr.ingestion;
+
+import de.qaware.chronix.solr.ingestion.format.ChunkLimits;
+import de.qaware.chronix.solr.type.metric.DuplicatePolicy;
+import de.qaware.chronix.timeseries.MetricTimeSeries;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.util.NamedList;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class IngestionPipelineTest {
+    private IngestionPipeline sut;
+
+    @After
+    public void tearDown() {
+        if (sut != null) {
+            sut.shutdown();
+        }
+    }
+
+    @Test
+    public void testIngestInRequestThread() throws Exception {
+        sut = new IngestionPipeline(0, 10, 3);
+        List<List<String>> batches = new ArrayList<>();
+
+        IngestionPipeline.Timings timings = sut.ingest(timeSeries(10), IngestionPipelineTest::toDocument,
+                documents -> batches.add(names(documents)));
+
+        assertThat(batches.size(), is(4));
+        assertThat(batches.get(0).size(), is(3));
+        assertThat(batches.get(3).size(), is(1));
+        assertThat(flatten(batches), is(names(10)));
+        assertThat(timings.getDocuments(), is(10L));
+        assertThat(timings.getWaitNanos(), is(0L));
+    }
+
+    @Test
+    public void testIngestWithConverterThreadsKeepsTheOrder() throws Exception {
+        sut = new IngestionPipeline(4, 16, 7);
+        List<List<String>> batches = new ArrayList<>();
+
+        IngestionPipeline.Timings timings = sut.ingest(timeSeries(1000), series -> {
+            //shuffle the completion order
+            sleep(series.getName().hashCode() % 3);
+            return toDocument(series);
+        }, documents -> batches.add(names(documents)));
+
+        assertThat(flatten(batches), is(names(1000)));
+        assertThat(timings.getDocuments(), is(1000L));
+        assertTrue(timings.getConvertNanos() > 0);
+    }
+
+    @Test
+    public void testConvertersRunConcurrently() throws Exception {
+        sut = new IngestionPipeline(2, 16, 10);
+        CountDownLatch bothConverting = new CountDownLatch(2);
+        AtomicInteger added = new AtomicInteger();
+
+        sut.ingest(timeSeries(2), series -> {
+            bothConverting.countDown();
+            try {
+                if (!bothConverting.await(10, TimeUnit.SECONDS)) {
+                    throw new IllegalStateException("The time series are not converted concurrently");
+                }
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            return toDocument(series);
+        }, documents -> added.addAndGet(documents.size()));
+
+        assertThat(added.get(), is(2));
+    }
+
+    @Test
+    public void testTheTimeSeriesInFlightAreBounded() throws Exception {
+        sut = new IngestionPipeline(4, 5, 1);
+        AtomicInteger parsed = new AtomicInteger();
+        AtomicInteger added = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+
+        Iterable<MetricTimeSeries> counting = () -> new Iterator<MetricTimeSeries>() {
+            private final Iterator<MetricTimeSeries> delegate = timeSeries(200).iterator();
+
+            @Override
+            public boolean hasNext() {
+                return delegate.hasNext();
+            }
+
+            @Override
+            public MetricTimeSeries next() {
+                maxInFlight.accumulateAndGet(parsed.incrementAndGet() - added.get(), Math::max);
+                return delegate.next();
+            }
+        };
+
+        sut.ingest(counting, IngestionPipelineTest::toDocument, documents -> added.addAndGet(documents.size()));
+
+        assertThat(added.get(), is(200));
+        assertTrue("In flight: " + maxInFlight.get(), maxInFlight.get() <= 6);
+    }
+
+    @Test
+    public void testRequestThreadConvertsIfTheQueueIsFull() throws Exception {
+        sut = new IngestionPipeline(1, 2, 10);
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> threads = Collections.synchronizedList(new ArrayList<>());
+        Function<MetricTimeSeries, SolrInputDocument> converter = series -> {
+            threads.add(Thread.currentThread().getName());
+            try {
+                if (series.getName().equals("series-0") && !release.await(10, TimeUnit.SECONDS)) {
+                    throw new IllegalStateException("The converter thread is not released");
+                }
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            return toDocument(series);
+        };
+        AtomicInteger added = new AtomicInteger();
+
+        //the first time series blocks the converter thread, the next two fill the queue
+        List<IngestionPipeline.Ingestion> ingestions = new ArrayList<>();
+        for (MetricTimeSeries series : timeSeries(4)) {
+            IngestionPipeline.Ingestion ingestion = sut.start(converter, documents -> added.addAndGet(documents.size()));
+            ingestion.accept(series);
+            ingestions.add(ingestion);
+        }
+
+        //the last time series is converted by the request thread
+        assertThat(added.get(), is(0));
+        assertTrue(threads.contains(Thread.currentThread().getName()));
+        release.countDown();
+        for (IngestionPipeline.Ingestion ingestion : ingestions) {
+            ingestion.finish();
+        }
+        assertThat(added.get(), is(4));
+        assertThat(threads.size(), is(4));
+        assertThat(Collections.frequency(threads, Thread.currentThread().getName()), is(1));
+    }
+
+    @Test
+    public void testConverterFailure() throws Exception {
+        sut = new IngestionPipeline(2, 8, 1);
+        AtomicInteger added = new AtomicInteger();
+        try {
+            sut.ingest(timeSeries(100), series -> {
+                if (series.getName().equals("series-50")) {
+                    throw new IllegalArgumentException("broken");
+                }
+                return toDocument(series);
+            }, documents -> added.addAndGet(documents.size()));
+            fail("The failure of the converter is not propagated");
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage(), is("broken"));
+        }
+        assertThat(added.get(), is(50));
+    }
+
+    @Test
+    public void testInitArgs() {
+        NamedList<Object> config = new NamedList<>();
+        config.add("converterThreads", 3);
+        config.add("queueSize", "64");
+        config.add("pointsPerChunk", 500);
+        config.add("maxBufferedBytes", 1024L);
+        config.add("duplicates", "Avg");
+        NamedList<Object> initArgs = new NamedList<>();
+        initArgs.add(IngestionPipeline.CONFIG, config);
+
+        sut = IngestionPipeline.of(initArgs);
+        assertThat(sut.getConverterThreads(), is(3));
+        assertThat(sut.getChunkLimits().getPointsPerChunk(), is(500));
+        assertThat(sut.getChunkLimits().getMaxBufferedBytes(), is(1024L));
+        assertThat(sut.getDuplicatePolicy(), is(DuplicatePolicy.AVG));
+        sut.shutdown();
+
+        sut = IngestionPipeline.of(null);
+        assertThat(sut.getConverterThreads(), is(0));
+        assertThat(sut.getChunkLimits(), is(ChunkLimits.UNLIMITED));
+        assertThat(sut.getDuplicatePolicy(), is(DuplicatePolicy.LAST));
+    }
+
+    @Test
+    public void testPushTimeSeries() throws Exception {
+        sut = new IngestionPipeline(2, 4, 3);
+        List<List<String>> batches = new ArrayList<>();
+
+        IngestionPipeline.Ingestion ingestion = sut.start(IngestionPipelineTest::toDocument, documents -> batches.add(names(documents)));
+        for (MetricTimeSeries series : timeSeries(10)) {
+            ingestion.accept(series);
+            //the documents are added while the time series are pushed
+            sleep(5);
+        }
+        assertTrue(flatten(batches).size() >= 6);
+
+        IngestionPipeline.Timings timings = ingestion.finish();
+        ingestion.cancel();
+
+        assertThat(flatten(batches), is(names(10)));
+        assertThat(timings.getDocuments(), is(10L));
+        assertTrue(timings.getParseNanos() >= TimeUnit.MILLISECONDS.toNanos(50));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidConfig() {
+        new IngestionPipeline(-1, 10, 10);
+    }
+
+    @Test
+    public void testTimingsAsNamedList() throws Exception {
+        sut = new IngestionPipeline(0, 10, 10);
+        IngestionPipeline.Timings timings = sut.ingest(timeSeries(3), IngestionPipelineTest::toDocument, documents -> {
+        });
+
+        NamedList<Object> result = timings.toNamedList(1_000_000);
+        assertThat(result.get("documents"), is(3L));
+        assertThat(result.get("commit"), is(1.0));
+        assertTrue(result.get("parse") instanceof Double);
+        assertTrue(result.get("convert") instanceof Double);
+        assertTrue(result.get("wait") instanceof Double);
+        assertTrue(result.get("add") instanceof Double);
+    }
+
+    private static List<MetricTimeSeries> timeSeries(int amount) {
+        List<MetricTimeSeries> result = new ArrayList<>();
+        for (int i = 0; i < amount; i++) {
+            result.add(new MetricTimeSeries.Builder("series-" + i, "metric").point(i, i).build());
+        }
+        return result;
+    }
+
+    private static SolrInputDocument toDocument(MetricTimeSeries series) {
+        SolrInputDocument document = new SolrInputDocument();
+        document.setField("name", series.getName());
+        return document;
+    }
+
+    private static List<String> names(List<SolrInputDocument> documents) {
+        List<String> names = new ArrayList<>();
+        documents.forEach(document -> names.add((String) document.getFieldValue("name")));
+        return names;
+    }
+
+    private static List<String> names(int amount) {
+        List<String> names = new ArrayList<>();
+        timeSeries(amount).forEach(series -> names.add(series.getName()));
+        return names;
+    }
+
+    private static List<String> flatten(List<List<String>> batches) {
+        List<String> result = new ArrayList<>();
+        batches.forEach(result::addAll);
+        return result;
+    }
+
+    private static void sleep(int millis) {
+        try {
+            Thread.sleep(Math.abs(millis));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.solr.ingestion;
+
+import org.apache.solr.common.util.NamedList;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.OutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class LineProtocolListenerTest {
+    private final List<String> batches = Collections.synchronizedList(new ArrayList<>());
+    private LineProtocolListener sut;
+
+    @After
+    public void tearDown() {
+        if (sut != null) {
+            sut.close();
+        }
+    }
+
+    @Test
+    public void testTcpLinesAcrossWrites() throws Exception {
+        sut = listener(1024 * 1024, 50);
+        sut.start();
+
+        try (Socket socket = new Socket("127.0.0.1", sut.getTcpAddress().getPort())) {
+            OutputStream out = socket.getOutputStream();
+            out.write(bytes("a.b 1 14757"));
+            out.flush();
+            awaitTrue(() -> sut.getConnections() == 1);
+            Thread.sleep(100);
+            //an incomplete line is not passed on
+            assertThat(joined(), is(""));
+
+            out.write(bytes("54111\nc.d 2 1475754112\n"));
+            out.flush();
+            awaitTrue(() -> joined().equals("a.b 1 1475754111\nc.d 2 1475754112\n"));
+            assertThat(sut.getLines(), is(2L));
+        }
+
+        awaitTrue(() -> sut.getConnections() == 0);
+    }
+
+    @Test
+    public void testLastLineWithoutLineFeed() throws Exception {
+        sut = listener(1024 * 1024, 50);
+        sut.start();
+
+        try (Socket socket = new Socket("127.0.0.1", sut.getTcpAddress().getPort())) {
+            socket.getOutputStream().write(bytes("a.b 1 1475754111\nc.d 2 1475754112"));
+        }
+
+        awaitTrue(() -> joined().equals("a.b 1 1475754111\nc.d 2 1475754112\n"));
+    }
+
+    @Test
+    public void testManyConnections() throws Exception {
+        sut = listener(1024 * 1024, 50);
+        sut.start();
+
+        List<Socket> sockets = new ArrayList<>();
+        try {
+            for (int i = 0; i < 10; i++) {
+                sockets.add(new Socket("127.0.0.1", sut.getTcpAddress().getPort()));
+            }
+            awaitTrue(() -> sut.getConnections() == 10);
+            for (int line = 0; line < 100; line++) {
+                for (Socket socket : sockets) {
+                    socket.getOutputStream().write(bytes("metric " + line + " 1475754111\n"));
+                }
+            }
+            awaitTrue(() -> sut.getLines() == 1000);
+        } finally {
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+        }
+        awaitTrue(() -> sut.getConnections() == 0);
+        awaitTrue(() -> joined().split("\n").length == 1000);
+    }
+
+    @Test
+    public void testSizeBasedFlush() throws Exception {
+        //the time based flush does not happen within the test
+        sut = listener(64, 60_000);
+        sut.start();
+
+        try (Socket socket = new Socket("127.0.0.1", sut.getTcpAddress().getPort())) {
+            for (int i = 0; i < 10; i++) {
+                socket.getOutputStream().write(bytes("metric.name " + i + " 1475754111\n"));
+                long expected = i + 1;
+                awaitTrue(() -> sut.getLines() == expected);
+            }
+            //each batch is flushed as soon as it holds at least 64 bytes
+            awaitTrue(() -> batches.size() == 3);
+        }
+        for (String batch : batches) {
+            assertTrue(batch.endsWith("\n"));
+        }
+    }
+
+    @Test
+    public void testUdp() throws Exception {
+        sut = listener(1024 * 1024, 50);
+        sut.start();
+
+        try (DatagramSocket socket = new DatagramSocket()) {
+            byte[] first = bytes("a.b 1 1475754111\nc.d 2 1475754112\n");
+            byte[] second = bytes("e.f 3 1475754113");
+            socket.send(new DatagramPacket(first, first.length, sut.getUdpAddress()));
+            socket.send(new DatagramPacket(second, second.length, sut.getUdpAddress()));
+        }
+
+        awaitTrue(() -> sut.getLines() == 3);
+        awaitTrue(() -> joined().equals("a.b 1 1475754111\nc.d 2 1475754112\ne.f 3 1475754113\n"));
+    }
+
+    @Test
+    public void testCloseIndexesTheReadLines() throws Exception {
+        sut = listener(1024 * 1024, 60_000);
+        sut.start();
+
+        try (Socket socket = new Socket("127.0.0.1", sut.getTcpAddress().getPort())) {
+            socket.getOutputStream().write(bytes("a.b 1 1475754111\n"));
+            awaitTrue(() -> sut.getLines() == 1);
+            sut.close();
+        }
+
+        assertThat(joined(), is("a.b 1 1475754111\n"));
+        assertThat(sut.getBatches(), is(1L));
+    }
+
+    @Test
+    public void testFailedBatch() throws Exception {
+        sut = new LineProtocolListener("test", "127.0.0.1", 0, -1, 1024, 50, 1000, (lines, length, commitWithin) -> {
+            throw new IllegalStateException("broken");
+        });
+        sut.start();
+
+        try (Socket socket = new Socket("127.0.0.1", sut.getTcpAddress().getPort())) {
+            socket.getOutputStream().write(bytes("a.b 1 1475754111\n"));
+        }
+        awaitTrue(() -> sut.getFailedBatches() == 1);
+        assertThat(sut.getBatches(), is(0L));
+    }
+
+    @Test
+    public void testInitArgs() {
+        NamedList<Object> config = new NamedList<>();
+        config.add("tcpPort", 0);
+        config.add("flushMillis", "200");
+        NamedList<Object> initArgs = new NamedList<>();
+        initArgs.add(LineProtocolListener.CONFIG, config);
+
+        assertThat(LineProtocolListener.of(new NamedList<>(), "test", (lines, length, commitWithin) -> {
+        }), is(nullValue()));
+
+        sut = LineProtocolListener.of(initArgs, "test", (lines, length, commitWithin) -> {
+        });
+        assertThat(sut.getTcpAddress(), is(nullValue()));
+        assertThat(sut.getUdpAddress(), is(nullValue()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidConfig() {
+        new LineProtocolListener("test", "127.0.0.1", 0, 0, 0, 100, 1000, (lines, length, commitWithin) -> {
+        });
+    }
+
+    private LineProtocolListener listener(int flushBytes, int flushMillis) {
+        return new LineProtocolListener("test", "127.0.0.1", 0, 0, flushBytes, flushMillis, 1000,
+                (lines, length, commitWithin) -> batches.add(new String(lines, 0, length, StandardCharsets.UTF_8)));
+    }
+
+    private String joined() {
+        synchronized (batches) {
+            return String.join("", batches);
+        }
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void awaitTrue(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                fail("Condition not met within 10 seconds");
+            }
+            Thread.sleep(10);
+        }
+    }
+}
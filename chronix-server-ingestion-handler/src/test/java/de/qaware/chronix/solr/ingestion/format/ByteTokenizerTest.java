@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.solr.ingestion.format;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class ByteTokenizerTest {
+
+    @Test
+    public void testLines() throws Exception {
+        assertThat(lines("a\nb\r\nc\rd"), is(list("a", "b", "c", "d")));
+        assertThat(lines("a\n\nb\n"), is(list("a", "", "b")));
+        assertThat(lines("\r\n\r\n"), is(list("", "")));
+        assertThat(lines(""), is(list()));
+    }
+
+    @Test
+    public void testLinesAcrossBufferBoundaries() throws Exception {
+        StringBuilder content = new StringBuilder();
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 20_000; i++) {
+            String line = "metric.name." + i + " " + i * 0.5 + " 1475754111";
+            // Lines longer than the buffer force it to grow
+            if (i % 5_000 == 0) {
+                line = line + new String(new char[100_000]).replace('\0', 'x');
+            }
+            expected.add(line);
+            content.append(line).append(i % 2 == 0 ? "\r\n" : "\n");
+        }
+
+        ByteTokenizer tokenizer = new ByteTokenizer(new OneByteAtATime(content.toString()), new StringDictionary());
+        List<String> lines = new ArrayList<>();
+        while (tokenizer.nextLine()) {
+            lines.add(tokenizer.line());
+        }
+        assertThat(lines, is(expected));
+    }
+
+    @Test
+    public void testByteBuffer() throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(16);
+        buffer.put("xx\na b\nc".getBytes(StandardCharsets.UTF_8));
+        buffer.flip();
+        buffer.position(3);
+
+        ByteTokenizer tokenizer = ByteTokenizer.of(buffer, new StringDictionary());
+        List<String> lines = new ArrayList<>();
+        while (tokenizer.nextLine()) {
+            lines.add(tokenizer.line());
+        }
+        assertThat(lines, is(list("a b", "c")));
+        assertThat(buffer.position(), is(3));
+    }
+
+    @Test
+    public void testSplit() throws Exception {
+        assertThat(split("  a  b c ", ' ', -1), is(list("a", "b", "c")));
+        assertThat(split("", ' ', -1), is(list()));
+        assertThat(split("a=b=c", '=', 2), is(list("a", "b=c")));
+        assertThat(split("a==b", '=', 2), is(list("a", "b")));
+        assertThat(split("=b", '=', 2), is(list("b")));
+        assertThat(split("a=", '=', 2), is(list("a")));
+        assertThat(split("\u00e4\u00f6,\u00fc", ',', -1), is(list("\u00e4\u00f6", "\u00fc")));
+    }
+
+    @Test
+    public void testParseLong() throws Exception {
+        for (String value : new String[]{"0", "-1", "+42", "1475754111", "1422568543702900257",
+                "9223372036854775807", "-9223372036854775808"}) {
+            assertThat(tokenizer(value).parseLong(0, value.length()), is(Long.parseLong(value)));
+        }
+        for (String value : new String[]{"", "-", "+", "1.0", "12a", "9223372036854775808", " 1"}) {
+            try {
+                tokenizer(value).parseLong(0, value.length());
+                fail("Expected an exception for '" + value + "'");
+            } catch (NumberFormatException e) {
+                //expected
+            }
+        }
+    }
+
+    @Test
+    public void testParseDouble() throws Exception {
+        for (String value : new String[]{"0", "-0", "1", "-1.5", "+2.25", "0.67", ".5", "5.", "1027", "1.458255915e9",
+                "1.7560473e+07", "3E-5", "123456789012345678", "1234567890123456789", "9007199254740993",
+                "0.1", "0.30000000000000004", "1e22", "1e23", "1e-22", "1e-23", "4.9e-324", "1.7976931348623157E308",
+                "NaN", "+Infinity", "-Infinity", "0x1p3", "1d", "2f"}) {
+            double expected = Double.parseDouble(value);
+            double actual = tokenizer(value).parseDouble(0, value.length());
+            assertThat(value, Double.doubleToRawLongBits(actual), is(Double.doubleToRawLongBits(expected)));
+        }
+        for (String value : new String[]{"", "-", ".", "e5", "1e", "1e+", "1.0.0", "+Inf", "abc"}) {
+            try {
+                tokenizer(value).parseDouble(0, value.length());
+                fail("Expected an exception for '" + value + "'");
+            } catch (NumberFormatException e) {
+                //expected
+            }
+        }
+    }
+
+    @Test
+    public void testIntern() throws Exception {
+        ByteTokenizer tokenizer = tokenizer("cpu.load cpu.load");
+
+        String first = tokenizer.intern(0, 8);
+        String second = tokenizer.intern(9, 17);
+
+        assertThat(first, is("cpu.load"));
+        assertThat(second, sameInstance(first));
+    }
+
+    @Test
+    public void testSeriesKey() throws Exception {
+        ByteTokenizer tokenizer = tokenizer("name a=1 b=2");
+
+        tokenizer.seriesKey(0, 4);
+        ByteKey key = tokenizer.appendSeriesKey((byte) ' ', 5, 12);
+
+        assertThat(key.toString(), is("name a=1 b=2"));
+        assertThat(key.copy(), is(key));
+        assertThat(key.copy().hashCode(), is(key.hashCode()));
+    }
+
+    private static ByteTokenizer tokenizer(String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        ByteTokenizer tokenizer = new ByteTokenizer(bytes, 0, bytes.length, new StringDictionary());
+        tokenizer.nextLine();
+        return tokenizer;
+    }
+
+    private static List<String> lines(String content) throws IOException {
+        ByteTokenizer tokenizer = new ByteTokenizer(new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)), new StringDictionary());
+        List<String> lines = new ArrayList<>();
+        while (tokenizer.nextLine()) {
+            lines.add(tokenizer.line());
+        }
+        return lines;
+    }
+
+    private static List<String> split(String value, char separator, int max) throws IOException {
+        ByteTokenizer tokenizer = tokenizer(value);
+        ByteTokenizer.Tokens tokens = new ByteTokenizer.Tokens();
+        tokenizer.split(tokens, tokenizer.lineStart(), tokenizer.lineEnd(), (byte) separator, max);
+
+        List<String> result = new ArrayList<>();
+        for (int i = 0; i < tokens.size(); i++) {
+            result.add(tokenizer.string(tokens.start(i), tokens.end(i)));
+        }
+        return result;
+    }
+
+    private static List<String> list(String... values) {
+        List<String> result = new ArrayList<>();
+        for (String value : values) {
+            result.add(value);
+        }
+        return result;
+    }
+
+    /**
+     * Returns at most one byte per read, like a slow network connection.
+     */
+    private static final class OneByteAtATime extends FilterInputStream {
+        OneByteAtATime(String content) {
+            super(new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)));
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return super.read(b, off, Math.min(len, 1));
+        }
+    }
+}
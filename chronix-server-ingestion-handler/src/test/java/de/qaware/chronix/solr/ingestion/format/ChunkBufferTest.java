@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.solr.ingestion.format;
+
+import de.qaware.chronix.timeseries.MetricTimeSeries;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class ChunkBufferTest {
+
+    @Test
+    public void testUnlimited() throws Exception {
+        List<MetricTimeSeries> chunks = new ArrayList<>();
+        ChunkBuffer<String> sut = new ChunkBuffer<>(ChunkLimits.UNLIMITED, chunks::add);
+
+        ChunkBuffer.Series series = sut.add("cpu", "cpu", Collections.singletonMap("host", "a"));
+        for (int i = 0; i < 100_000; i++) {
+            sut.point(series, i, i);
+        }
+        assertThat(chunks.size(), is(0));
+
+        sut.flush();
+        assertThat(chunks.size(), is(1));
+        assertThat(chunks.get(0).size(), is(100_000));
+        assertThat(chunks.get(0).getType(), is("metric"));
+        assertThat(chunks.get(0).attribute("host"), is("a"));
+    }
+
+    @Test
+    public void testPointsPerChunk() throws Exception {
+        List<MetricTimeSeries> chunks = new ArrayList<>();
+        ChunkBuffer<String> sut = new ChunkBuffer<>(new ChunkLimits(3, 0), chunks::add);
+
+        ChunkBuffer.Series series = sut.add("cpu", "cpu", Collections.singletonMap("host", "a"));
+        for (int i = 0; i < 7; i++) {
+            sut.point(series, i, i);
+        }
+        sut.flush();
+        sut.flush();
+
+        assertThat(chunks.size(), is(3));
+        assertThat(chunks.get(0).getTimestamps().toArray(), is(new long[]{0, 1, 2}));
+        assertThat(chunks.get(1).getTimestamps().toArray(), is(new long[]{3, 4, 5}));
+        assertThat(chunks.get(2).getTimestamps().toArray(), is(new long[]{6}));
+        for (MetricTimeSeries chunk : chunks) {
+            assertThat(chunk.getName(), is("cpu"));
+            assertThat(chunk.attribute("host"), is("a"));
+        }
+    }
+
+    @Test
+    public void testMemoryBudget() throws Exception {
+        List<MetricTimeSeries> chunks = new ArrayList<>();
+        // 4 points of 16 bytes
+        ChunkBuffer<String> sut = new ChunkBuffer<>(new ChunkLimits(0, 64), chunks::add);
+
+        ChunkBuffer.Series cpu = sut.add("cpu", "cpu", Collections.emptyMap());
+        ChunkBuffer.Series memory = sut.add("memory", "memory", Collections.emptyMap());
+        sut.point(cpu, 1, 1);
+        sut.point(memory, 1, 1);
+        sut.point(cpu, 2, 2);
+        assertThat(chunks.size(), is(0));
+
+        // The budget is exhausted, every time series is flushed
+        sut.point(memory, 2, 2);
+        assertThat(chunks.size(), is(2));
+        assertThat(chunks.get(0).size() + chunks.get(1).size(), is(4));
+
+        sut.point(cpu, 3, 3);
+        sut.flush();
+        assertThat(chunks.size(), is(3));
+        assertThat(chunks.get(2).getName(), is("cpu"));
+        assertThat(chunks.get(2).getTimestamps().toArray(), is(new long[]{3}));
+        assertThat(sut.get("memory"), is(memory));
+    }
+
+    @Test
+    public void testAliases() throws Exception {
+        ChunkBuffer<String> sut = new ChunkBuffer<>(ChunkLimits.UNLIMITED, chunk -> {
+        });
+        ChunkBuffer.Series cpu = sut.add("cpu", "cpu", Collections.emptyMap());
+        ChunkBuffer.Series memory = sut.add("memory", "memory", Collections.emptyMap());
+
+        // enough ids to grow the table several times
+        for (int id = -100; id < 100; id++) {
+            sut.alias(id, id % 2 == 0 ? cpu : memory);
+        }
+        sut.alias(42, memory);
+
+        assertThat(sut.aliased(0), is(cpu));
+        assertThat(sut.aliased(-99), is(memory));
+        assertThat(sut.aliased(42), is(memory));
+        assertThat(sut.aliased(100), is((ChunkBuffer.Series) null));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeLimits() {
+        new ChunkLimits(-1, 0);
+    }
+}
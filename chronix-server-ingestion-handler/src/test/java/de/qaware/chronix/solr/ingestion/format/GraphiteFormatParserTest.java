@@ -20,7 +20,10 @@ import de.qaware.chronix.timeseries.MetricTimeSeries;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.List;
 
 import static org.hamcrest.CoreMatchers.is;
@@ -77,4 +80,44 @@ public class GraphiteFormatParserTest {
             assertThat(psSeries.getValues().get(3), is(9.0));
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testParseInChunks() throws Exception {
+        try (InputStream stream = GraphiteFormatParserTest.class.getResourceAsStream("/graphite.txt")) {
+            assertNotNull(stream);
+            List<MetricTimeSeries> chunks = new ArrayList<>();
+            sut.parse(stream, new ChunkLimits(2, 0), chunks::add);
+
+            // Chunks of two points are passed on while parsing, the rest at the end
+            assertThat(chunks.size(), is(5));
+            assertThat(chunks.get(0).getName(), is("test.bash.stats"));
+            assertThat(chunks.get(0).getTimestamps().toArray(), is(new long[]{1475754111000L, 1475754112000L}));
+            assertThat(chunks.get(1).getTimestamps().toArray(), is(new long[]{1475754113000L, 1475754114000L}));
+            assertThat(chunks.get(2).getName(), is("test.ps.stats"));
+            assertThat(chunks.get(2).getValues().toArray(), is(new double[]{6.0, 7.0}));
+            assertThat(chunks.get(3).getValues().toArray(), is(new double[]{8.0, 9.0}));
+            assertThat(chunks.get(4).getName(), is("test.bash.stats"));
+            assertThat(chunks.get(4).getValues().toArray(), is(new double[]{5.0}));
+        }
+    }
+
+    @Test
+    public void testParseLinesSkipsInvalidLines() throws Exception {
+        byte[] lines = "ignored\na.b 1 1475754111\nbroken\na.b x 1475754112\na.b 3 1475754113\n".getBytes(StandardCharsets.UTF_8);
+        int offset = "ignored\n".length();
+        List<MetricTimeSeries> chunks = new ArrayList<>();
+        List<FormatParseException> invalidLines = new ArrayList<>();
+
+        sut.parseLines(lines, offset, lines.length - offset, ChunkLimits.UNLIMITED, chunks::add, invalidLines::add);
+
+        assertThat(invalidLines.size(), is(2));
+        assertThat(chunks.size(), is(1));
+        assertThat(chunks.get(0).getName(), is("a.b"));
+        assertThat(chunks.get(0).getValues().toArray(), is(new double[]{1.0, 3.0}));
+    }
+
+    @Test(expected = FormatParseException.class)
+    public void testParseFailsOnInvalidLines() throws Exception {
+        sut.parse(new ByteArrayInputStream("a.b 1 1475754111\nbroken\n".getBytes(StandardCharsets.UTF_8)));
+    }
+}
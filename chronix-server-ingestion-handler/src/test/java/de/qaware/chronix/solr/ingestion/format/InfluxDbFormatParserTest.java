@@ -20,7 +20,9 @@ import de.qaware.chronix.timeseries.MetricTimeSeries;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.util.List;
 
@@ -77,6 +79,24 @@ public class InfluxDbFormatParserTest {
         }
     }
 
+    @Test
+    public void testSeriesKeys() throws Exception {
+        String lines = "cpu,host=a,region=eu value=1 1000000\n"
+                + "cpu,region=eu,host=a value=2 2000000\n"
+                + "cpu,host=a,region=eu value=3 3000000\n";
+
+        List<MetricTimeSeries> first = Lists.newArrayList(sut.parse(new ByteArrayInputStream(lines.getBytes(StandardCharsets.UTF_8))));
+        List<MetricTimeSeries> second = Lists.newArrayList(sut.parse(new ByteArrayInputStream(lines.getBytes(StandardCharsets.UTF_8))));
+
+        // the tags in a different order are a different key, but the same time series
+        assertThat(first.size(), is(1));
+        assertThat(first.get(0).getValues().toArray(), is(new double[]{1, 2, 3}));
+        assertThat(second.get(0).getValues().toArray(), is(new double[]{1, 2, 3}));
+        // the registry is shared by both requests
+        assertThat(sut.getSeriesKeys().size(), is(2));
+        assertThat(sut.getSeriesKeys().getRegistered(), is(2L));
+    }
+
     private MetricTimeSeries findWithHost(List<MetricTimeSeries> series, String host) {
         for (MetricTimeSeries serie : series) {
             if (serie.getAttributesReference().get("host").equals(host)) {
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.solr.ingestion.format;
+
+import com.google.common.collect.Lists;
+import de.qaware.chronix.timeseries.MetricTimeSeries;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class PrometheusRemoteWriteFormatParserTest {
+    private final PrometheusRemoteWriteFormatParser sut = new PrometheusRemoteWriteFormatParser();
+
+    @Test
+    public void testParse() throws Exception {
+        ByteArrayOutputStream request = new ByteArrayOutputStream();
+        timeSeries(request, new String[]{"__name__", "http_requests_total", "method", "post", "code", "200"},
+                new long[]{1395066363000L, 1395066364000L}, new double[]{1027, 1028});
+        timeSeries(request, new String[]{"__name__", "process_resident_memory_bytes", "job", "node"},
+                new long[]{1395066363000L}, new double[]{0});
+        // the same labels as the first time series in a different order
+        timeSeries(request, new String[]{"code", "200", "__name__", "http_requests_total", "method", "post"},
+                new long[]{1395066365000L}, new double[]{1029.5});
+        // the metadata of the request is ignored
+        bytes(request, 3, "metadata".getBytes(StandardCharsets.UTF_8));
+
+        List<MetricTimeSeries> series = Lists.newArrayList(sut.parse(compress(request)));
+
+        assertThat(series.size(), is(2));
+        MetricTimeSeries requests = find(series, "http_requests_total");
+        assertThat(requests.getType(), is("metric"));
+        assertThat(requests.getTimestamps().toArray(), is(new long[]{1395066363000L, 1395066364000L, 1395066365000L}));
+        assertThat(requests.getValues().toArray(), is(new double[]{1027, 1028, 1029.5}));
+        assertThat(requests.getAttributesReference().size(), is(2));
+        assertThat(requests.attribute("method"), is("post"));
+        assertThat(requests.attribute("code"), is("200"));
+
+        MetricTimeSeries memory = find(series, "process_resident_memory_bytes");
+        assertThat(memory.getValues().toArray(), is(new double[]{0}));
+        assertThat(memory.attribute("job"), is("node"));
+        assertThat(sut.getSeriesKeys().size(), is(3));
+    }
+
+    @Test
+    public void testChunks() throws Exception {
+        ByteArrayOutputStream request = new ByteArrayOutputStream();
+        timeSeries(request, new String[]{"__name__", "up"}, new long[]{1, 2, 3, 4, 5}, new double[]{1, 1, 0, 1, 1});
+
+        List<MetricTimeSeries> chunks = new ArrayList<>();
+        sut.parse(compress(request), new ChunkLimits(2, 0), chunks::add);
+
+        assertThat(chunks.size(), is(3));
+        assertThat(chunks.get(2).getTimestamps().toArray(), is(new long[]{5}));
+    }
+
+    @Test(expected = FormatParseException.class)
+    public void testMissingName() throws Exception {
+        ByteArrayOutputStream request = new ByteArrayOutputStream();
+        timeSeries(request, new String[]{"job", "node"}, new long[]{1}, new double[]{1});
+
+        sut.parse(compress(request));
+    }
+
+    @Test(expected = FormatParseException.class)
+    public void testNotSnappy() throws Exception {
+        sut.parse(new ByteArrayInputStream("up 1".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test(expected = FormatParseException.class)
+    public void testTruncated() throws Exception {
+        ByteArrayOutputStream request = new ByteArrayOutputStream();
+        timeSeries(request, new String[]{"__name__", "up"}, new long[]{1}, new double[]{1});
+        byte[] truncated = request.toByteArray();
+        truncated = Arrays.copyOf(truncated, truncated.length - 3);
+
+        sut.parse(new ByteArrayInputStream(Snappy.compress(truncated, 0, truncated.length)));
+    }
+
+    private static MetricTimeSeries find(List<MetricTimeSeries> series, String name) {
+        return series.stream().filter(ts -> ts.getName().equals(name)).findFirst().orElseThrow(AssertionError::new);
+    }
+
+    private static ByteArrayInputStream compress(ByteArrayOutputStream request) {
+        byte[] bytes = request.toByteArray();
+        return new ByteArrayInputStream(Snappy.compress(bytes, 0, bytes.length));
+    }
+
+    private static void timeSeries(ByteArrayOutputStream request, String[] labels, long[] timestamps, double[] values) {
+        ByteArrayOutputStream series = new ByteArrayOutputStream();
+        for (int i = 0; i < labels.length; i += 2) {
+            ByteArrayOutputStream label = new ByteArrayOutputStream();
+            bytes(label, 1, labels[i].getBytes(StandardCharsets.UTF_8));
+            bytes(label, 2, labels[i + 1].getBytes(StandardCharsets.UTF_8));
+            bytes(series, 1, label.toByteArray());
+        }
+        for (int i = 0; i < timestamps.length; i++) {
+            ByteArrayOutputStream sample = new ByteArrayOutputStream();
+            // zero values are omitted like protobuf does
+            if (values[i] != 0) {
+                varint(sample, 1 << 3 | 1);
+                long bits = Double.doubleToLongBits(values[i]);
+                for (int b = 0; b < 8; b++) {
+                    sample.write((int) (bits >>> (8 * b)));
+                }
+            }
+            varint(sample, 2 << 3);
+            varint(sample, timestamps[i]);
+            bytes(series, 2, sample.toByteArray());
+        }
+        bytes(request, 1, series.toByteArray());
+    }
+
+    private static void bytes(ByteArrayOutputStream out, int field, byte[] value) {
+        varint(out, field << 3 | 2);
+        varint(out, value.length);
+        out.write(value, 0, value.length);
+    }
+
+    private static void varint(ByteArrayOutputStream out, long value) {
+        long remaining = value;
+        while ((remaining & ~0x7FL) != 0) {
+            out.write((int) (remaining & 0x7F | 0x80));
+            remaining >>>= 7;
+        }
+        out.write((int) remaining);
+    }
+}
@@ -21,7 +21,9 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.List;
 
 import static org.hamcrest.core.Is.is;
@@ -59,4 +61,21 @@ public class PrometheusTextFormatParserTest {
             assertThat(httpRequestsTotal400.getValue(0), is(3.0));
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testParseLinesSkipsInvalidLines() throws Exception {
+        byte[] lines = ("# TYPE http_requests_total counter\n"
+                + "http_requests_total{code=\"200\"} 1027 1395066363000\n"
+                + "http_requests_total{code=\"200\"}\n"
+                + "http_requests_total{code=\"200\"} x 1395066365000\n"
+                + "http_requests_total{code=\"200\"} 1030 1395066366000\n").getBytes(StandardCharsets.UTF_8);
+        List<MetricTimeSeries> chunks = new ArrayList<>();
+        List<FormatParseException> invalidLines = new ArrayList<>();
+
+        sut.parseLines(lines, 0, lines.length, ChunkLimits.UNLIMITED, chunks::add, invalidLines::add);
+
+        assertThat(invalidLines.size(), is(2));
+        assertThat(chunks.size(), is(1));
+        assertThat(chunks.get(0).getTimestamps().toArray(), is(new long[]{1395066363000L, 1395066366000L}));
+    }
+}
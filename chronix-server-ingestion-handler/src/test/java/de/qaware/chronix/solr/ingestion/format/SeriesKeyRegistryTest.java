@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.solr.ingestion.format;
+
+import org.apache.solr.common.util.NamedList;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.junit.Assert.assertThat;
+
+public class SeriesKeyRegistryTest {
+
+    @Test
+    public void testId() throws Exception {
+        SeriesKeyRegistry sut = new SeriesKeyRegistry();
+        ByteKey probe = new ByteKey();
+
+        int first = sut.id(key(probe, "cpu,host=a"));
+        int second = sut.id(key(probe, "cpu,host=a"));
+        int other = sut.id(key(probe, "cpu,host=b"));
+
+        assertThat(second, is(first));
+        assertThat(other, not(first));
+        assertThat(sut.size(), is(2));
+        assertThat(sut.getRegistered(), is(2L));
+        assertThat(sut.getEvicted(), is(0L));
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        SeriesKeyRegistry sut = new SeriesKeyRegistry(2);
+        ByteKey probe = new ByteKey();
+
+        int a = sut.id(key(probe, "a"));
+        int b = sut.id(key(probe, "b"));
+        // a gets a second chance, b is evicted
+        assertThat(sut.id(key(probe, "a")), is(a));
+        int c = sut.id(key(probe, "c"));
+
+        assertThat(sut.size(), is(2));
+        assertThat(sut.getEvicted(), is(1L));
+        assertThat(sut.id(key(probe, "a")), is(a));
+        assertThat(sut.id(key(probe, "c")), is(c));
+        // an evicted key gets a new id, ids are never reused
+        int again = sut.id(key(probe, "b"));
+        assertThat(again, not(b));
+        assertThat(again, not(a));
+        assertThat(again, not(c));
+        assertThat(sut.size(), is(2));
+        assertThat(sut.getEvicted(), is(2L));
+        assertThat(sut.getRegistered(), is(4L));
+    }
+
+    @Test
+    public void testActiveKeysStayRegistered() throws Exception {
+        SeriesKeyRegistry sut = new SeriesKeyRegistry(100);
+        ByteKey probe = new ByteKey();
+
+        int[] active = new int[10];
+        for (int i = 0; i < active.length; i++) {
+            active[i] = sut.id(key(probe, "active" + i));
+        }
+        for (int i = 0; i < 10_000; i++) {
+            sut.id(key(probe, "other" + i));
+            for (int series = 0; series < active.length; series++) {
+                assertThat(sut.id(key(probe, "active" + series)), is(active[series]));
+            }
+        }
+
+        assertThat(sut.size(), is(100));
+        assertThat(sut.getRegistered(), is(10_010L));
+        assertThat(sut.getEvicted(), is(9_910L));
+    }
+
+    @Test
+    public void testResize() throws Exception {
+        SeriesKeyRegistry sut = new SeriesKeyRegistry(4);
+        ByteKey probe = new ByteKey();
+        int[] ids = new int[4];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = sut.id(key(probe, "series" + i));
+        }
+
+        sut.resize(1000);
+        assertThat(sut.getMaxSize(), is(1000));
+        assertThat(sut.size(), is(4));
+        for (int i = 0; i < ids.length; i++) {
+            assertThat(sut.id(key(probe, "series" + i)), is(ids[i]));
+        }
+
+        sut.resize(2);
+        assertThat(sut.size(), is(2));
+        assertThat(sut.getEvicted(), is(2L));
+    }
+
+    @Test
+    public void testConfigure() throws Exception {
+        SeriesKeyRegistry sut = new SeriesKeyRegistry();
+        NamedList<Object> initArgs = new NamedList<>();
+        initArgs.add(SeriesKeyRegistry.MAX_SIZE_ARG, 500);
+
+        sut.configure(initArgs);
+        assertThat(sut.getMaxSize(), is(500));
+
+        sut.configure(null);
+        assertThat(sut.getMaxSize(), is(SeriesKeyRegistry.DEFAULT_MAX_SIZE));
+    }
+
+    @Test
+    public void testConcurrentRegistration() throws Exception {
+        SeriesKeyRegistry sut = new SeriesKeyRegistry();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            Callable<int[]> register = () -> {
+                ByteKey probe = new ByteKey();
+                int[] ids = new int[1000];
+                for (int i = 0; i < ids.length; i++) {
+                    ids[i] = sut.id(key(probe, "series" + i));
+                }
+                return ids;
+            };
+            List<Future<int[]>> results = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                results.add(executor.submit(register));
+            }
+
+            int[] expected = results.get(0).get();
+            for (Future<int[]> result : results) {
+                assertThat(result.get(), is(expected));
+            }
+            assertThat(sut.size(), is(1000));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidSize() throws Exception {
+        new SeriesKeyRegistry(0);
+    }
+
+    private static ByteKey key(ByteKey probe, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        return probe.reset().append(bytes, 0, bytes.length);
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.solr.ingestion.format;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class SnappyTest {
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        Random random = new Random(42);
+        byte[] incompressible = new byte[100_000];
+        random.nextBytes(incompressible);
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 20_000; i++) {
+            text.append("http_requests_total{method=\"post\",host=\"server").append(random.nextInt(100)).append("\"}\n");
+        }
+        byte[] repetitive = text.toString().getBytes(StandardCharsets.UTF_8);
+
+        for (byte[] input : new byte[][]{new byte[0], "a".getBytes(StandardCharsets.UTF_8), incompressible, repetitive, new byte[1000]}) {
+            byte[] compressed = Snappy.compress(input, 0, input.length);
+            assertThat(Snappy.uncompress(compressed, 0, compressed.length), is(input));
+        }
+        byte[] compressed = Snappy.compress(repetitive, 0, repetitive.length);
+        assertTrue(compressed.length < repetitive.length / 4);
+    }
+
+    @Test
+    public void testUncompressOverlappingCopy() throws Exception {
+        // length 10, literal "ab", copy of 8 bytes with offset 2 and a one byte offset
+        byte[] compressed = {10, 1 << 2, 'a', 'b', (byte) ((8 - 4) << 2 | 1), 2};
+
+        byte[] uncompressed = Snappy.uncompress(compressed, 0, compressed.length);
+
+        assertThat(new String(uncompressed, StandardCharsets.UTF_8), is("ababababab"));
+    }
+
+    @Test(expected = FormatParseException.class)
+    public void testInvalidOffset() throws Exception {
+        byte[] compressed = {10, 1 << 2, 'a', 'b', (byte) ((8 - 4) << 2 | 1), 3};
+        Snappy.uncompress(compressed, 0, compressed.length);
+    }
+
+    @Test(expected = FormatParseException.class)
+    public void testTruncated() throws Exception {
+        byte[] compressed = {10, 1 << 2, 'a', 'b'};
+        Snappy.uncompress(compressed, 0, compressed.length);
+    }
+
+    @Test(expected = FormatParseException.class)
+    public void testLengthBeyondRatio() throws Exception {
+        // claims 2 GB in a few bytes
+        byte[] compressed = {(byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0x07, 0};
+        Snappy.uncompress(compressed, 0, compressed.length);
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.solr.ingestion.format;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+public class StringDictionaryTest {
+
+    @Test
+    public void testIntern() throws Exception {
+        StringDictionary sut = new StringDictionary();
+        ByteKey probe = new ByteKey();
+
+        String first = sut.intern(key(probe, "host"));
+        String second = sut.intern(key(probe, "host"));
+        String other = sut.intern(key(probe, "h\u00e4st"));
+
+        assertThat(first, is("host"));
+        assertThat(second, sameInstance(first));
+        assertThat(other, is("h\u00e4st"));
+        assertThat(sut.size(), is(2));
+    }
+
+    @Test
+    public void testBounded() throws Exception {
+        StringDictionary sut = new StringDictionary(2);
+        ByteKey probe = new ByteKey();
+
+        sut.intern(key(probe, "a"));
+        sut.intern(key(probe, "b"));
+        String first = sut.intern(key(probe, "c"));
+        String second = sut.intern(key(probe, "c"));
+
+        assertThat(sut.size(), is(2));
+        assertThat(second, is("c"));
+        assertThat(second, not(sameInstance(first)));
+        assertThat(sut.intern(key(probe, "a")), sameInstance(sut.intern(key(probe, "a"))));
+    }
+
+    private static ByteKey key(ByteKey probe, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        return probe.reset().append(bytes, 0, bytes.length);
+    }
+}
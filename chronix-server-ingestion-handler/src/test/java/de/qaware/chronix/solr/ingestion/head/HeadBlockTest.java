@@ -0,0 +1,430 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.solr.ingestion.head;
+
+import de.qaware.chronix.Schema;
+import de.qaware.chronix.converter.BinaryTimeSeries;
+import de.qaware.chronix.converter.MetricTimeSeriesConverter;
+import de.qaware.chronix.timeseries.MetricTimeSeries;
+import org.apache.lucene.analysis.core.KeywordAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.LongPoint;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.util.NamedList;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class HeadBlockTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<SolrInputDocument> added = new ArrayList<>();
+    private int commits;
+    private boolean failAdd;
+    private boolean failAfterAdd;
+    private int conversions;
+    private final List<HeadBlock> opened = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        opened.forEach(HeadBlock::close);
+    }
+
+    @Test
+    public void testFlushFullChunks() throws Exception {
+        HeadBlock sut = open(10, 60_000, 1024 * 1024);
+        sut.append(series("cpu", "a", 0, 25));
+
+        sut.flush(System.nanoTime());
+
+        assertThat(added.size(), is(2));
+        assertThat(timestamps(added.get(0)), is(range(0, 10)));
+        assertThat(timestamps(added.get(1)), is(range(10, 20)));
+        assertThat(commits, is(1));
+        assertThat(sut.getPoints(), is(5L));
+        assertThat(sut.getSeries(), is(1));
+        assertThat(sut.getFlushedChunks(), is(2L));
+    }
+
+    @Test
+    public void testFlushByAge() throws Exception {
+        HeadBlock sut = open(10, 1000, 1024 * 1024);
+        sut.append(series("cpu", "a", 0, 3));
+        sut.append(series("cpu", "a", 3, 5));
+
+        sut.flush(System.nanoTime());
+        assertThat(added.size(), is(0));
+
+        sut.flush(System.nanoTime() + TimeUnit.SECONDS.toNanos(2));
+        assertThat(added.size(), is(1));
+        assertThat(timestamps(added.get(0)), is(range(0, 5)));
+        assertThat(sut.getPoints(), is(0L));
+        assertThat(sut.getSeries(), is(0));
+    }
+
+    @Test
+    public void testFailedFlushKeepsThePoints() throws Exception {
+        HeadBlock sut = open(10, 60_000, 1024 * 1024);
+        sut.append(series("cpu", "a", 0, 10));
+        failAdd = true;
+
+        try {
+            sut.flush(System.nanoTime());
+            fail("The flush should fail");
+        } catch (IOException e) {
+            assertThat(sut.getPoints(), is(10L));
+        }
+
+        failAdd = false;
+        sut.flush(System.nanoTime());
+        assertThat(added.size(), is(1));
+        assertThat(sut.getPoints(), is(0L));
+    }
+
+    @Test
+    public void testRetriedFlushReplacesTheChunks() throws Exception {
+        HeadBlock sut = open(10, 60_000, 1024 * 1024);
+        sut.append(series("cpu", "a", 0, 10));
+        failAfterAdd = true;
+
+        try {
+            sut.flush(System.nanoTime());
+            fail("The flush should fail");
+        } catch (IOException e) {
+            assertThat(sut.getPoints(), is(10L));
+        }
+
+        failAfterAdd = false;
+        sut.flush(System.nanoTime());
+        assertThat(added.size(), is(2));
+        assertThat(added.get(1).getFieldValue(Schema.ID), is(added.get(0).getFieldValue(Schema.ID)));
+        assertThat(sut.getPoints(), is(0L));
+    }
+
+    @Test
+    public void testReplayedChunksReplaceTheChunks() throws Exception {
+        HeadBlock sut = open(10, 60_000, 1024 * 1024);
+        sut.append(series("cpu", "a", 0, 10));
+        sut.append(series("cpu", "b", 0, 10));
+        sut.sync();
+        Path segment = segments().get(0);
+        byte[] beforeFlush = Files.readAllBytes(segment);
+        sut.flush(System.nanoTime());
+        sut.close();
+
+        //a crash after the commit but before the flush was written to the log
+        Files.write(segment, beforeFlush);
+
+        HeadBlock reopened = open(10, 60_000, 1024 * 1024);
+        assertThat(reopened.getPoints(), is(20L));
+        reopened.flush(System.nanoTime());
+        assertThat(added.size(), is(4));
+        assertThat(added.stream().map(document -> document.getFieldValue(Schema.ID)).distinct().count(), is(2L));
+    }
+
+    @Test
+    public void testChunksStartingAtTheSameTimestampHaveDifferentIds() throws Exception {
+        HeadBlock sut = open(10, 1000, 1024 * 1024);
+        sut.append(series("cpu", "a", 0, 3));
+        sut.flush(System.nanoTime() + TimeUnit.SECONDS.toNanos(2));
+
+        //a late point with the same first timestamp
+        sut.append(series("cpu", "a", 0, 5));
+        sut.flush(System.nanoTime() + TimeUnit.SECONDS.toNanos(4));
+
+        assertThat(added.size(), is(2));
+        assertThat(timestamps(added.get(1)), is(range(0, 5)));
+        assertThat(added.get(1).getFieldValue(Schema.ID).equals(added.get(0).getFieldValue(Schema.ID)), is(false));
+    }
+
+    @Test
+    public void testFindConvertsChangedSeriesOnly() throws Exception {
+        HeadBlock sut = open(100, 60_000, 1024 * 1024);
+        sut.append(series("cpu", "a", 0, 10));
+        sut.append(series("cpu", "b", 0, 10));
+        Query query = new TermQuery(new Term(Schema.NAME, "cpu"));
+
+        assertThat(sut.find(query, System.nanoTime()).size(), is(2));
+        assertThat(sut.find(query, System.nanoTime()).size(), is(2));
+        assertThat(conversions, is(2));
+
+        sut.append(series("cpu", "a", 10, 20));
+        List<SolrDocument> records = sut.find(and(query, new TermQuery(new Term("host", "a"))), System.nanoTime());
+        assertThat(conversions, is(3));
+        assertThat(timestamps(records.get(0)), is(range(0, 20)));
+    }
+
+    @Test
+    public void testFindBufferedPoints() throws Exception {
+        HeadBlock sut = open(100, 60_000, 1024 * 1024);
+        sut.append(series("cpu", "a", 0, 10));
+        sut.append(series("cpu", "b", 5, 10));
+        sut.append(series("mem", "a", 0, 10));
+
+        List<SolrDocument> records = sut.find(new TermQuery(new Term(Schema.NAME, "cpu")), System.nanoTime());
+        assertThat(records.size(), is(2));
+        assertThat(records.get(0).getFieldValue(Schema.DATA), instanceOf(ByteBuffer.class));
+
+        sut.append(series("cpu", "a", 10, 20));
+        records = sut.find(and(new TermQuery(new Term(Schema.NAME, "cpu")), new TermQuery(new Term("host", "a"))), System.nanoTime());
+        assertThat(records.size(), is(1));
+        assertThat(records.get(0).getFieldValue(Schema.START), is(0L));
+        assertThat(records.get(0).getFieldValue(Schema.END), is(19L));
+        assertThat(records.get(0).getFieldValue("host"), is("a"));
+        assertThat(timestamps(records.get(0)), is(range(0, 20)));
+
+        //the time range of the query
+        records = sut.find(LongPoint.newRangeQuery(Schema.START, 5, Long.MAX_VALUE), System.nanoTime());
+        assertThat(records.size(), is(1));
+        assertThat(records.get(0).getFieldValue("host"), is("b"));
+    }
+
+    @Test
+    public void testFlushedChunksStayVisibleToOlderSearchers() throws Exception {
+        HeadBlock sut = open(10, 60_000, 1024 * 1024);
+        sut.append(series("cpu", "a", 0, 15));
+        Query query = new TermQuery(new Term(Schema.NAME, "cpu"));
+
+        long before = System.nanoTime();
+        sut.flush(System.nanoTime());
+        long after = System.nanoTime();
+
+        //the buffered rest and the flushed chunk
+        assertThat(sut.find(query, before).size(), is(2));
+        //the searcher already sees the flushed chunk
+        List<SolrDocument> records = sut.find(query, after);
+        assertThat(records.size(), is(1));
+        assertThat(timestamps(records.get(0)), is(range(10, 15)));
+
+        //some seconds later the chunk is dropped
+        sut.flush(System.nanoTime() + TimeUnit.SECONDS.toNanos(11));
+        records = sut.find(query, before);
+        assertThat(records.size(), is(1));
+        assertThat(timestamps(records.get(0)), is(range(10, 15)));
+    }
+
+    @Test
+    public void testReplayTheLog() throws Exception {
+        HeadBlock sut = open(10, 60_000, 1024 * 1024);
+        sut.append(series("cpu", "a", 0, 15));
+        sut.append(series("cpu", "b", 0, 3));
+        sut.sync();
+        sut.flush(System.nanoTime());
+        sut.append(series("cpu", "a", 15, 17));
+        sut.sync();
+        sut.close();
+
+        HeadBlock reopened = open(10, 60_000, 1024 * 1024);
+        assertThat(reopened.getSeries(), is(2));
+        assertThat(reopened.getPoints(), is(10L));
+
+        List<SolrDocument> records = reopened.find(and(new TermQuery(new Term(Schema.NAME, "cpu")), new TermQuery(new Term("host", "a"))), System.nanoTime());
+        assertThat(timestamps(records.get(0)), is(range(10, 17)));
+    }
+
+    @Test
+    public void testCheckpoint() throws Exception {
+        HeadBlock sut = open(10, 60_000, 64);
+        for (int i = 0; i < 10; i++) {
+            sut.append(series("cpu", "a", i * 7, i * 7 + 7));
+            sut.flush(System.nanoTime());
+        }
+        sut.sync();
+        assertThat(segments().size(), is(1));
+        sut.close();
+
+        HeadBlock reopened = open(10, 60_000, 64);
+        assertThat(reopened.getPoints(), is(0L));
+        assertThat(added.size(), is(7));
+    }
+
+    @Test
+    public void testReplayIncompleteLog() throws Exception {
+        HeadBlock sut = open(100, 60_000, 1024 * 1024);
+        sut.append(series("cpu", "a", 0, 10));
+        sut.append(series("cpu", "a", 10, 20));
+        sut.sync();
+        sut.close();
+
+        //a crash while the last record was written
+        Path segment = segments().get(0);
+        byte[] bytes = Files.readAllBytes(segment);
+        Files.write(segment, Arrays.copyOf(bytes, bytes.length - 20));
+
+        HeadBlock reopened = open(100, 60_000, 1024 * 1024);
+        assertThat(reopened.getPoints(), is(10L));
+    }
+
+    @Test
+    public void testInvalidFieldsAreRejected() throws Exception {
+        HeadBlock sut = open(10, 60_000, 1024 * 1024);
+        MetricTimeSeries invalid = new MetricTimeSeries.Builder("cpu", "metric").attribute("unknown", "x").point(1, 1).build();
+
+        try {
+            sut.append(invalid);
+            fail("The series should be rejected");
+        } catch (IllegalArgumentException e) {
+            assertThat(sut.getSeries(), is(0));
+        }
+    }
+
+    @Test
+    public void testInitArgs() {
+        assertThat(HeadBlock.of(null, "test"), is(nullValue()));
+        assertThat(HeadBlock.of(new NamedList<>(), "test"), is(nullValue()));
+
+        NamedList<Object> config = new NamedList<>();
+        config.add("pointsPerChunk", 100);
+        config.add("fsync", "false");
+        NamedList<Object> initArgs = new NamedList<>();
+        initArgs.add(HeadBlock.CONFIG, config);
+        assertThat(HeadBlock.of(initArgs, "test").getPoints(), is(0L));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidConfig() {
+        new HeadBlock("test", 0, 1000, 1000, "head", 1024, true);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testAppendBeforeOpen() throws Exception {
+        new HeadBlock("test", 10, 1000, 1000, "head", 1024, true).append(series("cpu", "a", 0, 1));
+    }
+
+    private HeadBlock open(int pointsPerChunk, long maxAgeMillis, long walSegmentBytes) throws IOException {
+        //the flush thread does not run within the test
+        HeadBlock head = new HeadBlock("test", pointsPerChunk, maxAgeMillis, 3_600_000, "head", walSegmentBytes, false);
+        head.open(folder.getRoot().toPath(), series -> {
+            conversions++;
+            return toDocument(series);
+        }, HeadBlockTest::toLuceneDocument, new KeywordAnalyzer(), new HeadBlock.Sink() {
+            @Override
+            public void add(List<SolrInputDocument> documents) throws IOException {
+                if (failAdd) {
+                    throw new IOException("Solr is down");
+                }
+                added.addAll(documents);
+                if (failAfterAdd) {
+                    throw new IOException("Solr is gone");
+                }
+            }
+
+            @Override
+            public void commit() {
+                commits++;
+            }
+        });
+        opened.add(head);
+        return head;
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(folder.getRoot().toPath().resolve("head"))) {
+            return files.collect(Collectors.toList());
+        }
+    }
+
+    private static MetricTimeSeries series(String name, String host, int from, int to) {
+        MetricTimeSeries.Builder builder = new MetricTimeSeries.Builder(name, "metric").attribute("host", host);
+        for (int i = from; i < to; i++) {
+            builder.point(i, i * 2);
+        }
+        return builder.build();
+    }
+
+    private static SolrInputDocument toDocument(MetricTimeSeries series) {
+        SolrInputDocument document = new SolrInputDocument();
+        new MetricTimeSeriesConverter().to(series).getFields().forEach(document::addField);
+        return document;
+    }
+
+    /**
+     * Indexes the fields like a schema with string fields and long start and end
+     */
+    private static Document toLuceneDocument(SolrInputDocument fields) {
+        Document document = new Document();
+        for (String field : fields.getFieldNames()) {
+            Object value = fields.getFieldValue(field);
+            if (Schema.START.equals(field) || Schema.END.equals(field)) {
+                document.add(new LongPoint(field, (Long) value));
+            } else if (Schema.ID.equals(field) || Schema.NAME.equals(field) || Schema.TYPE.equals(field) || "host".equals(field)) {
+                document.add(new StringField(field, value.toString(), Field.Store.NO));
+            } else {
+                throw new IllegalArgumentException("unknown field " + field);
+            }
+        }
+        return document;
+    }
+
+    private static BooleanQuery and(Query first, Query second) {
+        return new BooleanQuery.Builder()
+                .add(first, BooleanClause.Occur.MUST)
+                .add(second, BooleanClause.Occur.MUST)
+                .build();
+    }
+
+    private static long[] timestamps(SolrInputDocument document) {
+        SolrDocument record = new SolrDocument();
+        document.getFieldNames().forEach(field -> record.setField(field, document.getFieldValue(field)));
+        return timestamps(record);
+    }
+
+    private static long[] timestamps(SolrDocument record) {
+        BinaryTimeSeries.Builder builder = new BinaryTimeSeries.Builder();
+        record.forEach(field -> builder.field(field.getKey(), field.getValue() instanceof ByteBuffer ? ((ByteBuffer) field.getValue()).array() : field.getValue()));
+        long start = (Long) record.getFieldValue(Schema.START);
+        long end = (Long) record.getFieldValue(Schema.END);
+        MetricTimeSeries series = new MetricTimeSeriesConverter().from(builder.build(), start, end);
+        series.sort();
+        return series.getTimestampsAsArray();
+    }
+
+    private static long[] range(int from, int to) {
+        long[] range = new long[to - from];
+        for (int i = 0; i < range.length; i++) {
+            range[i] = from + i;
+        }
+        return range;
+    }
+}
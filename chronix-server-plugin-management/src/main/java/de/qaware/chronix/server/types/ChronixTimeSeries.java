@@ -17,6 +17,10 @@ package de.qaware.chronix.server.types;
 
 import de.qaware.chronix.server.functions.*;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.Collection;
 import java.util.Map;
 
 /**
@@ -43,6 +47,19 @@ public interface ChronixTimeSeries {
      */
     void applyAggregation(ChronixAggregation aggregation, FunctionValueMap functionValues);
 
+    /**
+     * Applies the given aggregations in their iteration order.
+     * Types can override this to compute several aggregations in a single pass over the points.
+     *
+     * @param aggregations   the aggregations
+     * @param functionValues the function values to add the results
+     */
+    default void applyAggregations(Collection<ChronixAggregation> aggregations, FunctionValueMap functionValues) {
+        for (ChronixAggregation aggregation : aggregations) {
+            applyAggregation(aggregation, functionValues);
+        }
+    }
+
     /**
      * Applies the given analysis
      *
@@ -98,4 +115,34 @@ public interface ChronixTimeSeries {
      */
     byte[] dataAsBlob();
 
+    /**
+     * Writes the data as json without building the complete json in memory.
+     * The default implementation writes {@link #dataAsJson()}.
+     *
+     * @param writer the writer to write the json to
+     * @throws IOException if the writer fails
+     */
+    default void writeDataAsJson(Writer writer) throws IOException {
+        writer.write(dataAsJson());
+    }
+
+    /**
+     * @return true if the type writes its data in a columnar format, see {@link #writeDataAsColumns(OutputStream)}
+     */
+    default boolean supportsColumns() {
+        return false;
+    }
+
+    /**
+     * Writes the data in a compact columnar binary format for clients that do not need json.
+     * Only called if the type {@link #supportsColumns() supports columns}.
+     *
+     * @param output the stream to write the data to
+     * @throws IOException                   if the stream fails
+     * @throws UnsupportedOperationException if the type does not support a columnar format
+     */
+    default void writeDataAsColumns(OutputStream output) throws IOException {
+        throw new UnsupportedOperationException("The type " + getType() + " does not support a columnar format");
+    }
+
 }
@@ -15,10 +15,15 @@
  */
 package de.qaware.chronix.server.types;
 
+import de.qaware.chronix.server.functions.ChronixAggregation;
 import de.qaware.chronix.server.functions.ChronixFunction;
+import de.qaware.chronix.server.functions.ChronixTransformation;
 import org.apache.solr.common.SolrDocument;
 
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
 
 /**
  * The interface defines a Chronix type.
@@ -42,6 +47,69 @@ public interface ChronixType {
      */
     ChronixTimeSeries convert(List<SolrDocument> records, long queryStart, long queryEnd, boolean rawDataIsRequested);
 
+    /**
+     * Converts the given list of records to a time series that is only used to answer the given aggregations.
+     * A type can answer the aggregations from statistics stored with the records instead of decompressing them.
+     * The default implementation decompresses all records.
+     *
+     * @param records      a list of records that belong to the query
+     * @param queryStart   the start of the query, use it to filter the records
+     * @param queryEnd     the end of the query, use it fo filter the records
+     * @param aggregations the aggregations that are applied on the time series
+     * @return a time series of type <t>
+     */
+    default ChronixTimeSeries convertForAggregations(List<SolrDocument> records, long queryStart, long queryEnd, Collection<ChronixAggregation> aggregations) {
+        return convert(records, queryStart, queryEnd, true);
+    }
+
+    /**
+     * Converts the given list of records to a time series that is transformed by the given transformations.
+     * A type can replace the points of records by stored statistics if the first transformation reduces them anyway.
+     * The default implementation decompresses all records.
+     *
+     * @param records         a list of records that belong to the query
+     * @param queryStart      the start of the query, use it to filter the records
+     * @param queryEnd        the end of the query, use it fo filter the records
+     * @param transformations the transformations in the order they are applied on the time series
+     * @return a time series of type <t>
+     */
+    default ChronixTimeSeries convertForTransformations(List<SolrDocument> records, long queryStart, long queryEnd, List<ChronixTransformation> transformations) {
+        return convert(records, queryStart, queryEnd, true);
+    }
+
+    /**
+     * @return the fields of a record that the type needs in addition to the requested fields
+     */
+    default Set<String> requiredFields() {
+        return Collections.emptySet();
+    }
+
+    /**
+     * @param aggregations the aggregations that are answered by {@link #convertForAggregations}
+     * @return the fields of a record that the type needs in addition to the required fields to answer the aggregations
+     */
+    default Set<String> requiredFieldsForAggregations(Collection<ChronixAggregation> aggregations) {
+        return Collections.emptySet();
+    }
+
+    /**
+     * @param transformations the transformations that are applied on the result of {@link #convertForTransformations}
+     * @return the fields of a record that the type needs in addition to the required fields to apply the transformations
+     */
+    default Set<String> requiredFieldsForTransformations(List<ChronixTransformation> transformations) {
+        return Collections.emptySet();
+    }
+
+    /**
+     * Internal fields are written and read by the type only. They are loaded if the type requires them
+     * for a query and are never returned to the user.
+     *
+     * @return the internal fields of a record
+     */
+    default Set<String> internalFields() {
+        return Collections.emptySet();
+    }
+
     /**
      * @param function the query name of the function
      * @param args     the arguments that are passed to the function
@@ -18,7 +18,9 @@ package de.qaware.chronix.server.types;
 import com.google.inject.Inject;
 import org.apache.commons.lang3.builder.ToStringBuilder;
 
+import java.util.HashSet;
 import java.util.Set;
+import java.util.function.Function;
 
 /**
  * Holds all plugged-in types
@@ -45,6 +47,33 @@ public final class ChronixTypes {
         return null;
     }
 
+    /**
+     * @return the fields that the types need in addition to the requested fields
+     */
+    public Set<String> requiredFields() {
+        return requiredFields(ChronixType::requiredFields);
+    }
+
+    /**
+     * @param fieldsOfType the fields that a type needs for a query
+     * @return the fields that the types need for the query in addition to the requested fields
+     */
+    public Set<String> requiredFields(Function<ChronixType, Set<String>> fieldsOfType) {
+        Set<String> fields = new HashSet<>();
+        for (ChronixType type : chronixTypes) {
+            fields.addAll(fieldsOfType.apply(type));
+        }
+        return fields;
+    }
+
+    /**
+     * @return the internal fields of all types
+     * @see ChronixType#internalFields()
+     */
+    public Set<String> internalFields() {
+        return requiredFields(ChronixType::internalFields);
+    }
+
 
     @Override
     public String toString() {
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.server.types;
+
+import org.apache.lucene.search.Query;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.core.SolrCore;
+import org.apache.solr.search.SolrIndexSearcher;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Records that are ingested but not yet indexed.
+ * <p>
+ * An ingestion handler that buffers the points before it indexes them registers its buffer for the core.
+ * The query handler adds the matching records to the records found in the index. The records have the same
+ * fields as the indexed records, hence the types convert them like any other record.
+ */
+public interface HeadRecords {
+
+    /**
+     * @param query    the query of the request
+     * @param searcher the searcher of the request. Records that are already visible to the searcher are left out.
+     * @return the records matching the query
+     * @throws IOException if the query could not be evaluated
+     */
+    List<SolrDocument> find(Query query, SolrIndexSearcher searcher) throws IOException;
+
+    /**
+     * Registers the head records of a core
+     *
+     * @param core    the solr core
+     * @param records the head records
+     */
+    static void register(SolrCore core, HeadRecords records) {
+        Registry.RECORDS.computeIfAbsent(core, key -> new CopyOnWriteArrayList<>()).add(records);
+    }
+
+    /**
+     * Removes the head records of a core
+     *
+     * @param core    the solr core
+     * @param records the head records
+     */
+    static void unregister(SolrCore core, HeadRecords records) {
+        Registry.RECORDS.computeIfPresent(core, (key, registered) -> {
+            registered.remove(records);
+            return registered.isEmpty() ? null : registered;
+        });
+    }
+
+    /**
+     * @param core the solr core, can be null
+     * @return the registered head records of the core
+     */
+    static List<HeadRecords> of(SolrCore core) {
+        if (core == null) {
+            return Collections.emptyList();
+        }
+        return Registry.RECORDS.getOrDefault(core, Collections.emptyList());
+    }
+
+    /**
+     * Holds the registered head records per core
+     */
+    final class Registry {
+        private static final Map<SolrCore, List<HeadRecords>> RECORDS = new ConcurrentHashMap<>();
+
+        private Registry() {
+            //avoid instances
+        }
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.server.types;
+
+import org.apache.lucene.util.Accountable;
+
+/**
+ * Cache for the decoded data of records.
+ * <p>
+ * The list of records passed to {@link ChronixType#convert} implements this interface
+ * if the decoded data of its records can be cached. The cached data is bound to the
+ * index segment of the record and hence is dropped when the segment is merged away.
+ */
+public interface RecordCache {
+
+    /**
+     * @param record the position of the record in the list of records
+     * @return the cached decoded data of the record, or null if it is not cached
+     */
+    Accountable getDecoded(int record);
+
+    /**
+     * Caches the decoded data of a record.
+     * The data must not be modified afterwards as it is shared between queries.
+     *
+     * @param record  the position of the record in the list of records
+     * @param decoded the decoded data
+     */
+    void putDecoded(int record, Accountable decoded);
+}
@@ -27,6 +27,7 @@ import org.apache.solr.core.PluginInfo;
 import org.apache.solr.core.SolrCore;
 import org.apache.solr.handler.RequestHandlerBase;
 import org.apache.solr.handler.component.SearchHandler;
+import org.apache.solr.metrics.SolrMetricManager;
 import org.apache.solr.request.SolrQueryRequest;
 import org.apache.solr.response.SolrQueryResponse;
 import org.apache.solr.util.plugin.PluginInfoInitialized;
@@ -65,7 +66,7 @@ public class ChronixQueryHandler extends RequestHandlerBase implements SolrCoreA
     /**
      * The analysis handler
      */
-    private final SearchHandler analysisHandler = new AnalysisHandler(new SolrDocListProvider());
+    private final AnalysisHandler analysisHandler = new AnalysisHandler(new SolrDocListProvider());
     /**
      * The date range parser
      */
@@ -77,6 +78,12 @@ public class ChronixQueryHandler extends RequestHandlerBase implements SolrCoreA
         analysisHandler.init(info);
     }
 
+    @Override
+    public void initializeMetrics(SolrMetricManager manager, String registryName, String tag, String scope) {
+        super.initializeMetrics(manager, registryName, tag, scope);
+        analysisHandler.getAnalysisExecutor().initializeMetrics(this, manager, registryName, tag, scope);
+    }
+
     @Override
     @SuppressWarnings("PMD.SignatureDeclareThrowsException")
     public void handleRequestBody(SolrQueryRequest req, SolrQueryResponse rsp) throws Exception {
@@ -105,8 +112,9 @@ public class ChronixQueryHandler extends RequestHandlerBase implements SolrCoreA
         final String chronixJoin = modifiableSolrParams.get(ChronixQueryParams.CHRONIX_JOIN);
 
 
-        //if we have an function query or someone wants the data as json
-        if (arrayIsNotEmpty(chronixFunctions) || contains(ChronixQueryParams.DATA_AS_JSON, fields) || !StringUtils.isEmpty(chronixJoin)) {
+        //if we have an function query or someone wants the data as json or columns
+        if (arrayIsNotEmpty(chronixFunctions) || contains(ChronixQueryParams.DATA_AS_JSON, fields)
+                || contains(ChronixQueryParams.DATA_AS_COLUMNS, fields) || !StringUtils.isEmpty(chronixJoin)) {
             LOGGER.debug("Request is an analysis request.");
             analysisHandler.handleRequestBody(req, rsp);
         } else {
@@ -175,6 +183,9 @@ public class ChronixQueryHandler extends RequestHandlerBase implements SolrCoreA
                 //if the field is dataAsJson -> add it to the fields.
                 resultingFields.add(ChronixQueryParams.DATA_AS_JSON);
             }
+            if (fl.contains(ChronixQueryParams.DATA_AS_COLUMNS)) {
+                resultingFields.add(ChronixQueryParams.DATA_AS_COLUMNS);
+            }
 
             //remove fields that are marked with minus sign '-'
             for (String field : fields) {
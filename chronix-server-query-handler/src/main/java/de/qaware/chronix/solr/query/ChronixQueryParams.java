@@ -76,6 +76,11 @@ public final class ChronixQueryParams {
 
     public static final String DATA_AS_JSON = "dataAsJson";
 
+    /**
+     * Returns the data in a compact columnar binary format (delta encoded timestamps, XOR encoded values)
+     */
+    public static final String DATA_AS_COLUMNS = "dataAsColumns";
+
     private ChronixQueryParams() {
         //avoid instances
     }
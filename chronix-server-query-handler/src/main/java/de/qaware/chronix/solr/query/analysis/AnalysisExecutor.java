@@ -0,0 +1,303 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.solr.query.analysis;
+
+import com.codahale.metrics.Gauge;
+import org.apache.solr.common.SolrException;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.core.SolrInfoBean;
+import org.apache.solr.metrics.SolrMetricManager;
+import org.apache.solr.util.DefaultSolrThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Bounded executor for the analysis of the collected time series.
+ * <p>
+ * The executor replaces the common fork join pool that is shared with solr and all other requests.
+ * It is configured in the solrconfig.xml within the request handler:
+ * <pre>
+ * &lt;lst name="analysisExecutor"&gt;
+ *     &lt;int name="threads"&gt;8&lt;/int&gt;
+ *     &lt;int name="queueSize"&gt;128&lt;/int&gt;
+ *     &lt;int name="parallelismPerRequest"&gt;4&lt;/int&gt;
+ *     &lt;bool name="rejectWhenFull"&gt;false&lt;/bool&gt;
+ * &lt;/lst&gt;
+ * </pre>
+ * The thread that calls {@link #forEach(Collection, Consumer)} always works on the items itself.
+ * The pool threads only help. Hence a request makes progress even if the pool is saturated
+ * and nested calls (e.g. the sub-queries of a pair analysis) can not deadlock.
+ * If the queue is full, the calling thread processes the items alone or the request is rejected.
+ */
+public final class AnalysisExecutor {
+
+    /**
+     * The name of the init args in the solrconfig.xml
+     */
+    public static final String CONFIG = "analysisExecutor";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AnalysisExecutor.class);
+    private static final long KEEP_ALIVE_SECONDS = 60;
+    private static final int QUEUE_SIZE_PER_THREAD = 16;
+
+    /**
+     * Marks the threads that are currently working on items
+     */
+    private static final ThreadLocal<Boolean> WORKING = ThreadLocal.withInitial(() -> Boolean.FALSE);
+
+    private final ThreadPoolExecutor executor;
+    private final int threads;
+    private final int parallelismPerRequest;
+    private final boolean rejectWhenFull;
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * Constructs a new analysis executor
+     *
+     * @param threads               the number of threads
+     * @param queueSize             the maximal number of waiting tasks
+     * @param parallelismPerRequest the maximal number of threads (including the calling thread) that work on a single request
+     * @param rejectWhenFull        true if a request is rejected if the queue is full, otherwise the calling thread works alone
+     */
+    public AnalysisExecutor(int threads, int queueSize, int parallelismPerRequest, boolean rejectWhenFull) {
+        if (threads < 1 || queueSize < 1 || parallelismPerRequest < 1) {
+            throw new IllegalArgumentException("Threads, queue size and parallelism per request must be positive. Got "
+                    + threads + ", " + queueSize + ", " + parallelismPerRequest);
+        }
+        this.threads = threads;
+        this.parallelismPerRequest = parallelismPerRequest;
+        this.rejectWhenFull = rejectWhenFull;
+        this.executor = new ThreadPoolExecutor(threads, threads,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueSize),
+                new DefaultSolrThreadFactory("chronixAnalysis"));
+        //idle executors do not hold threads
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Creates an analysis executor from the init args of the request handler.
+     * Missing values are set to defaults based on the available processors.
+     *
+     * @param initArgs the init args of the request handler, can be null
+     * @return the configured analysis executor
+     */
+    public static AnalysisExecutor of(NamedList initArgs) {
+        NamedList config = initArgs == null ? null : (NamedList) initArgs.get(CONFIG);
+
+        int threads = intArg(config, "threads", Runtime.getRuntime().availableProcessors());
+        int queueSize = intArg(config, "queueSize", threads * QUEUE_SIZE_PER_THREAD);
+        int parallelismPerRequest = intArg(config, "parallelismPerRequest", threads);
+        boolean rejectWhenFull = config != null && Boolean.TRUE.equals(config.getBooleanArg("rejectWhenFull"));
+
+        LOGGER.info("Analysis executor with {} threads, queue size {}, parallelism per request {} and reject when full {}",
+                threads, queueSize, parallelismPerRequest, rejectWhenFull);
+        return new AnalysisExecutor(threads, queueSize, parallelismPerRequest, rejectWhenFull);
+    }
+
+    private static int intArg(NamedList config, String name, int defaultValue) {
+        Object value = config == null ? null : config.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        return value instanceof Number ? ((Number) value).intValue() : Integer.parseInt(value.toString().trim());
+    }
+
+    /**
+     * Applies the action on every item.
+     * The calling thread works on the items together with at most parallelism per request - 1 pool threads.
+     * Nested calls only use idle pool threads.
+     * The method returns when all items are processed.
+     *
+     * @param items  the items
+     * @param action the action that is applied on every item
+     * @param <T>    the type of the items
+     * @throws SolrException if the request is rejected because the queue is full
+     */
+    public <T> void forEach(Collection<T> items, Consumer<T> action) {
+        if (items.isEmpty()) {
+            return;
+        }
+        boolean nested = WORKING.get();
+        Work<T> work = new Work<>(items.iterator(), action);
+
+        int amountOfHelpers = Math.min(parallelismPerRequest, items.size()) - 1;
+        List<Runnable> helpers = new ArrayList<>(Math.max(amountOfHelpers, 0));
+        for (int i = 0; i < amountOfHelpers; i++) {
+            //nested calls should not oversubscribe the pool
+            if (nested && executor.getActiveCount() + executor.getQueue().size() >= threads) {
+                break;
+            }
+            Runnable helper = work::help;
+            try {
+                executor.execute(helper);
+                helpers.add(helper);
+            } catch (RejectedExecutionException e) {
+                rejected.incrementAndGet();
+                if (rejectWhenFull && !nested && helpers.isEmpty()) {
+                    throw new SolrException(SolrException.ErrorCode.SERVICE_UNAVAILABLE, "The analysis executor is overloaded", e);
+                }
+                //back pressure: the calling thread does the work
+                LOGGER.debug("Analysis executor is full. Calling thread processes the items.");
+                break;
+            }
+        }
+
+        //the calling thread participates
+        work.run();
+
+        //helpers that have not started yet are not needed anymore
+        helpers.forEach(executor::remove);
+        work.awaitHelpers();
+        work.rethrow();
+    }
+
+    /**
+     * Registers the metrics of the executor
+     *
+     * @param bean         the solr info bean that owns the executor
+     * @param manager      the solr metric manager
+     * @param registryName the name of the registry
+     * @param tag          the tag of the metrics
+     * @param scope        the scope of the metrics
+     */
+    public void initializeMetrics(SolrInfoBean bean, SolrMetricManager manager, String registryName, String tag, String scope) {
+        String category = bean.getCategory().toString();
+        manager.registerGauge(bean, registryName, (Gauge<Integer>) () -> executor.getQueue().size(), tag, true, "queueDepth", category, scope, CONFIG);
+        manager.registerGauge(bean, registryName, (Gauge<Integer>) executor::getActiveCount, tag, true, "activeThreads", category, scope, CONFIG);
+        manager.registerGauge(bean, registryName, (Gauge<Integer>) executor::getPoolSize, tag, true, "poolSize", category, scope, CONFIG);
+        manager.registerGauge(bean, registryName, (Gauge<Long>) executor::getCompletedTaskCount, tag, true, "completedTasks", category, scope, CONFIG);
+        manager.registerGauge(bean, registryName, (Gauge<Long>) rejected::get, tag, true, "rejected", category, scope, CONFIG);
+    }
+
+    /**
+     * @return the number of tasks waiting in the queue
+     */
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * @return the number of rejected tasks
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    /**
+     * Shuts the executor down. Running analyses are finished.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * The items of a single call. The calling thread and the helpers take the items from a shared iterator.
+     *
+     * @param <T> the type of the items
+     */
+    private static final class Work<T> implements Runnable {
+
+        private final Iterator<T> items;
+        private final Consumer<T> action;
+        private volatile Throwable failure;
+        private boolean finished;
+        private int runningHelpers;
+
+        private Work(Iterator<T> items, Consumer<T> action) {
+            this.items = items;
+            this.action = action;
+        }
+
+        /**
+         * Runs the work in a pool thread, if the calling thread has not finished it already
+         */
+        private void help() {
+            synchronized (this) {
+                if (finished) {
+                    return;
+                }
+                runningHelpers++;
+            }
+            try {
+                run();
+            } finally {
+                synchronized (this) {
+                    runningHelpers--;
+                    notifyAll();
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            boolean working = WORKING.get();
+            WORKING.set(Boolean.TRUE);
+            try {
+                T item;
+                while (failure == null && (item = next()) != null) {
+                    action.accept(item);
+                }
+            } catch (RuntimeException | Error e) {
+                failure = e;
+            } finally {
+                WORKING.set(working);
+            }
+        }
+
+        private synchronized T next() {
+            if (items.hasNext()) {
+                return items.next();
+            }
+            return null;
+        }
+
+        /**
+         * Waits until all started helpers are done. Helpers that start afterwards do nothing.
+         */
+        private synchronized void awaitHelpers() {
+            finished = true;
+            while (runningHelpers > 0) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new SolrException(SolrException.ErrorCode.SERVER_ERROR, "Interrupted while waiting for the analysis", e);
+                }
+            }
+        }
+
+        private void rethrow() {
+            if (failure instanceof RuntimeException) {
+                throw (RuntimeException) failure;
+            }
+            if (failure instanceof Error) {
+                throw (Error) failure;
+            }
+        }
+    }
+}
@@ -28,17 +28,27 @@ import de.qaware.chronix.server.types.ChronixTimeSeries;
 import de.qaware.chronix.server.types.ChronixType;
 import de.qaware.chronix.server.types.ChronixTypePlugin;
 import de.qaware.chronix.server.types.ChronixTypes;
+import de.qaware.chronix.server.types.HeadRecords;
 import de.qaware.chronix.solr.query.ChronixQueryParams;
 import de.qaware.chronix.solr.query.date.DateQueryParser;
+import org.apache.lucene.search.Query;
 import org.apache.solr.common.SolrDocument;
 import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.SolrException;
 import org.apache.solr.common.params.CommonParams;
 import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.core.CloseHook;
+import org.apache.solr.core.PluginInfo;
+import org.apache.solr.core.SolrCore;
 import org.apache.solr.handler.component.SearchHandler;
 import org.apache.solr.request.SolrQueryRequest;
 import org.apache.solr.response.SolrQueryResponse;
 import org.apache.solr.schema.SchemaField;
+import org.apache.solr.search.DocIterator;
 import org.apache.solr.search.DocList;
+import org.apache.solr.search.QParser;
+import org.apache.solr.search.SolrIndexSearcher;
+import org.apache.solr.search.SyntaxError;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -57,6 +67,10 @@ public class AnalysisHandler extends SearchHandler {
     private static final Logger LOGGER = LoggerFactory.getLogger(AnalysisHandler.class);
     private static final String DATA_WITH_LEADING_AND_TRAILING_COMMA = "," + Schema.DATA + ",";
     private final DocListProvider docListProvider;
+    /**
+     * The executor that analyzes the time series. Configured on init.
+     */
+    private volatile AnalysisExecutor analysisExecutor = AnalysisExecutor.of(null);
     private final DateQueryParser subQueryDateRangeParser = new DateQueryParser(new String[]{ChronixQueryParams.DATE_START_FIELD, ChronixQueryParams.DATE_END_FIELD});
 
     private static final Injector INJECTOR = Guice.createInjector(Stage.PRODUCTION,
@@ -75,6 +89,37 @@ public class AnalysisHandler extends SearchHandler {
         this.docListProvider = docListProvider;
     }
 
+    @Override
+    public void init(PluginInfo info) {
+        super.init(info);
+        AnalysisExecutor configured = AnalysisExecutor.of(info.initArgs);
+        analysisExecutor.shutdown();
+        analysisExecutor = configured;
+    }
+
+    @Override
+    public void inform(SolrCore core) {
+        super.inform(core);
+        core.addCloseHook(new CloseHook() {
+            @Override
+            public void preClose(SolrCore core) {
+                analysisExecutor.shutdown();
+            }
+
+            @Override
+            public void postClose(SolrCore core) {
+                //nothing to do
+            }
+        });
+    }
+
+    /**
+     * @return the executor that analyzes the time series
+     */
+    public AnalysisExecutor getAnalysisExecutor() {
+        return analysisExecutor;
+    }
+
     private static boolean hasMatchingAnalyses(FunctionValueMap functionValueMap) {
         if (functionValueMap == null || functionValueMap.sizeOfAnalyses() == 0) {
             return false;
@@ -121,16 +166,17 @@ public class AnalysisHandler extends SearchHandler {
         String[] chronixFunctions = req.getParams().getParams(ChronixQueryParams.CHRONIX_FUNCTION);
         String chronixJoin = req.getParams().get(ChronixQueryParams.CHRONIX_JOIN);
 
+        //If no rows should returned, we only need the num found and no functions
+        final TypeFunctions typeFunctions = rows == 0 ? new TypeFunctions() : QueryEvaluator.extractFunctions(chronixFunctions, TYPES, FUNCTIONS);
+
         //Do a query and collect them on the join function
         JoinFunction key = new JoinFunction(chronixJoin);
-        Map<String, List<SolrDocument>> collectedDocs = collectDocuments(req, key);
+        Map<String, List<SolrDocument>> collectedDocs = Collections.unmodifiableMap(collectDocuments(req, key, requiredFields(req.getParams(), typeFunctions)));
 
-        //If no rows should returned, we only return the num found
         if (rows == 0) {
             results.setNumFound(collectedDocs.keySet().size());
         } else {
             //Otherwise return the analyzed time series
-            final TypeFunctions typeFunctions = QueryEvaluator.extractFunctions(chronixFunctions, TYPES, FUNCTIONS);
             final List<SolrDocument> resultDocuments = analyze(req, typeFunctions, key, collectedDocs, !JoinFunction.isDefaultJoinFunction(key));
             results.addAll(resultDocuments);
             //As we have to analyze all docs in the query at once,
@@ -141,6 +187,40 @@ public class AnalysisHandler extends SearchHandler {
         rsp.add("response", results);
     }
 
+    /**
+     * Evaluates the fields the types need to convert their records for the given functions.
+     * The statistics of the records are only loaded if a type answers its functions from them.
+     *
+     * @param params    the request parameters
+     * @param functions the functions of the query per type
+     * @return the fields the types need in addition to the requested fields
+     */
+    private static Set<String> requiredFields(SolrParams params, TypeFunctions functions) {
+        final boolean dataIsReturned = isDataReturned(params.get(CommonParams.FL, Schema.DATA));
+
+        return TYPES.requiredFields(type -> {
+            QueryFunctions typeFunctions = functions.getTypeFunctions(type);
+            Set<String> fields = new HashSet<>(type.requiredFields());
+            //the same decision as in analyze
+            if (!dataIsReturned && onlyAggregations(typeFunctions)) {
+                fields.addAll(type.requiredFieldsForAggregations(typeFunctions.getAggregations()));
+            } else if (typeFunctions != null && typeFunctions.containsTransformations()) {
+                fields.addAll(type.requiredFieldsForTransformations(typeFunctions.getTransformations()));
+            }
+            return fields;
+        });
+    }
+
+    /**
+     * @param fields the fields parameter of the request
+     * @return true if the data of the time series is returned in any format
+     */
+    private static boolean isDataReturned(String fields) {
+        return fields.contains(DATA_WITH_LEADING_AND_TRAILING_COMMA)
+                || fields.contains(ChronixQueryParams.DATA_AS_JSON)
+                || fields.contains(ChronixQueryParams.DATA_AS_COLUMNS);
+    }
+
     /**
      * Analyzes the given request using the chronix functions.
      *
@@ -164,13 +244,14 @@ public class AnalysisHandler extends SearchHandler {
         final String fields = params.get(CommonParams.FL, Schema.DATA);
         final boolean dataShouldReturned = fields.contains(DATA_WITH_LEADING_AND_TRAILING_COMMA);
         final boolean dataAsJson = fields.contains(ChronixQueryParams.DATA_AS_JSON);
+        final boolean dataAsColumns = fields.contains(ChronixQueryParams.DATA_AS_COLUMNS);
 
-        //the data is needed if there are functions, or the data should be returned or the data is requested as json
-        boolean decompressDataAsItIsRequested = (!functions.isEmpty() || dataAsJson || dataShouldReturned);
+        //the data is needed if there are functions, or the data should be returned or the data is requested as json or columns
+        boolean decompressDataAsItIsRequested = (!functions.isEmpty() || dataAsJson || dataAsColumns || dataShouldReturned);
 
         final List<SolrDocument> resultDocuments = Collections.synchronizedList(new ArrayList<>(collectedDocs.size()));
 
-        collectedDocs.entrySet().parallelStream().forEach(docs -> {
+        analysisExecutor.forEach(collectedDocs.entrySet(), docs -> {
             try {
                 String type = evaluateType(docs);
                 if (type != null) {
@@ -181,10 +262,27 @@ public class AnalysisHandler extends SearchHandler {
                         QueryFunctions typeFunctions = functions.getTypeFunctions(chronixType);
 
                         //convert the documents into a time series
-                        final ChronixTimeSeries timeSeries = chronixType.convert(
-                                docs.getValue(),
-                                queryStart, queryEnd,
-                                decompressDataAsItIsRequested);
+                        final ChronixTimeSeries timeSeries;
+                        if (!isDataReturned(fields) && onlyAggregations(typeFunctions)) {
+                            //the type can answer the aggregations without decompressing every record
+                            timeSeries = chronixType.convertForAggregations(
+                                    docs.getValue(),
+                                    queryStart, queryEnd,
+                                    typeFunctions.getAggregations());
+                        } else if (typeFunctions != null && typeFunctions.containsTransformations()) {
+                            //the type can reduce records by the first transformation without decompressing them
+                            timeSeries = chronixType.convertForTransformations(
+                                    docs.getValue(),
+                                    queryStart, queryEnd,
+                                    typeFunctions.getTransformations());
+                        } else {
+                            timeSeries = chronixType.convert(
+                                    docs.getValue(),
+                                    queryStart, queryEnd,
+                                    decompressDataAsItIsRequested);
+                        }
+                        //the records are no longer needed
+                        release(docs.getValue());
 
                         FunctionValueMap functionValues = null;
 
@@ -205,9 +303,7 @@ public class AnalysisHandler extends SearchHandler {
 
                                 //then we apply aggregations
                                 if (typeFunctions.containsAggregations()) {
-                                    for (ChronixAggregation aggregation : typeFunctions.getAggregations()) {
-                                        timeSeries.applyAggregation(aggregation, functionValues);
-                                    }
+                                    timeSeries.applyAggregations(typeFunctions.getAggregations(), functionValues);
                                 }
                                 //finally the analyses
                                 if (typeFunctions.containsAnalyses()) {
@@ -217,23 +313,36 @@ public class AnalysisHandler extends SearchHandler {
                         }
 
                         //We Return the document, if
-                        // 1) the data is explicit requested as json
+                        // 1) the data is explicit requested as json or columns
                         // 2) there are aggregations / transformations
                         // 3) there are matching analyses
-                        if (dataAsJson || hasTransformationsOrAggregations(functionValues) || hasMatchingAnalyses(functionValues) || isJoined) {
+                        if (dataAsJson || dataAsColumns || hasTransformationsOrAggregations(functionValues) || hasMatchingAnalyses(functionValues) || isJoined) {
                             //Here we have to build the document with the results of the analyses
-                            resultDocuments.add(asSolrDocument(dataShouldReturned, dataAsJson, docs, functionValues, timeSeries));
+                            resultDocuments.add(asSolrDocument(dataShouldReturned, dataAsJson, dataAsColumns, docs, functionValues, timeSeries));
                         }
                     }
                 }
             } catch (ParseException | IOException e) {
                 LOGGER.info("Could not parse query due to an exception", e);
+            } finally {
+                release(docs.getValue());
             }
 
         });
         return resultDocuments;
     }
 
+    /**
+     * @param typeFunctions the functions of a type
+     * @return true if there are only aggregations
+     */
+    private static boolean onlyAggregations(QueryFunctions typeFunctions) {
+        return typeFunctions != null
+                && typeFunctions.containsAggregations()
+                && !typeFunctions.containsTransformations()
+                && !typeFunctions.containsAnalyses();
+    }
+
     private String evaluateType(Map.Entry<String, List<SolrDocument>> docs) {
         if (docs.getValue() == null || docs.getValue().isEmpty()) {
             return null;
@@ -248,14 +357,16 @@ public class AnalysisHandler extends SearchHandler {
             if (analysis.needSubquery()) {
                 //lets parse the sub-query for start and and end terms
                 String modifiedSubQuery = subQueryDateRangeParser.replaceRangeQueryTerms(analysis.getSubquery());
-                Map<String, List<SolrDocument>> subQueryDocuments = collectDocuments(modifiedSubQuery, req, key);
+                Map<String, List<SolrDocument>> subQueryDocuments = Collections.unmodifiableMap(collectDocuments(modifiedSubQuery, req, key, TYPES.requiredFields()));
 
                 //execute the analysis with all sub documents
-                subQueryDocuments.entrySet().parallelStream().forEach(subDocs -> {
+                //nested in the analysis of the time series, hence only idle threads help
+                analysisExecutor.forEach(subQueryDocuments.entrySet(), subDocs -> {
                     //Only if we have a different time series
                     if (!docs.getKey().equals(subDocs.getKey())) {
 
                         final ChronixTimeSeries subQueryTimeSeries = chronixType.convert(subDocs.getValue(), queryStart, queryEnd, true);
+                        release(subDocs.getValue());
                         timeSeries.applyPairAnalysis((ChronixPairAnalysis) analysis, subQueryTimeSeries, functionValues);
                     }
                 });
@@ -268,7 +379,7 @@ public class AnalysisHandler extends SearchHandler {
     }
 
 
-    private SolrDocument asSolrDocument(boolean dataShouldReturned, boolean dataAsJson, Map.Entry<String, List<SolrDocument>> docs, FunctionValueMap functionValues, ChronixTimeSeries timeSeries) {
+    private SolrDocument asSolrDocument(boolean dataShouldReturned, boolean dataAsJson, boolean dataAsColumns, Map.Entry<String, List<SolrDocument>> docs, FunctionValueMap functionValues, ChronixTimeSeries timeSeries) {
         SolrDocument doc = new SolrDocument();
 
         if (functionValues != null) {
@@ -291,9 +402,12 @@ public class AnalysisHandler extends SearchHandler {
         if (dataShouldReturned) {
             //ensure that the returned data is sorted
             timeSeries.sort();
-            //data should returned serialized as json
-            if (dataAsJson) {
-                doc.setField(ChronixQueryParams.DATA_AS_JSON, timeSeries.dataAsJson());
+            //data should returned serialized as json or columns, serialized when the response is written
+            //types without a columnar format return json
+            if (dataAsJson || (dataAsColumns && !timeSeries.supportsColumns())) {
+                doc.setField(ChronixQueryParams.DATA_AS_JSON, new TimeSeriesData(timeSeries, TimeSeriesData.Format.JSON));
+            } else if (dataAsColumns) {
+                doc.setField(ChronixQueryParams.DATA_AS_COLUMNS, new TimeSeriesData(timeSeries, TimeSeriesData.Format.COLUMNS));
             } else {
                 doc.addField(Schema.DATA, timeSeries.dataAsBlob());
             }
@@ -363,65 +477,130 @@ public class AnalysisHandler extends SearchHandler {
      *
      * @param req           the solr query request
      * @param collectionKey the collection key function to group documents
+     * @param typeFields    the fields the types need to convert the documents
      * @return the collected and grouped documents
      * @throws IOException if bad things happen
      */
-    private Map<String, List<SolrDocument>> collectDocuments(SolrQueryRequest req, JoinFunction collectionKey) throws IOException {
+    private Map<String, DocumentGroup> collectDocuments(SolrQueryRequest req, JoinFunction collectionKey, Set<String> typeFields) throws IOException {
         String query = req.getParams().get(CommonParams.Q);
         //query and collect all documents
-        return collectDocuments(query, req, collectionKey);
+        return collectDocuments(query, req, collectionKey, typeFields);
     }
 
     /**
      * Collects the document matching the given solr query request by using the given collection key function.
+     * <p>
+     * Only the fields of the join key are read to group the documents. The groups hold the document ids and
+     * load the other fields (including the data) when they are analyzed.
      *
      * @param query         the plain solr query
      * @param req           the request object
      * @param collectionKey the key to collected documents
+     * @param typeFields    the fields the types need to convert the documents
      * @return the collected and grouped documents
      * @throws IOException if bad things happen
      */
-    private Map<String, List<SolrDocument>> collectDocuments(String query, SolrQueryRequest req, JoinFunction collectionKey) throws IOException {
+    private Map<String, DocumentGroup> collectDocuments(String query, SolrQueryRequest req, JoinFunction collectionKey, Set<String> typeFields) throws IOException {
         //query and collect all documents
         Set<String> fields = getFields(req.getParams().get(CommonParams.FL), req.getSchema().getFields());
 
+        //the internal fields of the types are only loaded if they need them
+        fields.removeAll(TYPES.internalFields());
+
         //we always need the data field
         fields.add(Schema.DATA);
 
+        //and the fields the types need
+        fields.addAll(typeFields);
+
         //add the involved fields from in the join key
+        Set<String> keyFields = new HashSet<>();
         if (!isEmptyArray(collectionKey.involvedFields())) {
-            Collections.addAll(fields, collectionKey.involvedFields());
+            for (String field : collectionKey.involvedFields()) {
+                keyFields.add(field.trim());
+            }
+            fields.addAll(keyFields);
         }
 
         DocList result = docListProvider.doSimpleQuery(query, req, 0, Integer.MAX_VALUE);
-        SolrDocumentList docs = docListProvider.docListToSolrDocumentList(result, req.getSearcher(), fields, null);
-        return collect(docs, collectionKey);
+        Map<String, DocumentGroup> collectedDocs = collect(result, req.getSearcher(), fields, keyFields, collectionKey);
+        addHeadRecords(query, req, collectedDocs, collectionKey);
+        return collectedDocs;
     }
 
     /**
-     * Collects the given document and groups them using the join function result
+     * Adds the records that are ingested but not yet indexed to the groups.
      *
-     * @param docs         the found documents that should be grouped by the join function
-     * @param joinFunction the join function
-     * @return the grouped documents
+     * @param query         the plain solr query
+     * @param req           the request object
+     * @param collectedDocs the grouped documents
+     * @param joinFunction  the join function
+     * @throws IOException if the head records could not be queried
      */
-    private static Map<String, List<SolrDocument>> collect(SolrDocumentList docs, Function<SolrDocument, String> joinFunction) {
-        Map<String, List<SolrDocument>> collectedDocs = new HashMap<>();
+    private void addHeadRecords(String query, SolrQueryRequest req, Map<String, DocumentGroup> collectedDocs, Function<SolrDocument, String> joinFunction) throws IOException {
+        List<HeadRecords> heads = HeadRecords.of(req.getCore());
+        if (heads.isEmpty()) {
+            return;
+        }
 
-        for (SolrDocument doc : docs) {
-            String key = joinFunction.apply(doc);
+        Query luceneQuery;
+        try {
+            luceneQuery = QParser.getParser(query, req).getQuery();
+        } catch (SyntaxError e) {
+            throw new SolrException(SolrException.ErrorCode.BAD_REQUEST, e);
+        }
 
-            if (!collectedDocs.containsKey(key)) {
-                collectedDocs.put(key, new ArrayList<>());
+        for (HeadRecords head : heads) {
+            for (SolrDocument record : head.find(luceneQuery, req.getSearcher())) {
+                String key = joinFunction.apply(record);
+                collectedDocs.computeIfAbsent(key, k -> new DocumentGroup(docListProvider, req.getSearcher(), Collections.emptySet()))
+                        .addRecord(record);
             }
+        }
+    }
+
+    /**
+     * Collects the given documents and groups them using the join function result.
+     * The documents are iterated in index order and only the join key fields are loaded, preferably from
+     * their doc values. The stored fields of a document are read once, when its group is analyzed.
+     *
+     * @param docs         the found documents that should be grouped by the join function
+     * @param searcher     the searcher to load the documents
+     * @param fields       the fields that are loaded when a group is analyzed
+     * @param keyFields    the fields that are needed to evaluate the join function
+     * @param joinFunction the join function
+     * @return the grouped documents
+     * @throws IOException if the join key fields could not be loaded
+     */
+    private Map<String, DocumentGroup> collect(DocList docs, SolrIndexSearcher searcher, Set<String> fields, Set<String> keyFields, Function<SolrDocument, String> joinFunction) throws IOException {
+        Map<String, DocumentGroup> collectedDocs = new HashMap<>();
 
-            collectedDocs.get(key).add(doc);
+        int[] docIds = new int[docs.size()];
+        DocIterator iterator = docs.iterator();
+        for (int i = 0; i < docIds.length && iterator.hasNext(); i++) {
+            docIds[i] = iterator.nextDoc();
         }
+        Arrays.sort(docIds);
 
+        for (int docId : docIds) {
+            String key = joinFunction.apply(docListProvider.docToSolrDocument(docId, searcher, keyFields));
+            collectedDocs.computeIfAbsent(key, k -> new DocumentGroup(docListProvider, searcher, fields)).addDocId(docId);
+        }
 
         return collectedDocs;
     }
 
+    /**
+     * Drops the loaded documents of the group if it was loaded lazily
+     *
+     * @param docs the documents of a group
+     */
+    private static void release(List<SolrDocument> docs) {
+        if (docs instanceof DocumentGroup) {
+            ((DocumentGroup) docs).release();
+        }
+    }
+
     private boolean isEmptyArray(String[] array) {
         return array == null || array.length == 0;
     }
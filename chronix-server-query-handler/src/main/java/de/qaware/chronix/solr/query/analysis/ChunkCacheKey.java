@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.solr.query.analysis;
+
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.RamUsageEstimator;
+
+/**
+ * Key of a decoded chunk in the chunk cache.
+ * The key consists of the core cache key of the index segment and the document id within the segment.
+ */
+public final class ChunkCacheKey implements Accountable {
+
+    private static final long BASE_RAM_BYTES_USED = RamUsageEstimator.shallowSizeOfInstance(ChunkCacheKey.class);
+
+    private final Object segment;
+    private final int docId;
+
+    /**
+     * @param segment the core cache key of the segment
+     * @param docId   the document id within the segment
+     */
+    ChunkCacheKey(Object segment, int docId) {
+        this.segment = segment;
+        this.docId = docId;
+    }
+
+    /**
+     * @return the core cache key of the segment
+     */
+    public Object getSegment() {
+        return segment;
+    }
+
+    /**
+     * @return the document id within the segment
+     */
+    public int getDocId() {
+        return docId;
+    }
+
+    @Override
+    public long ramBytesUsed() {
+        //the segment key is shared by all entries of the segment
+        return BASE_RAM_BYTES_USED;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == null) {
+            return false;
+        }
+        if (obj == this) {
+            return true;
+        }
+        if (obj.getClass() != getClass()) {
+            return false;
+        }
+        ChunkCacheKey rhs = (ChunkCacheKey) obj;
+        return new EqualsBuilder()
+                .append(this.segment, rhs.segment)
+                .append(this.docId, rhs.docId)
+                .isEquals();
+    }
+
+    @Override
+    public int hashCode() {
+        return new HashCodeBuilder()
+                .append(segment)
+                .append(docId)
+                .toHashCode();
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.solr.query.analysis;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.solr.search.CacheRegenerator;
+import org.apache.solr.search.SolrCache;
+import org.apache.solr.search.SolrIndexSearcher;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Regenerator of the chunk cache.
+ * <p>
+ * Decoded chunks are immutable as long as their segment exists. Hence the entries of all segments
+ * that are still part of the new searcher are taken over. Entries of merged segments are dropped.
+ */
+public class ChunkCacheRegenerator implements CacheRegenerator {
+
+    private SolrIndexSearcher lastSearcher;
+    private Set<Object> lastSegments;
+
+    @Override
+    public boolean regenerateItem(SolrIndexSearcher newSearcher, SolrCache newCache, SolrCache oldCache, Object oldKey, Object oldVal) {
+        if (oldKey instanceof ChunkCacheKey && segmentsOf(newSearcher).contains(((ChunkCacheKey) oldKey).getSegment())) {
+            newCache.put(oldKey, oldVal);
+        }
+        //continue with the next item
+        return true;
+    }
+
+    /**
+     * @param searcher the new searcher
+     * @return the core cache keys of the segments of the searcher
+     */
+    private synchronized Set<Object> segmentsOf(SolrIndexSearcher searcher) {
+        if (searcher != lastSearcher) {
+            Set<Object> segments = new HashSet<>();
+            for (LeafReaderContext leaf : searcher.getTopReaderContext().leaves()) {
+                IndexReader.CacheHelper cacheHelper = leaf.reader().getCoreCacheHelper();
+                if (cacheHelper != null) {
+                    segments.add(cacheHelper.getKey());
+                }
+            }
+            lastSearcher = searcher;
+            lastSegments = segments;
+        }
+        return lastSegments;
+    }
+}
@@ -59,4 +59,15 @@ public interface DocListProvider {
      */
     SolrDocumentList docListToSolrDocumentList(DocList docs, SolrIndexSearcher searcher, Set<String> fields, Map<SolrDocument, Integer> ids) throws IOException;
 
+    /**
+     * Loads a single document with the given fields
+     *
+     * @param docId    the lucene document id
+     * @param searcher The {@link org.apache.solr.search.SolrIndexSearcher} to use to load the doc from the Lucene index
+     * @param fields   The names of the Fields to load
+     * @return the loaded {@link org.apache.solr.common.SolrDocument}
+     * @throws java.io.IOException if there was a problem loading the doc
+     */
+    SolrDocument docToSolrDocument(int docId, SolrIndexSearcher searcher, Set<String> fields) throws IOException;
+
 }
@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.solr.query.analysis;
+
+import de.qaware.chronix.server.types.RecordCache;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.util.Accountable;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.search.DocSlice;
+import org.apache.solr.search.SolrCache;
+import org.apache.solr.search.SolrIndexSearcher;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The documents of a single join key.
+ * <p>
+ * The group only holds the lucene document ids. The stored fields (including the compressed data) are loaded
+ * on the first access and can be released as soon as the group is converted into a time series.
+ * Hence only the groups that are currently analyzed are held in memory.
+ * <p>
+ * If the searcher has a chunk cache, the decoded data of the documents is cached per segment and document id.
+ * <p>
+ * Records that are not yet indexed (see {@link de.qaware.chronix.server.types.HeadRecords}) follow the indexed
+ * documents. They are held in memory and not cached.
+ */
+final class DocumentGroup extends AbstractList<SolrDocument> implements RecordCache {
+
+    /**
+     * The name of the chunk cache in the solrconfig.xml
+     */
+    static final String CHUNK_CACHE = "chronixChunkCache";
+
+    private static final int INITIAL_CAPACITY = 8;
+
+    private final DocListProvider docListProvider;
+    private final SolrIndexSearcher searcher;
+    private final Set<String> fields;
+    private final SolrCache chunkCache;
+
+    private int[] docIds = new int[INITIAL_CAPACITY];
+    private int size;
+    private boolean sorted;
+    private List<SolrDocument> documents;
+    private final List<SolrDocument> records = new ArrayList<>(0);
+
+    /**
+     * Constructs an empty document group
+     *
+     * @param docListProvider the provider to load the documents
+     * @param searcher        the searcher used to load the documents
+     * @param fields          the fields that are loaded
+     */
+    DocumentGroup(DocListProvider docListProvider, SolrIndexSearcher searcher, Set<String> fields) {
+        this.docListProvider = docListProvider;
+        this.searcher = searcher;
+        this.fields = fields;
+        this.chunkCache = searcher == null ? null : searcher.getCache(CHUNK_CACHE);
+    }
+
+    /**
+     * Adds a lucene document id to the group
+     *
+     * @param docId the lucene document id
+     */
+    void addDocId(int docId) {
+        if (size == docIds.length) {
+            docIds = Arrays.copyOf(docIds, size * 2);
+        }
+        docIds[size++] = docId;
+        sorted = false;
+    }
+
+    /**
+     * Adds a record that is not indexed to the group
+     *
+     * @param record the record with all fields
+     */
+    void addRecord(SolrDocument record) {
+        records.add(record);
+    }
+
+    @Override
+    public SolrDocument get(int index) {
+        if (index >= size) {
+            return records.get(index - size);
+        }
+        return load().get(index);
+    }
+
+    @Override
+    public int size() {
+        return size + records.size();
+    }
+
+    /**
+     * Drops the loaded documents. A further access loads them again.
+     */
+    synchronized void release() {
+        documents = null;
+    }
+
+    /**
+     * @return true if the documents are currently loaded
+     */
+    synchronized boolean isLoaded() {
+        return documents != null;
+    }
+
+    @Override
+    public Accountable getDecoded(int record) {
+        ChunkCacheKey key = keyOf(record);
+        if (key == null) {
+            return null;
+        }
+        return (Accountable) chunkCache.get(key);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void putDecoded(int record, Accountable decoded) {
+        ChunkCacheKey key = keyOf(record);
+        if (key != null) {
+            chunkCache.put(key, decoded);
+        }
+    }
+
+    /**
+     * @param record the position of the document in the group
+     * @return the key of the document in the chunk cache, or null if the document is not cacheable
+     */
+    private ChunkCacheKey keyOf(int record) {
+        if (chunkCache == null || record >= size) {
+            return null;
+        }
+        int docId = sortedDocIds()[record];
+        List<LeafReaderContext> leaves = searcher.getTopReaderContext().leaves();
+        LeafReaderContext leaf = leaves.get(ReaderUtil.subIndex(docId, leaves));
+        IndexReader.CacheHelper cacheHelper = leaf.reader().getCoreCacheHelper();
+        if (cacheHelper == null) {
+            return null;
+        }
+        return new ChunkCacheKey(cacheHelper.getKey(), docId - leaf.docBase);
+    }
+
+    /**
+     * The documents are read in index order. Hence the position of a document is its position in the sorted ids.
+     *
+     * @return the sorted document ids
+     */
+    private synchronized int[] sortedDocIds() {
+        if (!sorted) {
+            Arrays.sort(docIds, 0, size);
+            sorted = true;
+        }
+        return docIds;
+    }
+
+    private synchronized List<SolrDocument> load() {
+        if (documents == null) {
+            //read the stored fields in index order
+            try {
+                documents = Collections.unmodifiableList(docListProvider.docListToSolrDocumentList(
+                        new DocSlice(0, size, sortedDocIds(), null, size, 0), searcher, fields, null));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not load the documents of the group", e);
+            }
+        }
+        return documents;
+    }
+}
@@ -56,9 +56,6 @@ public final class QueryEvaluator {
             return result;
         }
 
-        //Placeholder for arguments
-        String[] arguments = new String[0];
-
         //Iterate over all filter queries
         for (String unmodifiedAnalysis : chronixFunctions) {
 
@@ -83,6 +80,8 @@ public final class QueryEvaluator {
 
                 //run over the functions
                 for (String queryFunction : queryFunctions) {
+                    //Placeholder for arguments, the arguments of the previous function must not leak into this one
+                    String[] arguments = new String[0];
                     //function has an argument
                     if (queryFunction.contains(AGGREGATION_ARGUMENT_DELIMITER)) {
                         arguments = extractAggregationParameter(queryFunction);
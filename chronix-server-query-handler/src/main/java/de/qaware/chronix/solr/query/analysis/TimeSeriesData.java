@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.solr.query.analysis;
+
+import de.qaware.chronix.server.types.ChronixTimeSeries;
+import org.apache.solr.common.util.JavaBinCodec;
+import org.apache.solr.common.util.JsonTextWriter;
+import org.apache.solr.common.util.TextWriter;
+import org.apache.solr.common.util.WriteableValue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.Base64;
+
+/**
+ * The data of a time series as a field value that is serialized when the response is written.
+ * Json responses get the points written directly into the response, hence the serialized data is never held in memory.
+ * Other response writers, e.g. javabin, get the serialized data as a string or a byte array.
+ */
+final class TimeSeriesData extends WriteableValue {
+
+    /**
+     * The serialization of the data
+     */
+    enum Format {
+        /**
+         * The json of the time series as a string
+         */
+        JSON,
+        /**
+         * The compact columnar binary format of the time series
+         */
+        COLUMNS
+    }
+
+    private final ChronixTimeSeries timeSeries;
+    private final Format format;
+
+    /**
+     * @param timeSeries the time series, sorted
+     * @param format     the serialization of the data
+     */
+    TimeSeriesData(ChronixTimeSeries timeSeries, Format format) {
+        this.timeSeries = timeSeries;
+        this.format = format;
+    }
+
+    @Override
+    public void write(String name, TextWriter writer) throws IOException {
+        if (writer instanceof JsonTextWriter) {
+            //the json and the base64 encoded columns do not contain characters that have to be escaped
+            Writer out = writer.getWriter();
+            out.write('"');
+            if (format == Format.JSON) {
+                timeSeries.writeDataAsJson(out);
+            } else {
+                OutputStream base64 = Base64.getEncoder().wrap(new AsciiOutputStream(out));
+                timeSeries.writeDataAsColumns(base64);
+                //writes the padding
+                base64.close();
+            }
+            out.write('"');
+        } else if (format == Format.JSON) {
+            writer.writeStr(name, timeSeries.dataAsJson(), true);
+        } else {
+            byte[] columns = columns();
+            writer.writeByteArr(name, columns, 0, columns.length);
+        }
+    }
+
+    @Override
+    public Object resolve(Object o, JavaBinCodec codec) throws IOException {
+        //javabin needs the length of a value before the value
+        return format == Format.JSON ? timeSeries.dataAsJson() : columns();
+    }
+
+    private byte[] columns() throws IOException {
+        ByteArrayOutputStream columns = new ByteArrayOutputStream();
+        timeSeries.writeDataAsColumns(columns);
+        return columns.toByteArray();
+    }
+
+    /**
+     * Writes the ascii bytes of the base64 encoder as characters, does not close the writer
+     */
+    private static final class AsciiOutputStream extends OutputStream {
+        private final Writer writer;
+
+        AsciiOutputStream(Writer writer) {
+            this.writer = writer;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            writer.write((char) (b & 0xFF));
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            for (int i = offset; i < offset + length; i++) {
+                writer.write((char) (bytes[i] & 0xFF));
+            }
+        }
+
+        @Override
+        public void close() {
+            //the writer belongs to the response
+        }
+    }
+}
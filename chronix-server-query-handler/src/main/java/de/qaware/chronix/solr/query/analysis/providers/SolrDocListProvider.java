@@ -92,15 +92,7 @@ public class SolrDocListProvider implements DocListProvider {
         while (dit.hasNext()) {
             int docid = dit.nextDoc();
 
-            Document luceneDoc = searcher.doc(docid, fields);
-            SolrDocument doc = new SolrDocument();
-
-            for( IndexableField field : luceneDoc) {
-                if (null == fields || fields.contains(field.name())) {
-                    SchemaField sf = schema.getField( field.name() );
-                    doc.addField( field.name(), sf.getType().toObject( field ) );
-                }
-            }
+            SolrDocument doc = toSolrDocument(docid, searcher, schema, fields);
             if (docs.hasScores() && (null == fields || fields.contains("score"))) {
                 doc.addField("score", dit.score());
             }
@@ -113,4 +105,57 @@ public class SolrDocListProvider implements DocListProvider {
         }
         return list;
     }
+
+    /**
+     * Loads a single document with the given fields.
+     * The fields are read from the doc values if all of them have single valued doc values.
+     * The stored fields are only read if a field has no doc values or the document has no value for it,
+     * e.g. because it was indexed before the doc values were enabled.
+     *
+     * @param docId    the lucene document id
+     * @param searcher The {@link org.apache.solr.search.SolrIndexSearcher} to use to load the doc from the Lucene index
+     * @param fields   The names of the Fields to load
+     * @return the loaded {@link org.apache.solr.common.SolrDocument}
+     * @throws java.io.IOException if there was a problem loading the doc
+     */
+    @Override
+    public SolrDocument docToSolrDocument(int docId, SolrIndexSearcher searcher, Set<String> fields) throws IOException {
+        IndexSchema schema = searcher.getSchema();
+
+        if (hasDocValues(schema, fields)) {
+            SolrDocument doc = new SolrDocument();
+            searcher.getDocFetcher().decorateDocValueFields(doc, docId, fields);
+            if (doc.keySet().containsAll(fields)) {
+                return doc;
+            }
+        }
+        return toSolrDocument(docId, searcher, schema, fields);
+    }
+
+    private static boolean hasDocValues(IndexSchema schema, Set<String> fields) {
+        if (fields == null || fields.isEmpty()) {
+            return false;
+        }
+        for (String field : fields) {
+            SchemaField sf = schema.getFieldOrNull(field);
+            //multi valued doc values are sorted and deduplicated, hence they differ from the stored values
+            if (sf == null || !sf.hasDocValues() || sf.multiValued()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static SolrDocument toSolrDocument(int docId, SolrIndexSearcher searcher, IndexSchema schema, Set<String> fields) throws IOException {
+        Document luceneDoc = searcher.doc(docId, fields);
+        SolrDocument doc = new SolrDocument();
+
+        for (IndexableField field : luceneDoc) {
+            if (null == fields || fields.contains(field.name())) {
+                SchemaField sf = schema.getField(field.name());
+                doc.addField(field.name(), sf.getType().toObject(field));
+            }
+        }
+        return doc;
+    }
 }
@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.solr.query.analysis
+
+import org.apache.solr.common.SolrException
+import org.apache.solr.common.util.NamedList
+import org.apache.solr.core.SolrInfoBean
+import org.apache.solr.metrics.SolrMetricManager
+import spock.lang.Specification
+import spock.lang.Timeout
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Unit test for the analysis executor
+ */
+class AnalysisExecutorTest extends Specification {
+
+    def "test all items are processed with limited parallelism"() {
+        given:
+        def executor = new AnalysisExecutor(4, 16, 2, false)
+        def processed = ConcurrentHashMap.newKeySet()
+        def running = new AtomicInteger()
+        def maxRunning = new AtomicInteger()
+
+        when:
+        executor.forEach((1..100).toList()) { item ->
+            maxRunning.accumulateAndGet(running.incrementAndGet(), { a, b -> Math.max(a, b) })
+            Thread.sleep(1)
+            processed.add(item)
+            running.decrementAndGet()
+        }
+
+        then:
+        processed.size() == 100
+        maxRunning.get() <= 2
+
+        cleanup:
+        executor.shutdown()
+    }
+
+    @Timeout(value = 10, unit = TimeUnit.SECONDS)
+    def "test nested calls do not deadlock"() {
+        given:
+        def executor = new AnalysisExecutor(1, 1, 4, false)
+        def processed = new AtomicInteger()
+
+        when:
+        executor.forEach((1..4).toList()) { outer ->
+            executor.forEach((1..10).toList()) { inner -> processed.incrementAndGet() }
+        }
+
+        then:
+        processed.get() == 40
+
+        cleanup:
+        executor.shutdown()
+    }
+
+    @Timeout(value = 10, unit = TimeUnit.SECONDS)
+    def "test full queue with reject when full: #rejectWhenFull"() {
+        given:
+        def executor = new AnalysisExecutor(1, 1, 4, rejectWhenFull)
+        def blocked = new CountDownLatch(1)
+        def started = new CountDownLatch(1)
+        def processed = new AtomicInteger()
+
+        //occupy the thread and the queue
+        def blocking = Thread.start {
+            executor.forEach((1..3).toList()) { item ->
+                started.countDown()
+                blocked.await()
+            }
+        }
+        started.await()
+        while (executor.getQueueDepth() == 0) {
+            Thread.sleep(1)
+        }
+
+        when:
+        def exception = null
+        try {
+            executor.forEach((1..10).toList()) { processed.incrementAndGet() }
+        } catch (SolrException e) {
+            exception = e
+        }
+        blocked.countDown()
+        blocking.join()
+
+        then:
+        executor.getRejected() > 0
+        (exception != null) == rejectWhenFull
+        processed.get() == (rejectWhenFull ? 0 : 10)
+
+        cleanup:
+        executor.shutdown()
+
+        where:
+        rejectWhenFull << [true, false]
+    }
+
+    def "test failures are rethrown"() {
+        given:
+        def executor = new AnalysisExecutor(2, 4, 2, false)
+
+        when:
+        executor.forEach((1..10).toList()) { item ->
+            if (item == 5) {
+                throw new IllegalStateException("Test")
+            }
+        }
+
+        then:
+        thrown IllegalStateException
+
+        cleanup:
+        executor.shutdown()
+    }
+
+    def "test of init args"() {
+        given:
+        def config = new NamedList()
+        config.add("threads", 2)
+        config.add("queueSize", "8")
+        config.add("parallelismPerRequest", 1)
+        def initArgs = new NamedList()
+        initArgs.add(AnalysisExecutor.CONFIG, config)
+        def processed = new AtomicInteger()
+
+        when:
+        def executor = AnalysisExecutor.of(initArgs)
+        executor.forEach((1..10).toList()) { processed.incrementAndGet() }
+
+        then:
+        processed.get() == 10
+        noExceptionThrown()
+
+        cleanup:
+        executor.shutdown()
+    }
+
+    def "test invalid configuration"() {
+        when:
+        new AnalysisExecutor(0, 1, 1, false)
+
+        then:
+        thrown IllegalArgumentException
+    }
+
+    def "test initialize metrics"() {
+        given:
+        def executor = AnalysisExecutor.of(null)
+        def manager = Mock(SolrMetricManager)
+        def bean = Stub(SolrInfoBean)
+        bean.getCategory() >> SolrInfoBean.Category.QUERY
+
+        when:
+        executor.initializeMetrics(bean, manager, "registry", "tag", "/select")
+
+        then:
+        1 * manager.registerGauge(bean, "registry", _, "tag", true, "queueDepth", "QUERY", "/select", AnalysisExecutor.CONFIG)
+        1 * manager.registerGauge(bean, "registry", _, "tag", true, "rejected", "QUERY", "/select", AnalysisExecutor.CONFIG)
+        3 * manager.registerGauge(*_)
+
+        cleanup:
+        executor.shutdown()
+    }
+}
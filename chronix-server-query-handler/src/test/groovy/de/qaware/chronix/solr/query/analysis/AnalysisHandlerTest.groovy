@@ -17,6 +17,7 @@ package de.qaware.chronix.solr.query.analysis
 
 import de.qaware.chronix.converter.common.Compression
 import de.qaware.chronix.converter.serializer.protobuf.ProtoBufMetricTimeSeriesSerializer
+import de.qaware.chronix.server.types.ChronixTimeSeries
 import de.qaware.chronix.solr.query.ChronixQueryParams
 import de.qaware.chronix.solr.query.analysis.providers.SolrDocListProvider
 import de.qaware.chronix.solr.type.metric.MetricType
@@ -181,6 +182,102 @@ class AnalysisHandlerTest extends Specification {
         result.size() == 0
     }
 
+    def "test collect documents groups the document ids by the join key"() {
+        given:
+        def request = Mock(SolrQueryRequest)
+        def indexSchema = Mock(IndexSchema)
+        indexSchema.getFields() >> new HashMap<String, SchemaField>()
+        request.getSchema() >> indexSchema
+        request.getParams() >> new ModifiableSolrParams().add("fl", "name,type")
+
+        def docListMock = Mock(DocListProvider)
+        docListMock.doSimpleQuery(_, _, _, _) >> { new DocSlice(0i, 4, [3, 1, 2, 0] as int[], null, 4, 0) }
+
+        def analysisHandler = new AnalysisHandler(docListMock)
+
+        when:
+        Map<String, DocumentGroup> groups = analysisHandler.collectDocuments("*:*", request, new JoinFunction("name"), [] as Set<String>)
+
+        then:
+        4 * docListMock.docToSolrDocument(_, _, ["name"] as Set<String>) >> { int docId, searcher, fields ->
+            def doc = new SolrDocument()
+            doc.put("name", docId % 2 == 0 ? "even" : "odd")
+            doc
+        }
+        0 * docListMock.docListToSolrDocumentList(_, _, _, _)
+        groups.size() == 2
+        groups.get("even").size() == 2
+        groups.get("odd").size() == 2
+        !groups.get("even").isLoaded()
+    }
+
+    def "test collect documents loads the fields the types need"() {
+        given:
+        def request = Mock(SolrQueryRequest)
+        def indexSchema = Mock(IndexSchema)
+        indexSchema.getFields() >> ["name": null, "data": null, "stats_sum": null, "stats_sketch": null]
+        request.getSchema() >> indexSchema
+        request.getParams() >> new ModifiableSolrParams()
+
+        def docListMock = Mock(DocListProvider)
+        docListMock.doSimpleQuery(_, _, _, _) >> { new DocSlice(0i, 1, [0] as int[], null, 1, 0) }
+        docListMock.docToSolrDocument(_, _, _) >> new SolrDocument()
+
+        def analysisHandler = new AnalysisHandler(docListMock)
+
+        when:
+        Map<String, DocumentGroup> groups = analysisHandler.collectDocuments("*:*", request, new JoinFunction("name"), ["stats_sum"] as Set<String>)
+
+        then:
+        groups.size() == 1
+        groups.values().first().fields == ["name", "data", "stats_sum"] as Set<String>
+    }
+
+    @Unroll
+    def "test the statistics are only required for #chronixFunction with fields #fl"() {
+        given:
+        def params = new ModifiableSolrParams().add("fl", fl)
+        def functions = chronixFunction == null ? new TypeFunctions() :
+                QueryEvaluator.extractFunctions([chronixFunction] as String[], AnalysisHandler.TYPES, AnalysisHandler.FUNCTIONS)
+
+        when:
+        def fields = AnalysisHandler.requiredFields(params, functions)
+
+        then:
+        fields.containsAll(["codec", "stats_sorted", "stats_count"])
+        fields.contains("stats_sum") == statistics
+        fields.contains("stats_sketch") == sketch
+
+        where:
+        chronixFunction                  | fl                || statistics | sketch
+        null                             | "name"            || false      | false
+        "metric{max}"                    | "name"            || true       | false
+        "metric{max;p:0.5,approx}"       | "name"            || true       | true
+        "metric{max;p:0.5}"              | "name"            || false      | false
+        "metric{max}"                    | "name,dataAsJson" || false      | false
+        "metric{bucket:1m,avg}"          | "name"            || true       | false
+        "metric{movavg:10,MINUTES}"      | "name"            || false      | false
+        "metric{max;outlier}"            | "name"            || false      | false
+    }
+
+    def "test types without a columnar format return json"() {
+        given:
+        def analysisHandler = new AnalysisHandler(Stub(DocListProvider))
+        def timeSeries = Stub(ChronixTimeSeries)
+        timeSeries.supportsColumns() >> false
+        timeSeries.attributes() >> [:]
+        timeSeries.dataAsJson() >> "[]"
+        def docs = new AbstractMap.SimpleEntry<String, List<SolrDocument>>("key", [])
+
+        when:
+        SolrDocument doc = analysisHandler.asSolrDocument(true, false, true, docs, null, timeSeries)
+
+        then:
+        doc.get(ChronixQueryParams.DATA_AS_JSON) instanceof TimeSeriesData
+        ((TimeSeriesData) doc.get(ChronixQueryParams.DATA_AS_JSON)).resolve(null, null) == "[]"
+        !doc.containsKey(ChronixQueryParams.DATA_AS_COLUMNS)
+    }
+
     def "test get description"() {
         given:
         def analysisHandler = new AnalysisHandler(new SolrDocListProvider())
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.solr.query.analysis
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer
+import org.apache.lucene.document.Document
+import org.apache.lucene.document.StringField
+import org.apache.lucene.document.Field
+import org.apache.lucene.index.DirectoryReader
+import org.apache.lucene.index.IndexWriter
+import org.apache.lucene.index.IndexWriterConfig
+import org.apache.lucene.index.NoMergePolicy
+import org.apache.lucene.store.ByteBuffersDirectory
+import org.apache.solr.search.SolrCache
+import org.apache.solr.search.SolrIndexSearcher
+import spock.lang.Specification
+
+/**
+ * Unit test for the chunk cache regenerator
+ */
+class ChunkCacheRegeneratorTest extends Specification {
+
+    def "test entries of existing segments are taken over"() {
+        given:
+        def reader = segments(2)
+        def searcher = Stub(SolrIndexSearcher)
+        searcher.getTopReaderContext() >> reader.getContext()
+        def newCache = Mock(SolrCache)
+        def regenerator = new ChunkCacheRegenerator()
+
+        def existing = new ChunkCacheKey(reader.leaves().get(1).reader().getCoreCacheHelper().getKey(), 0)
+        def merged = new ChunkCacheKey(new Object(), 0)
+
+        when:
+        def first = regenerator.regenerateItem(searcher, newCache, null, existing, "existing")
+        def second = regenerator.regenerateItem(searcher, newCache, null, merged, "merged")
+
+        then:
+        first
+        second
+        1 * newCache.put(existing, "existing")
+        0 * newCache.put(merged, _)
+
+        cleanup:
+        reader.close()
+    }
+
+    def "test key equals and hash code"() {
+        given:
+        def segment = new Object()
+        def key = new ChunkCacheKey(segment, 1)
+
+        expect:
+        key == new ChunkCacheKey(segment, 1)
+        key.hashCode() == new ChunkCacheKey(segment, 1).hashCode()
+        key != new ChunkCacheKey(segment, 2)
+        key != new ChunkCacheKey(new Object(), 1)
+        !key.equals(null)
+        !key.equals(new Object())
+        key.equals(key)
+        key.getDocId() == 1
+        key.getSegment() == segment
+        key.ramBytesUsed() > 0
+    }
+
+    /**
+     * Creates an index with one document per segment
+     */
+    static DirectoryReader segments(int amount) {
+        def directory = new ByteBuffersDirectory()
+        def writer = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer()).setMergePolicy(NoMergePolicy.INSTANCE))
+        amount.times {
+            def doc = new Document()
+            doc.add(new StringField("id", String.valueOf(it), Field.Store.YES))
+            writer.addDocument(doc)
+            writer.commit()
+        }
+        writer.close()
+        DirectoryReader.open(directory)
+    }
+}
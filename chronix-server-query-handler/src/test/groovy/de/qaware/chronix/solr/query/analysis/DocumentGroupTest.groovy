@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.solr.query.analysis
+
+import org.apache.lucene.util.Accountable
+import org.apache.solr.common.SolrDocument
+import org.apache.solr.common.SolrDocumentList
+import org.apache.solr.search.DocList
+import org.apache.solr.search.SolrCache
+import org.apache.solr.search.SolrIndexSearcher
+import spock.lang.Specification
+
+/**
+ * Unit test for the lazy loaded document group
+ */
+class DocumentGroupTest extends Specification {
+
+    def "test documents are loaded on first access"() {
+        given:
+        def docListProvider = Mock(DocListProvider)
+        def group = new DocumentGroup(docListProvider, null, ["name", "data"] as Set<String>)
+
+        when:
+        10.times { group.addDocId(10 - it) }
+
+        then:
+        group.size() == 10
+        !group.isLoaded()
+        0 * docListProvider.docListToSolrDocumentList(_, _, _, _)
+
+        when:
+        def first = group.get(0)
+        def second = group.get(9)
+
+        then:
+        1 * docListProvider.docListToSolrDocumentList(_, _, _, _) >> { DocList docs, searcher, fields, ids ->
+            assert docs.size() == 10
+            def iterator = docs.iterator()
+            assert iterator.nextDoc() == 1
+            documents(10)
+        }
+        group.isLoaded()
+        first.get("name") == "0"
+        second.get("name") == "9"
+    }
+
+    def "test release"() {
+        given:
+        def docListProvider = Mock(DocListProvider)
+        def group = new DocumentGroup(docListProvider, null, ["name"] as Set<String>)
+        group.addDocId(1)
+
+        when:
+        group.get(0)
+        group.release()
+
+        then:
+        1 * docListProvider.docListToSolrDocumentList(_, _, _, _) >> documents(1)
+        !group.isLoaded()
+        group.size() == 1
+
+        when:
+        group.get(0)
+
+        then:
+        1 * docListProvider.docListToSolrDocumentList(_, _, _, _) >> documents(1)
+        group.isLoaded()
+    }
+
+    def "test load fails"() {
+        given:
+        def docListProvider = Stub(DocListProvider)
+        docListProvider.docListToSolrDocumentList(_, _, _, _) >> { throw new IOException("Test") }
+        def group = new DocumentGroup(docListProvider, null, ["name"] as Set<String>)
+        group.addDocId(1)
+
+        when:
+        group.get(0)
+
+        then:
+        thrown UncheckedIOException
+    }
+
+    def "test decoded records are cached per segment and document id"() {
+        given:
+        def reader = ChunkCacheRegeneratorTest.segments(2)
+        def cached = [:]
+        def chunkCache = Stub(SolrCache)
+        chunkCache.get(_) >> { key -> cached.get(key[0]) }
+        chunkCache.put(_, _) >> { key, value -> cached.put(key, value) }
+        def searcher = Stub(SolrIndexSearcher)
+        searcher.getTopReaderContext() >> reader.getContext()
+        searcher.getCache(DocumentGroup.CHUNK_CACHE) >> chunkCache
+
+        def group = new DocumentGroup(Mock(DocListProvider), searcher, ["data"] as Set<String>)
+        group.addDocId(1)
+        group.addDocId(0)
+        def decoded = Stub(Accountable)
+
+        when:
+        group.putDecoded(1, decoded)
+
+        then:
+        cached.size() == 1
+        cached.keySet().first().getDocId() == 0
+        cached.keySet().first().getSegment() == reader.leaves().get(1).reader().getCoreCacheHelper().getKey()
+        group.getDecoded(1) == decoded
+        group.getDecoded(0) == null
+
+        cleanup:
+        reader.close()
+    }
+
+    def "test decoded records are not cached without a chunk cache"() {
+        given:
+        def searcher = Stub(SolrIndexSearcher)
+        searcher.getCache(_) >> null
+        def group = new DocumentGroup(Mock(DocListProvider), searcher, ["data"] as Set<String>)
+        group.addDocId(0)
+
+        when:
+        group.putDecoded(0, Stub(Accountable))
+
+        then:
+        group.getDecoded(0) == null
+    }
+
+    def "test records that are not indexed follow the documents"() {
+        given:
+        def docListProvider = Mock(DocListProvider)
+        def searcher = Stub(SolrIndexSearcher)
+        searcher.getCache(_) >> Stub(SolrCache)
+        def group = new DocumentGroup(docListProvider, searcher, ["name"] as Set<String>)
+        group.addDocId(1)
+        def record = new SolrDocument()
+        record.put("name", "head")
+
+        when:
+        group.addRecord(record)
+
+        then:
+        group.size() == 2
+        group.get(1).get("name") == "head"
+        !group.isLoaded()
+        0 * docListProvider.docListToSolrDocumentList(_, _, _, _)
+
+        when:
+        group.putDecoded(1, Stub(Accountable))
+
+        then:
+        group.getDecoded(1) == null
+
+        when:
+        def first = group.get(0)
+
+        then:
+        1 * docListProvider.docListToSolrDocumentList(_, _, _, _) >> documents(1)
+        first.get("name") == "0"
+    }
+
+    def documents(int amount) {
+        def docs = new SolrDocumentList()
+        amount.times {
+            def doc = new SolrDocument()
+            doc.put("name", String.valueOf(it))
+            docs.add(doc)
+        }
+        docs
+    }
+}
@@ -94,14 +94,16 @@ class QueryEvaluatorTest extends Specification {
                 ["metric{diff}"] as String[],
                 ["metric{sdiff}"] as String[],
                 ["metric{p:0.4}"] as String[],
+                ["metric{p:0.99,approx}"] as String[],
                 ["metric{integral}"] as String[]
         ]
 
         expectedQueryName << ["min", "max", "avg", "dev", "sum",
                               "count", "first", "last", "range",
-                              "diff", "sdiff", "p", "integral"]
+                              "diff", "sdiff", "p", "p", "integral"]
         expectedArguments << [new String[0], new String[0], new String[0], new String[0], new String[0], new String[0], new String[0],
-                              new String[0], new String[0], new String[0], new String[0], ["percentile=0.4"] as String[], new String[0]]
+                              new String[0], new String[0], new String[0], new String[0], ["percentile=0.4"] as String[],
+                              ["percentile=0.99", "approx"] as String[], new String[0]]
     }
 
     def "test analysis query"() {
@@ -116,20 +118,28 @@ class QueryEvaluatorTest extends Specification {
         where:
         fqs << [["metric{trend}"] as String[],
                 ["metric{outlier}"] as String[],
+                ["metric{outlier:approx}"] as String[],
                 ["metric{frequency:10,6}"] as String[],
                 ["metric{fastdtw:(metric:load* AND group:(A OR B)),5,0.4}"] as String[],
                 ["metric{fastdtw:metric:load* AND group:(A OR B),5,0.4}"] as String[]
         ]
 
-        expectedQueryName << ["trend", "outlier", "frequency",
+        expectedQueryName << ["trend", "outlier", "outlier", "frequency",
                               "fastdtw", "fastdtw"]
-        expectedValue << [new String[0], new String[0],
+        expectedValue << [new String[0], new String[0], ["approx"] as String[],
                           ["window size=10", "window threshold=6"] as String[],
                           ["search radius=5", "max warping cost=0.4", "distance function=EUCLIDEAN"] as String[],
                           ["search radius=5", "max warping cost=0.4", "distance function=EUCLIDEAN"] as String[]]
 
-        subQuery << [null, null, null, "metric:load* AND group:(A OR B)", "metric:load* AND group:(A OR B)"]
-        needSubQuery << [false, false, false, true, true]
+        subQuery << [null, null, null, null, "metric:load* AND group:(A OR B)", "metric:load* AND group:(A OR B)"]
+        needSubQuery << [false, false, false, false, true, true]
+    }
+
+    def "test arguments do not leak into the next function"() {
+        when:
+        def functions = QueryEvaluator.extractFunctions(["metric{p:0.5,approx;outlier}"] as String[], TYPES, FUNCTIONS)
+        then:
+        functions.getTypeFunctions(new MetricType()).getAnalyses()[0].getArguments().length == 0
     }
 
 
@@ -152,15 +162,17 @@ class QueryEvaluatorTest extends Specification {
                 ["metric{add:10}"] as String[],
                 ["metric{sub:10}"] as String[],
                 ["metric{timeshift:10,SECONDS}"] as String[],
-                ["metric{smovavg:10}"] as String[]
+                ["metric{smovavg:10}"] as String[],
+                ["metric{bucket:1m,avg}"] as String[],
+                ["metric{lttb:1000}"] as String[]
         ]
 
         expectedQueryName << ["vector", "scale", "divide", "top",
                               "bottom", "movavg", "add", "sub",
-                              "timeshift", "smovavg"]
+                              "timeshift", "smovavg", "bucket", "lttb"]
         expectedArgs << ["tolerance=0.01", "value=4.0", "value=4.0", "value=10",
                          "value=10", "timeSpan=10", "value=10.0", "value=10.0",
-                         "amount=10", "samples=10"]
+                         "amount=10", "samples=10", "interval=60000", "threshold=1000"]
     }
 
     @Unroll
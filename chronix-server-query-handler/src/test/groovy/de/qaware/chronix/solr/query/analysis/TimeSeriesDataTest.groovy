@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.solr.query.analysis
+
+import de.qaware.chronix.server.types.ChronixTimeSeries
+import org.apache.solr.common.util.JavaBinCodec
+import org.apache.solr.common.util.NamedList
+import org.apache.solr.common.params.ModifiableSolrParams
+import org.apache.solr.request.SolrQueryRequest
+import org.apache.solr.response.JSONWriter
+import org.apache.solr.response.SolrQueryResponse
+import org.apache.solr.response.XMLWriter
+import spock.lang.Specification
+
+/**
+ * Unit test for the lazily serialized time series data
+ */
+class TimeSeriesDataTest extends Specification {
+
+    def "test json is streamed into a json response"() {
+        given:
+        def timeSeries = timeSeries()
+        def out = new StringWriter()
+        def writer = new JSONWriter(out, request(), new SolrQueryResponse())
+
+        when:
+        writer.writeVal("dataAsJson", new TimeSeriesData(timeSeries, TimeSeriesData.Format.JSON))
+        writer.close()
+
+        then:
+        out.toString() == '"[[1,2],[3.0,4.0]]"'
+        0 * timeSeries.dataAsJson()
+    }
+
+    def "test columns are streamed base64 encoded into a json response"() {
+        given:
+        def out = new StringWriter()
+        def writer = new JSONWriter(out, request(), new SolrQueryResponse())
+
+        when:
+        writer.writeVal("dataAsColumns", new TimeSeriesData(timeSeries(), TimeSeriesData.Format.COLUMNS))
+        writer.close()
+
+        then:
+        out.toString() == '"' + Base64.getEncoder().encodeToString([1, 2, 3, 4] as byte[]) + '"'
+    }
+
+    def "test other text responses get the serialized data"() {
+        given:
+        def out = new StringWriter()
+        def writer = new XMLWriter(out, request(), new SolrQueryResponse())
+
+        when:
+        writer.writeVal("dataAsJson", new TimeSeriesData(timeSeries(), TimeSeriesData.Format.JSON))
+        writer.writeVal("dataAsColumns", new TimeSeriesData(timeSeries(), TimeSeriesData.Format.COLUMNS))
+        writer.close()
+
+        then:
+        out.toString().contains('<str name="dataAsJson">[[1,2],[3.0,4.0]]</str>')
+        out.toString().contains('<str name="dataAsColumns">' + Base64.getEncoder().encodeToString([1, 2, 3, 4] as byte[]) + '</str>')
+    }
+
+    def "test javabin responses get the serialized data"() {
+        given:
+        def response = new NamedList()
+        response.add("dataAsJson", new TimeSeriesData(timeSeries(), TimeSeriesData.Format.JSON))
+        response.add("dataAsColumns", new TimeSeriesData(timeSeries(), TimeSeriesData.Format.COLUMNS))
+        def out = new ByteArrayOutputStream()
+
+        when:
+        new JavaBinCodec().marshal(response, out)
+        def read = (NamedList) new JavaBinCodec().unmarshal(new ByteArrayInputStream(out.toByteArray()))
+
+        then:
+        read.get("dataAsJson") == "[[1,2],[3.0,4.0]]"
+        read.get("dataAsColumns") == [1, 2, 3, 4] as byte[]
+    }
+
+    ChronixTimeSeries timeSeries() {
+        Mock(ChronixTimeSeries) {
+            writeDataAsJson(_) >> { Writer writer -> writer.write("[[1,2],[3.0,4.0]]") }
+            writeDataAsColumns(_) >> { OutputStream output -> output.write([1, 2, 3, 4] as byte[]) }
+            dataAsJson() >> "[[1,2],[3.0,4.0]]"
+        }
+    }
+
+    SolrQueryRequest request() {
+        Stub(SolrQueryRequest) {
+            getParams() >> new ModifiableSolrParams()
+        }
+    }
+}
@@ -15,7 +15,17 @@
  */
 package de.qaware.chronix.solr.query.analysis.providers
 
+import org.apache.lucene.document.Document
+import org.apache.lucene.document.StringField
+import org.apache.lucene.document.Field
+import org.apache.solr.common.SolrDocument
+import org.apache.solr.schema.IndexSchema
+import org.apache.solr.schema.SchemaField
+import org.apache.solr.schema.StrField
+import org.apache.solr.search.SolrDocumentFetcher
+import org.apache.solr.search.SolrIndexSearcher
 import spock.lang.Specification
+import spock.lang.Unroll
 
 /**
  * A unit test that is only used to increase test coverage.
@@ -32,6 +42,60 @@ class SolrDocListProviderTest extends Specification {
         thrown NullPointerException
     }
 
+    def "test the document is read from the doc values"() {
+        given:
+        def searcher = Mock(SolrIndexSearcher)
+        def fetcher = Mock(SolrDocumentFetcher)
+        searcher.getSchema() >> schema(true, false)
+        searcher.getDocFetcher() >> fetcher
+
+        when:
+        def doc = new SolrDocListProvider().docToSolrDocument(7, searcher, ["name"] as Set<String>)
+
+        then:
+        1 * fetcher.decorateDocValueFields(_, 7, ["name"] as Set<String>) >> { SolrDocument document, int docId, Set<String> fields ->
+            document.addField("name", "cpu")
+        }
+        0 * fetcher.doc(_, _)
+        doc.getFieldValue("name") == "cpu"
+    }
+
+    @Unroll
+    def "test the document is read from the stored fields if #reason"() {
+        given:
+        def searcher = Mock(SolrIndexSearcher)
+        def fetcher = Mock(SolrDocumentFetcher)
+        searcher.getSchema() >> schema(docValues, multiValued)
+        searcher.getDocFetcher() >> fetcher
+
+        def luceneDoc = new Document()
+        luceneDoc.add(new StringField("name", "cpu", Field.Store.YES))
+
+        when:
+        def doc = new SolrDocListProvider().docToSolrDocument(7, searcher, ["name"] as Set<String>)
+
+        then:
+        decorated * fetcher.decorateDocValueFields(_, 7, _)
+        1 * fetcher.doc(7, ["name"] as Set<String>) >> luceneDoc
+        doc.getFieldValue("name") == "cpu"
+
+        where:
+        docValues | multiValued || decorated | reason
+        false     | false       || 0         | "the field has no doc values"
+        true      | true        || 0         | "the field is multi valued"
+        true      | false       || 1         | "the document has no doc values"
+    }
+
+    def schema(boolean docValues, boolean multiValued) {
+        def field = SchemaField.create("name", new StrField(), ["indexed": "true", "stored": "true",
+                                                               "docValues": String.valueOf(docValues), "multiValued": String.valueOf(multiValued)])
+
+        def schema = Mock(IndexSchema)
+        schema.getFieldOrNull("name") >> field
+        schema.getField("name") >> field
+        schema
+    }
+
    /* def "test "() {
         when:
         new SolrDocListProvider().docListToSolrDocumentList(null, null, null, null);
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.solr.type.metric;
+
+import de.qaware.chronix.Schema;
+import org.apache.solr.common.SolrDocument;
+
+import java.util.Collections;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * The statistics of the chunks that lie completely within a single time bucket.
+ * A bucketing transformation takes the statistics of such a chunk instead of decompressing its points.
+ */
+public final class BucketStatistics {
+
+    private final long interval;
+    private final NavigableMap<Long, ChunkStatistics> buckets = new TreeMap<>();
+
+    /**
+     * @param interval the length of a bucket in milliseconds
+     */
+    public BucketStatistics(long interval) {
+        this.interval = interval;
+    }
+
+    /**
+     * The buckets are aligned to the epoch, hence the buckets of different time series line up.
+     *
+     * @param timestamp the timestamp
+     * @param interval  the length of a bucket in milliseconds
+     * @return the start of the bucket that contains the timestamp
+     */
+    public static long bucketStart(long timestamp, long interval) {
+        return timestamp - Math.floorMod(timestamp, interval);
+    }
+
+    /**
+     * Merges the stored statistics of the given chunk into the statistics of its bucket, if the chunk lies
+     * completely within a single bucket and the query range and holds statistics.
+     *
+     * @param doc        the chunk
+     * @param queryStart the start of the query
+     * @param queryEnd   the end of the query
+     * @return true if the statistics are merged, false if the chunk has to be decompressed
+     */
+    public boolean mergeIfCovered(SolrDocument doc, long queryStart, long queryEnd) {
+        Object start = doc.getFieldValue(Schema.START);
+        Object end = doc.getFieldValue(Schema.END);
+        if (start == null || end == null) {
+            return false;
+        }
+        long bucket = bucketStart(((Number) start).longValue(), interval);
+        if (bucket != bucketStart(((Number) end).longValue(), interval)) {
+            return false;
+        }
+
+        ChunkStatistics statistics = buckets.get(bucket);
+        if (statistics == null) {
+            statistics = new ChunkStatistics();
+            if (!statistics.mergeIfCovered(doc, queryStart, queryEnd)) {
+                return false;
+            }
+            buckets.put(bucket, statistics);
+            return true;
+        }
+        return statistics.mergeIfCovered(doc, queryStart, queryEnd);
+    }
+
+    /**
+     * @return the length of a bucket in milliseconds
+     */
+    public long getInterval() {
+        return interval;
+    }
+
+    /**
+     * @return the statistics of the covered chunks by the start of their bucket
+     */
+    public NavigableMap<Long, ChunkStatistics> getBuckets() {
+        return Collections.unmodifiableNavigableMap(buckets);
+    }
+}
@@ -20,10 +20,19 @@ import de.qaware.chronix.converter.serializer.json.JsonMetricTimeSeriesSerialize
 import de.qaware.chronix.converter.serializer.protobuf.ProtoBufMetricTimeSeriesSerializer;
 import de.qaware.chronix.server.functions.*;
 import de.qaware.chronix.server.types.ChronixTimeSeries;
+import de.qaware.chronix.solr.type.metric.functions.aggregations.ApproxPercentile;
+import de.qaware.chronix.solr.type.metric.functions.aggregations.Percentile;
+import de.qaware.chronix.solr.type.metric.functions.aggregations.StatisticsAggregation;
+import de.qaware.chronix.solr.type.metric.functions.transformation.Bucket;
 import de.qaware.chronix.timeseries.MetricTimeSeries;
 import org.apache.solr.common.util.Pair;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
 import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Map;
 
 /**
@@ -34,22 +43,123 @@ import java.util.Map;
 public class ChronixMetricTimeSeries implements ChronixTimeSeries {
 
     private MetricTimeSeries timeSeries;
+    private final ChunkStatistics statistics;
+    private ChunkStatistics mergedStatistics;
+    private BucketStatistics buckets;
 
     /**
      * @param metricTimeSeries the wrapped time series
      */
     ChronixMetricTimeSeries(MetricTimeSeries metricTimeSeries) {
+        this(metricTimeSeries, (ChunkStatistics) null);
+    }
+
+    /**
+     * @param metricTimeSeries the wrapped time series holding the points of the decompressed chunks
+     * @param statistics       the statistics of the chunks that are not decompressed, can be null
+     */
+    ChronixMetricTimeSeries(MetricTimeSeries metricTimeSeries, ChunkStatistics statistics) {
         timeSeries = metricTimeSeries;
+        this.statistics = statistics;
+    }
+
+    /**
+     * @param metricTimeSeries the wrapped time series holding the points of the decompressed chunks
+     * @param buckets          the statistics of the chunks that are not decompressed, the first transformation
+     *                         has to be a bucket transformation with the same interval
+     */
+    ChronixMetricTimeSeries(MetricTimeSeries metricTimeSeries, BucketStatistics buckets) {
+        this(metricTimeSeries, (ChunkStatistics) null);
+        this.buckets = buckets;
     }
 
     @Override
     public void applyTransformation(ChronixTransformation transformation, FunctionValueMap functionValues) {
-        transformation.execute(timeSeries, functionValues);
+        if (buckets != null && transformation instanceof Bucket) {
+            ((Bucket) transformation).execute(timeSeries, buckets, functionValues);
+        } else {
+            transformation.execute(timeSeries, functionValues);
+        }
+        //the statistics of the buckets are only part of the first transformation
+        buckets = null;
     }
 
     @Override
     public void applyAggregation(ChronixAggregation aggregation, FunctionValueMap functionValues) {
-        aggregation.execute(timeSeries, functionValues);
+        if (statistics != null && aggregation instanceof StatisticsAggregation) {
+            execute((StatisticsAggregation) aggregation, mergedStatistics(aggregation instanceof ApproxPercentile), functionValues);
+        } else {
+            aggregation.execute(timeSeries, functionValues);
+        }
+    }
+
+    /**
+     * Executes the aggregation on the statistics or on the points if the statistics can't answer it
+     *
+     * @param aggregation    the aggregation
+     * @param statistics     the merged statistics
+     * @param functionValues the function values to add the result
+     */
+    private void execute(StatisticsAggregation aggregation, ChunkStatistics statistics, FunctionValueMap functionValues) {
+        if (aggregation.isAnsweredBy(statistics)) {
+            aggregation.execute(statistics, functionValues);
+        } else {
+            aggregation.execute(timeSeries, functionValues);
+        }
+    }
+
+    /**
+     * Applies the aggregations with as few passes over the points as possible.
+     * All statistics aggregations share one pass that collects the statistics of the points
+     * and all percentiles share one sort of the values. The results are added in the given order.
+     *
+     * @param aggregations   the aggregations
+     * @param functionValues the function values to add the results
+     */
+    @Override
+    public void applyAggregations(Collection<ChronixAggregation> aggregations, FunctionValueMap functionValues) {
+        boolean fuseStatistics = statistics != null || count(aggregations, StatisticsAggregation.class) > 1;
+        boolean fusePercentiles = count(aggregations, Percentile.class) > 1;
+        boolean withSketch = fuseStatistics && MetricType.containsApproxPercentile(aggregations);
+        double[] sortedValues = null;
+
+        for (ChronixAggregation aggregation : aggregations) {
+            if (fuseStatistics && aggregation instanceof StatisticsAggregation) {
+                execute((StatisticsAggregation) aggregation, mergedStatistics(withSketch), functionValues);
+            } else if (fusePercentiles && aggregation instanceof Percentile) {
+                if (sortedValues == null) {
+                    sortedValues = timeSeries.getValuesAsArray();
+                    Arrays.sort(sortedValues);
+                }
+                ((Percentile) aggregation).execute(sortedValues, functionValues);
+            } else {
+                aggregation.execute(timeSeries, functionValues);
+            }
+        }
+    }
+
+    private static int count(Collection<ChronixAggregation> aggregations, Class<?> type) {
+        int count = 0;
+        for (ChronixAggregation aggregation : aggregations) {
+            if (type.isInstance(aggregation)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @param withSketch true if the statistics have to contain the percentile sketch
+     * @return the statistics of the not decompressed chunks merged with the statistics of the points
+     */
+    private ChunkStatistics mergedStatistics(boolean withSketch) {
+        if (mergedStatistics == null || (withSketch && mergedStatistics.getSketch() == null)) {
+            mergedStatistics = ChunkStatistics.of(timeSeries, withSketch);
+            if (statistics != null) {
+                mergedStatistics.merge(statistics);
+            }
+        }
+        return mergedStatistics;
     }
 
     @Override
@@ -77,12 +187,24 @@ public class ChronixMetricTimeSeries implements ChronixTimeSeries {
 
     @Override
     public long getStart() {
-        return timeSeries.getStart();
+        if (statistics == null || statistics.getCount() == 0) {
+            return timeSeries.getStart();
+        }
+        if (timeSeries.isEmpty()) {
+            return statistics.getFirstTimestamp();
+        }
+        return Math.min(timeSeries.getStart(), statistics.getFirstTimestamp());
     }
 
     @Override
     public long getEnd() {
-        return timeSeries.getEnd();
+        if (statistics == null || statistics.getCount() == 0) {
+            return timeSeries.getEnd();
+        }
+        if (timeSeries.isEmpty()) {
+            return statistics.getLastTimestamp();
+        }
+        return Math.max(timeSeries.getEnd(), statistics.getLastTimestamp());
     }
 
     @Override
@@ -92,7 +214,7 @@ public class ChronixMetricTimeSeries implements ChronixTimeSeries {
 
     @Override
     public void sort() {
-        timeSeries.sort();
+        TimeSeriesOrder.sort(timeSeries);
     }
 
     @Override
@@ -101,6 +223,21 @@ public class ChronixMetricTimeSeries implements ChronixTimeSeries {
         return new String(data, Charset.forName("UTF-8"));
     }
 
+    @Override
+    public void writeDataAsJson(Writer writer) throws IOException {
+        JsonMetricTimeSeriesWriter.write(timeSeries, writer);
+    }
+
+    @Override
+    public boolean supportsColumns() {
+        return true;
+    }
+
+    @Override
+    public void writeDataAsColumns(OutputStream output) throws IOException {
+        ColumnarMetricTimeSeriesSerializer.to(timeSeries, output);
+    }
+
     @Override
     public byte[] dataAsBlob() {
         byte[] data = ProtoBufMetricTimeSeriesSerializer.to(timeSeries.points().iterator());
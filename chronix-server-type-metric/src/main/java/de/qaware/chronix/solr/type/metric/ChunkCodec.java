@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.solr.type.metric;
+
+import de.qaware.chronix.timeseries.MetricTimeSeries;
+
+/**
+ * Encodes the points of a chunk into the data field of a record and decodes them again.
+ * The id of the codec is stored with every record (see {@link ChunkCodecs#FIELD}),
+ * hence records of different codecs can be mixed within a time series.
+ */
+public interface ChunkCodec {
+
+    /**
+     * @return the id that is stored with the records of this codec
+     */
+    int id();
+
+    /**
+     * @return the name of the codec as used in request parameters
+     */
+    String name();
+
+    /**
+     * Encodes the points between from (inclusive) and to (exclusive)
+     *
+     * @param timestamps the timestamps
+     * @param values     the values
+     * @param from       the first point
+     * @param to         the end of the points
+     * @return the encoded points
+     */
+    byte[] encode(long[] timestamps, double[] values, int from, int to);
+
+    /**
+     * Decodes the points within the query range into the sink
+     *
+     * @param data       the encoded points
+     * @param chunkStart the start of the chunk
+     * @param chunkEnd   the end of the chunk
+     * @param queryStart the query start
+     * @param queryEnd   the query end
+     * @param points     the sink that receives the points in the order they are stored
+     */
+    void decode(byte[] data, long chunkStart, long chunkEnd, long queryStart, long queryEnd, PointSink points);
+
+    /**
+     * Decodes the points within the query range into the time series
+     *
+     * @param data       the encoded points
+     * @param chunkStart the start of the chunk
+     * @param chunkEnd   the end of the chunk
+     * @param queryStart the query start
+     * @param queryEnd   the query end
+     * @param timeSeries the time series to add the points to
+     */
+    default void decode(byte[] data, long chunkStart, long chunkEnd, long queryStart, long queryEnd, MetricTimeSeries.Builder timeSeries) {
+        decode(data, chunkStart, chunkEnd, queryStart, queryEnd, timeSeries::point);
+    }
+
+    /**
+     * Receives the decoded points of a chunk, e.g. to decode them into primitive arrays
+     */
+    @FunctionalInterface
+    interface PointSink {
+
+        /**
+         * @param timestamp the timestamp of the point
+         * @param value     the value of the point
+         */
+        void point(long timestamp, double value);
+    }
+}
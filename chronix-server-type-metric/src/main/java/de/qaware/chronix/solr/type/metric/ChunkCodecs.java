@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.solr.type.metric;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The known chunk codecs.
+ * <p>
+ * Records without a codec field are encoded with the protobuf codec of the Chronix converter.
+ * Compaction re-encodes the records with the configured codec. The default is the protobuf codec, as clients
+ * and older servers that read the raw data only know it. The Gorilla codec has to be chosen explicitly.
+ */
+public final class ChunkCodecs {
+
+    /**
+     * The field holding the id of the codec of a record
+     */
+    public static final String FIELD = "codec";
+
+    /**
+     * Gzip compressed protobuf, used by the ingestion and by records without a codec field
+     */
+    public static final ChunkCodec PROTOBUF = new ProtoBufChunkCodec();
+
+    /**
+     * Delta-of-delta encoded timestamps and XOR encoded values
+     */
+    public static final ChunkCodec GORILLA = new GorillaChunkCodec();
+
+    /**
+     * The codec of compacted records unless another one is configured
+     */
+    public static final ChunkCodec DEFAULT = PROTOBUF;
+
+    private static final List<ChunkCodec> CODECS = Arrays.asList(PROTOBUF, GORILLA);
+
+    private ChunkCodecs() {
+        //avoid instances
+    }
+
+    /**
+     * @param id the id of a codec
+     * @return the codec with the given id
+     * @throws IllegalArgumentException if the id is unknown
+     */
+    public static ChunkCodec of(int id) {
+        for (ChunkCodec codec : CODECS) {
+            if (codec.id() == id) {
+                return codec;
+            }
+        }
+        throw new IllegalArgumentException("Unknown chunk codec id " + id);
+    }
+
+    /**
+     * @param field the value of the codec field of a record, may be null
+     * @return the codec of the record, protobuf if the record has no codec field
+     * @throws IllegalArgumentException if the id is unknown
+     */
+    public static ChunkCodec ofField(Object field) {
+        if (field == null) {
+            return PROTOBUF;
+        }
+        return of(((Number) field).intValue());
+    }
+
+    /**
+     * @param name the name of a codec, case insensitive
+     * @return the codec with the given name
+     * @throws IllegalArgumentException if the name is unknown
+     */
+    public static ChunkCodec byName(String name) {
+        for (ChunkCodec codec : CODECS) {
+            if (codec.name().equals(name.toLowerCase(Locale.ROOT))) {
+                return codec;
+            }
+        }
+        throw new IllegalArgumentException("Unknown chunk codec " + name);
+    }
+}
@@ -0,0 +1,460 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.solr.type.metric;
+
+import de.qaware.chronix.Schema;
+import de.qaware.chronix.solr.type.metric.functions.math.QuantileSketch;
+import de.qaware.chronix.timeseries.MetricTimeSeries;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrInputDocument;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Summary statistics of the points of one or more chunks.
+ * <p>
+ * The statistics are stored with every chunk at ingestion (and compaction) time.
+ * Aggregations that can be answered from the statistics do not need to decompress
+ * chunks that lie completely within the query range.
+ * The statistics also flag whether the points are sorted without duplicates, so the query
+ * does not have to sort them again.
+ */
+public final class ChunkStatistics {
+
+    /**
+     * The number of points
+     */
+    public static final String COUNT = "stats_count";
+    /**
+     * The sum of the values
+     */
+    public static final String SUM = "stats_sum";
+    /**
+     * The minimal value
+     */
+    public static final String MIN = "stats_min";
+    /**
+     * The maximal value
+     */
+    public static final String MAX = "stats_max";
+    /**
+     * The value of the point with the smallest timestamp
+     */
+    public static final String FIRST = "stats_first";
+    /**
+     * The value of the point with the largest timestamp
+     */
+    public static final String LAST = "stats_last";
+    /**
+     * The sum of the squared deviations of the values from their mean
+     */
+    public static final String SQUARED_DEVIATIONS = "stats_m2";
+    /**
+     * The serialized percentile sketch of the values
+     */
+    public static final String SKETCH = "stats_sketch";
+    /**
+     * True if the timestamps of the points are strictly increasing, i.e. sorted without duplicates
+     */
+    public static final String SORTED = "stats_sorted";
+
+    private static final List<String> NUMBER_FIELDS = Arrays.asList(COUNT, SUM, MIN, MAX, FIRST, LAST, SQUARED_DEVIATIONS);
+
+    /**
+     * All statistic fields
+     */
+    public static final Set<String> FIELDS;
+
+    static {
+        Set<String> fields = new HashSet<>(NUMBER_FIELDS);
+        fields.add(SKETCH);
+        fields.add(SORTED);
+        FIELDS = Collections.unmodifiableSet(fields);
+    }
+
+    /**
+     * The fields that are read to merge the stored statistics of a chunk
+     */
+    private static final Set<String> MERGE_FIELDS;
+
+    /**
+     * The fields that are read to merge the stored statistics and the sketch of a chunk
+     */
+    private static final Set<String> MERGE_FIELDS_WITH_SKETCH;
+
+    static {
+        Set<String> fields = new HashSet<>(NUMBER_FIELDS);
+        fields.add(SORTED);
+        fields.add(Schema.START);
+        fields.add(Schema.END);
+        MERGE_FIELDS = Collections.unmodifiableSet(fields);
+        fields = new HashSet<>(fields);
+        fields.add(SKETCH);
+        MERGE_FIELDS_WITH_SKETCH = Collections.unmodifiableSet(fields);
+    }
+
+    private long count;
+    private double sum;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+    private double first = Double.NaN;
+    private long firstTimestamp = Long.MAX_VALUE;
+    private double last = Double.NaN;
+    private long lastTimestamp = Long.MIN_VALUE;
+    //running mean and sum of squared deviations from the mean (Welford), numerically stable for the variance
+    private double mean;
+    private double squaredDeviations;
+    private QuantileSketch sketch;
+    private boolean sorted = true;
+
+    /**
+     * Constructs empty statistics without a percentile sketch
+     */
+    public ChunkStatistics() {
+        this(false);
+    }
+
+    /**
+     * Constructs empty statistics
+     *
+     * @param withSketch true if the statistics should also track a percentile sketch of the values
+     */
+    public ChunkStatistics(boolean withSketch) {
+        if (withSketch) {
+            sketch = new QuantileSketch();
+        }
+    }
+
+    /**
+     * Calculates the statistics of the given time series
+     *
+     * @param timeSeries the time series
+     * @return the statistics of all points of the time series
+     */
+    public static ChunkStatistics of(MetricTimeSeries timeSeries) {
+        return of(timeSeries, false);
+    }
+
+    /**
+     * Calculates the statistics of the given time series
+     *
+     * @param timeSeries the time series
+     * @param withSketch true if the statistics should also track a percentile sketch of the values
+     * @return the statistics of all points of the time series
+     */
+    public static ChunkStatistics of(MetricTimeSeries timeSeries, boolean withSketch) {
+        ChunkStatistics statistics = new ChunkStatistics(withSketch);
+        int size = timeSeries.size();
+        for (int i = 0; i < size; i++) {
+            statistics.add(timeSeries.getTime(i), timeSeries.getValue(i));
+        }
+        return statistics;
+    }
+
+    /**
+     * @param withSketch true if the percentile sketches of the chunks are merged as well
+     * @return the fields that {@link #mergeIfCovered(SolrDocument, long, long)} reads
+     */
+    public static Set<String> fieldsToMerge(boolean withSketch) {
+        return withSketch ? MERGE_FIELDS_WITH_SKETCH : MERGE_FIELDS;
+    }
+
+    /**
+     * Checks if the given field holds statistics of a chunk
+     *
+     * @param field the field name
+     * @return true if the field is one of the statistic fields
+     */
+    public static boolean isStatisticsField(String field) {
+        return FIELDS.contains(field);
+    }
+
+    /**
+     * Adds a single point
+     *
+     * @param timestamp the timestamp of the point
+     * @param value     the value of the point
+     */
+    public void add(long timestamp, double value) {
+        //the last timestamp is the largest one so far
+        if (count > 0 && timestamp <= lastTimestamp) {
+            sorted = false;
+        }
+        count++;
+        sum += value;
+        double delta = value - mean;
+        mean += delta / count;
+        squaredDeviations += delta * (value - mean);
+        if (sketch != null) {
+            sketch.add(value);
+        }
+        if (value < min) {
+            min = value;
+        }
+        if (value > max) {
+            max = value;
+        }
+        if (timestamp < firstTimestamp) {
+            firstTimestamp = timestamp;
+            first = value;
+        }
+        if (timestamp >= lastTimestamp) {
+            lastTimestamp = timestamp;
+            last = value;
+        }
+    }
+
+    /**
+     * Merges the other statistics into this one
+     *
+     * @param other the other statistics, must track a sketch if this one does
+     * @throws IllegalArgumentException if this statistics track a sketch and the other do not
+     */
+    public void merge(ChunkStatistics other) {
+        if (other.count == 0) {
+            return;
+        }
+        if (sketch != null) {
+            if (other.sketch == null) {
+                throw new IllegalArgumentException("Cannot merge statistics without a sketch into statistics with a sketch");
+            }
+            sketch.merge(other.sketch);
+        }
+        //the points of the other statistics follow the points of this one
+        sorted = sorted && other.sorted && (count == 0 || other.firstTimestamp > lastTimestamp);
+        long merged = count + other.count;
+        double delta = other.mean - mean;
+        squaredDeviations += other.squaredDeviations + delta * delta * ((double) count * other.count / merged);
+        mean += delta * other.count / merged;
+        count = merged;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+        if (other.firstTimestamp < firstTimestamp) {
+            firstTimestamp = other.firstTimestamp;
+            first = other.first;
+        }
+        if (other.lastTimestamp >= lastTimestamp) {
+            lastTimestamp = other.lastTimestamp;
+            last = other.last;
+        }
+    }
+
+    /**
+     * Merges the stored statistics of the given chunk into this one, if the chunk lies completely
+     * within the query range and holds statistics (including a sketch if this statistics track one).
+     *
+     * @param doc        the chunk
+     * @param queryStart the start of the query
+     * @param queryEnd   the end of the query
+     * @return true if the statistics are merged, false if the chunk has to be decompressed
+     */
+    public boolean mergeIfCovered(SolrDocument doc, long queryStart, long queryEnd) {
+        Object start = doc.getFieldValue(Schema.START);
+        Object end = doc.getFieldValue(Schema.END);
+        if (start == null || end == null || ((Number) start).longValue() < queryStart || ((Number) end).longValue() > queryEnd) {
+            return false;
+        }
+
+        for (String field : NUMBER_FIELDS) {
+            if (!(doc.getFieldValue(field) instanceof Number)) {
+                return false;
+            }
+        }
+
+        ChunkStatistics chunk = new ChunkStatistics();
+        if (sketch != null) {
+            chunk.sketch = sketch(doc);
+            if (chunk.sketch == null) {
+                return false;
+            }
+        }
+        chunk.count = number(doc, COUNT).longValue();
+        chunk.sum = number(doc, SUM).doubleValue();
+        chunk.min = number(doc, MIN).doubleValue();
+        chunk.max = number(doc, MAX).doubleValue();
+        chunk.first = number(doc, FIRST).doubleValue();
+        chunk.firstTimestamp = ((Number) start).longValue();
+        chunk.last = number(doc, LAST).doubleValue();
+        chunk.lastTimestamp = ((Number) end).longValue();
+        chunk.sorted = isSorted(doc);
+        if (chunk.count > 0) {
+            chunk.mean = chunk.sum / chunk.count;
+            chunk.squaredDeviations = number(doc, SQUARED_DEVIATIONS).doubleValue();
+        }
+
+        merge(chunk);
+        return true;
+    }
+
+    /**
+     * Checks if the points of the given chunk are sorted by their timestamps without duplicates
+     *
+     * @param doc the chunk
+     * @return true if the chunk is flagged as sorted, false if it is not or has no flag
+     */
+    public static boolean isSorted(SolrDocument doc) {
+        return Boolean.TRUE.equals(doc.getFieldValue(SORTED));
+    }
+
+    private static Number number(SolrDocument doc, String field) {
+        return (Number) doc.getFieldValue(field);
+    }
+
+    private static QuantileSketch sketch(SolrDocument doc) {
+        Object value = doc.getFieldValue(SKETCH);
+        byte[] bytes;
+        if (value instanceof byte[]) {
+            bytes = (byte[]) value;
+        } else if (value instanceof ByteBuffer) {
+            ByteBuffer buffer = ((ByteBuffer) value).duplicate();
+            bytes = new byte[buffer.remaining()];
+            buffer.get(bytes);
+        } else {
+            return null;
+        }
+        try {
+            return QuantileSketch.fromBytes(bytes);
+        } catch (IllegalArgumentException e) {
+            //the chunk is decompressed instead
+            return null;
+        }
+    }
+
+    /**
+     * Sets the statistic fields of the given document. Already existing statistic fields are replaced.
+     *
+     * @param document the document of the chunk
+     */
+    public void addTo(SolrInputDocument document) {
+        FIELDS.forEach(document::removeField);
+
+        document.setField(COUNT, count);
+        if (count > 0) {
+            document.setField(SUM, sum);
+            document.setField(MIN, min);
+            document.setField(MAX, max);
+            document.setField(FIRST, first);
+            document.setField(LAST, last);
+            document.setField(SQUARED_DEVIATIONS, squaredDeviations);
+            document.setField(SORTED, sorted);
+            if (sketch != null) {
+                document.setField(SKETCH, sketch.toBytes());
+            }
+        }
+    }
+
+    /**
+     * @return a copy of the statistics
+     */
+    public ChunkStatistics copy() {
+        ChunkStatistics copy = new ChunkStatistics(sketch != null);
+        copy.merge(this);
+        return copy;
+    }
+
+    /**
+     * @return the number of points
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return the sum of the values
+     */
+    public double getSum() {
+        return sum;
+    }
+
+    /**
+     * @return the minimal value, or NaN if there are no points
+     */
+    public double getMin() {
+        return count == 0 ? Double.NaN : min;
+    }
+
+    /**
+     * @return the maximal value, or NaN if there are no points
+     */
+    public double getMax() {
+        return count == 0 ? Double.NaN : max;
+    }
+
+    /**
+     * @return the value of the point with the smallest timestamp, or NaN if there are no points
+     */
+    public double getFirst() {
+        return first;
+    }
+
+    /**
+     * @return the smallest timestamp
+     */
+    public long getFirstTimestamp() {
+        return firstTimestamp;
+    }
+
+    /**
+     * @return the value of the point with the largest timestamp, or NaN if there are no points
+     */
+    public double getLast() {
+        return last;
+    }
+
+    /**
+     * @return the largest timestamp
+     */
+    public long getLastTimestamp() {
+        return lastTimestamp;
+    }
+
+    /**
+     * @return the sum of the squared deviations of the values from their mean
+     */
+    public double getSquaredDeviations() {
+        return squaredDeviations;
+    }
+
+    /**
+     * @return the percentile sketch of the values, or null if the statistics do not track one
+     */
+    public QuantileSketch getSketch() {
+        return sketch;
+    }
+
+    /**
+     * @return true if the timestamps of the points are strictly increasing, i.e. sorted without duplicates
+     */
+    public boolean isSorted() {
+        return sorted;
+    }
+
+    /**
+     * @return the sample variance of the values, or NaN if there are less than two points
+     */
+    public double getVariance() {
+        if (count <= 1) {
+            return Double.NaN;
+        }
+        return squaredDeviations / (count - 1);
+    }
+}
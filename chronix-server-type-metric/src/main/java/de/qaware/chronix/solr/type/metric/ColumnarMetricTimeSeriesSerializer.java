@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.solr.type.metric;
+
+import de.qaware.chronix.timeseries.MetricTimeSeries;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+
+/**
+ * A compact columnar binary format of the points of a time series for clients that do not need json.
+ * The format is written in a single pass over each column without buffering:
+ * <ul>
+ * <li>the version of the format (one byte) and the amount of points (varint)</li>
+ * <li>the timestamps as zig-zag varints: the first timestamp, the first delta and then the deltas of the deltas</li>
+ * <li>the values XOR-ed with the bits of their predecessor. A header byte holds the amount of leading
+ * (upper four bits) and trailing (lower four bits) zero bytes, followed by the remaining bytes.</li>
+ * </ul>
+ * Points with a regular interval and slowly changing values take a few bytes instead of sixteen.
+ */
+public final class ColumnarMetricTimeSeriesSerializer {
+
+    /**
+     * The version of the format
+     */
+    public static final byte VERSION = 1;
+
+    private ColumnarMetricTimeSeriesSerializer() {
+        //avoid instances
+    }
+
+    /**
+     * @param timeSeries the time series
+     * @return the points of the time series in the columnar format
+     */
+    public static byte[] to(MetricTimeSeries timeSeries) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream(timeSeries.size() * 4 + 8);
+        try {
+            to(timeSeries, output);
+        } catch (IOException e) {
+            //a byte array output stream does not fail
+            throw new UncheckedIOException(e);
+        }
+        return output.toByteArray();
+    }
+
+    /**
+     * Writes the points of the time series in the columnar format
+     *
+     * @param timeSeries the time series
+     * @param output     the stream to write to, should be buffered
+     * @throws IOException if the stream fails
+     */
+    public static void to(MetricTimeSeries timeSeries, OutputStream output) throws IOException {
+        int size = timeSeries.size();
+        output.write(VERSION);
+        writeVarint(size, output);
+
+        long previous = 0;
+        long previousDelta = 0;
+        for (int i = 0; i < size; i++) {
+            long timestamp = timeSeries.getTime(i);
+            long delta = timestamp - previous;
+            writeVarint(zigZag(i == 0 ? timestamp : delta - previousDelta), output);
+            previousDelta = i == 0 ? 0 : delta;
+            previous = timestamp;
+        }
+
+        long previousBits = 0;
+        for (int i = 0; i < size; i++) {
+            long bits = Double.doubleToRawLongBits(timeSeries.getValue(i));
+            writeXor(bits ^ previousBits, output);
+            previousBits = bits;
+        }
+    }
+
+    /**
+     * Reads the points of the columnar format into the given builder
+     *
+     * @param data    the points in the columnar format
+     * @param builder the builder to add the points to
+     * @throws IllegalArgumentException if the data is not in the columnar format
+     */
+    public static void from(byte[] data, MetricTimeSeries.Builder builder) {
+        Reader reader = new Reader(data);
+        if (reader.readByte() != VERSION) {
+            throw new IllegalArgumentException("Unknown version of the columnar format " + data[0]);
+        }
+        long size = reader.readVarint();
+        if (size < 0 || size > data.length) {
+            throw new IllegalArgumentException("Invalid amount of points " + size);
+        }
+
+        long[] timestamps = new long[(int) size];
+        long previous = 0;
+        long previousDelta = 0;
+        for (int i = 0; i < size; i++) {
+            long decoded = unZigZag(reader.readVarint());
+            if (i == 0) {
+                timestamps[i] = decoded;
+            } else {
+                previousDelta = i == 1 ? decoded : previousDelta + decoded;
+                timestamps[i] = previous + previousDelta;
+            }
+            previous = timestamps[i];
+        }
+
+        long previousBits = 0;
+        for (int i = 0; i < size; i++) {
+            previousBits ^= reader.readXor();
+            builder.point(timestamps[i], Double.longBitsToDouble(previousBits));
+        }
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void writeVarint(long value, OutputStream output) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            output.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        output.write((int) value);
+    }
+
+    private static void writeXor(long xor, OutputStream output) throws IOException {
+        if (xor == 0) {
+            output.write(8 << 4);
+            return;
+        }
+        int leading = Long.numberOfLeadingZeros(xor) / 8;
+        int trailing = Long.numberOfTrailingZeros(xor) / 8;
+        output.write(leading << 4 | trailing);
+        for (int shift = 56 - leading * 8; shift >= trailing * 8; shift -= 8) {
+            output.write((int) (xor >>> shift));
+        }
+    }
+
+    /**
+     * Reads the columnar format, fails on truncated data
+     */
+    private static final class Reader {
+        private final byte[] data;
+        private int position;
+
+        Reader(byte[] data) {
+            this.data = data;
+        }
+
+        int readByte() {
+            if (position >= data.length) {
+                throw new IllegalArgumentException("Truncated columnar data");
+            }
+            return data[position++] & 0xFF;
+        }
+
+        long readVarint() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Malformed varint in columnar data");
+        }
+
+        long readXor() {
+            int header = readByte();
+            int leading = header >>> 4;
+            int trailing = header & 0x0F;
+            if (leading + trailing > 8) {
+                throw new IllegalArgumentException("Malformed value header in columnar data");
+            }
+            long xor = 0;
+            for (int i = leading + trailing; i < 8; i++) {
+                xor = xor << 8 | readByte();
+            }
+            return xor << (trailing * 8);
+        }
+    }
+}
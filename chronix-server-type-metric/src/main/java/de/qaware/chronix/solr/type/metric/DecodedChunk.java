@@ -0,0 +1,220 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.solr.type.metric;
+
+import de.qaware.chronix.timeseries.MetricTimeSeries;
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.RamUsageEstimator;
+
+import java.util.Arrays;
+
+/**
+ * The decompressed points of a single chunk.
+ * The chunk holds all points of the record independent of a query range.
+ * Hence it can be shared between queries and must not be modified.
+ */
+public final class DecodedChunk implements Accountable {
+
+    private static final long BASE_RAM_BYTES_USED = RamUsageEstimator.shallowSizeOfInstance(DecodedChunk.class);
+
+    private final long[] timestamps;
+    private final double[] values;
+
+    /**
+     * @param timestamps the timestamps of the chunk
+     * @param values     the values of the chunk
+     */
+    DecodedChunk(long[] timestamps, double[] values) {
+        this.timestamps = timestamps;
+        this.values = values;
+    }
+
+    /**
+     * Decompresses all points of a chunk straight into the arrays of the decoded chunk
+     *
+     * @param codec        the codec of the chunk
+     * @param data         the compressed data
+     * @param tsStart      the start of the chunk
+     * @param tsEnd        the end of the chunk
+     * @param expectedSize the expected number of points, e.g. from the statistics of the chunk
+     * @return the decoded chunk
+     */
+    public static DecodedChunk decode(ChunkCodec codec, byte[] data, long tsStart, long tsEnd, int expectedSize) {
+        Points points = new Points(expectedSize);
+        codec.decode(data, tsStart, tsEnd, tsStart, tsEnd, points);
+        return points.toChunk();
+    }
+
+    /**
+     * Adds the points within the query range to the given time series
+     *
+     * @param timeSeries the time series to add the points to
+     * @param queryStart the query start
+     * @param queryEnd   the query end
+     */
+    public void addTo(MetricTimeSeries.Builder timeSeries, long queryStart, long queryEnd) {
+        for (int i = 0; i < timestamps.length; i++) {
+            long timestamp = timestamps[i];
+            if (timestamp >= queryStart && timestamp <= queryEnd) {
+                timeSeries.point(timestamp, values[i]);
+            }
+        }
+    }
+
+    /**
+     * Merges the points within the query range of sorted chunks into the given time series.
+     * The chunks are merged with a heap of the current position of each chunk.
+     * Points with equal timestamps are added in the order of the chunks.
+     *
+     * @param chunks     the chunks with sorted points
+     * @param timeSeries the time series to add the points to
+     * @param queryStart the query start
+     * @param queryEnd   the query end
+     */
+    static void merge(DecodedChunk[] chunks, MetricTimeSeries.Builder timeSeries, long queryStart, long queryEnd) {
+        int[] positions = new int[chunks.length];
+        int[] heap = new int[chunks.length];
+        int size = 0;
+        for (int chunk = 0; chunk < chunks.length; chunk++) {
+            positions[chunk] = chunks[chunk].firstIndex(queryStart);
+            if (chunks[chunk].contains(positions[chunk], queryEnd)) {
+                heap[size] = chunk;
+                siftUp(chunks, positions, heap, size++);
+            }
+        }
+
+        while (size > 0) {
+            int chunk = heap[0];
+            DecodedChunk decoded = chunks[chunk];
+            int position = positions[chunk]++;
+            timeSeries.point(decoded.timestamps[position], decoded.values[position]);
+
+            if (!decoded.contains(positions[chunk], queryEnd)) {
+                heap[0] = heap[--size];
+            }
+            siftDown(chunks, positions, heap, size);
+        }
+    }
+
+    /**
+     * @param queryStart the query start
+     * @return the position of the first point at or after the query start, requires sorted points
+     */
+    private int firstIndex(long queryStart) {
+        int low = 0;
+        int high = timestamps.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (timestamps[mid] < queryStart) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private boolean contains(int position, long queryEnd) {
+        return position < timestamps.length && timestamps[position] <= queryEnd;
+    }
+
+    private static void siftUp(DecodedChunk[] chunks, int[] positions, int[] heap, int index) {
+        int chunk = heap[index];
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (!before(chunks, positions, chunk, heap[parent])) {
+                break;
+            }
+            heap[index] = heap[parent];
+            index = parent;
+        }
+        heap[index] = chunk;
+    }
+
+    private static void siftDown(DecodedChunk[] chunks, int[] positions, int[] heap, int size) {
+        if (size == 0) {
+            return;
+        }
+        int chunk = heap[0];
+        int index = 0;
+        int child;
+        while ((child = 2 * index + 1) < size) {
+            if (child + 1 < size && before(chunks, positions, heap[child + 1], heap[child])) {
+                child++;
+            }
+            if (!before(chunks, positions, heap[child], chunk)) {
+                break;
+            }
+            heap[index] = heap[child];
+            index = child;
+        }
+        heap[index] = chunk;
+    }
+
+    /**
+     * @return true if the current point of the chunk is merged before the current point of the other chunk
+     */
+    private static boolean before(DecodedChunk[] chunks, int[] positions, int chunk, int other) {
+        long timestamp = chunks[chunk].timestamps[positions[chunk]];
+        long otherTimestamp = chunks[other].timestamps[positions[other]];
+        return timestamp < otherTimestamp || (timestamp == otherTimestamp && chunk < other);
+    }
+
+    /**
+     * @return the number of points of the chunk
+     */
+    public int size() {
+        return timestamps.length;
+    }
+
+    /**
+     * Collects the decoded points into arrays of the expected size that grow if the chunk holds more points
+     */
+    private static final class Points implements ChunkCodec.PointSink {
+        private long[] timestamps;
+        private double[] values;
+        private int size;
+
+        private Points(int expectedSize) {
+            timestamps = new long[Math.max(expectedSize, 0)];
+            values = new double[timestamps.length];
+        }
+
+        @Override
+        public void point(long timestamp, double value) {
+            if (size == timestamps.length) {
+                int grown = Math.max(16, size + (size >> 1));
+                timestamps = Arrays.copyOf(timestamps, grown);
+                values = Arrays.copyOf(values, grown);
+            }
+            timestamps[size] = timestamp;
+            values[size] = value;
+            size++;
+        }
+
+        private DecodedChunk toChunk() {
+            if (size == timestamps.length) {
+                return new DecodedChunk(timestamps, values);
+            }
+            return new DecodedChunk(Arrays.copyOf(timestamps, size), Arrays.copyOf(values, size));
+        }
+    }
+
+    @Override
+    public long ramBytesUsed() {
+        return BASE_RAM_BYTES_USED + RamUsageEstimator.sizeOf(timestamps) + RamUsageEstimator.sizeOf(values);
+    }
+}
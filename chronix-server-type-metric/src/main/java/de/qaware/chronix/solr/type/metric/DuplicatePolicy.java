@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.solr.type.metric;
+
+import de.qaware.chronix.converter.common.DoubleList;
+import de.qaware.chronix.converter.common.LongList;
+import de.qaware.chronix.timeseries.MetricTimeSeries;
+
+import java.util.Locale;
+
+/**
+ * Sorts the points of a chunk and merges the points with the same timestamp, i.e. the duplicates.
+ * <p>
+ * The ingestion applies the policy to every chunk before it is stored. Hence the chunks are flagged as sorted
+ * (see {@link ChunkStatistics#SORTED}) and the query neither sorts nor deduplicates them again.
+ */
+public enum DuplicatePolicy {
+
+    /**
+     * Keeps the value that was added first
+     */
+    FIRST {
+        @Override
+        double merge(double[] values, int[] order, int from, int to) {
+            return values[order[from]];
+        }
+    },
+
+    /**
+     * Keeps the value that was added last
+     */
+    LAST {
+        @Override
+        double merge(double[] values, int[] order, int from, int to) {
+            return values[order[to - 1]];
+        }
+    },
+
+    /**
+     * Keeps the average of the values
+     */
+    AVG {
+        @Override
+        double merge(double[] values, int[] order, int from, int to) {
+            double sum = 0;
+            for (int i = from; i < to; i++) {
+                sum += values[order[i]];
+            }
+            return sum / (to - from);
+        }
+    };
+
+    /**
+     * Merges the values of the points with the same timestamp
+     *
+     * @param values the values of the time series
+     * @param order  the positions of the points in ascending order of their timestamps, stable for duplicates
+     * @param from   the first position in the order with the timestamp
+     * @param to     the last position in the order with the timestamp (exclusive)
+     * @return the merged value
+     */
+    abstract double merge(double[] values, int[] order, int from, int to);
+
+    /**
+     * Parses a policy, e.g. from the solrconfig.xml
+     *
+     * @param name the name of the policy, case insensitive
+     * @return the policy
+     * @throws IllegalArgumentException if the policy is unknown
+     */
+    public static DuplicatePolicy of(String name) {
+        try {
+            return valueOf(name.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown duplicate policy '" + name + "', expected first, last or avg", e);
+        }
+    }
+
+    /**
+     * Sorts the points of the time series by their timestamps and merges the duplicates
+     *
+     * @param timeSeries the time series
+     * @return the given time series if it is already sorted without duplicates, otherwise a sorted copy
+     */
+    public MetricTimeSeries apply(MetricTimeSeries timeSeries) {
+        if (TimeSeriesOrder.isSortedAndUnique(timeSeries)) {
+            return timeSeries;
+        }
+
+        long[] timestamps = timeSeries.getTimestampsAsArray();
+        double[] values = timeSeries.getValuesAsArray();
+        int size = apply(timestamps, values, 0, timestamps.length);
+
+        return new MetricTimeSeries.Builder(timeSeries.getName(), timeSeries.getType())
+                .attributes(timeSeries.getAttributesReference())
+                .points(new LongList(timestamps, size), new DoubleList(values, size))
+                .build();
+    }
+
+    /**
+     * Sorts the points between from and to by their timestamps and merges the duplicates in place.
+     * Of points with the same timestamp, the one at the lower position counts as added first.
+     *
+     * @param timestamps the timestamps
+     * @param values     the values
+     * @param from       the first point
+     * @param to         the end of the points (exclusive)
+     * @return the end of the sorted points without duplicates (exclusive), the points behind it are undefined
+     */
+    public int apply(long[] timestamps, double[] values, int from, int to) {
+        if (TimeSeriesOrder.isSortedAndUnique(timestamps, from, to)) {
+            return to;
+        }
+
+        int[] order = TimeSeriesOrder.stableOrder(timestamps, from, to);
+        long[] sortedTimestamps = new long[order.length];
+        double[] sortedValues = new double[order.length];
+        int size = 0;
+        int first = 0;
+        while (first < order.length) {
+            long timestamp = timestamps[order[first]];
+            int last = first + 1;
+            while (last < order.length && timestamps[order[last]] == timestamp) {
+                last++;
+            }
+            sortedTimestamps[size] = timestamp;
+            sortedValues[size] = last - first == 1 ? values[order[first]] : merge(values, order, first, last);
+            size++;
+            first = last;
+        }
+
+        System.arraycopy(sortedTimestamps, 0, timestamps, from, size);
+        System.arraycopy(sortedValues, 0, values, from, size);
+        return from + size;
+    }
+}
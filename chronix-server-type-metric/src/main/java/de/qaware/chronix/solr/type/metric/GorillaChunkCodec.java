@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.solr.type.metric;
+
+import java.util.Arrays;
+
+/**
+ * Encodes the points as described in "Gorilla: A Fast, Scalable, In-Memory Time Series Database" (Facebook, 2015).
+ * <p>
+ * The timestamps are encoded as the delta of their deltas, regular timestamps take a single bit.
+ * The values are XORed with their predecessor and only the meaningful bits of the result are stored,
+ * an unchanged value takes a single bit.
+ * The bit stream starts with the number of points (32 bits), the first timestamp and the first value (64 bits each).
+ * Unsorted timestamps are supported, they just take more bits.
+ */
+final class GorillaChunkCodec implements ChunkCodec {
+
+    @Override
+    public int id() {
+        return 1;
+    }
+
+    @Override
+    public String name() {
+        return "gorilla";
+    }
+
+    @Override
+    public byte[] encode(long[] timestamps, double[] values, int from, int to) {
+        BitWriter out = new BitWriter((to - from) * 2 + 20);
+        out.write(to - from, 32);
+        if (to == from) {
+            return out.toByteArray();
+        }
+
+        long timestamp = timestamps[from];
+        long bits = Double.doubleToRawLongBits(values[from]);
+        out.write(timestamp, 64);
+        out.write(bits, 64);
+
+        long delta = 0;
+        int leading = -1;
+        int trailing = 0;
+        for (int i = from + 1; i < to; i++) {
+            long nextDelta = timestamps[i] - timestamp;
+            writeDeltaOfDelta(out, nextDelta - delta);
+            delta = nextDelta;
+            timestamp = timestamps[i];
+
+            long nextBits = Double.doubleToRawLongBits(values[i]);
+            long xor = nextBits ^ bits;
+            bits = nextBits;
+            if (xor == 0) {
+                out.write(0, 1);
+                continue;
+            }
+            int nextLeading = Math.min(Long.numberOfLeadingZeros(xor), 31);
+            int nextTrailing = Long.numberOfTrailingZeros(xor);
+            if (leading >= 0 && nextLeading >= leading && nextTrailing >= trailing) {
+                //the meaningful bits fit into the window of the previous value
+                out.write(0b10, 2);
+                out.write(xor >>> trailing, 64 - leading - trailing);
+            } else {
+                leading = nextLeading;
+                trailing = nextTrailing;
+                int meaningful = 64 - leading - trailing;
+                out.write(0b11, 2);
+                out.write(leading, 5);
+                out.write(meaningful - 1L, 6);
+                out.write(xor >>> trailing, meaningful);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static void writeDeltaOfDelta(BitWriter out, long deltaOfDelta) {
+        if (deltaOfDelta == 0) {
+            out.write(0, 1);
+        } else if (deltaOfDelta >= -63 && deltaOfDelta <= 64) {
+            out.write(0b10, 2);
+            out.write(deltaOfDelta + 63, 7);
+        } else if (deltaOfDelta >= -255 && deltaOfDelta <= 256) {
+            out.write(0b110, 3);
+            out.write(deltaOfDelta + 255, 9);
+        } else if (deltaOfDelta >= -2047 && deltaOfDelta <= 2048) {
+            out.write(0b1110, 4);
+            out.write(deltaOfDelta + 2047, 12);
+        } else {
+            out.write(0b1111, 4);
+            out.write(deltaOfDelta, 64);
+        }
+    }
+
+    @Override
+    public void decode(byte[] data, long chunkStart, long chunkEnd, long queryStart, long queryEnd, PointSink points) {
+        BitReader in = new BitReader(data);
+        int size = (int) in.read(32);
+        if (size == 0) {
+            return;
+        }
+
+        long timestamp = in.read(64);
+        long bits = in.read(64);
+        add(timestamp, bits, queryStart, queryEnd, points);
+
+        long delta = 0;
+        int leading = 0;
+        int trailing = 0;
+        for (int i = 1; i < size; i++) {
+            delta += readDeltaOfDelta(in);
+            timestamp += delta;
+
+            if (in.read(1) != 0) {
+                if (in.read(1) != 0) {
+                    leading = (int) in.read(5);
+                    trailing = 64 - leading - ((int) in.read(6) + 1);
+                }
+                bits ^= in.read(64 - leading - trailing) << trailing;
+            }
+            add(timestamp, bits, queryStart, queryEnd, points);
+        }
+    }
+
+    private static long readDeltaOfDelta(BitReader in) {
+        if (in.read(1) == 0) {
+            return 0;
+        }
+        if (in.read(1) == 0) {
+            return in.read(7) - 63;
+        }
+        if (in.read(1) == 0) {
+            return in.read(9) - 255;
+        }
+        if (in.read(1) == 0) {
+            return in.read(12) - 2047;
+        }
+        return in.read(64);
+    }
+
+    private static void add(long timestamp, long bits, long queryStart, long queryEnd, PointSink points) {
+        if (timestamp >= queryStart && timestamp <= queryEnd) {
+            points.point(timestamp, Double.longBitsToDouble(bits));
+        }
+    }
+
+    /**
+     * Writes bits in big endian order into a growing byte array
+     */
+    private static final class BitWriter {
+        private byte[] bytes;
+        private long position;
+
+        private BitWriter(int capacity) {
+            bytes = new byte[Math.max(capacity, 16)];
+        }
+
+        /**
+         * @param value the value whose lowest bits are written
+         * @param count the number of bits, at most 64
+         */
+        private void write(long value, int count) {
+            ensureCapacity(position + count);
+            int remaining = count;
+            while (remaining > 0) {
+                int index = (int) (position >>> 3);
+                int free = 8 - (int) (position & 7);
+                int written = Math.min(free, remaining);
+                remaining -= written;
+                int chunk = (int) (value >>> remaining) & ((1 << written) - 1);
+                bytes[index] |= chunk << (free - written);
+                position += written;
+            }
+        }
+
+        private void ensureCapacity(long bits) {
+            int required = (int) ((bits + 7) >>> 3);
+            if (required > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(required, bytes.length + (bytes.length >> 1)));
+            }
+        }
+
+        private byte[] toByteArray() {
+            return Arrays.copyOf(bytes, (int) ((position + 7) >>> 3));
+        }
+    }
+
+    /**
+     * Reads bits in big endian order from a byte array
+     */
+    private static final class BitReader {
+        private final byte[] bytes;
+        private long position;
+
+        private BitReader(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        /**
+         * @param count the number of bits, at most 64
+         * @return the bits as the lowest bits of the result
+         */
+        private long read(int count) {
+            long result = 0;
+            int remaining = count;
+            while (remaining > 0) {
+                int index = (int) (position >>> 3);
+                int available = 8 - (int) (position & 7);
+                int read = Math.min(available, remaining);
+                int chunk = ((bytes[index] & 0xFF) >>> (available - read)) & ((1 << read) - 1);
+                result = (result << read) | chunk;
+                remaining -= read;
+                position += read;
+            }
+            return result;
+        }
+    }
+}
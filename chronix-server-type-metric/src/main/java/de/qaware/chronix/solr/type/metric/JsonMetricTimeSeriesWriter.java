@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.solr.type.metric;
+
+import de.qaware.chronix.timeseries.MetricTimeSeries;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes the points of a time series as json directly to a writer.
+ * The json equals the one of the JsonMetricTimeSeriesSerializer, [[timestamps],[values]],
+ * but it is never built in memory as a whole.
+ */
+public final class JsonMetricTimeSeriesWriter {
+
+    private JsonMetricTimeSeriesWriter() {
+        //avoid instances
+    }
+
+    /**
+     * @param timeSeries the time series
+     * @param writer     the writer to write the json to
+     * @throws IOException if the writer fails
+     */
+    public static void write(MetricTimeSeries timeSeries, Writer writer) throws IOException {
+        int size = timeSeries.size();
+        writer.write("[[");
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            writer.write(Long.toString(timeSeries.getTime(i)));
+        }
+        writer.write("],[");
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            writer.write(Double.toString(timeSeries.getValue(i)));
+        }
+        writer.write("]]");
+    }
+}
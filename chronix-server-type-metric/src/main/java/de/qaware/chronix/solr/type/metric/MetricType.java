@@ -15,7 +15,9 @@
  */
 package de.qaware.chronix.solr.type.metric;
 
+import de.qaware.chronix.server.functions.ChronixAggregation;
 import de.qaware.chronix.server.functions.ChronixFunction;
+import de.qaware.chronix.server.functions.ChronixTransformation;
 import de.qaware.chronix.server.types.ChronixTimeSeries;
 import de.qaware.chronix.server.types.ChronixType;
 import de.qaware.chronix.solr.type.metric.functions.aggregations.*;
@@ -31,7 +33,11 @@ import org.apache.solr.common.SolrDocument;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Implementation of the metric type
@@ -42,6 +48,20 @@ public class MetricType implements ChronixType {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(MetricType.class);
 
+    /**
+     * The codec, the sorted flag and the number of points of the chunks, needed to decode them.
+     * The other statistics are only needed if the functions are answered from them.
+     */
+    private static final Set<String> REQUIRED_FIELDS;
+
+    static {
+        Set<String> fields = new HashSet<>();
+        fields.add(ChunkCodecs.FIELD);
+        fields.add(ChunkStatistics.SORTED);
+        fields.add(ChunkStatistics.COUNT);
+        REQUIRED_FIELDS = Collections.unmodifiableSet(fields);
+    }
+
     @Override
     public String getType() {
         return "metric";
@@ -53,6 +73,88 @@ public class MetricType implements ChronixType {
         return new ChronixMetricTimeSeries(metricTimeSeries);
     }
 
+    @Override
+    public Set<String> requiredFieldsForAggregations(Collection<ChronixAggregation> aggregations) {
+        if (!onlyStatisticsAggregations(aggregations)) {
+            return Collections.emptySet();
+        }
+        return ChunkStatistics.fieldsToMerge(containsApproxPercentile(aggregations));
+    }
+
+    @Override
+    public ChronixTimeSeries convertForAggregations(List<SolrDocument> records, long queryStart, long queryEnd, Collection<ChronixAggregation> aggregations) {
+        //we need all points
+        if (!onlyStatisticsAggregations(aggregations)) {
+            return convert(records, queryStart, queryEnd, true);
+        }
+        ChunkStatistics statistics = new ChunkStatistics(containsApproxPercentile(aggregations));
+        MetricTimeSeries metricTimeSeries = SolrDocumentBuilder.reduceDocumentToTimeSeries(queryStart, queryEnd, records, statistics);
+        return new ChronixMetricTimeSeries(metricTimeSeries, statistics);
+    }
+
+    @Override
+    public Set<String> requiredFieldsForTransformations(List<ChronixTransformation> transformations) {
+        if (!startsWithBucket(transformations)) {
+            return Collections.emptySet();
+        }
+        return ChunkStatistics.fieldsToMerge(false);
+    }
+
+    @Override
+    public ChronixTimeSeries convertForTransformations(List<SolrDocument> records, long queryStart, long queryEnd, List<ChronixTransformation> transformations) {
+        //only the bucket transformation can answer chunks from their statistics
+        if (!startsWithBucket(transformations)) {
+            return convert(records, queryStart, queryEnd, true);
+        }
+        BucketStatistics buckets = new BucketStatistics(((Bucket) transformations.get(0)).getInterval());
+        MetricTimeSeries metricTimeSeries = SolrDocumentBuilder.reduceDocumentToTimeSeries(queryStart, queryEnd, records, buckets);
+        return new ChronixMetricTimeSeries(metricTimeSeries, buckets);
+    }
+
+    /**
+     * @param aggregations the aggregations
+     * @return true if all aggregations can be answered from the statistics of the chunks
+     */
+    private static boolean onlyStatisticsAggregations(Collection<ChronixAggregation> aggregations) {
+        for (ChronixAggregation aggregation : aggregations) {
+            if (!(aggregation instanceof StatisticsAggregation)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param transformations the transformations in the order they are applied
+     * @return true if the first transformation is a bucket that can be answered from the statistics of the chunks
+     */
+    private static boolean startsWithBucket(List<ChronixTransformation> transformations) {
+        return !transformations.isEmpty() && transformations.get(0) instanceof Bucket;
+    }
+
+    /**
+     * @param aggregations the aggregations
+     * @return true if the statistics have to merge the percentile sketches of the chunks
+     */
+    static boolean containsApproxPercentile(Collection<ChronixAggregation> aggregations) {
+        for (ChronixAggregation aggregation : aggregations) {
+            if (aggregation instanceof ApproxPercentile) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public Set<String> requiredFields() {
+        return REQUIRED_FIELDS;
+    }
+
+    @Override
+    public Set<String> internalFields() {
+        return ChunkStatistics.FIELDS;
+    }
+
     @Override
     public ChronixFunction getFunction(String function, String[] args) {
 
@@ -81,6 +183,9 @@ public class MetricType implements ChronixType {
             case "sdiff":
                 return new SignedDifference();
             case "p":
+                if (ApproxPercentile.isRequested(args)) {
+                    return new ApproxPercentile(args);
+                }
                 return new Percentile(args);
             case "integral":
                 return new Integral();
@@ -113,9 +218,13 @@ public class MetricType implements ChronixType {
                 return new Timeshift(args);
             case "distinct":
                 return new Distinct();
+            case "bucket":
+                return new Bucket(args);
+            case "lttb":
+                return new Lttb(args);
             //Analyses
             case "outlier":
-                return new Outlier();
+                return new Outlier(args);
             case "frequency":
                 return new Frequency(args);
             case "fastdtw":
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.solr.type.metric;
+
+import de.qaware.chronix.converter.common.Compression;
+import de.qaware.chronix.converter.common.DoubleList;
+import de.qaware.chronix.converter.common.LongList;
+import de.qaware.chronix.converter.serializer.protobuf.ProtoBufMetricTimeSeriesSerializer;
+import de.qaware.chronix.timeseries.MetricTimeSeries;
+import de.qaware.chronix.timeseries.dts.Point;
+import org.apache.commons.io.IOUtils;
+
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * The gzip compressed protobuf format of the Chronix converter
+ */
+final class ProtoBufChunkCodec implements ChunkCodec {
+
+    @Override
+    public int id() {
+        return 0;
+    }
+
+    @Override
+    public String name() {
+        return "protobuf";
+    }
+
+    @Override
+    public byte[] encode(long[] timestamps, double[] values, int from, int to) {
+        return Compression.compress(ProtoBufMetricTimeSeriesSerializer.to(new Points(timestamps, values, from, to)));
+    }
+
+    @Override
+    public void decode(byte[] data, long chunkStart, long chunkEnd, long queryStart, long queryEnd, MetricTimeSeries.Builder timeSeries) {
+        InputStream decompressed = Compression.decompressToStream(data);
+        ProtoBufMetricTimeSeriesSerializer.from(decompressed, chunkStart, chunkEnd, queryStart, queryEnd, timeSeries);
+        IOUtils.closeQuietly(decompressed);
+    }
+
+    /**
+     * The serializer only decodes into a time series, hence the points are decoded into lists and passed on.
+     */
+    @Override
+    public void decode(byte[] data, long chunkStart, long chunkEnd, long queryStart, long queryEnd, PointSink points) {
+        LongList timestamps = new LongList();
+        DoubleList values = new DoubleList();
+        decode(data, chunkStart, chunkEnd, queryStart, queryEnd, new MetricTimeSeries.Builder("", "").points(timestamps, values));
+        for (int i = 0; i < timestamps.size(); i++) {
+            points.point(timestamps.get(i), values.get(i));
+        }
+    }
+
+    /**
+     * Iterates the points of a range of the arrays
+     */
+    private static final class Points implements Iterator<Point> {
+        private final long[] timestamps;
+        private final double[] values;
+        private final int from;
+        private final int to;
+        private int index;
+
+        private Points(long[] timestamps, double[] values, int from, int to) {
+            this.timestamps = timestamps;
+            this.values = values;
+            this.from = from;
+            this.to = to;
+            this.index = from;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return index < to;
+        }
+
+        @Override
+        public Point next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Point point = new Point(index - from, timestamps[index], values[index]);
+            index++;
+            return point;
+        }
+    }
+}
@@ -16,17 +16,16 @@
 package de.qaware.chronix.solr.type.metric;
 
 import de.qaware.chronix.Schema;
-import de.qaware.chronix.converter.common.Compression;
 import de.qaware.chronix.converter.common.DoubleList;
 import de.qaware.chronix.converter.common.LongList;
-import de.qaware.chronix.converter.serializer.protobuf.ProtoBufMetricTimeSeriesSerializer;
+import de.qaware.chronix.server.types.RecordCache;
 import de.qaware.chronix.timeseries.MetricTimeSeries;
-import org.apache.commons.io.IOUtils;
+import org.apache.lucene.util.Accountable;
 import org.apache.solr.common.SolrDocument;
 
-import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.function.Predicate;
 
 /**
  * Class to build documents using the given analysis or aggregation
@@ -35,6 +34,11 @@ import java.util.*;
  */
 public final class SolrDocumentBuilder {
 
+    /**
+     * The assumed amount of points of a document without statistics
+     */
+    private static final int DEFAULT_AMOUNT_OF_POINTS = 1000;
+    private static final int MAX_CAPACITY = Integer.MAX_VALUE - 8;
 
     private SolrDocumentBuilder() {
         //avoid instances
@@ -53,72 +57,266 @@ public final class SolrDocumentBuilder {
      * @return a metric time series that holds all the points
      */
     public static MetricTimeSeries reduceDocumentToTimeSeries(long queryStart, long queryEnd, List<SolrDocument> documents, boolean decompress) {
-        //Collect all document of a time series
+        return reduce(queryStart, queryEnd, documents, decompress, null);
+    }
+
+    /**
+     * Collects the documents into a single time series.
+     * Documents that lie completely within a single bucket and the query range and hold statistics are not decompressed.
+     * Their statistics are merged into the statistics of their bucket instead.
+     *
+     * @param queryStart the user query start
+     * @param queryEnd   the user query end
+     * @param documents  the lucene documents
+     * @param buckets    the statistics of the buckets to merge the statistics of the not decompressed documents into
+     * @return a metric time series that holds the points of the decompressed documents
+     */
+    public static MetricTimeSeries reduceDocumentToTimeSeries(long queryStart, long queryEnd, List<SolrDocument> documents, BucketStatistics buckets) {
+        return reduce(queryStart, queryEnd, documents, true, doc -> buckets.mergeIfCovered(doc, queryStart, queryEnd));
+    }
 
-        LongList timestamps = null;
-        DoubleList values = null;
+    /**
+     * Collects the documents into a single time series.
+     * Documents that lie completely within the query range and hold statistics are not decompressed.
+     * Their statistics are merged into the given statistics instead.
+     *
+     * @param queryStart the user query start
+     * @param queryEnd   the user query end
+     * @param documents  the lucene documents
+     * @param statistics the statistics to merge the statistics of the not decompressed documents into
+     * @return a metric time series that holds the points of the decompressed documents
+     */
+    public static MetricTimeSeries reduceDocumentToTimeSeries(long queryStart, long queryEnd, List<SolrDocument> documents, ChunkStatistics statistics) {
+        return reduce(queryStart, queryEnd, documents, true, doc -> statistics.mergeIfCovered(doc, queryStart, queryEnd));
+    }
+
+    private static MetricTimeSeries reduce(long queryStart, long queryEnd, List<SolrDocument> documents, boolean decompress, Predicate<SolrDocument> covered) {
+        //Collect all document of a time series
         Map<String, Object> attributes = new HashMap<>();
         String name = null;
         String type = null;
 
+        //we use the metric of the first time series.
+        //metric is the default join key.
+        if (!documents.isEmpty()) {
+            SolrDocument first = documents.get(0);
+            name = first.getFieldValue(Schema.NAME).toString();
+            type = first.getFieldValue(Schema.TYPE).toString();
+        }
+
+        //Decide which documents are decompressed and count their points
+        boolean[] decompressDocuments = new boolean[documents.size()];
+        long amountOfPoints = 0;
+        for (int record = 0; record < documents.size(); record++) {
+            SolrDocument doc = documents.get(record);
+            //the statistics of the document are sufficient, covered merges them
+            decompressDocuments[record] = decompress && (covered == null || !covered.test(doc));
+            if (decompressDocuments[record]) {
+                amountOfPoints += amountOfPoints(doc);
+            }
+        }
+
+        MetricTimeSeries.Builder timeSeries = new MetricTimeSeries.Builder(name, type);
+        //Performance optimization. The points are decoded into lists that are allocated only once.
+        if (amountOfPoints > 0) {
+            int capacity = (int) Math.min(amountOfPoints, MAX_CAPACITY);
+            timeSeries.points(new LongList(capacity), new DoubleList(capacity));
+        }
+
+        //the decoded chunks are cached if the records support it
+        RecordCache cache = documents instanceof RecordCache ? (RecordCache) documents : null;
+
+        //only if we decompress the data.
+        int[] records = recordsToDecode(decompressDocuments);
+        if (allSorted(documents, records)) {
+            decodeSorted(documents, records, cache, queryStart, queryEnd, timeSeries);
+        } else {
+            for (int record : records) {
+                decode(documents, record, cache, queryStart, queryEnd, timeSeries);
+            }
+        }
 
         for (SolrDocument doc : documents) {
-            MetricTimeSeries ts = convert(doc, queryStart, queryEnd, decompress);
-
-            //only if we decompress the data.
-            if (decompress) {
-                //Performance optimization. Avoiding fine grained growing.
-                if (timestamps == null) {
-                    int size = ts.size();
-                    if (size < 1000) {
-                        //well we have a small time series
-                        size = 1000;
-                    }
-                    int calcAmountOfPoints = documents.size() * size;
-                    timestamps = new LongList(calcAmountOfPoints);
-                    values = new DoubleList(calcAmountOfPoints);
-                }
+            merge(attributes, doc);
+        }
 
-                timestamps.addAll(ts.getTimestampsAsArray());
-                values.addAll(ts.getValuesAsArray());
+        return timeSeries
+                .attributes(attributes)
+                .build();
+    }
+
+    /**
+     * @param decompressDocuments marks the documents that are decompressed
+     * @return the positions of the documents to decompress
+     */
+    private static int[] recordsToDecode(boolean[] decompressDocuments) {
+        int[] records = new int[decompressDocuments.length];
+        int size = 0;
+        for (int record = 0; record < decompressDocuments.length; record++) {
+            if (decompressDocuments[record]) {
+                records[size++] = record;
             }
+        }
+        return Arrays.copyOf(records, size);
+    }
 
-            //we use the metric of the first time series.
-            //metric is the default join key.
-            if (name == null) {
-                name = ts.getName();
+    /**
+     * @param documents the lucene documents
+     * @param records   the positions of the documents to decompress
+     * @return true if the points of every document are flagged as sorted
+     */
+    private static boolean allSorted(List<SolrDocument> documents, int[] records) {
+        for (int record : records) {
+            if (!ChunkStatistics.isSorted(documents.get(record))) {
+                return false;
             }
+        }
+        return true;
+    }
 
-            if (type == null) {
-                type = ts.getType();
+    /**
+     * Decodes sorted chunks into a sorted time series.
+     * The chunks are ordered by their start. Chunks that do not overlap their predecessors are appended directly.
+     * A run of overlapping chunks is merged with a k-way merge.
+     * Hence the points of the time series are sorted and a later sort does not have to reorder them.
+     *
+     * @param documents  the lucene documents
+     * @param records    the positions of the documents to decompress, all flagged as sorted
+     * @param cache      the cache of the decoded records, may be null
+     * @param queryStart the query start
+     * @param queryEnd   the query end
+     * @param timeSeries the time series to add the points to
+     */
+    private static void decodeSorted(List<SolrDocument> documents, int[] records, RecordCache cache,
+                                     long queryStart, long queryEnd, MetricTimeSeries.Builder timeSeries) {
+        int size = records.length;
+        int[] byStart = records.clone();
+        long[] starts = new long[size];
+        long[] ends = new long[size];
+        for (int i = 0; i < size; i++) {
+            SolrDocument doc = documents.get(byStart[i]);
+            starts[i] = (long) doc.getFieldValue(Schema.START);
+            ends[i] = (long) doc.getFieldValue(Schema.END);
+        }
+
+        //insertion sort, the chunks are few and usually already in order
+        for (int i = 1; i < size; i++) {
+            int record = byStart[i];
+            long start = starts[i];
+            long end = ends[i];
+            int j = i - 1;
+            while (j >= 0 && starts[j] > start) {
+                byStart[j + 1] = byStart[j];
+                starts[j + 1] = starts[j];
+                ends[j + 1] = ends[j];
+                j--;
+            }
+            byStart[j + 1] = record;
+            starts[j + 1] = start;
+            ends[j + 1] = end;
+        }
+
+        int from = 0;
+        while (from < size) {
+            //the run of chunks that overlap the chunks before them
+            int to = from + 1;
+            long runEnd = ends[from];
+            while (to < size && starts[to] <= runEnd) {
+                runEnd = Math.max(runEnd, ends[to]);
+                to++;
             }
 
-            merge(attributes, ts.getAttributesReference());
+            if (to - from == 1) {
+                decode(documents, byStart[from], cache, queryStart, queryEnd, timeSeries);
+            } else {
+                DecodedChunk[] run = new DecodedChunk[to - from];
+                for (int i = from; i < to; i++) {
+                    run[i - from] = decodedChunk(cache, byStart[i], documents.get(byStart[i]));
+                }
+                DecodedChunk.merge(run, timeSeries, queryStart, queryEnd);
+            }
+            from = to;
         }
+    }
 
-        return new MetricTimeSeries.Builder(name, type)
-                .points(timestamps, values)
-                .attributes(attributes)
-                .build();
+    /**
+     * Decodes the points of a record within the query range into the time series.
+     * Uses the decoded chunk of the cache if there is one.
+     *
+     * @param documents  the lucene documents
+     * @param record     the position of the record
+     * @param cache      the cache of the decoded records, may be null
+     * @param queryStart the query start
+     * @param queryEnd   the query end
+     * @param timeSeries the time series to add the points to
+     */
+    private static void decode(List<SolrDocument> documents, int record, RecordCache cache,
+                               long queryStart, long queryEnd, MetricTimeSeries.Builder timeSeries) {
+        SolrDocument doc = documents.get(record);
+        if (cache != null) {
+            decodedChunk(cache, record, doc).addTo(timeSeries, queryStart, queryEnd);
+        } else {
+            decode(doc, queryStart, queryEnd, timeSeries);
+        }
+    }
+
+    /**
+     * @param doc the lucene document
+     * @return the amount of points of the document
+     */
+    private static long amountOfPoints(SolrDocument doc) {
+        Object count = doc.getFieldValue(ChunkStatistics.COUNT);
+        if (count instanceof Number) {
+            return ((Number) count).longValue();
+        }
+        //documents without statistics
+        return DEFAULT_AMOUNT_OF_POINTS;
     }
 
     /**
-     * Merges to sets of time series attributes.
+     * Gets the decoded chunk of the record from the cache.
+     * If the chunk is not cached, it is decoded and put into the cache.
+     *
+     * @param cache  the cache of the decoded records, may be null
+     * @param record the position of the record
+     * @param doc    the lucene document of the record
+     * @return the decoded chunk
+     */
+    private static DecodedChunk decodedChunk(RecordCache cache, int record, SolrDocument doc) {
+        Accountable cached = cache != null ? cache.getDecoded(record) : null;
+        if (cached instanceof DecodedChunk) {
+            return (DecodedChunk) cached;
+        }
+        long tsStart = (long) doc.getFieldValue(Schema.START);
+        long tsEnd = (long) doc.getFieldValue(Schema.END);
+        byte[] data = ((ByteBuffer) doc.getFieldValue(Schema.DATA)).array();
+        int expectedSize = (int) Math.min(amountOfPoints(doc), MAX_CAPACITY);
+
+        DecodedChunk chunk = DecodedChunk.decode(codec(doc), data, tsStart, tsEnd, expectedSize);
+        if (cache != null) {
+            cache.putDecoded(record, chunk);
+        }
+        return chunk;
+    }
+
+    /**
+     * Merges the attributes of a document into the merged time series attributes.
      * The result is set for each key holding the values.
      * If the other value is a collection, than all values
      * of the collection are added instead of the collection object.
+     * Only the fields that are loaded are merged. Hence the merge is skipped if the user has not requested attributes.
      *
-     * @param merged     the merged attributes
-     * @param attributes the attributes of the other time series
+     * @param merged the merged attributes
+     * @param doc    the lucene document
      */
-    private static void merge(Map<String, Object> merged, Map<String, Object> attributes) {
+    private static void merge(Map<String, Object> merged, SolrDocument doc) {
 
-        for (HashMap.Entry<String, Object> newEntry : attributes.entrySet()) {
+        for (Map.Entry<String, Object> field : doc) {
 
-            String key = newEntry.getKey();
+            String key = field.getKey();
 
-            //we ignore the version in the result
-            if (key.equals("_version_")) {
+            //we ignore the version and the chronix fields in the result
+            if (!isAttribute(key)) {
                 continue;
             }
 
@@ -127,7 +325,10 @@ public final class SolrDocumentBuilder {
             }
 
             LinkedHashSet values = (LinkedHashSet) merged.get(key);
-            Object value = newEntry.getValue();
+            Object value = field.getValue();
+            if (value instanceof ByteBuffer) {
+                value = ((ByteBuffer) value).array();
+            }
 
             //Check if the value is a collection.
             //If it is a collection we add all values instead of adding a collection object
@@ -142,44 +343,34 @@ public final class SolrDocumentBuilder {
     }
 
     /**
-     * Converts the given solr document in a metric time series
+     * @param field the name of a document field
+     * @return true if the field is a user defined attribute
+     */
+    private static boolean isAttribute(String field) {
+        return Schema.isUserDefined(field) && !ChunkStatistics.isStatisticsField(field)
+                && !ChunkCodecs.FIELD.equals(field) && !"_version_".equals(field);
+    }
+
+    /**
+     * Decodes the points of the given solr document within the query range into the time series
      *
      * @param doc        the lucene document
      * @param queryStart the query start
      * @param queryEnd   the query end
-     * @param decompress marks if the data is requested and hence we have to decompress it or not
-     * @return a metric time series
+     * @param timeSeries the time series to add the points to
      */
-    private static MetricTimeSeries convert(SolrDocument doc, long queryStart, long queryEnd, boolean decompress) {
-
-
+    private static void decode(SolrDocument doc, long queryStart, long queryEnd, MetricTimeSeries.Builder timeSeries) {
         long tsStart = (long) doc.getFieldValue(Schema.START);
         long tsEnd = (long) doc.getFieldValue(Schema.END);
         byte[] data = ((ByteBuffer) doc.getFieldValue(Schema.DATA)).array();
-
-        String name = doc.getFieldValue(Schema.NAME).toString();
-        String type = doc.getFieldValue(Schema.TYPE).toString();
-
-        MetricTimeSeries.Builder ts = new MetricTimeSeries.Builder(name, type);
-
-        for (Map.Entry<String, Object> field : doc) {
-            if (Schema.isUserDefined(field.getKey())) {
-                if (field.getValue() instanceof ByteBuffer) {
-                    ts.attribute(field.getKey(), ((ByteBuffer) field.getValue()).array());
-                } else {
-                    ts.attribute(field.getKey(), field.getValue());
-                }
-
-            }
-        }
-        //No data is requested, hence we do not decompress it
-        if (decompress) {
-            InputStream decompressed = Compression.decompressToStream(data);
-            ProtoBufMetricTimeSeriesSerializer.from(decompressed, tsStart, tsEnd, queryStart, queryEnd, ts);
-            IOUtils.closeQuietly(decompressed);
-        }
-        return ts.build();
+        codec(doc).decode(data, tsStart, tsEnd, queryStart, queryEnd, timeSeries);
     }
 
-
+    /**
+     * @param doc the lucene document
+     * @return the codec of the document's data
+     */
+    private static ChunkCodec codec(SolrDocument doc) {
+        return ChunkCodecs.ofField(doc.getFieldValue(ChunkCodecs.FIELD));
+    }
 }
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.solr.type.metric;
+
+import de.qaware.chronix.timeseries.MetricTimeSeries;
+
+/**
+ * Checks and establishes the order of the points of a time series.
+ * <p>
+ * {@link MetricTimeSeries#sort()} always sorts, even if the points are already sorted. The ingestion sorts the chunks
+ * (see {@link DuplicatePolicy}) and the query decodes sorted chunks in order, hence most time series are sorted and
+ * a single pass is enough to find out.
+ */
+public final class TimeSeriesOrder {
+
+    private TimeSeriesOrder() {
+        //avoid instances
+    }
+
+    /**
+     * Sorts the points of the time series by their timestamps, unless they are already sorted.
+     *
+     * @param timeSeries the time series
+     */
+    public static void sort(MetricTimeSeries timeSeries) {
+        if (!isSorted(timeSeries)) {
+            timeSeries.sort();
+        }
+    }
+
+    /**
+     * @param timeSeries the time series
+     * @return true if the timestamps are not decreasing
+     */
+    public static boolean isSorted(MetricTimeSeries timeSeries) {
+        int size = timeSeries.size();
+        for (int i = 1; i < size; i++) {
+            if (timeSeries.getTime(i) < timeSeries.getTime(i - 1)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param timeSeries the time series
+     * @return true if the timestamps are strictly increasing, i.e. sorted without duplicates
+     */
+    public static boolean isSortedAndUnique(MetricTimeSeries timeSeries) {
+        int size = timeSeries.size();
+        for (int i = 1; i < size; i++) {
+            if (timeSeries.getTime(i) <= timeSeries.getTime(i - 1)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param timestamps the timestamps
+     * @param from       the first position
+     * @param to         the end of the positions (exclusive)
+     * @return true if the timestamps between from and to are strictly increasing, i.e. sorted without duplicates
+     */
+    static boolean isSortedAndUnique(long[] timestamps, int from, int to) {
+        for (int i = from + 1; i < to; i++) {
+            if (timestamps[i] <= timestamps[i - 1]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Sorts the positions of the timestamps. Points with the same timestamp keep their order.
+     *
+     * @param timestamps the timestamps
+     * @return the positions of the timestamps in ascending order of the timestamps
+     */
+    static int[] stableOrder(long[] timestamps) {
+        return stableOrder(timestamps, 0, timestamps.length);
+    }
+
+    /**
+     * Sorts the positions of the timestamps between start and end. Points with the same timestamp keep their order.
+     *
+     * @param timestamps the timestamps
+     * @param start      the first position
+     * @param end        the end of the positions (exclusive)
+     * @return the positions of the timestamps in ascending order of the timestamps
+     */
+    static int[] stableOrder(long[] timestamps, int start, int end) {
+        int size = end - start;
+        int[] order = new int[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = start + i;
+        }
+
+        //bottom up merge sort on the positions, takes from the left run unless the right one is strictly smaller
+        int[] buffer = new int[size];
+        for (int width = 1; width < size; width *= 2) {
+            for (int from = 0; from < size; from += 2 * width) {
+                int middle = Math.min(from + width, size);
+                int to = Math.min(from + 2 * width, size);
+                int left = from;
+                int right = middle;
+                int target = from;
+                while (left < middle && right < to) {
+                    buffer[target++] = timestamps[order[right]] < timestamps[order[left]] ? order[right++] : order[left++];
+                }
+                System.arraycopy(order, left, buffer, target, middle - left);
+                target += middle - left;
+                System.arraycopy(order, right, buffer, target, to - right);
+            }
+            int[] swap = order;
+            order = buffer;
+            buffer = swap;
+        }
+        return order;
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.solr.type.metric.functions.aggregations;
+
+import de.qaware.chronix.server.functions.FunctionValueMap;
+import de.qaware.chronix.solr.type.metric.ChunkStatistics;
+import de.qaware.chronix.solr.type.metric.functions.math.QuantileSketch;
+import de.qaware.chronix.timeseries.MetricTimeSeries;
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+/**
+ * Approximated percentile aggregation, e.g. p:0.99,approx.
+ * The percentile is answered from a sketch with a relative error of at most 1%.
+ * The sketches of chunks within the query range are merged without decompressing the chunks.
+ */
+public final class ApproxPercentile implements StatisticsAggregation {
+
+    /**
+     * The argument that requests the approximation
+     */
+    public static final String APPROX = "approx";
+
+    private final double percentile;
+
+    /**
+     * Constructs an approximated percentile aggregation
+     *
+     * @param args the function arguments, e.g. the percentile [0.0 ... 1.0] and approx
+     */
+    public ApproxPercentile(String[] args) {
+        this.percentile = Double.parseDouble(args[0]);
+    }
+
+    /**
+     * @param args the function arguments of a percentile
+     * @return true if the approximation is requested
+     */
+    public static boolean isRequested(String[] args) {
+        return args.length > 1 && APPROX.equals(args[1].trim());
+    }
+
+    /**
+     * Approximates the percentile of the time series in a single pass.
+     *
+     * @param timeSeries       the time series
+     * @param functionValueMap the function value map to add the result
+     */
+    @Override
+    public void execute(MetricTimeSeries timeSeries, FunctionValueMap functionValueMap) {
+        functionValueMap.add(this, QuantileSketch.of(timeSeries.getValues()).quantile(percentile));
+    }
+
+    /**
+     * Approximates the percentile from the merged sketch of the statistics.
+     * Adds NaN if the statistics don't track a sketch, see {@link #isAnsweredBy(ChunkStatistics)}.
+     *
+     * @param statistics       the statistics of all points in the query range
+     * @param functionValueMap the function value map to add the result
+     */
+    @Override
+    public void execute(ChunkStatistics statistics, FunctionValueMap functionValueMap) {
+        QuantileSketch sketch = statistics.getSketch();
+        functionValueMap.add(this, sketch == null ? Double.NaN : sketch.quantile(percentile));
+    }
+
+    @Override
+    public boolean isAnsweredBy(ChunkStatistics statistics) {
+        return statistics.getSketch() != null;
+    }
+
+    @Override
+    public String[] getArguments() {
+        return new String[]{"percentile=" + percentile, APPROX};
+    }
+
+    @Override
+    public String getQueryName() {
+        return "p";
+    }
+
+    @Override
+    public String getTimeSeriesType() {
+        return "metric";
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == null) {
+            return false;
+        }
+        if (obj == this) {
+            return true;
+        }
+        if (obj.getClass() != getClass()) {
+            return false;
+        }
+        ApproxPercentile rhs = (ApproxPercentile) obj;
+        return new EqualsBuilder()
+                .append(this.percentile, rhs.percentile)
+                .isEquals();
+    }
+
+    @Override
+    public int hashCode() {
+        return new HashCodeBuilder()
+                .append(percentile)
+                .toHashCode();
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this)
+                .append("percentile", percentile)
+                .append("approx", true)
+                .toString();
+    }
+}
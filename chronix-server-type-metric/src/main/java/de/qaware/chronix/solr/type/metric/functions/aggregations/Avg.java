@@ -15,8 +15,8 @@
  */
 package de.qaware.chronix.solr.type.metric.functions.aggregations;
 
-import de.qaware.chronix.server.functions.ChronixAggregation;
 import de.qaware.chronix.server.functions.FunctionValueMap;
+import de.qaware.chronix.solr.type.metric.ChunkStatistics;
 import de.qaware.chronix.timeseries.MetricTimeSeries;
 import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
@@ -24,7 +24,7 @@ import org.apache.commons.lang3.builder.HashCodeBuilder;
 /**
  * @author f.lautenschlager
  */
-public final class Avg implements ChronixAggregation<MetricTimeSeries> {
+public final class Avg implements StatisticsAggregation {
 
     @Override
     public void execute(MetricTimeSeries timeSeries, FunctionValueMap functionValueMap) {
@@ -44,6 +44,16 @@ public final class Avg implements ChronixAggregation<MetricTimeSeries> {
         functionValueMap.add(this, current / timeSeries.size());
     }
 
+    @Override
+    public void execute(ChunkStatistics statistics, FunctionValueMap functionValueMap) {
+        //If it is empty, we return NaN
+        if (statistics.getCount() <= 0) {
+            functionValueMap.add(this, Double.NaN);
+            return;
+        }
+        functionValueMap.add(this, statistics.getSum() / statistics.getCount());
+    }
+
     @Override
     public String getQueryName() {
         return "avg";
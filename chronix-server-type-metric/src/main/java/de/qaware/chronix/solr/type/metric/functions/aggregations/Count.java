@@ -15,8 +15,8 @@
  */
 package de.qaware.chronix.solr.type.metric.functions.aggregations;
 
-import de.qaware.chronix.server.functions.ChronixAggregation;
 import de.qaware.chronix.server.functions.FunctionValueMap;
+import de.qaware.chronix.solr.type.metric.ChunkStatistics;
 import de.qaware.chronix.timeseries.MetricTimeSeries;
 import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
@@ -26,7 +26,7 @@ import org.apache.commons.lang3.builder.HashCodeBuilder;
  *
  * @author f.lautenschlager
  */
-public final class Count implements ChronixAggregation<MetricTimeSeries> {
+public final class Count implements StatisticsAggregation {
 
 
     @Override
@@ -34,6 +34,11 @@ public final class Count implements ChronixAggregation<MetricTimeSeries> {
         functionValueMap.add(this, timeSeries.size());
     }
 
+    @Override
+    public void execute(ChunkStatistics statistics, FunctionValueMap functionValueMap) {
+        functionValueMap.add(this, statistics.getCount());
+    }
+
     @Override
     public String getQueryName() {
         return "count";
@@ -15,8 +15,9 @@
  */
 package de.qaware.chronix.solr.type.metric.functions.aggregations;
 
-import de.qaware.chronix.server.functions.ChronixAggregation;
 import de.qaware.chronix.server.functions.FunctionValueMap;
+import de.qaware.chronix.solr.type.metric.ChunkStatistics;
+import de.qaware.chronix.solr.type.metric.TimeSeriesOrder;
 import de.qaware.chronix.timeseries.MetricTimeSeries;
 import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
@@ -24,7 +25,7 @@ import org.apache.commons.lang3.builder.HashCodeBuilder;
 /**
  * @author f.lautenschlager
  */
-public final class Last implements ChronixAggregation<MetricTimeSeries> {
+public final class Last implements StatisticsAggregation {
 
     /**
      * Gets the last value in the time series.
@@ -42,10 +43,15 @@ public final class Last implements ChronixAggregation<MetricTimeSeries> {
         }
 
         //We need to sort the time series
-        timeSeries.sort();
+        TimeSeriesOrder.sort(timeSeries);
         functionValueMap.add(this, timeSeries.getValue(timeSeries.size() - 1));
     }
 
+    @Override
+    public void execute(ChunkStatistics statistics, FunctionValueMap functionValueMap) {
+        functionValueMap.add(this, statistics.getLast());
+    }
+
     @Override
     public String getQueryName() {
         return "last";
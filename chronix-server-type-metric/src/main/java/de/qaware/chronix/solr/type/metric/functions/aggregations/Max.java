@@ -15,8 +15,8 @@
  */
 package de.qaware.chronix.solr.type.metric.functions.aggregations;
 
-import de.qaware.chronix.server.functions.ChronixAggregation;
 import de.qaware.chronix.server.functions.FunctionValueMap;
+import de.qaware.chronix.solr.type.metric.ChunkStatistics;
 import de.qaware.chronix.timeseries.MetricTimeSeries;
 import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
@@ -26,7 +26,7 @@ import org.apache.commons.lang3.builder.HashCodeBuilder;
  *
  * @author f.lautenschlager
  */
-public final class Max implements ChronixAggregation<MetricTimeSeries> {
+public final class Max implements StatisticsAggregation {
 
     /**
      * Calculates the maximum value of the first time series.
@@ -55,6 +55,11 @@ public final class Max implements ChronixAggregation<MetricTimeSeries> {
         functionValueMap.add(this, max);
     }
 
+    @Override
+    public void execute(ChunkStatistics statistics, FunctionValueMap functionValueMap) {
+        functionValueMap.add(this, statistics.getMax());
+    }
+
     @Override
     public String getQueryName() {
         return "max";
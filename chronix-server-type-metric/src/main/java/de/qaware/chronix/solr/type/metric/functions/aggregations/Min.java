@@ -15,8 +15,8 @@
  */
 package de.qaware.chronix.solr.type.metric.functions.aggregations;
 
-import de.qaware.chronix.server.functions.ChronixAggregation;
 import de.qaware.chronix.server.functions.FunctionValueMap;
+import de.qaware.chronix.solr.type.metric.ChunkStatistics;
 import de.qaware.chronix.timeseries.MetricTimeSeries;
 import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
@@ -26,7 +26,7 @@ import org.apache.commons.lang3.builder.HashCodeBuilder;
  *
  * @author f.lautenschlager
  */
-public class Min implements ChronixAggregation<MetricTimeSeries> {
+public class Min implements StatisticsAggregation {
 
     /**
      * Calculates the minimum value of the first time series.
@@ -55,6 +55,11 @@ public class Min implements ChronixAggregation<MetricTimeSeries> {
         functionValueMap.add(this, min);
     }
 
+    @Override
+    public void execute(ChunkStatistics statistics, FunctionValueMap functionValueMap) {
+        functionValueMap.add(this, statistics.getMin());
+    }
+
     @Override
     public String getQueryName() {
         return "min";
@@ -59,6 +59,20 @@ public final class Percentile implements ChronixAggregation<MetricTimeSeries> {
         functionValueMap.add(this, de.qaware.chronix.solr.type.metric.functions.math.Percentile.evaluate(timeSeries.getValues(), percentile));
     }
 
+    /**
+     * Calculates the percentile of values that are already sorted.
+     *
+     * @param sortedValues     the sorted values of the time series
+     * @param functionValueMap the function value map to add the result
+     */
+    public void execute(double[] sortedValues, FunctionValueMap functionValueMap) {
+        if (sortedValues.length == 0) {
+            functionValueMap.add(this, Double.NaN);
+            return;
+        }
+        functionValueMap.add(this, de.qaware.chronix.solr.type.metric.functions.math.Percentile.evaluateSorted(sortedValues, percentile));
+    }
+
     @Override
     public String[] getArguments() {
         return new String[]{"percentile=" + percentile};
@@ -15,8 +15,8 @@
  */
 package de.qaware.chronix.solr.type.metric.functions.aggregations;
 
-import de.qaware.chronix.server.functions.ChronixAggregation;
 import de.qaware.chronix.server.functions.FunctionValueMap;
+import de.qaware.chronix.solr.type.metric.ChunkStatistics;
 import de.qaware.chronix.timeseries.MetricTimeSeries;
 import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
@@ -26,7 +26,7 @@ import org.apache.commons.lang3.builder.HashCodeBuilder;
  *
  * @author f.lautenschlager
  */
-public final class Range implements ChronixAggregation<MetricTimeSeries> {
+public final class Range implements StatisticsAggregation {
 
     /**
      * Gets difference between the maximum and the minimum value.
@@ -65,6 +65,16 @@ public final class Range implements ChronixAggregation<MetricTimeSeries> {
         functionValueMap.add(this, Math.abs(max - min));
     }
 
+    @Override
+    public void execute(ChunkStatistics statistics, FunctionValueMap functionValueMap) {
+        //If it is empty, we return NaN
+        if (statistics.getCount() <= 0) {
+            functionValueMap.add(this, Double.NaN);
+            return;
+        }
+        functionValueMap.add(this, Math.abs(statistics.getMax() - statistics.getMin()));
+    }
+
     @Override
     public String getQueryName() {
         return "range";
@@ -17,6 +17,7 @@ package de.qaware.chronix.solr.type.metric.functions.aggregations;
 
 import de.qaware.chronix.server.functions.ChronixAggregation;
 import de.qaware.chronix.server.functions.FunctionValueMap;
+import de.qaware.chronix.solr.type.metric.TimeSeriesOrder;
 import de.qaware.chronix.timeseries.MetricTimeSeries;
 import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
@@ -44,7 +45,7 @@ public final class SignedDifference implements ChronixAggregation<MetricTimeSeri
         }
 
         //we need to sort the time series
-        timeSeries.sort();
+        TimeSeriesOrder.sort(timeSeries);
         //get the first and the last value
         double first = timeSeries.getValue(0);
         double last = timeSeries.getValue(timeSeries.size() - 1);
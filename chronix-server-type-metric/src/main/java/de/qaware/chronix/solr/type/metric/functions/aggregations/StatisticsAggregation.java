@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.solr.type.metric.functions.aggregations;
+
+import de.qaware.chronix.server.functions.ChronixAggregation;
+import de.qaware.chronix.server.functions.FunctionValueMap;
+import de.qaware.chronix.solr.type.metric.ChunkStatistics;
+import de.qaware.chronix.timeseries.MetricTimeSeries;
+
+/**
+ * An aggregation that can also be answered from the summary statistics of the chunks.
+ */
+public interface StatisticsAggregation extends ChronixAggregation<MetricTimeSeries> {
+
+    /**
+     * Executes the aggregation on the merged statistics of the chunks
+     *
+     * @param statistics       the statistics of all points in the query range
+     * @param functionValueMap the function value map to add the result
+     */
+    void execute(ChunkStatistics statistics, FunctionValueMap functionValueMap);
+
+    /**
+     * @param statistics the statistics of all points in the query range
+     * @return true if the statistics hold what the aggregation needs, otherwise it is executed on the points
+     */
+    default boolean isAnsweredBy(ChunkStatistics statistics) {
+        return true;
+    }
+}
@@ -15,8 +15,8 @@
  */
 package de.qaware.chronix.solr.type.metric.functions.aggregations;
 
-import de.qaware.chronix.server.functions.ChronixAggregation;
 import de.qaware.chronix.server.functions.FunctionValueMap;
+import de.qaware.chronix.solr.type.metric.ChunkStatistics;
 import de.qaware.chronix.timeseries.MetricTimeSeries;
 import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
@@ -26,7 +26,7 @@ import org.apache.commons.lang3.builder.HashCodeBuilder;
  *
  * @author f.lautenschlager
  */
-public final class StdDev implements ChronixAggregation<MetricTimeSeries> {
+public final class StdDev implements StatisticsAggregation {
     /**
      * Calculates the standard deviation of the first time series.
      *
@@ -44,6 +44,16 @@ public final class StdDev implements ChronixAggregation<MetricTimeSeries> {
         functionValueMap.add(this, de.qaware.chronix.solr.type.metric.functions.math.StdDev.dev(timeSeries.getValues()));
     }
 
+    @Override
+    public void execute(ChunkStatistics statistics, FunctionValueMap functionValueMap) {
+        //If it is empty or has a single value, we return NaN
+        if (statistics.getCount() <= 1) {
+            functionValueMap.add(this, Double.NaN);
+            return;
+        }
+        functionValueMap.add(this, Math.sqrt(statistics.getVariance()));
+    }
+
     @Override
     public String getQueryName() {
         return "dev";
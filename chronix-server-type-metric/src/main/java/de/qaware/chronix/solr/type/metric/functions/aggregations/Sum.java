@@ -15,8 +15,8 @@
  */
 package de.qaware.chronix.solr.type.metric.functions.aggregations;
 
-import de.qaware.chronix.server.functions.ChronixAggregation;
 import de.qaware.chronix.server.functions.FunctionValueMap;
+import de.qaware.chronix.solr.type.metric.ChunkStatistics;
 import de.qaware.chronix.timeseries.MetricTimeSeries;
 import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
@@ -26,7 +26,7 @@ import org.apache.commons.lang3.builder.HashCodeBuilder;
  *
  * @author f.lautenschlager
  */
-public final class Sum implements ChronixAggregation<MetricTimeSeries> {
+public final class Sum implements StatisticsAggregation {
     /**
      * Calculates the sum of the values of the given time series
      *
@@ -45,14 +45,23 @@ public final class Sum implements ChronixAggregation<MetricTimeSeries> {
         int size = timeSeries.size();
         double sum = 0;
         //Sum up the single values
-        for (int i = 1; i < size; i++) {
+        for (int i = 0; i < size; i++) {
             sum += timeSeries.getValue(i);
-
         }
         //return it
         functionValueMap.add(this, sum);
     }
 
+    @Override
+    public void execute(ChunkStatistics statistics, FunctionValueMap functionValueMap) {
+        //If it is empty, we return NaN
+        if (statistics.getCount() <= 0) {
+            functionValueMap.add(this, Double.NaN);
+            return;
+        }
+        functionValueMap.add(this, statistics.getSum());
+    }
+
     @Override
     public String getQueryName() {
         return "sum";
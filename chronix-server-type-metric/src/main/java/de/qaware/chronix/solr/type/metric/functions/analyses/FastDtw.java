@@ -22,6 +22,7 @@ import de.qaware.chronix.dtw.FastDTW;
 import de.qaware.chronix.dtw.TimeWarpInfo;
 import de.qaware.chronix.server.functions.ChronixPairAnalysis;
 import de.qaware.chronix.server.functions.FunctionValueMap;
+import de.qaware.chronix.solr.type.metric.TimeSeriesOrder;
 import de.qaware.chronix.timeseries.MetricTimeSeries;
 import de.qaware.chronix.timeseries.MultivariateTimeSeries;
 import org.apache.commons.lang3.builder.EqualsBuilder;
@@ -83,7 +84,7 @@ public final class FastDtw implements ChronixPairAnalysis<Pair<MetricTimeSeries,
 
         if (timeSeries.size() > 0) {
             //First sort the values
-            timeSeries.sort();
+            TimeSeriesOrder.sort(timeSeries);
 
             long formerTimestamp = timeSeries.getTime(0);
             double formerValue = timeSeries.getValue(0);
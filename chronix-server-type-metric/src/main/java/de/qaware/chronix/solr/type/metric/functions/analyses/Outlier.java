@@ -19,10 +19,13 @@ import de.qaware.chronix.converter.common.DoubleList;
 import de.qaware.chronix.server.functions.ChronixAnalysis;
 import de.qaware.chronix.server.functions.FunctionValueMap;
 import de.qaware.chronix.solr.type.metric.functions.math.Percentile;
+import de.qaware.chronix.solr.type.metric.functions.math.QuantileSketch;
 import de.qaware.chronix.timeseries.MetricTimeSeries;
 import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
 
+import java.util.Arrays;
+
 /**
  * The outlier analysis
  *
@@ -30,6 +33,25 @@ import org.apache.commons.lang3.builder.HashCodeBuilder;
  */
 public class Outlier implements ChronixAnalysis<MetricTimeSeries> {
 
+    private static final String APPROX = "approx";
+
+    private final boolean approx;
+
+    /**
+     * Constructs an outlier analysis with exact percentiles
+     */
+    public Outlier() {
+        this(new String[0]);
+    }
+
+    /**
+     * Constructs an outlier analysis
+     *
+     * @param args the function arguments, approx to approximate the percentiles in a single pass
+     */
+    public Outlier(String[] args) {
+        this.approx = args.length > 0 && APPROX.equals(args[0].trim());
+    }
 
     /**
      * Detects outliers using the default box plot implementation.
@@ -47,8 +69,18 @@ public class Outlier implements ChronixAnalysis<MetricTimeSeries> {
 
         DoubleList points = timeSeries.getValues();
         //Calculate the percentiles
-        double q1 = Percentile.evaluate(points, .25);
-        double q3 = Percentile.evaluate(points, .75);
+        double q1;
+        double q3;
+        if (approx) {
+            QuantileSketch sketch = QuantileSketch.of(points);
+            q1 = sketch.quantile(.25);
+            q3 = sketch.quantile(.75);
+        } else {
+            double[] sorted = points.toArray();
+            Arrays.sort(sorted);
+            q1 = Percentile.evaluateSorted(sorted, .25);
+            q3 = Percentile.evaluateSorted(sorted, .75);
+        }
         //Calculate the threshold
         double threshold = (q3 - q1) * 1.5 + q3;
         //filter the values, if one outlier is found, we can return
@@ -63,6 +95,14 @@ public class Outlier implements ChronixAnalysis<MetricTimeSeries> {
     }
 
 
+    @Override
+    public String[] getArguments() {
+        if (approx) {
+            return new String[]{APPROX};
+        }
+        return new String[0];
+    }
+
     @Override
     public String getQueryName() {
         return "outlier";
@@ -86,13 +126,16 @@ public class Outlier implements ChronixAnalysis<MetricTimeSeries> {
         if (obj.getClass() != getClass()) {
             return false;
         }
+        Outlier rhs = (Outlier) obj;
         return new EqualsBuilder()
+                .append(this.approx, rhs.approx)
                 .isEquals();
     }
 
     @Override
     public int hashCode() {
         return new HashCodeBuilder()
+                .append(approx)
                 .toHashCode();
     }
 }
@@ -17,6 +17,7 @@ package de.qaware.chronix.solr.type.metric.functions.analyses;
 
 import de.qaware.chronix.server.functions.ChronixAnalysis;
 import de.qaware.chronix.server.functions.FunctionValueMap;
+import de.qaware.chronix.solr.type.metric.TimeSeriesOrder;
 import de.qaware.chronix.solr.type.metric.functions.math.LinearRegression;
 import de.qaware.chronix.timeseries.MetricTimeSeries;
 import org.apache.commons.lang3.builder.EqualsBuilder;
@@ -39,7 +40,7 @@ public final class Trend implements ChronixAnalysis<MetricTimeSeries> {
     public void execute(MetricTimeSeries timeSeries, FunctionValueMap functionValueMap) {
 
         //We need to sort the time series for this analysis
-        timeSeries.sort();
+        TimeSeriesOrder.sort(timeSeries);
         //Calculate the linear regression
         LinearRegression linearRegression = new LinearRegression(timeSeries.getTimestamps(), timeSeries.getValues());
         double slope = linearRegression.slope();
@@ -56,10 +56,18 @@ public final class Percentile {
         double[] doubles = values.toArray();
         Arrays.sort(doubles);
 
-        return evaluateForDoubles(doubles, percentile);
+        return evaluateSorted(doubles, percentile);
     }
 
-    private static double evaluateForDoubles(double[] points, double percentile) {
+    /**
+     * Evaluates the percentile on values that are already sorted ascending.
+     * Several percentiles of the same values can share a single sort.
+     *
+     * @param points     - the sorted values, must not be empty
+     * @param percentile - the percentile (0 - 1), e.g. 0.25
+     * @return the value of the n-th percentile
+     */
+    public static double evaluateSorted(double[] points, double percentile) {
         //For example:
         //values    = [1,2,2,3,3,3,4,5,6], size = 9, percentile (e.g. 0.25)
         // size - 1 = 8 * 0.25 = 2 (~ 25% from 9) + 1 = 3 => values[3] => 2
@@ -0,0 +1,360 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.solr.type.metric.functions.math;
+
+import de.qaware.chronix.converter.common.DoubleList;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * A mergeable sketch to approximate percentiles in a single pass (similar to DDSketch).
+ * <p>
+ * The values are counted in buckets whose bounds grow logarithmically. Every percentile is answered with a
+ * relative error of at most the relative accuracy of the sketch (1% by default) regardless of the number of values.
+ * Sketches of different chunks can be merged without the points of the chunks.
+ * Values that are not finite are ignored.
+ */
+public final class QuantileSketch {
+
+    /**
+     * The default relative accuracy of the percentiles
+     */
+    public static final double DEFAULT_RELATIVE_ACCURACY = 0.01;
+
+    private static final byte VERSION = 1;
+    //if the buckets span more than that, the buckets of the smallest magnitudes are collapsed
+    private static final int MAX_BUCKETS = 2048;
+
+    private final double relativeAccuracy;
+    private final double gamma;
+    private final double logGamma;
+    private final double minIndexableValue;
+
+    private final Buckets positive = new Buckets();
+    private final Buckets negative = new Buckets();
+    private long zeroCount;
+    private long count;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+
+    /**
+     * Constructs a sketch with the default relative accuracy
+     */
+    public QuantileSketch() {
+        this(DEFAULT_RELATIVE_ACCURACY);
+    }
+
+    /**
+     * Constructs a sketch
+     *
+     * @param relativeAccuracy the relative accuracy of the percentiles (0 - 1), e.g. 0.01
+     */
+    public QuantileSketch(double relativeAccuracy) {
+        if (!(relativeAccuracy > 0 && relativeAccuracy < 1)) {
+            throw new IllegalArgumentException("Relative accuracy must be in (0, 1) but is " + relativeAccuracy);
+        }
+        this.relativeAccuracy = relativeAccuracy;
+        this.gamma = (1 + relativeAccuracy) / (1 - relativeAccuracy);
+        this.logGamma = Math.log(gamma);
+        this.minIndexableValue = Double.MIN_NORMAL * gamma;
+    }
+
+    /**
+     * Builds a sketch of the given values
+     *
+     * @param values the values
+     * @return a sketch with the default relative accuracy
+     */
+    public static QuantileSketch of(DoubleList values) {
+        QuantileSketch sketch = new QuantileSketch();
+        int size = values.size();
+        for (int i = 0; i < size; i++) {
+            sketch.add(values.get(i));
+        }
+        return sketch;
+    }
+
+    /**
+     * Adds a value
+     *
+     * @param value the value
+     */
+    public void add(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return;
+        }
+        if (value > minIndexableValue) {
+            positive.add(index(value), 1);
+        } else if (value < -minIndexableValue) {
+            negative.add(index(-value), 1);
+        } else {
+            zeroCount++;
+        }
+        count++;
+        if (value < min) {
+            min = value;
+        }
+        if (value > max) {
+            max = value;
+        }
+    }
+
+    /**
+     * Merges the other sketch into this one
+     *
+     * @param other the other sketch with the same relative accuracy
+     */
+    public void merge(QuantileSketch other) {
+        if (Double.compare(relativeAccuracy, other.relativeAccuracy) != 0) {
+            throw new IllegalArgumentException("Cannot merge sketches with relative accuracy " + relativeAccuracy + " and " + other.relativeAccuracy);
+        }
+        if (other.count == 0) {
+            return;
+        }
+        positive.merge(other.positive);
+        negative.merge(other.negative);
+        zeroCount += other.zeroCount;
+        count += other.count;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    /**
+     * @param percentile the percentile (0 - 1), e.g. 0.25
+     * @return the approximated value of the percentile, or NaN if the sketch is empty
+     */
+    public double quantile(double percentile) {
+        if (count == 0) {
+            return Double.NaN;
+        }
+        if (percentile <= 0) {
+            return min;
+        }
+        if (percentile >= 1) {
+            return max;
+        }
+
+        //the same rank as the type 7 percentile
+        double rank = percentile * (count - 1);
+        long seen = 0;
+        //the negative values, from the largest magnitude to the smallest
+        for (int i = negative.counts.length - 1; i >= 0; i--) {
+            seen += negative.counts[i];
+            if (seen > rank) {
+                return clamp(-value(negative.offset + i));
+            }
+        }
+        seen += zeroCount;
+        if (seen > rank) {
+            return clamp(0);
+        }
+        for (int i = 0; i < positive.counts.length; i++) {
+            seen += positive.counts[i];
+            if (seen > rank) {
+                return clamp(value(positive.offset + i));
+            }
+        }
+        return max;
+    }
+
+    private double clamp(double value) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    private int index(double value) {
+        return (int) Math.ceil(Math.log(value) / logGamma);
+    }
+
+    private double value(int index) {
+        //the value in the middle of the bucket bounds (gamma^(index-1), gamma^index] in terms of the relative error
+        return 2 * Math.pow(gamma, index) / (gamma + 1);
+    }
+
+    /**
+     * @return the number of values in the sketch
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return the relative accuracy of the percentiles
+     */
+    public double getRelativeAccuracy() {
+        return relativeAccuracy;
+    }
+
+    /**
+     * @return the serialized sketch
+     */
+    public byte[] toBytes() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64 + positive.counts.length + negative.counts.length);
+        out.write(VERSION);
+        writeLong(out, Double.doubleToLongBits(relativeAccuracy));
+        writeLong(out, Double.doubleToLongBits(min));
+        writeLong(out, Double.doubleToLongBits(max));
+        writeVarLong(out, zeroCount);
+        positive.writeTo(out);
+        negative.writeTo(out);
+        return out.toByteArray();
+    }
+
+    /**
+     * @param bytes the serialized sketch
+     * @return the deserialized sketch
+     * @throws IllegalArgumentException if the bytes do not hold a sketch
+     */
+    public static QuantileSketch fromBytes(byte[] bytes) {
+        ByteBuffer in = ByteBuffer.wrap(bytes);
+        try {
+            byte version = in.get();
+            if (version != VERSION) {
+                throw new IllegalArgumentException("Unknown sketch version " + version);
+            }
+            QuantileSketch sketch = new QuantileSketch(in.getDouble());
+            sketch.min = in.getDouble();
+            sketch.max = in.getDouble();
+            sketch.zeroCount = readVarLong(in);
+            sketch.positive.readFrom(in);
+            sketch.negative.readFrom(in);
+            sketch.count = sketch.zeroCount + sketch.positive.total() + sketch.negative.total();
+            return sketch;
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Could not read sketch", e);
+        }
+    }
+
+    private static void writeLong(ByteArrayOutputStream out, long value) {
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            out.write((int) (value >>> shift));
+        }
+    }
+
+    private static void writeVarLong(ByteArrayOutputStream out, long value) {
+        long remaining = value;
+        while ((remaining & ~0x7FL) != 0) {
+            out.write((int) ((remaining & 0x7F) | 0x80));
+            remaining >>>= 7;
+        }
+        out.write((int) remaining);
+    }
+
+    private static long readVarLong(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed variable length number");
+    }
+
+    /**
+     * The counts of contiguous bucket indexes
+     */
+    private static final class Buckets {
+        private long[] counts = new long[0];
+        private int offset;
+
+        void add(int index, long amount) {
+            if (counts.length == 0) {
+                counts = new long[8];
+                offset = index - counts.length / 2;
+            }
+            //once the buckets span the maximum, smaller indexes are collapsed without growing
+            if (index >= offset + counts.length || (index < offset && counts.length < MAX_BUCKETS)) {
+                grow(index);
+            }
+            counts[Math.max(index - offset, 0)] += amount;
+        }
+
+        private void grow(int index) {
+            int from = Math.min(offset, index);
+            int to = Math.max(offset + counts.length, index + 1);
+            //leave some space in the direction of the growth
+            int slack = (to - from) / 4;
+            int newFrom = index < offset ? from - slack : from;
+            int newTo = index < offset ? to : to + slack;
+            if (newTo - newFrom > MAX_BUCKETS) {
+                newTo = to;
+                newFrom = Math.max(from, to - MAX_BUCKETS);
+            }
+            long[] grown = new long[newTo - newFrom];
+            for (int i = 0; i < counts.length; i++) {
+                //the buckets of the smallest magnitudes are collapsed into the first bucket
+                grown[Math.max(offset + i - newFrom, 0)] += counts[i];
+            }
+            counts = grown;
+            offset = newFrom;
+        }
+
+        void merge(Buckets other) {
+            for (int i = 0; i < other.counts.length; i++) {
+                if (other.counts[i] != 0) {
+                    add(other.offset + i, other.counts[i]);
+                }
+            }
+        }
+
+        long total() {
+            long total = 0;
+            for (long bucket : counts) {
+                total += bucket;
+            }
+            return total;
+        }
+
+        void writeTo(ByteArrayOutputStream out) {
+            int first = 0;
+            int last = counts.length - 1;
+            while (first <= last && counts[first] == 0) {
+                first++;
+            }
+            while (last >= first && counts[last] == 0) {
+                last--;
+            }
+            int length = last - first + 1;
+            writeVarLong(out, length);
+            if (length > 0) {
+                //zig zag encoded, the offset can be negative
+                int start = offset + first;
+                writeVarLong(out, ((start << 1) ^ (start >> 31)) & 0xFFFFFFFFL);
+                for (int i = first; i <= last; i++) {
+                    writeVarLong(out, counts[i]);
+                }
+            }
+        }
+
+        void readFrom(ByteBuffer in) {
+            int length = (int) readVarLong(in);
+            if (length < 0 || length > MAX_BUCKETS) {
+                throw new IllegalArgumentException("Invalid number of buckets " + length);
+            }
+            if (length == 0) {
+                return;
+            }
+            long zigZag = readVarLong(in);
+            offset = (int) (zigZag >>> 1) ^ -(int) (zigZag & 1);
+            counts = new long[length];
+            for (int i = 0; i < length; i++) {
+                counts[i] = readVarLong(in);
+            }
+        }
+    }
+}
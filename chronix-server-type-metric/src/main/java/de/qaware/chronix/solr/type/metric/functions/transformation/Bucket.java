@@ -0,0 +1,312 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.solr.type.metric.functions.transformation;
+
+import de.qaware.chronix.server.functions.ChronixTransformation;
+import de.qaware.chronix.server.functions.FunctionValueMap;
+import de.qaware.chronix.solr.type.metric.BucketStatistics;
+import de.qaware.chronix.solr.type.metric.ChunkStatistics;
+import de.qaware.chronix.solr.type.metric.TimeSeriesOrder;
+import de.qaware.chronix.timeseries.MetricTimeSeries;
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The bucket transformation reduces the points into fixed time buckets, e.g. bucket:1m,avg.
+ * Each non empty bucket is replaced by a single point at the start of the bucket.
+ * The buckets are aligned to the epoch.
+ */
+public final class Bucket implements ChronixTransformation<MetricTimeSeries> {
+
+    private static final Pattern INTERVAL = Pattern.compile("(\\d+)(ms|s|m|h|d)");
+
+    private final long interval;
+    private final Aggregation aggregation;
+
+    /**
+     * Constructs a bucket transformation
+     *
+     * @param args the first value is the interval of a bucket, a number followed by ms, s, m, h or d,
+     *             the second one the aggregation of a bucket: avg (default), min, max, sum, count, first or last
+     * @throws IllegalArgumentException if the interval or the aggregation is unknown
+     */
+    public Bucket(String[] args) {
+        this.interval = interval(args[0].trim());
+        this.aggregation = args.length > 1 ? Aggregation.valueOf(args[1].trim().toUpperCase(Locale.ROOT)) : Aggregation.AVG;
+    }
+
+    private static long interval(String interval) {
+        Matcher matcher = INTERVAL.matcher(interval);
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException("Invalid bucket interval " + interval);
+        }
+        long amount = Long.parseLong(matcher.group(1));
+        long millis;
+        switch (matcher.group(2)) {
+            case "ms":
+                millis = amount;
+                break;
+            case "s":
+                millis = TimeUnit.SECONDS.toMillis(amount);
+                break;
+            case "m":
+                millis = TimeUnit.MINUTES.toMillis(amount);
+                break;
+            case "h":
+                millis = TimeUnit.HOURS.toMillis(amount);
+                break;
+            default:
+                millis = TimeUnit.DAYS.toMillis(amount);
+        }
+        if (millis <= 0) {
+            throw new IllegalArgumentException("Invalid bucket interval " + interval);
+        }
+        return millis;
+    }
+
+    /**
+     * Reduces the points of each bucket to a single point with one pass over the sorted points.
+     *
+     * @param timeSeries the time series that is transformed
+     */
+    @Override
+    public void execute(MetricTimeSeries timeSeries, FunctionValueMap functionValueMap) {
+        execute(timeSeries, null, functionValueMap);
+    }
+
+    /**
+     * Reduces the points of each bucket together with the statistics of the chunks
+     * that are not decompressed as they lie completely within a bucket.
+     *
+     * @param timeSeries       the time series that is transformed
+     * @param covered          the statistics of the chunks that are not decompressed, can be null
+     * @param functionValueMap the function values to add the transformation
+     */
+    public void execute(MetricTimeSeries timeSeries, BucketStatistics covered, FunctionValueMap functionValueMap) {
+
+        //we need a sorted time series
+        TimeSeriesOrder.sort(timeSeries);
+
+        long[] times = timeSeries.getTimestampsAsArray();
+        double[] values = timeSeries.getValuesAsArray();
+        int size = times.length;
+
+        //remove the old values
+        timeSeries.clear();
+
+        Iterator<Map.Entry<Long, ChunkStatistics>> coveredBuckets = covered != null
+                ? covered.getBuckets().entrySet().iterator()
+                : Collections.<Map.Entry<Long, ChunkStatistics>>emptyIterator();
+        Map.Entry<Long, ChunkStatistics> nextCovered = coveredBuckets.hasNext() ? coveredBuckets.next() : null;
+
+        BucketValue value = new BucketValue();
+        int index = 0;
+        while (index < size || nextCovered != null) {
+            //the next bucket is either the one of the next point or the next covered one
+            long bucket;
+            if (index < size) {
+                bucket = BucketStatistics.bucketStart(times[index], interval);
+                if (nextCovered != null && nextCovered.getKey() < bucket) {
+                    bucket = nextCovered.getKey();
+                }
+            } else {
+                bucket = nextCovered.getKey();
+            }
+
+            value.reset();
+            while (index < size && BucketStatistics.bucketStart(times[index], interval) == bucket) {
+                value.add(times[index], values[index]);
+                index++;
+            }
+            if (nextCovered != null && nextCovered.getKey() == bucket) {
+                value.merge(nextCovered.getValue());
+                nextCovered = coveredBuckets.hasNext() ? coveredBuckets.next() : null;
+            }
+
+            timeSeries.add(bucket, aggregation.of(value));
+        }
+
+        functionValueMap.add(this);
+    }
+
+    /**
+     * @return the length of a bucket in milliseconds
+     */
+    public long getInterval() {
+        return interval;
+    }
+
+    @Override
+    public String getQueryName() {
+        return "bucket";
+    }
+
+    @Override
+    public String getTimeSeriesType() {
+        return "metric";
+    }
+
+    @Override
+    public String[] getArguments() {
+        return new String[]{"interval=" + interval, "aggregation=" + aggregation.name()};
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this)
+                .append("interval", interval)
+                .append("aggregation", aggregation)
+                .toString();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == null) {
+            return false;
+        }
+        if (obj == this) {
+            return true;
+        }
+        if (obj.getClass() != getClass()) {
+            return false;
+        }
+        Bucket rhs = (Bucket) obj;
+        return new EqualsBuilder()
+                .append(this.interval, rhs.interval)
+                .append(this.aggregation, rhs.aggregation)
+                .isEquals();
+    }
+
+    @Override
+    public int hashCode() {
+        return new HashCodeBuilder()
+                .append(interval)
+                .append(aggregation)
+                .toHashCode();
+    }
+
+    /**
+     * The aggregation of the points of a bucket
+     */
+    private enum Aggregation {
+        AVG {
+            @Override
+            double of(BucketValue value) {
+                return value.sum / value.count;
+            }
+        },
+        MIN {
+            @Override
+            double of(BucketValue value) {
+                return value.min;
+            }
+        },
+        MAX {
+            @Override
+            double of(BucketValue value) {
+                return value.max;
+            }
+        },
+        SUM {
+            @Override
+            double of(BucketValue value) {
+                return value.sum;
+            }
+        },
+        COUNT {
+            @Override
+            double of(BucketValue value) {
+                return value.count;
+            }
+        },
+        FIRST {
+            @Override
+            double of(BucketValue value) {
+                return value.first;
+            }
+        },
+        LAST {
+            @Override
+            double of(BucketValue value) {
+                return value.last;
+            }
+        };
+
+        abstract double of(BucketValue value);
+    }
+
+    /**
+     * The running values of the current bucket, reused for every bucket
+     */
+    private static final class BucketValue {
+        private long count;
+        private double sum;
+        private double min;
+        private double max;
+        private double first;
+        private long firstTimestamp;
+        private double last;
+        private long lastTimestamp;
+
+        void reset() {
+            count = 0;
+            sum = 0;
+            min = Double.POSITIVE_INFINITY;
+            max = Double.NEGATIVE_INFINITY;
+            firstTimestamp = Long.MAX_VALUE;
+            lastTimestamp = Long.MIN_VALUE;
+        }
+
+        void add(long timestamp, double value) {
+            count++;
+            sum += value;
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+            if (timestamp < firstTimestamp) {
+                firstTimestamp = timestamp;
+                first = value;
+            }
+            if (timestamp >= lastTimestamp) {
+                lastTimestamp = timestamp;
+                last = value;
+            }
+        }
+
+        void merge(ChunkStatistics statistics) {
+            count += statistics.getCount();
+            sum += statistics.getSum();
+            min = Math.min(min, statistics.getMin());
+            max = Math.max(max, statistics.getMax());
+            if (statistics.getFirstTimestamp() < firstTimestamp) {
+                firstTimestamp = statistics.getFirstTimestamp();
+                first = statistics.getFirst();
+            }
+            if (statistics.getLastTimestamp() >= lastTimestamp) {
+                lastTimestamp = statistics.getLastTimestamp();
+                last = statistics.getLast();
+            }
+        }
+    }
+}
@@ -19,6 +19,7 @@ import de.qaware.chronix.converter.common.DoubleList;
 import de.qaware.chronix.converter.common.LongList;
 import de.qaware.chronix.server.functions.ChronixTransformation;
 import de.qaware.chronix.server.functions.FunctionValueMap;
+import de.qaware.chronix.solr.type.metric.TimeSeriesOrder;
 import de.qaware.chronix.timeseries.MetricTimeSeries;
 import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
@@ -46,7 +47,7 @@ public final class Distinct implements ChronixTransformation<MetricTimeSeries> {
             return;
         }
 
-        timeSeries.sort();
+        TimeSeriesOrder.sort(timeSeries);
 
         LongList timeList = new LongList(timeSeries.size());
         DoubleList valueList = new DoubleList(timeSeries.size());
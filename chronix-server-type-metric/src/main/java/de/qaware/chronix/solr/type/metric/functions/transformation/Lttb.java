@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.solr.type.metric.functions.transformation;
+
+import de.qaware.chronix.server.functions.ChronixTransformation;
+import de.qaware.chronix.server.functions.FunctionValueMap;
+import de.qaware.chronix.solr.type.metric.TimeSeriesOrder;
+import de.qaware.chronix.timeseries.MetricTimeSeries;
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+/**
+ * The largest triangle three buckets (LTTB) transformation.
+ * It downsamples the time series to a target amount of points while it keeps the visual shape, e.g. lttb:1000.
+ */
+public final class Lttb implements ChronixTransformation<MetricTimeSeries> {
+
+    private final int threshold;
+
+    /**
+     * Constructs the LTTB transformation
+     *
+     * @param args the first value is the amount of points of the downsampled time series
+     */
+    public Lttb(String[] args) {
+        this.threshold = Integer.parseInt(args[0].trim());
+    }
+
+    /**
+     * The first and the last point are kept. The other points are split into threshold - 2 buckets.
+     * From every bucket the point is taken that forms the largest triangle with the point taken from the
+     * bucket before and the average point of the bucket after.
+     * Time series with at most threshold points or a threshold below 3 are not changed.
+     *
+     * @param timeSeries the time series that is transformed
+     */
+    @Override
+    public void execute(MetricTimeSeries timeSeries, FunctionValueMap functionValueMap) {
+        int size = timeSeries.size();
+        if (threshold >= size || threshold < 3) {
+            functionValueMap.add(this);
+            return;
+        }
+
+        //we need a sorted time series
+        TimeSeriesOrder.sort(timeSeries);
+
+        long[] times = timeSeries.getTimestampsAsArray();
+        double[] values = timeSeries.getValuesAsArray();
+
+        //remove the old values
+        timeSeries.clear();
+
+        //the timestamps are relative to the first one to keep the precision of the areas
+        long origin = times[0];
+        int buckets = threshold - 2;
+
+        int selected = 0;
+        timeSeries.add(times[0], values[0]);
+
+        for (int bucket = 0; bucket < buckets; bucket++) {
+            //the average point of the next bucket, the last point for the last bucket
+            int averageStart = bucketStart(bucket + 1, buckets, size);
+            int averageEnd = bucket + 2 <= buckets ? bucketStart(bucket + 2, buckets, size) : size;
+            double averageTime = 0;
+            double averageValue = 0;
+            for (int i = averageStart; i < averageEnd; i++) {
+                averageTime += times[i] - origin;
+                averageValue += values[i];
+            }
+            int averageLength = averageEnd - averageStart;
+            averageTime /= averageLength;
+            averageValue /= averageLength;
+
+            //the point of the current bucket with the largest triangle
+            int rangeStart = bucketStart(bucket, buckets, size);
+            int rangeEnd = averageStart;
+            double selectedTime = times[selected] - origin;
+            double selectedValue = values[selected];
+            double maxArea = -1;
+            int next = rangeStart;
+            for (int i = rangeStart; i < rangeEnd; i++) {
+                double area = Math.abs((selectedTime - averageTime) * (values[i] - selectedValue)
+                        - (selectedTime - (times[i] - origin)) * (averageValue - selectedValue));
+                if (area > maxArea) {
+                    maxArea = area;
+                    next = i;
+                }
+            }
+
+            timeSeries.add(times[next], values[next]);
+            selected = next;
+        }
+
+        timeSeries.add(times[size - 1], values[size - 1]);
+        functionValueMap.add(this);
+    }
+
+    /**
+     * @param bucket  the bucket, buckets for the end of the last bucket
+     * @param buckets the amount of buckets between the first and the last point
+     * @param size    the amount of points
+     * @return the index of the first point of the bucket
+     */
+    private static int bucketStart(int bucket, int buckets, int size) {
+        return 1 + (int) ((long) bucket * (size - 2) / buckets);
+    }
+
+    @Override
+    public String getQueryName() {
+        return "lttb";
+    }
+
+    @Override
+    public String getTimeSeriesType() {
+        return "metric";
+    }
+
+    @Override
+    public String[] getArguments() {
+        return new String[]{"threshold=" + threshold};
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this)
+                .append("threshold", threshold)
+                .toString();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == null) {
+            return false;
+        }
+        if (obj == this) {
+            return true;
+        }
+        if (obj.getClass() != getClass()) {
+            return false;
+        }
+        Lttb rhs = (Lttb) obj;
+        return new EqualsBuilder()
+                .append(this.threshold, rhs.threshold)
+                .isEquals();
+    }
+
+    @Override
+    public int hashCode() {
+        return new HashCodeBuilder()
+                .append(threshold)
+                .toHashCode();
+    }
+}
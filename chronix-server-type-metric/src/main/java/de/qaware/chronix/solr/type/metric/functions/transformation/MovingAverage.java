@@ -17,6 +17,7 @@ package de.qaware.chronix.solr.type.metric.functions.transformation;
 
 import de.qaware.chronix.server.functions.ChronixTransformation;
 import de.qaware.chronix.server.functions.FunctionValueMap;
+import de.qaware.chronix.solr.type.metric.TimeSeriesOrder;
 import de.qaware.chronix.timeseries.MetricTimeSeries;
 import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
@@ -61,8 +62,14 @@ public final class MovingAverage implements ChronixTransformation<MetricTimeSeri
     @Override
     public void execute(MetricTimeSeries timeSeries, FunctionValueMap functionValueMap) {
 
+        //a single point is its own average
+        if (timeSeries.size() <= 1) {
+            functionValueMap.add(this);
+            return;
+        }
+
         //we need a sorted time series
-        timeSeries.sort();
+        TimeSeriesOrder.sort(timeSeries);
 
         //get the raw values as arrays
         double[] values = timeSeries.getValuesAsArray();
@@ -72,78 +79,48 @@ public final class MovingAverage implements ChronixTransformation<MetricTimeSeri
         //remove the old values
         timeSeries.clear();
 
+        //the sums are updated while the window slides instead of summing up every window
+        WindowSum window = new WindowSum(times, values);
         int startIdx = 0;
-        long current = times[0];
-        long currentWindowEnd = current + windowTime;
+        //the exclusive end of the window
+        int endIdx = 0;
+        long currentWindowEnd = times[0] + windowTime;
         long last = times[timeSeriesSize - 1];
 
-        boolean lastWindowOnlyOnePoint = true;
-
-        //the start is already set
-        for (int i = 0; i < timeSeriesSize; i++) {
+        while (true) {
 
-            //fill window
-            while (i < timeSeriesSize && !outsideWindow(currentWindowEnd, current)) {
-                current = times[i++];
+            //fill window, the last point is only part of the last window
+            while (endIdx < timeSeriesSize - 1 && !outsideWindow(currentWindowEnd, times[endIdx])) {
+                window.add(endIdx++);
             }
-            //decrement counter to mark the last index position that is within the window
-            i -= 1;
 
-            //calculate the average of the values and the time
-            evaluateAveragesAndAddToTimeSeries(timeSeries, values, times, startIdx, i);
+            //add the average of the values and the time
+            timeSeries.add(window.averageTime(), window.averageValue());
 
             //slide the window
-            startIdx++;
+            window.remove(startIdx++);
             currentWindowEnd = times[startIdx] + windowTime;
 
             //check if the current window end is larger equals the end timestamp
             if (currentWindowEnd >= last) {
-                //break and add the last window
-                lastWindowOnlyOnePoint = false;
+                //add the last window
+                while (endIdx < timeSeriesSize) {
+                    window.add(endIdx++);
+                }
+                timeSeries.add(window.averageTime(), window.averageValue());
                 break;
             }
-        }
 
-        if (lastWindowOnlyOnePoint) {
-            timeSeries.add(times[timeSeriesSize - 1], values[timeSeriesSize - 1]);
-        } else {
-            //add the last window
-            evaluateAveragesAndAddToTimeSeries(timeSeries, values, times, startIdx, timeSeriesSize);
+            //the window reached the last point, which is added as it is
+            if (endIdx >= timeSeriesSize - 1) {
+                timeSeries.add(times[timeSeriesSize - 1], values[timeSeriesSize - 1]);
+                break;
+            }
         }
 
         functionValueMap.add(this);
     }
 
-    /**
-     * Calculates the average time stamp and value for the given window (start, end) and adds it to the given time series
-     *
-     * @param timeSeries the time series to add the moving averages
-     * @param values     the values
-     * @param times      the time stamps
-     * @param startIdx   the start index of the window
-     * @param end        the end index of the window
-     */
-    private void evaluateAveragesAndAddToTimeSeries(MetricTimeSeries timeSeries, double[] values, long[] times, int startIdx, int end) {
-
-        //If the indices are equals, just return the value at the index position
-        if (startIdx == end) {
-            timeSeries.add(times[startIdx], values[startIdx]);
-        }
-
-        double valueSum = 0;
-        long timeSum = 0;
-
-
-        for (int i = startIdx; i < end; i++) {
-            valueSum += values[i];
-            timeSum += times[i];
-        }
-        int amount = end - startIdx;
-
-
-        timeSeries.add(timeSum / amount, valueSum / amount);
-    }
-
     private boolean outsideWindow(long currentWindow, long windowTime) {
         return currentWindow < windowTime;
     }
@@ -17,6 +17,7 @@ package de.qaware.chronix.solr.type.metric.functions.transformation;
 
 import de.qaware.chronix.server.functions.ChronixTransformation;
 import de.qaware.chronix.server.functions.FunctionValueMap;
+import de.qaware.chronix.solr.type.metric.TimeSeriesOrder;
 import de.qaware.chronix.solr.type.metric.functions.math.DerivativeUtil;
 import de.qaware.chronix.timeseries.MetricTimeSeries;
 import org.apache.commons.lang3.builder.EqualsBuilder;
@@ -37,7 +38,7 @@ public final class NonNegativeDerivative implements ChronixTransformation<Metric
     @Override
     public void execute(MetricTimeSeries timeSeries, FunctionValueMap functionValueMap) {
         //we need a sorted time series
-        timeSeries.sort();
+        TimeSeriesOrder.sort(timeSeries);
 
         long[] times = timeSeries.getTimestampsAsArray();
         double[] values = timeSeries.getValuesAsArray();
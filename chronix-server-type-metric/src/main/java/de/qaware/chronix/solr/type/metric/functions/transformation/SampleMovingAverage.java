@@ -17,6 +17,7 @@ package de.qaware.chronix.solr.type.metric.functions.transformation;
 
 import de.qaware.chronix.server.functions.ChronixTransformation;
 import de.qaware.chronix.server.functions.FunctionValueMap;
+import de.qaware.chronix.solr.type.metric.TimeSeriesOrder;
 import de.qaware.chronix.timeseries.MetricTimeSeries;
 import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
@@ -50,7 +51,7 @@ public final class SampleMovingAverage implements ChronixTransformation<MetricTi
     public void execute(MetricTimeSeries timeSeries, FunctionValueMap functionValueMap) {
 
         //we need a sorted time series
-        timeSeries.sort();
+        TimeSeriesOrder.sort(timeSeries);
 
         //get the raw values as arrays
         double[] values = timeSeries.getValuesAsArray();
@@ -60,53 +61,38 @@ public final class SampleMovingAverage implements ChronixTransformation<MetricTi
         //remove the old values
         timeSeries.clear();
 
-        //the start is already set
+        //the sums are updated while the window slides instead of summing up every window
+        WindowSum window = new WindowSum(times, values);
+        for (int i = 0; i < Math.min(samples, timeSeriesSize); i++) {
+            window.add(i);
+        }
+
         for (int start = 0; start < timeSeriesSize; start++) {
 
             int end = start + samples;
-            //calculate the average of the values and the time
-            evaluteAveragesAndAddToTimeSeries(timeSeries, values, times, start, end);
+            //add the average of the values and the time
+            timeSeries.add(window.averageTime(), window.averageValue());
+
+            //slide the window
+            window.remove(start);
 
             //check if window end is larger than time series
             if (end + 1 >= timeSeriesSize) {
-                evaluteAveragesAndAddToTimeSeries(timeSeries, values, times, start + 1, timeSeriesSize);
+                //the last window contains the remaining points
+                for (int i = end; i < timeSeriesSize; i++) {
+                    window.add(i);
+                }
+                if (start + 1 < timeSeriesSize) {
+                    timeSeries.add(window.averageTime(), window.averageValue());
+                }
                 break;
             }
+            window.add(end);
         }
 
         functionValueMap.add(this);
     }
 
-    /**
-     * Calculates the average time stamp and value for the given window (start, end) and adds it to the given time series
-     *
-     * @param timeSeries the time series to add the moving averages
-     * @param values     the values
-     * @param times      the time stamps
-     * @param startIdx   the start index of the window
-     * @param end        the end index of the window
-     */
-    private void evaluteAveragesAndAddToTimeSeries(MetricTimeSeries timeSeries, double[] values, long[] times, int startIdx, int end) {
-
-        //If the indices are equals, just return the value at the index position
-        if (startIdx == end) {
-            timeSeries.add(times[startIdx], values[startIdx]);
-        }
-
-        double valueSum = 0;
-        long timeSum = 0;
-
-
-        for (int i = startIdx; i < end; i++) {
-            valueSum += values[i];
-            timeSum += times[i];
-        }
-        int amount = end - startIdx;
-
-        timeSeries.add(timeSum / amount, valueSum / amount);
-    }
-
-
     @Override
     public String getQueryName() {
         return "smovavg";
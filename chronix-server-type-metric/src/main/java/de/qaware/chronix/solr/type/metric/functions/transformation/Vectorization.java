@@ -17,6 +17,7 @@ package de.qaware.chronix.solr.type.metric.functions.transformation;
 
 import de.qaware.chronix.server.functions.ChronixTransformation;
 import de.qaware.chronix.server.functions.FunctionValueMap;
+import de.qaware.chronix.solr.type.metric.TimeSeriesOrder;
 import de.qaware.chronix.timeseries.MetricTimeSeries;
 import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
@@ -57,7 +58,7 @@ public final class Vectorization implements ChronixTransformation<MetricTimeSeri
     public void execute(MetricTimeSeries timeSeries, FunctionValueMap functionValueMap) {
 
         //we need a sorted time series
-        timeSeries.sort();
+        TimeSeriesOrder.sort(timeSeries);
 
         int size = timeSeries.size();
         //do not simplify if there are insufficient data points
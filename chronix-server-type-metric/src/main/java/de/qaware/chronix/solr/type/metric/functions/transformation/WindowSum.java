@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.solr.type.metric.functions.transformation;
+
+/**
+ * The running sums of the timestamps and values of the points within a sliding window.
+ * Points are added at the end and removed at the start of the window, hence every point is touched twice.
+ * The value sum is compensated (Neumaier) to avoid that rounding errors accumulate while the window slides.
+ * Values that are not finite are counted separately, so they only affect the windows that contain them.
+ */
+final class WindowSum {
+
+    private final long[] times;
+    private final double[] values;
+
+    private long timeSum;
+    private double valueSum;
+    private double compensation;
+    private int amount;
+    private int nan;
+    private int positiveInfinity;
+    private int negativeInfinity;
+
+    /**
+     * @param times  the timestamps of the points
+     * @param values the values of the points
+     */
+    WindowSum(long[] times, double[] values) {
+        this.times = times;
+        this.values = values;
+    }
+
+    /**
+     * Adds the point at the given index to the window
+     *
+     * @param index the index of the point
+     */
+    void add(int index) {
+        timeSum += times[index];
+        sum(values[index], 1);
+        amount++;
+    }
+
+    /**
+     * Removes the point at the given index from the window
+     *
+     * @param index the index of the point
+     */
+    void remove(int index) {
+        timeSum -= times[index];
+        sum(values[index], -1);
+        amount--;
+    }
+
+    private void sum(double point, int sign) {
+        if (Double.isNaN(point)) {
+            nan += sign;
+            return;
+        }
+        if (Double.isInfinite(point)) {
+            if (point > 0) {
+                positiveInfinity += sign;
+            } else {
+                negativeInfinity += sign;
+            }
+            return;
+        }
+        double value = sign * point;
+        double sum = valueSum + value;
+        if (Math.abs(valueSum) >= Math.abs(value)) {
+            compensation += (valueSum - sum) + value;
+        } else {
+            compensation += (value - sum) + valueSum;
+        }
+        valueSum = sum;
+    }
+
+    /**
+     * @return the average timestamp of the points within the window
+     */
+    long averageTime() {
+        return timeSum / amount;
+    }
+
+    /**
+     * @return the average value of the points within the window
+     */
+    double averageValue() {
+        if (nan > 0 || (positiveInfinity > 0 && negativeInfinity > 0)) {
+            return Double.NaN;
+        }
+        if (positiveInfinity > 0) {
+            return Double.POSITIVE_INFINITY;
+        }
+        if (negativeInfinity > 0) {
+            return Double.NEGATIVE_INFINITY;
+        }
+        return (valueSum + compensation) / amount;
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.solr.type.metric
+
+import org.apache.solr.common.SolrDocument
+import spock.lang.Specification
+
+/**
+ * Unit test for the bucket statistics
+ */
+class BucketStatisticsTest extends Specification {
+
+    def "test bucket start"() {
+        expect:
+        BucketStatistics.bucketStart(timestamp, 1000) == start
+
+        where:
+        timestamp << [0l, 999l, 1000l, -1l, -1000l, -1001l]
+        start << [0l, 0l, 1000l, -1000l, -1000l, -2000l]
+    }
+
+    def "test merge covered chunks"() {
+        given:
+        def buckets = new BucketStatistics(1000)
+
+        when:
+        def merged = [chunk(1000, 1500, 2), chunk(1600, 1999, 3), chunk(2000, 2500, 4)].collect {
+            buckets.mergeIfCovered(it, 0, 10_000)
+        }
+
+        then:
+        merged == [true, true, true]
+        buckets.getInterval() == 1000
+        buckets.getBuckets().keySet() as List == [1000l, 2000l]
+        buckets.getBuckets()[1000l].getCount() == 5
+        buckets.getBuckets()[2000l].getCount() == 4
+    }
+
+    def "test chunks that are decompressed"() {
+        given:
+        def buckets = new BucketStatistics(1000)
+        def withoutStatistics = new SolrDocument()
+        withoutStatistics.setField("start", 1000l)
+        withoutStatistics.setField("end", 1100l)
+
+        expect:
+        //spans two buckets
+        !buckets.mergeIfCovered(chunk(1500, 2500, 2), 0, 10_000)
+        //outside of the query
+        !buckets.mergeIfCovered(chunk(1500, 1600, 2), 1550, 10_000)
+        !buckets.mergeIfCovered(withoutStatistics, 0, 10_000)
+        !buckets.mergeIfCovered(new SolrDocument(), 0, 10_000)
+        buckets.getBuckets().isEmpty()
+    }
+
+    static SolrDocument chunk(long start, long end, long count) {
+        def doc = new SolrDocument()
+        doc.setField("start", start)
+        doc.setField("end", end)
+        ChunkStatistics.NUMBER_FIELDS.each { doc.setField(it, 1d) }
+        doc.setField(ChunkStatistics.COUNT, count)
+        doc
+    }
+}
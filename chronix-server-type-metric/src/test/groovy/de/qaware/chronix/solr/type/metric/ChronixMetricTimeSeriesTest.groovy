@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.solr.type.metric
+
+import de.qaware.chronix.converter.MetricTimeSeriesConverter
+import de.qaware.chronix.server.functions.ChronixAggregation
+import de.qaware.chronix.server.functions.ChronixTransformation
+import de.qaware.chronix.server.functions.FunctionValueMap
+import de.qaware.chronix.solr.type.metric.functions.aggregations.*
+import de.qaware.chronix.solr.type.metric.functions.transformation.Bucket
+import de.qaware.chronix.solr.type.metric.functions.transformation.Scale
+import de.qaware.chronix.timeseries.MetricTimeSeries
+import org.apache.solr.common.SolrDocument
+import org.apache.solr.common.SolrInputDocument
+import spock.lang.Specification
+
+import java.nio.ByteBuffer
+
+/**
+ * Unit test for the chronix metric time series
+ */
+class ChronixMetricTimeSeriesTest extends Specification {
+
+    def "test fused aggregations equal the single aggregations"() {
+        given:
+        List<ChronixAggregation> aggregations = [new Max(), new Percentile(["0.5"] as String[]), new Avg(), new StdDev(),
+                                                 new Percentile(["0.99"] as String[]), new First(), new Last(), new Count(),
+                                                 new Integral(), new Percentile(["0.1"] as String[])]
+        def fused = new FunctionValueMap(aggregations.size(), 0, 0)
+        def single = new FunctionValueMap(aggregations.size(), 0, 0)
+
+        when:
+        new ChronixMetricTimeSeries(timeSeries()).applyAggregations(aggregations, fused)
+        aggregations.each { new ChronixMetricTimeSeries(timeSeries()).applyAggregation(it, single) }
+
+        then:
+        fused.sizeOfAggregations() == aggregations.size()
+        aggregations.eachWithIndex { aggregation, i ->
+            assert fused.getAggregation(i) == aggregation
+            assert Math.abs(fused.getAggregationValue(i) - single.getAggregationValue(i)) < 1e-9
+        }
+    }
+
+    def "test fused aggregations on an empty time series"() {
+        given:
+        List<ChronixAggregation> aggregations = [new Percentile(["0.5"] as String[]), new Percentile(["0.9"] as String[]), new Min(), new Max()]
+        def fused = new FunctionValueMap(aggregations.size(), 0, 0)
+
+        when:
+        new ChronixMetricTimeSeries(new MetricTimeSeries.Builder("empty", "metric").build()).applyAggregations(aggregations, fused)
+
+        then:
+        (0..3).every { fused.getAggregationValue(it).naN }
+    }
+
+    def "test fused aggregations with statistics of not decompressed chunks"() {
+        given:
+        def statistics = ChunkStatistics.of(timeSeries())
+        def ts = new ChronixMetricTimeSeries(timeSeries(), statistics)
+        def fused = new FunctionValueMap(2, 0, 0)
+
+        when:
+        ts.applyAggregations([new Count(), new Sum()], fused)
+
+        then:
+        fused.getAggregationValue(0) == 2 * statistics.count
+        Math.abs(fused.getAggregationValue(1) - 2 * statistics.sum) < 1e-9
+    }
+
+    def "test fused approximated percentiles"() {
+        given:
+        def aggregations = [new Max(), new ApproxPercentile(["0.9", "approx"] as String[])] as List<ChronixAggregation>
+        def fused = new FunctionValueMap(2, 0, 0)
+        def single = new FunctionValueMap(1, 0, 0)
+
+        when:
+        new ChronixMetricTimeSeries(timeSeries()).applyAggregations(aggregations, fused)
+        aggregations[1].execute(timeSeries(), single)
+
+        then:
+        fused.getAggregationValue(0) == ChunkStatistics.of(timeSeries()).max
+        fused.getAggregationValue(1) == single.getAggregationValue(0)
+    }
+
+    def "test bucket transformation with statistics of not decompressed chunks"() {
+        given:
+        def chunks = chunks()
+        List<ChronixTransformation> transformations = [new Bucket(["2s", "avg"] as String[]), new Scale(["2"] as String[])]
+        def type = new MetricType()
+
+        when:
+        def bucketed = type.convertForTransformations(chunks, 0, 5500, transformations)
+        def decompressed = type.convert(chunks, 0, 5500, true)
+        def decodedPoints = bucketed.timeSeries.size()
+        transformations.each {
+            bucketed.applyTransformation(it, new FunctionValueMap(0, 0, 2))
+            decompressed.applyTransformation(it, new FunctionValueMap(0, 0, 2))
+        }
+        def expected = ((ChronixMetricTimeSeries) decompressed).timeSeries
+        def actual = ((ChronixMetricTimeSeries) bucketed).timeSeries
+
+        then:
+        //only the chunk that ends after the query end is decompressed
+        decodedPoints == 51
+        actual.getTimestampsAsArray() == [0l, 2000l, 4000l] as long[]
+        actual.getTimestampsAsArray() == expected.getTimestampsAsArray()
+        (0..<3).every { Math.abs(actual.getValue(it) - expected.getValue(it)) < 1e-9 }
+    }
+
+    def "test only a first bucket transformation uses statistics"() {
+        expect:
+        new MetricType().convertForTransformations(chunks(), 0, 5500, transformations).timeSeries.size() == 551
+
+        where:
+        transformations << [[new Scale(["2"] as String[]), new Bucket(["2s"] as String[])], []]
+    }
+
+    /**
+     * @return the points of the time series in chunks of one second
+     */
+    List<SolrDocument> chunks() {
+        def converter = new MetricTimeSeriesConverter()
+        def points = timeSeries()
+        (0..<10).collect { chunk ->
+            def builder = new MetricTimeSeries.Builder("fused", "metric")
+            (chunk * 100..<(chunk + 1) * 100).each { builder.point(points.getTime(it), points.getValue(it)) }
+            def ts = builder.build()
+            def binary = converter.to(ts)
+            def doc = new SolrDocument()
+            doc.setField("name", binary.getName())
+            doc.setField("type", binary.getType())
+            doc.setField("start", binary.getStart())
+            doc.setField("end", binary.getEnd())
+            doc.setField("data", ByteBuffer.wrap(binary.getPoints()))
+            def statistics = new SolrInputDocument()
+            ChunkStatistics.of(ts).addTo(statistics)
+            statistics.getFieldNames().each { doc.setField(it, statistics.getFieldValue(it)) }
+            doc
+        }
+    }
+
+    MetricTimeSeries timeSeries() {
+        def builder = new MetricTimeSeries.Builder("fused", "metric")
+        for (int i = 999; i >= 0; i--) {
+            builder.point(i * 10, Math.cos(i) * 50 + i)
+        }
+        builder.build()
+    }
+}
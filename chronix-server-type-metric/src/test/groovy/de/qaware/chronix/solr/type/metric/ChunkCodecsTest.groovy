@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.solr.type.metric
+
+import de.qaware.chronix.converter.common.Compression
+import de.qaware.chronix.converter.serializer.protobuf.ProtoBufMetricTimeSeriesSerializer
+import de.qaware.chronix.timeseries.MetricTimeSeries
+import spock.lang.Specification
+import spock.lang.Unroll
+
+/**
+ * Unit test for the chunk codecs
+ */
+class ChunkCodecsTest extends Specification {
+
+    def "test private constructor"() {
+        when:
+        ChunkCodecs.newInstance()
+        then:
+        noExceptionThrown()
+    }
+
+    def "test lookup"() {
+        expect:
+        ChunkCodecs.of(0) == ChunkCodecs.PROTOBUF
+        ChunkCodecs.of(1) == ChunkCodecs.GORILLA
+        ChunkCodecs.ofField(null) == ChunkCodecs.PROTOBUF
+        ChunkCodecs.ofField(1i) == ChunkCodecs.GORILLA
+        ChunkCodecs.ofField(1l) == ChunkCodecs.GORILLA
+        ChunkCodecs.byName('Gorilla') == ChunkCodecs.GORILLA
+        ChunkCodecs.byName('protobuf') == ChunkCodecs.PROTOBUF
+        ChunkCodecs.DEFAULT == ChunkCodecs.PROTOBUF
+    }
+
+    @Unroll
+    def "test unknown codec #description"() {
+        when:
+        lookup()
+
+        then:
+        thrown IllegalArgumentException
+
+        where:
+        description | lookup
+        'id 7'      | { ChunkCodecs.of(7) }
+        'name lz4'  | { ChunkCodecs.byName('lz4') }
+    }
+
+    @Unroll
+    def "test #codec.name() round trip of #description"() {
+        given:
+        def timestamps = points.collect { it[0] as long } as long[]
+        def values = points.collect { it[1] as double } as double[]
+
+        when:
+        def data = codec.encode(timestamps, values, 0, timestamps.length)
+        def decoded = decode(codec, data, timestamps)
+
+        then:
+        decoded.getTimestampsAsArray() == timestamps
+        decoded.getValuesAsArray().collect { Double.doubleToRawLongBits(it) } == values.collect { Double.doubleToRawLongBits(it) }
+
+        where:
+        [codec, [description, points]] << [[ChunkCodecs.GORILLA, ChunkCodecs.PROTOBUF], [
+                ['a single point', [[42, 4.2]]],
+                ['regular points', (0..<1000).collect { [1_500_000_000_000 + it * 1000, Math.round(Math.sin(it / 10) * 100)] }],
+                ['jittered points', (0..<1000).collect { [it * 10_000 + (it * 7919) % 5, (it % 10) / 10] }],
+                ['unsorted points', [[5, 1], [3, 2], [9, 3], [1, 4], [1, 5]]],
+                ['large gaps', [[Long.MIN_VALUE + 1, 1], [0, 2], [Long.MAX_VALUE, 3]]],
+                ['special values', [[1, Double.NaN], [2, Double.POSITIVE_INFINITY], [3, -0.0d], [4, Double.MIN_VALUE], [5, -Double.MAX_VALUE]]],
+        ]].combinations()
+    }
+
+    def "test gorilla without points"() {
+        given:
+        def codec = ChunkCodecs.GORILLA
+
+        when:
+        def data = codec.encode(new long[0], new double[0], 0, 0)
+
+        then:
+        decode(codec, data, new long[0]).size() == 0
+    }
+
+    def "test gorilla encodes a range of the arrays"() {
+        given:
+        def timestamps = (0..<10).collect { it * 10 as long } as long[]
+        def values = (0..<10).collect { it as double } as double[]
+
+        when:
+        def decoded = decode(ChunkCodecs.GORILLA, ChunkCodecs.GORILLA.encode(timestamps, values, 3, 6), timestamps)
+
+        then:
+        decoded.getTimestampsAsArray() == [30l, 40l, 50l] as long[]
+        decoded.getValuesAsArray() == [3d, 4d, 5d] as double[]
+    }
+
+    def "test gorilla decodes the query range"() {
+        given:
+        def timestamps = (0..<10).collect { it * 10 as long } as long[]
+        def values = (0..<10).collect { it as double } as double[]
+        def data = ChunkCodecs.GORILLA.encode(timestamps, values, 0, 10)
+        def points = new MetricTimeSeries.Builder("chunk", "metric")
+
+        when:
+        ChunkCodecs.GORILLA.decode(data, 0, 90, 25, 60, points)
+        def decoded = points.build()
+
+        then:
+        decoded.getTimestampsAsArray() == [30l, 40l, 50l, 60l] as long[]
+        decoded.getValuesAsArray() == [3d, 4d, 5d, 6d] as double[]
+    }
+
+    def "test gorilla is smaller than protobuf for regular monitoring data"() {
+        given:
+        def timestamps = (0..<10000).collect { 1_500_000_000_000 + it * 10_000 as long } as long[]
+        def values = (0..<10000).collect { (it.intdiv(50) % 20) / 2 as double } as double[]
+
+        when:
+        def gorilla = ChunkCodecs.GORILLA.encode(timestamps, values, 0, timestamps.length)
+        def protobuf = ChunkCodecs.PROTOBUF.encode(timestamps, values, 0, timestamps.length)
+
+        then:
+        gorilla.length < protobuf.length
+        //a regular timestamp and an unchanged value take two bits
+        gorilla.length < timestamps.length / 2
+    }
+
+    def "test protobuf is compatible with the converter"() {
+        given:
+        def ts = new MetricTimeSeries.Builder("chunk", "metric")
+        10.times { ts.point(it * 10 as long, it * 2 as double) }
+        def data = Compression.compress(ProtoBufMetricTimeSeriesSerializer.to(ts.build().points().iterator()))
+
+        when:
+        def decoded = decode(ChunkCodecs.PROTOBUF, data, ts.build().getTimestampsAsArray())
+
+        then:
+        decoded.getTimestampsAsArray() == ts.build().getTimestampsAsArray()
+        decoded.getValuesAsArray() == ts.build().getValuesAsArray()
+    }
+
+    MetricTimeSeries decode(ChunkCodec codec, byte[] data, long[] timestamps) {
+        def points = new MetricTimeSeries.Builder("chunk", "metric")
+        long start = timestamps.length == 0 ? 0 : timestamps.min()
+        long end = timestamps.length == 0 ? 0 : timestamps.max()
+        codec.decode(data, start, end, Long.MIN_VALUE, Long.MAX_VALUE, points)
+        points.build()
+    }
+}
@@ -0,0 +1,285 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.solr.type.metric
+
+import de.qaware.chronix.server.functions.FunctionValueMap
+import de.qaware.chronix.solr.type.metric.functions.aggregations.*
+import de.qaware.chronix.timeseries.MetricTimeSeries
+import org.apache.solr.common.SolrDocument
+import org.apache.solr.common.SolrInputDocument
+import spock.lang.Specification
+import spock.lang.Unroll
+
+/**
+ * Unit test for the chunk statistics
+ */
+class ChunkStatisticsTest extends Specification {
+
+    def "test statistics of a time series"() {
+        given:
+        def ts = new MetricTimeSeries.Builder("stats", "metric")
+                .point(3, 5)
+                .point(1, 2)
+                .point(2, -1)
+                .point(4, 7)
+                .build()
+
+        when:
+        def statistics = ChunkStatistics.of(ts)
+
+        then:
+        statistics.count == 4
+        statistics.sum == 13d
+        statistics.min == -1d
+        statistics.max == 7d
+        statistics.first == 2d
+        statistics.firstTimestamp == 1
+        statistics.last == 7d
+        statistics.lastTimestamp == 4
+        statistics.squaredDeviations == 36.75d
+    }
+
+    def "test empty statistics"() {
+        when:
+        def statistics = ChunkStatistics.of(new MetricTimeSeries.Builder("empty", "metric").build())
+
+        then:
+        statistics.count == 0
+        statistics.min.naN
+        statistics.max.naN
+        statistics.first.naN
+        statistics.last.naN
+    }
+
+    def "test add to document and merge if covered"() {
+        given:
+        def document = new SolrInputDocument()
+        document.setField(ChunkStatistics.SUM, "stale")
+        ChunkStatistics.of(timeSeries(10, 20)).addTo(document)
+
+        def doc = new SolrDocument()
+        document.getFieldNames().each { doc.setField(it, document.getFieldValue(it)) }
+        doc.setField("start", 10L)
+        doc.setField("end", 19L)
+
+        def statistics = new ChunkStatistics()
+
+        when:
+        def merged = statistics.mergeIfCovered(doc, queryStart, queryEnd)
+
+        then:
+        merged == expected
+        statistics.count == (expected ? 10 : 0)
+
+        where:
+        queryStart << [0, 10, 11, 0]
+        queryEnd << [100, 19, 100, 18]
+        expected << [true, true, false, false]
+    }
+
+    def "test merge if covered without statistics"() {
+        given:
+        def doc = new SolrDocument()
+        doc.setField("start", 10L)
+        doc.setField("end", 19L)
+
+        expect:
+        !new ChunkStatistics().mergeIfCovered(doc, 0, 100)
+    }
+
+    def "test empty statistics are removed from the document"() {
+        given:
+        def document = new SolrInputDocument()
+        ChunkStatistics.of(timeSeries(0, 5)).addTo(document)
+
+        when:
+        ChunkStatistics.of(new MetricTimeSeries.Builder("empty", "metric").build()).addTo(document)
+
+        then:
+        document.getFieldValue(ChunkStatistics.COUNT) == 0L
+        document.getFieldNames().findAll { ChunkStatistics.isStatisticsField(it) } == [ChunkStatistics.COUNT] as Set
+    }
+
+    def "test sketch is stored and merged if covered"() {
+        given:
+        def document = new SolrInputDocument()
+        ChunkStatistics.of(timeSeries(10, 20), true).addTo(document)
+
+        def doc = new SolrDocument()
+        document.getFieldNames().each { doc.setField(it, document.getFieldValue(it)) }
+        doc.setField("start", 10L)
+        doc.setField("end", 19L)
+        doc.setField(ChunkStatistics.SKETCH, java.nio.ByteBuffer.wrap(document.getFieldValue(ChunkStatistics.SKETCH) as byte[]))
+
+        def statistics = new ChunkStatistics(true)
+        statistics.merge(ChunkStatistics.of(timeSeries(0, 10), true))
+
+        when:
+        def merged = statistics.mergeIfCovered(doc, 0, 100)
+
+        then:
+        merged
+        statistics.sketch.count == 20
+        statistics.sketch.quantile(0.5d) == ChunkStatistics.of(timeSeries(0, 20), true).sketch.quantile(0.5d)
+    }
+
+    def "test chunks without a sketch are not covered if a sketch is required"() {
+        given:
+        def document = new SolrInputDocument()
+        ChunkStatistics.of(timeSeries(10, 20)).addTo(document)
+
+        def doc = new SolrDocument()
+        document.getFieldNames().each { doc.setField(it, document.getFieldValue(it)) }
+        doc.setField("start", 10L)
+        doc.setField("end", 19L)
+
+        expect:
+        !document.containsKey(ChunkStatistics.SKETCH)
+        !new ChunkStatistics(true).mergeIfCovered(doc, 0, 100)
+        new ChunkStatistics().mergeIfCovered(doc, 0, 100)
+    }
+
+    def "test merge statistics without a sketch into statistics with a sketch"() {
+        when:
+        new ChunkStatistics(true).merge(ChunkStatistics.of(timeSeries(0, 10)))
+
+        then:
+        thrown IllegalArgumentException
+    }
+
+    def "test merge"() {
+        given:
+        def statistics = ChunkStatistics.of(timeSeries(10, 20))
+
+        when:
+        statistics.merge(ChunkStatistics.of(timeSeries(0, 10)))
+        statistics.merge(ChunkStatistics.of(timeSeries(20, 30)))
+        statistics.merge(new ChunkStatistics())
+
+        then:
+        statistics.count == 30
+        statistics.first == ChunkStatistics.of(timeSeries(0, 1)).first
+        statistics.last == ChunkStatistics.of(timeSeries(29, 30)).last
+        statistics.firstTimestamp == 0
+        statistics.lastTimestamp == 29
+    }
+
+    def "test sorted flag"() {
+        given:
+        def sorted = new MetricTimeSeries.Builder("sorted", "metric").point(1, 1).point(2, 2).build()
+        def duplicates = new MetricTimeSeries.Builder("duplicates", "metric").point(1, 1).point(1, 2).build()
+        def document = new SolrInputDocument()
+        ChunkStatistics.of(sorted).addTo(document)
+        def doc = new SolrDocument()
+        document.getFieldNames().each { doc.setField(it, document.getFieldValue(it)) }
+
+        when:
+        def following = ChunkStatistics.of(sorted)
+        following.merge(ChunkStatistics.of(new MetricTimeSeries.Builder("later", "metric").point(3, 3).build()))
+        def overlapping = ChunkStatistics.of(sorted)
+        overlapping.merge(ChunkStatistics.of(sorted))
+
+        then:
+        ChunkStatistics.of(sorted).sorted
+        !ChunkStatistics.of(duplicates).sorted
+        !ChunkStatistics.of(timeSeries(0, 10)).sorted
+        following.sorted
+        !overlapping.sorted
+        ChunkStatistics.isSorted(doc)
+        !ChunkStatistics.isSorted(new SolrDocument())
+        ChunkStatistics.isStatisticsField(ChunkStatistics.SORTED)
+    }
+
+    def "test variance of values with a large offset"() {
+        given:
+        def builder = new MetricTimeSeries.Builder("offset", "metric")
+        100.times { builder.point(it, 1e9 + (it % 2)) }
+
+        when:
+        def statistics = ChunkStatistics.of(builder.build())
+        def merged = ChunkStatistics.of(builder.build())
+        merged.merge(ChunkStatistics.of(builder.build()))
+
+        then:
+        Math.abs(statistics.variance - 0.25d * 100 / 99) < 1e-9
+        Math.abs(merged.variance - 0.25d * 200 / 199) < 1e-9
+        new ChunkStatistics().variance.naN
+    }
+
+    def "test variance of stored chunks with a large offset"() {
+        given:
+        def chunks = (0..<10).collect { chunk ->
+            def builder = new MetricTimeSeries.Builder("offset", "metric")
+            100.times { builder.point(chunk * 100 + it, 1e9 + (it % 2 == 0 ? 1 : -1)) }
+            def document = new SolrInputDocument()
+            ChunkStatistics.of(builder.build()).addTo(document)
+            def doc = new SolrDocument()
+            document.getFieldNames().each { doc.setField(it, document.getFieldValue(it)) }
+            doc.setField("start", chunk * 100L)
+            doc.setField("end", chunk * 100L + 99)
+            doc
+        }
+        def statistics = new ChunkStatistics()
+
+        when:
+        chunks.each { assert statistics.mergeIfCovered(it, 0, 1000) }
+
+        then:
+        statistics.count == 1000
+        Math.abs(statistics.variance - 1000d / 999) < 1e-6
+    }
+
+    @Unroll
+    def "test #aggregation.queryName on statistics equals the result on the points"() {
+        given:
+        def ts = timeSeries(0, 100)
+        def onPoints = new FunctionValueMap(1, 0, 0)
+        def onStatistics = new FunctionValueMap(1, 0, 0)
+
+        when:
+        aggregation.execute(ts, onPoints)
+        aggregation.execute(ChunkStatistics.of(ts), onStatistics)
+
+        then:
+        Math.abs(onPoints.getAggregationValue(0) - onStatistics.getAggregationValue(0)) < 1e-9
+
+        where:
+        aggregation << [new Avg(), new Min(), new Max(), new Count(), new Sum(), new First(), new Last(), new Range(), new StdDev()]
+    }
+
+    @Unroll
+    def "test #aggregation.queryName on empty statistics"() {
+        given:
+        def onStatistics = new FunctionValueMap(1, 0, 0)
+
+        when:
+        aggregation.execute(new ChunkStatistics(), onStatistics)
+
+        then:
+        onStatistics.getAggregationValue(0).naN
+
+        where:
+        aggregation << [new Avg(), new Min(), new Max(), new Sum(), new First(), new Last(), new Range(), new StdDev()]
+    }
+
+    MetricTimeSeries timeSeries(int from, int to) {
+        def builder = new MetricTimeSeries.Builder("stats", "metric")
+        for (int i = to - 1; i >= from; i--) {
+            builder.point(i, Math.sin(i) * 100)
+        }
+        builder.build()
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.solr.type.metric
+
+import de.qaware.chronix.timeseries.MetricTimeSeries
+import spock.lang.Specification
+
+/**
+ * Unit test for the columnar format
+ */
+class ColumnarMetricTimeSeriesSerializerTest extends Specification {
+
+    def "test round trip"() {
+        given:
+        def builder = new MetricTimeSeries.Builder("columns", "metric")
+        points.each { builder.point(it[0] as long, it[1] as double) }
+        def timeSeries = builder.build()
+
+        when:
+        def data = ColumnarMetricTimeSeriesSerializer.to(timeSeries)
+        def decoded = new MetricTimeSeries.Builder("columns", "metric")
+        ColumnarMetricTimeSeriesSerializer.from(data, decoded)
+        def result = decoded.build()
+
+        then:
+        data[0] == ColumnarMetricTimeSeriesSerializer.VERSION
+        result.getTimestampsAsArray() == timeSeries.getTimestampsAsArray()
+        result.getValuesAsArray().collect { Double.doubleToRawLongBits(it) } == timeSeries.getValuesAsArray().collect { Double.doubleToRawLongBits(it) }
+
+        where:
+        points << [[],
+                   [[1_500_000_000_000, 4.2]],
+                   [[5, 1], [3, -1], [Long.MAX_VALUE, Double.NaN], [Long.MIN_VALUE, Double.POSITIVE_INFINITY], [0, -0.0d]],
+                   (0..<1000).collect { [1_500_000_000_000 + it * 1000 + (it % 7), Math.sin(it / 10)] }]
+    }
+
+    def "test compact regular points"() {
+        given:
+        def builder = new MetricTimeSeries.Builder("columns", "metric")
+        1000.times { builder.point(1_500_000_000_000 + it * 1000, 42 + (it % 2)) }
+
+        when:
+        def data = ColumnarMetricTimeSeriesSerializer.to(builder.build())
+
+        then:
+        //a byte per timestamp and at most three bytes per value instead of sixteen bytes per point
+        data.length < 1000 * 4 + 20
+    }
+
+    def "test stream"() {
+        given:
+        def timeSeries = new MetricTimeSeries.Builder("columns", "metric").point(1, 2).point(3, 4).build()
+        def output = new ByteArrayOutputStream()
+
+        when:
+        ColumnarMetricTimeSeriesSerializer.to(timeSeries, output)
+
+        then:
+        output.toByteArray() == ColumnarMetricTimeSeriesSerializer.to(timeSeries)
+    }
+
+    def "test invalid data"() {
+        when:
+        ColumnarMetricTimeSeriesSerializer.from(data as byte[], new MetricTimeSeries.Builder("columns", "metric"))
+
+        then:
+        thrown IllegalArgumentException
+
+        where:
+        data << [[], [2, 0], [1, 5, 2], [1, 1, 2, 0x45], [1, 1, 2, 0x99], [1, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0x01]]
+    }
+
+    def "test private constructor"() {
+        when:
+        ColumnarMetricTimeSeriesSerializer.newInstance()
+        then:
+        noExceptionThrown()
+    }
+}
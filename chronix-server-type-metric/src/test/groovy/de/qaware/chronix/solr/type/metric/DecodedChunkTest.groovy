@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.solr.type.metric
+
+import de.qaware.chronix.converter.common.Compression
+import de.qaware.chronix.converter.serializer.protobuf.ProtoBufMetricTimeSeriesSerializer
+import de.qaware.chronix.timeseries.MetricTimeSeries
+import spock.lang.Specification
+import spock.lang.Unroll
+
+/**
+ * Unit test for the decoded chunk
+ */
+class DecodedChunkTest extends Specification {
+
+    def "test decode"() {
+        given:
+        def ts = new MetricTimeSeries.Builder("chunk", "metric")
+        10.times { ts.point(it * 10 as long, it * 2 as double) }
+        def data = Compression.compress(ProtoBufMetricTimeSeriesSerializer.to(ts.build().points().iterator()))
+
+        when:
+        def chunk = DecodedChunk.decode(ChunkCodecs.PROTOBUF, data, 0, 90, 10)
+        def points = new MetricTimeSeries.Builder("chunk", "metric")
+        chunk.addTo(points, 20, 50)
+        def decoded = points.build()
+
+        then:
+        chunk.size() == 10
+        chunk.ramBytesUsed() > 10 * 16
+        decoded.getTimestampsAsArray() == [20l, 30l, 40l, 50l] as long[]
+        decoded.getValuesAsArray() == [4d, 6d, 8d, 10d] as double[]
+    }
+
+    @Unroll
+    def "test decode #codec.name() with #expectedSize expected points"() {
+        given:
+        def timestamps = (0..<10).collect { it * 10 as long } as long[]
+        def values = (0..<10).collect { it * 2 as double } as double[]
+        def data = codec.encode(timestamps, values, 0, 10)
+
+        when:
+        def chunk = DecodedChunk.decode(codec, data, 0, 90, expectedSize)
+        def points = new MetricTimeSeries.Builder("chunk", "metric")
+        chunk.addTo(points, 0, 90)
+        def decoded = points.build()
+
+        then:
+        chunk.size() == 10
+        decoded.getTimestampsAsArray() == timestamps
+        decoded.getValuesAsArray() == values
+
+        where:
+        codec                 | expectedSize
+        ChunkCodecs.GORILLA   | 10
+        ChunkCodecs.GORILLA   | 0
+        ChunkCodecs.GORILLA   | 1000
+        ChunkCodecs.PROTOBUF  | 4
+    }
+
+    def "test add all points"() {
+        given:
+        def chunk = new DecodedChunk([1l, 2l, 3l] as long[], [1d, 2d, 3d] as double[])
+        def points = new MetricTimeSeries.Builder("chunk", "metric")
+
+        when:
+        chunk.addTo(points, 0, Long.MAX_VALUE)
+        chunk.addTo(points, 0, Long.MAX_VALUE)
+        def decoded = points.build()
+
+        then:
+        decoded.size() == 6
+        decoded.getValuesAsArray() == [1d, 2d, 3d, 1d, 2d, 3d] as double[]
+    }
+
+    def "test merge sorted chunks"() {
+        given:
+        def chunks = [new DecodedChunk([1l, 4l, 7l, 10l] as long[], [1d, 4d, 7d, 10d] as double[]),
+                      new DecodedChunk([2l, 4l, 8l] as long[], [2d, 40d, 8d] as double[]),
+                      new DecodedChunk([3l, 5l, 6l, 12l] as long[], [3d, 5d, 6d, 12d] as double[])] as DecodedChunk[]
+        def points = new MetricTimeSeries.Builder("chunk", "metric")
+
+        when:
+        DecodedChunk.merge(chunks, points, 2, 10)
+        def merged = points.build()
+
+        then:
+        merged.getTimestampsAsArray() == [2l, 3l, 4l, 4l, 5l, 6l, 7l, 8l, 10l] as long[]
+        merged.getValuesAsArray() == [2d, 3d, 4d, 40d, 5d, 6d, 7d, 8d, 10d] as double[]
+    }
+
+    def "test merge chunks outside of the query range"() {
+        given:
+        def chunks = [new DecodedChunk([1l, 2l] as long[], [1d, 2d] as double[]),
+                      new DecodedChunk([] as long[], [] as double[])] as DecodedChunk[]
+        def points = new MetricTimeSeries.Builder("chunk", "metric")
+
+        when:
+        DecodedChunk.merge(chunks, points, 3, 10)
+
+        then:
+        points.build().size() == 0
+    }
+}
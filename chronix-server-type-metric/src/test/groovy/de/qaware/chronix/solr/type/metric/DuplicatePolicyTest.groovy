@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.solr.type.metric
+
+import de.qaware.chronix.timeseries.MetricTimeSeries
+import spock.lang.Specification
+import spock.lang.Unroll
+
+/**
+ * Unit test for the duplicate policies
+ */
+class DuplicatePolicyTest extends Specification {
+
+    @Unroll
+    def "test #policy sorts and merges the duplicates"() {
+        given:
+        def ts = new MetricTimeSeries.Builder("dup", "metric")
+                .attribute("host", "laptop")
+                .point(3, 30).point(1, 10).point(2, 20).point(1, 11).point(3, 31).point(1, 12)
+                .build()
+
+        when:
+        def sorted = policy.apply(ts)
+
+        then:
+        sorted.timestampsAsArray == [1l, 2l, 3l] as long[]
+        sorted.valuesAsArray == values as double[]
+        sorted.name == "dup"
+        sorted.type == "metric"
+        sorted.attribute("host") == "laptop"
+        ChunkStatistics.of(sorted).sorted
+
+        where:
+        policy << [DuplicatePolicy.FIRST, DuplicatePolicy.LAST, DuplicatePolicy.AVG]
+        values << [[10d, 20d, 30d], [12d, 20d, 31d], [11d, 20d, 30.5d]]
+    }
+
+    def "test sorted time series are not copied"() {
+        given:
+        def ts = new MetricTimeSeries.Builder("sorted", "metric").point(1, 1).point(2, 2).build()
+
+        expect:
+        DuplicatePolicy.LAST.apply(ts).is(ts)
+    }
+
+    def "test a range of the arrays is sorted and merged in place"() {
+        given:
+        def timestamps = [5l, 1l, 4l, 2l, 4l, 3l, 0l] as long[]
+        def values = [50d, 10d, 40d, 20d, 41d, 30d, 0d] as double[]
+
+        when:
+        def end = DuplicatePolicy.LAST.apply(timestamps, values, 1, 6)
+
+        then:
+        end == 5
+        timestamps[0..<end] == [5l, 1l, 2l, 3l, 4l]
+        values[0..<end] == [50d, 10d, 20d, 30d, 41d]
+        timestamps[6] == 0l
+    }
+
+    def "test large time series"() {
+        given:
+        def random = new Random(42)
+        def builder = new MetricTimeSeries.Builder("large", "metric")
+        10_000.times { builder.point(random.nextInt(5000), it) }
+
+        when:
+        def sorted = DuplicatePolicy.LAST.apply(builder.build())
+
+        then:
+        TimeSeriesOrder.isSortedAndUnique(sorted)
+        sorted.size() <= 5000
+    }
+
+    @Unroll
+    def "test parse #name"() {
+        expect:
+        DuplicatePolicy.of(name) == expected
+
+        where:
+        name << ["first", " LAST ", "Avg"]
+        expected << [DuplicatePolicy.FIRST, DuplicatePolicy.LAST, DuplicatePolicy.AVG]
+    }
+
+    def "test parse unknown policy"() {
+        when:
+        DuplicatePolicy.of("median")
+
+        then:
+        thrown IllegalArgumentException
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.solr.type.metric
+
+import de.qaware.chronix.converter.serializer.json.JsonMetricTimeSeriesSerializer
+import de.qaware.chronix.timeseries.MetricTimeSeries
+import spock.lang.Specification
+
+/**
+ * Unit test for the streaming json writer
+ */
+class JsonMetricTimeSeriesWriterTest extends Specification {
+
+    def "test write equals the json serializer"() {
+        given:
+        def builder = new MetricTimeSeries.Builder("json", "metric")
+        size.times { builder.point(it * 1000, it * 0.5d) }
+        def timeSeries = builder.build()
+        def writer = new StringWriter()
+
+        when:
+        JsonMetricTimeSeriesWriter.write(timeSeries, writer)
+
+        then:
+        writer.toString() == new String(new JsonMetricTimeSeriesSerializer().toJson(timeSeries), "UTF-8")
+
+        where:
+        size << [0, 1, 100]
+    }
+
+    def "test private constructor"() {
+        when:
+        JsonMetricTimeSeriesWriter.newInstance()
+        then:
+        noExceptionThrown()
+    }
+}
@@ -21,13 +21,16 @@ import de.qaware.chronix.converter.TimeSeriesConverter
 import de.qaware.chronix.converter.common.DoubleList
 import de.qaware.chronix.converter.common.LongList
 import de.qaware.chronix.server.functions.FunctionValueMap
+import de.qaware.chronix.server.types.RecordCache
 import de.qaware.chronix.solr.type.metric.functions.aggregations.Percentile
 import de.qaware.chronix.solr.type.metric.functions.analyses.Frequency
 import de.qaware.chronix.solr.type.metric.functions.analyses.Trend
 import de.qaware.chronix.solr.type.metric.functions.transformation.Derivative
 import de.qaware.chronix.solr.type.metric.functions.transformation.Top
 import de.qaware.chronix.timeseries.MetricTimeSeries
+import org.apache.lucene.util.Accountable
 import org.apache.solr.common.SolrDocument
+import org.apache.solr.common.SolrInputDocument
 import spock.lang.Specification
 import spock.lang.Unroll
 
@@ -71,6 +74,180 @@ class SolrDocumentBuilderTest extends Specification {
 
     }
 
+    def "test reduce merges the attributes"() {
+        given:
+        def solrDocuments = fillDocs()
+
+        when:
+        def ts = SolrDocumentBuilder.reduceDocumentToTimeSeries(0l, 100l, solrDocuments, false)
+
+        then:
+        ts.getName() == "groovy"
+        ts.getType() == "metric"
+        ts.attribute("host") == ["laptop"] as Set
+        ts.attribute("someInt").size() == 10
+        ts.attribute("someDouble") == (0..9).collect { 2.0d + it } as Set
+        ts.attribute("userByteBuffer").first() == "some_user_bytes".bytes
+        !ts.attributes().containsKey("_version_")
+    }
+
+    def "test reduce without requested attributes"() {
+        given:
+        def solrDocuments = fillDocs()
+        solrDocuments.each { doc ->
+            doc.keySet().removeIf { !(it in ["data", "name", "type", "start", "end"]) }
+        }
+
+        when:
+        def ts = SolrDocumentBuilder.reduceDocumentToTimeSeries(0l, 100l, solrDocuments, true)
+
+        then:
+        ts.attributes().isEmpty()
+        ts.size() == 70
+    }
+
+    def "test reduce to time series with statistics"() {
+        given:
+        def solrDocuments = fillDocs()
+        solrDocuments.each { doc ->
+            def document = new SolrInputDocument()
+            ChunkStatistics.of(SolrDocumentBuilder.reduceDocumentToTimeSeries(0l, Long.MAX_VALUE, [doc], true)).addTo(document)
+            document.getFieldNames().each { doc.setField(it, document.getFieldValue(it)) }
+        }
+        def statistics = new ChunkStatistics()
+
+        when:
+        def ts = SolrDocumentBuilder.reduceDocumentToTimeSeries(0l, 1490l, solrDocuments, statistics)
+
+        then:
+        //the documents that end after the query end are decompressed
+        statistics.count == 500
+        ts.size() == 5 * 99
+        !ts.attributes().keySet().any { ChunkStatistics.isStatisticsField(it) }
+    }
+
+    def "test reduce to time series with record cache"() {
+        given:
+        def solrDocuments = new CachedRecords(fillDocs())
+
+        when:
+        def ts = SolrDocumentBuilder.reduceDocumentToTimeSeries(0l, 100l, solrDocuments, true)
+        def cached = SolrDocumentBuilder.reduceDocumentToTimeSeries(0l, 100l, solrDocuments, true)
+
+        then:
+        solrDocuments.decoded.size() == 10
+        solrDocuments.decoded.values().every { it instanceof DecodedChunk && it.size() == 100 }
+        ts.size() == 70
+        cached.getTimestampsAsArray() == ts.getTimestampsAsArray()
+        cached.getValuesAsArray() == ts.getValuesAsArray()
+        cached.attributes() == ts.attributes()
+    }
+
+    def "test sorted chunks are decoded in the order of their start"() {
+        given:
+        def solrDocuments = sortedDocs()
+
+        when:
+        def ts = SolrDocumentBuilder.reduceDocumentToTimeSeries(0l, 1000l, solrDocuments.reverse(), true)
+
+        then:
+        ts.size() == 30
+        TimeSeriesOrder.isSortedAndUnique(ts)
+    }
+
+    @Unroll
+    def "test overlapping sorted chunks are merged, cached: #cached"() {
+        given:
+        def solrDocuments = (0..<3).collect { chunk -> sortedDoc((0..<10).collect { chunk + it * 3 as long }) }
+        solrDocuments << sortedDoc((100..<110).collect { it as long })
+        if (cached) {
+            solrDocuments = new CachedRecords(solrDocuments)
+        }
+
+        when:
+        def ts = SolrDocumentBuilder.reduceDocumentToTimeSeries(5l, 1000l, solrDocuments.reverse(), true)
+
+        then:
+        ts.size() == 35
+        TimeSeriesOrder.isSortedAndUnique(ts)
+        ts.getTimestampsAsArray().toList() == (5..<30).collect { it as long } + (100..<110).collect { it as long }
+
+        where:
+        cached << [false, true]
+    }
+
+    def "test unflagged chunks are decoded in the given order"() {
+        given:
+        def solrDocuments = sortedDocs()
+        solrDocuments[1].removeFields(ChunkStatistics.SORTED)
+
+        when:
+        def ts = SolrDocumentBuilder.reduceDocumentToTimeSeries(0l, 1000l, solrDocuments.reverse(), true)
+
+        then:
+        ts.size() == 30
+        !TimeSeriesOrder.isSorted(ts)
+    }
+
+    @Unroll
+    def "test chunks are decoded with their codec, cached: #cached"() {
+        given:
+        def solrDocuments = sortedDocs()
+        def timestamps = (0..<10).collect { 300 + it as long } as long[]
+        def gorilla = sortedDoc(timestamps.toList())
+        gorilla.setField("data", ByteBuffer.wrap(ChunkCodecs.GORILLA.encode(timestamps, timestamps as double[], 0, 10)))
+        gorilla.setField(ChunkCodecs.FIELD, ChunkCodecs.GORILLA.id())
+        solrDocuments << gorilla
+        if (cached) {
+            solrDocuments = new CachedRecords(solrDocuments)
+        }
+
+        when:
+        def ts = SolrDocumentBuilder.reduceDocumentToTimeSeries(0l, 1000l, solrDocuments, true)
+
+        then:
+        ts.size() == 40
+        ts.getTimestampsAsArray().toList().takeRight(10) == timestamps.toList()
+        ts.getValuesAsArray().toList().takeRight(10) == timestamps.collect { it as double }
+        !ts.attributes().containsKey(ChunkCodecs.FIELD)
+
+        where:
+        cached << [false, true]
+    }
+
+    List<SolrDocument> sortedDocs() {
+        (0..<3).collect { chunk -> sortedDoc((0..<10).collect { chunk * 100 + it as long }) }
+    }
+
+    SolrDocument sortedDoc(List<Long> timestamps) {
+        def builder = new MetricTimeSeries.Builder("sorted", "metric")
+        timestamps.each { builder.point(it, it) }
+        def ts = builder.build()
+        def doc = asSolrDoc(new MetricTimeSeriesConverter().to(ts))
+        def statistics = new SolrInputDocument()
+        ChunkStatistics.of(ts).addTo(statistics)
+        statistics.getFieldNames().each { doc.setField(it, statistics.getFieldValue(it)) }
+        doc
+    }
+
+    static class CachedRecords extends ArrayList<SolrDocument> implements RecordCache {
+        def decoded = new HashMap<Integer, Accountable>()
+
+        CachedRecords(List<SolrDocument> documents) {
+            super(documents)
+        }
+
+        @Override
+        Accountable getDecoded(int record) {
+            decoded.get(record)
+        }
+
+        @Override
+        void putDecoded(int record, Accountable chunk) {
+            decoded.put(record, chunk)
+        }
+    }
+
     def emtpyFunctionValueMap() {
         return new FunctionValueMap(0, 0, 0)
     }
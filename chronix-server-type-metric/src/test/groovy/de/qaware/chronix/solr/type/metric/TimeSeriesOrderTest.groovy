@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.solr.type.metric
+
+import de.qaware.chronix.timeseries.MetricTimeSeries
+import spock.lang.Specification
+import spock.lang.Unroll
+
+/**
+ * Unit test for the time series order
+ */
+class TimeSeriesOrderTest extends Specification {
+
+    def "test private constructor"() {
+        when:
+        TimeSeriesOrder.newInstance()
+        then:
+        noExceptionThrown()
+    }
+
+    @Unroll
+    def "test order of #timestamps"() {
+        given:
+        def builder = new MetricTimeSeries.Builder("order", "metric")
+        timestamps.each { builder.point(it as long, 0) }
+        def ts = builder.build()
+
+        when:
+        def isSorted = TimeSeriesOrder.isSorted(ts)
+        def isUnique = TimeSeriesOrder.isSortedAndUnique(ts)
+        TimeSeriesOrder.sort(ts)
+
+        then:
+        isSorted == sorted
+        isUnique == unique
+        ts.timestampsAsArray == timestamps.sort(false) as long[]
+
+        where:
+        timestamps << [[], [1], [1, 2, 3], [1, 1, 2], [3, 1, 2]]
+        sorted << [true, true, true, true, false]
+        unique << [true, true, true, false, false]
+    }
+
+    def "test stable order"() {
+        given:
+        long[] timestamps = [5, 1, 5, 3, 1, 5, 2]
+
+        expect:
+        TimeSeriesOrder.stableOrder(timestamps) == [1, 4, 6, 3, 0, 2, 5] as int[]
+        TimeSeriesOrder.stableOrder(new long[0]) == new int[0]
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.solr.type.metric.functions.aggregations
+
+import de.qaware.chronix.server.functions.FunctionValueMap
+import de.qaware.chronix.solr.type.metric.ChunkStatistics
+import de.qaware.chronix.timeseries.MetricTimeSeries
+import spock.lang.Specification
+
+/**
+ * Unit test for the approximated percentile aggregation
+ */
+class ApproxPercentileTest extends Specification {
+    def "test execute"() {
+        given:
+        MetricTimeSeries.Builder timeSeries = new MetricTimeSeries.Builder("P", "metric")
+        1000.times {
+            timeSeries.point(it, it + 1)
+        }
+        MetricTimeSeries ts = timeSeries.build()
+        def exact = new FunctionValueMap(1, 1, 1)
+        def approx = new FunctionValueMap(1, 1, 1)
+        when:
+        new Percentile(["0.99"] as String[]).execute(ts, exact)
+        new ApproxPercentile(["0.99", "approx"] as String[]).execute(ts, approx)
+        then:
+        Math.abs(approx.getAggregationValue(0) - exact.getAggregationValue(0)) <= 0.01 * exact.getAggregationValue(0)
+    }
+
+    def "test execute on statistics"() {
+        given:
+        MetricTimeSeries.Builder timeSeries = new MetricTimeSeries.Builder("P", "metric")
+        1000.times {
+            timeSeries.point(it, it + 1)
+        }
+        MetricTimeSeries ts = timeSeries.build()
+        def onPoints = new FunctionValueMap(1, 1, 1)
+        def onStatistics = new FunctionValueMap(1, 1, 1)
+        def aggregation = new ApproxPercentile(["0.5", "approx"] as String[])
+        when:
+        aggregation.execute(ts, onPoints)
+        aggregation.execute(ChunkStatistics.of(ts, true), onStatistics)
+        then:
+        onPoints.getAggregationValue(0) == onStatistics.getAggregationValue(0)
+    }
+
+    def "test statistics without a sketch"() {
+        given:
+        def ts = new MetricTimeSeries.Builder("P", "metric").point(1, 1).point(2, 2).build()
+        def aggregation = new ApproxPercentile(["0.5", "approx"] as String[])
+        def result = new FunctionValueMap(1, 1, 1)
+
+        when:
+        aggregation.execute(ChunkStatistics.of(ts), result)
+
+        then:
+        !aggregation.isAnsweredBy(ChunkStatistics.of(ts))
+        aggregation.isAnsweredBy(ChunkStatistics.of(ts, true))
+        result.getAggregationValue(0).naN
+    }
+
+    def "test for empty time series"() {
+        given:
+        def analysisResult = new FunctionValueMap(1, 1, 1)
+        when:
+        new ApproxPercentile(["0.5", "approx"] as String[]).execute(new MetricTimeSeries.Builder("Empty", "metric").build(), analysisResult)
+        then:
+        analysisResult.getAggregationValue(0).naN
+    }
+
+    def "test is requested"() {
+        expect:
+        ApproxPercentile.isRequested(args as String[]) == result
+
+        where:
+        args << [["0.5"], ["0.5", "approx"], ["0.5", " approx"], ["0.5", "exact"]]
+        result << [false, true, true, false]
+    }
+
+    def "test arguments"() {
+        expect:
+        new ApproxPercentile(["0.5", "approx"] as String[]).getArguments() == ["percentile=0.5", "approx"] as String[]
+    }
+
+    def "test type"() {
+        expect:
+        new ApproxPercentile(["0.5", "approx"] as String[]).getQueryName() == "p"
+    }
+
+    def "test equals and hash code"() {
+        when:
+        def equals = p1.equals(p2)
+        def p1Hash = p1.hashCode()
+        def p2Hash = p2.hashCode()
+
+        then:
+        p1.equals(p1)
+        !p1.equals(new Object())
+        !p1.equals(null)
+        !p1.equals(new Percentile(["0.1"] as String[]))
+        equals == result
+        p1Hash == p2Hash == result
+
+        where:
+        p1 << [new ApproxPercentile(["0.1", "approx"] as String[]), new ApproxPercentile(["0.2", "approx"] as String[])]
+        p2 << [new ApproxPercentile(["0.1", "approx"] as String[]), new ApproxPercentile(["0.1", "approx"] as String[])]
+
+        result << [true, false]
+    }
+
+    def "test to string"() {
+        when:
+        def stringRepresentation = new ApproxPercentile(["0.2", "approx"] as String[]).toString()
+        then:
+        stringRepresentation.contains("0.2")
+        stringRepresentation.contains("approx")
+    }
+}
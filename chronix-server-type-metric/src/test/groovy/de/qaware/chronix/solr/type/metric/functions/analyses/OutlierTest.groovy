@@ -41,6 +41,29 @@ class OutlierTest extends Specification {
         analysisResult.getAnalysisValue(0)
     }
 
+    def "test execute with approximated percentiles"() {
+        given:
+        MetricTimeSeries.Builder timeSeries = new MetricTimeSeries.Builder("Out","metric")
+        MetricTimeSeries.Builder timeSeriesWithOutlier = new MetricTimeSeries.Builder("Out","metric")
+        100.times {
+            timeSeries.point(it, it % 10)
+            timeSeriesWithOutlier.point(it, it % 10)
+        }
+        timeSeriesWithOutlier.point(101, 9999)
+        MetricTimeSeries ts = timeSeries.build()
+        MetricTimeSeries withOutlier = timeSeriesWithOutlier.build()
+
+        def noOutlierResult = new FunctionValueMap(1, 1, 1)
+        def outlierResult = new FunctionValueMap(1, 1, 1)
+
+        when:
+        new Outlier(["approx"] as String[]).execute(ts, noOutlierResult)
+        new Outlier(["approx"] as String[]).execute(withOutlier, outlierResult)
+        then:
+        !noOutlierResult.getAnalysisValue(0)
+        outlierResult.getAnalysisValue(0)
+    }
+
     def "test execute with a time series that has no outlier"() {
         given:
         MetricTimeSeries.Builder timeSeries = new MetricTimeSeries.Builder("Out","metric")
@@ -75,6 +98,7 @@ class OutlierTest extends Specification {
     def "test arguments"() {
         expect:
         new Outlier().getArguments().length == 0
+        new Outlier(["approx"] as String[]).getArguments() == ["approx"] as String[]
     }
 
     def "test type"() {
@@ -90,6 +114,8 @@ class OutlierTest extends Specification {
         function.equals(function)
         function.equals(new Outlier())
         new Outlier().hashCode() == new Outlier().hashCode()
+        !function.equals(new Outlier(["approx"] as String[]))
+        new Outlier(["approx"] as String[]).equals(new Outlier(["approx"] as String[]))
     }
 
 }
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.solr.type.metric.functions.math
+
+import de.qaware.chronix.converter.common.DoubleList
+import spock.lang.Specification
+import spock.lang.Unroll
+
+/**
+ * Unit test for the quantile sketch
+ */
+class QuantileSketchTest extends Specification {
+
+    @Unroll
+    def "test percentile #percentile is within the relative accuracy"() {
+        given:
+        def values = values(10000)
+
+        when:
+        def approx = QuantileSketch.of(values).quantile(percentile)
+        def exact = Percentile.evaluate(values, percentile)
+
+        then:
+        Math.abs(approx - exact) <= QuantileSketch.DEFAULT_RELATIVE_ACCURACY * Math.abs(exact) + 1e-9
+
+        where:
+        percentile << [0.0d, 0.01d, 0.25d, 0.5d, 0.75d, 0.99d, 1.0d]
+    }
+
+    def "test negative values and zeros"() {
+        given:
+        def sketch = new QuantileSketch()
+        [-100d, -10d, 0d, 0d, 10d, 100d, 1000d].each { sketch.add(it) }
+
+        expect:
+        sketch.count == 7
+        sketch.quantile(0) == -100d
+        Math.abs(sketch.quantile(1 / 6d) + 10) <= 0.1
+        sketch.quantile(0.5d) == 0d
+        sketch.quantile(1) == 1000d
+    }
+
+    def "test empty sketch and values that are not finite"() {
+        given:
+        def sketch = new QuantileSketch()
+        sketch.add(Double.NaN)
+        sketch.add(Double.POSITIVE_INFINITY)
+
+        expect:
+        sketch.count == 0
+        sketch.quantile(0.5d).naN
+    }
+
+    def "test merge equals a sketch of all values"() {
+        given:
+        def all = QuantileSketch.of(values(1000))
+        def first = new QuantileSketch()
+        def second = new QuantileSketch()
+        def values = values(1000)
+        500.times { first.add(values.get(it)) }
+        500.times { second.add(values.get(500 + it)) }
+
+        when:
+        first.merge(second)
+
+        then:
+        first.count == all.count
+        [0.1d, 0.5d, 0.9d, 0.999d].every { first.quantile(it) == all.quantile(it) }
+    }
+
+    def "test merge sketches with different accuracy"() {
+        when:
+        new QuantileSketch(0.01).merge(new QuantileSketch(0.02))
+
+        then:
+        thrown IllegalArgumentException
+    }
+
+    def "test invalid relative accuracy"() {
+        when:
+        new QuantileSketch(accuracy)
+
+        then:
+        thrown IllegalArgumentException
+
+        where:
+        accuracy << [0d, 1d, Double.NaN]
+    }
+
+    def "test serialization"() {
+        given:
+        def sketch = QuantileSketch.of(values(1000))
+        sketch.add(0)
+        sketch.add(-42)
+
+        when:
+        def bytes = sketch.toBytes()
+        def deserialized = QuantileSketch.fromBytes(bytes)
+
+        then:
+        bytes.length < 1000 * 8
+        deserialized.count == sketch.count
+        deserialized.relativeAccuracy == sketch.relativeAccuracy
+        [0d, 0.001d, 0.25d, 0.5d, 0.99d, 1d].every { deserialized.quantile(it) == sketch.quantile(it) }
+    }
+
+    def "test deserialize invalid bytes"() {
+        when:
+        QuantileSketch.fromBytes(bytes as byte[])
+
+        then:
+        thrown IllegalArgumentException
+
+        where:
+        bytes << [[], [2], [1, 0, 0]]
+    }
+
+    def "test values spanning more than the maximal buckets"() {
+        given:
+        def sketch = new QuantileSketch()
+        def values = new DoubleList()
+        (-200..200).each { values.add(Math.pow(10, it)) }
+        values.toArray().each { sketch.add(it) }
+
+        expect:
+        sketch.count == 401
+        //the largest values keep their accuracy
+        Math.abs(sketch.quantile(0.99d) - Percentile.evaluate(values, 0.99d)) <= 0.01 * Percentile.evaluate(values, 0.99d)
+        sketch.quantile(0) == 1e-200d
+    }
+
+    DoubleList values(int size) {
+        def values = new DoubleList()
+        def random = new Random(4711)
+        size.times {
+            values.add(Math.exp(random.nextGaussian() * 3))
+        }
+        values
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.solr.type.metric.functions.transformation
+
+import de.qaware.chronix.server.functions.FunctionValueMap
+import de.qaware.chronix.solr.type.metric.BucketStatistics
+import de.qaware.chronix.timeseries.MetricTimeSeries
+import org.apache.solr.common.SolrDocument
+import spock.lang.Specification
+import spock.lang.Unroll
+
+/**
+ * Unit test for the bucket transformation
+ */
+class BucketTest extends Specification {
+
+    @Unroll
+    def "test transform with #aggregation"() {
+        given:
+        def timeSeriesBuilder = new MetricTimeSeries.Builder("Bucket", "metric")
+        //three buckets of 10 seconds, the points are not sorted
+        [25_000l, 1_000l, 9_999l, 10_000l, 5_000l, 12_000l].eachWithIndex { time, i -> timeSeriesBuilder.point(time, i + 1) }
+        def timeSeries = timeSeriesBuilder.build()
+        def bucket = new Bucket(["10s", aggregation] as String[])
+        def functionValueMap = new FunctionValueMap(0, 0, 1)
+
+        when:
+        bucket.execute(timeSeries, functionValueMap)
+
+        then:
+        timeSeries.getTimestampsAsArray() == [0l, 10_000l, 20_000l] as long[]
+        timeSeries.getValuesAsArray() == expected as double[]
+        functionValueMap.getTransformation(0) == bucket
+
+        where:
+        aggregation << ["avg", "min", "max", "sum", "count", "first", "last"]
+        expected << [[10d / 3, 5, 1], [2, 4, 1], [5, 6, 1], [10, 10, 1], [3, 2, 1], [2, 4, 1], [3, 6, 1]]
+    }
+
+    def "test transform with negative timestamps"() {
+        given:
+        def timeSeries = new MetricTimeSeries.Builder("Bucket", "metric")
+                .point(-1, 1)
+                .point(-60_000, 2)
+                .point(0, 3)
+                .build()
+
+        when:
+        new Bucket(["1m"] as String[]).execute(timeSeries, new FunctionValueMap(0, 0, 1))
+
+        then:
+        timeSeries.getTimestampsAsArray() == [-60_000l, 0l] as long[]
+        timeSeries.getValuesAsArray() == [1.5d, 3d] as double[]
+    }
+
+    def "test transform with the statistics of covered chunks"() {
+        given:
+        def timeSeries = new MetricTimeSeries.Builder("Bucket", "metric")
+                .point(1_500, 4)
+                .point(3_100, 8)
+                .build()
+        def covered = new BucketStatistics(1_000)
+        //a chunk in a bucket with points and a chunk in a bucket of its own
+        covered.mergeIfCovered(chunk(1_000, 1_200, 2, 2, 1, 1), 0, 10_000)
+        covered.mergeIfCovered(chunk(2_000, 2_900, 3, 9, 2, 5), 0, 10_000)
+
+        when:
+        new Bucket(["1s", aggregation] as String[]).execute(timeSeries, covered, new FunctionValueMap(0, 0, 1))
+
+        then:
+        timeSeries.getTimestampsAsArray() == [1_000l, 2_000l, 3_000l] as long[]
+        timeSeries.getValuesAsArray() == expected as double[]
+
+        where:
+        aggregation << ["avg", "count", "first", "last", "max"]
+        expected << [[2, 3, 8], [3, 3, 1], [1, 2, 8], [4, 5, 8], [4, 5, 8]]
+    }
+
+    def "test transform - 0 points"() {
+        given:
+        def timeSeries = new MetricTimeSeries.Builder("Bucket", "metric").build()
+
+        when:
+        new Bucket(["1h"] as String[]).execute(timeSeries, new FunctionValueMap(0, 0, 1))
+
+        then:
+        timeSeries.size() == 0
+    }
+
+    @Unroll
+    def "test invalid arguments #args"() {
+        when:
+        new Bucket(args as String[])
+
+        then:
+        thrown IllegalArgumentException
+
+        where:
+        args << [["1"], ["1w"], ["0s"], ["-1s"], ["1m", "median"]]
+    }
+
+    def "test interval"() {
+        expect:
+        new Bucket([interval] as String[]).getInterval() == millis
+
+        where:
+        interval << ["250ms", "30s", "1m", "2h", "1d"]
+        millis << [250, 30_000, 60_000, 7_200_000, 86_400_000]
+    }
+
+    def "test type"() {
+        when:
+        def bucket = new Bucket(["1m", "avg"] as String[])
+        then:
+        bucket.getQueryName() == "bucket"
+        bucket.getTimeSeriesType() == "metric"
+        bucket.getArguments() == ["interval=60000", "aggregation=AVG"] as String[]
+    }
+
+    def "test equals and hash code"() {
+        expect:
+        def function = new Bucket(["1m", "avg"] as String[])
+        !function.equals(null)
+        !function.equals(new Object())
+        function.equals(function)
+        function.equals(new Bucket(["60s"] as String[]))
+        !function.equals(new Bucket(["1m", "max"] as String[]))
+        new Bucket(["1m"] as String[]).hashCode() == new Bucket(["60s", "AVG"] as String[]).hashCode()
+        new Bucket(["1m"] as String[]).hashCode() != new Bucket(["2m"] as String[]).hashCode()
+    }
+
+    def "test string representation"() {
+        expect:
+        def string = new Bucket(["1m", "sum"] as String[]).toString()
+        string.contains("interval")
+        string.contains("aggregation")
+    }
+
+    static SolrDocument chunk(long start, long end, long count, double sum, double first, double last) {
+        def doc = new SolrDocument()
+        doc.setField("start", start)
+        doc.setField("end", end)
+        doc.setField("stats_count", count)
+        doc.setField("stats_sum", sum)
+        doc.setField("stats_min", Math.min(first, last))
+        doc.setField("stats_max", Math.max(first, last))
+        doc.setField("stats_first", first)
+        doc.setField("stats_last", last)
+        doc.setField("stats_m2", (first - last) * (first - last) / 2)
+        doc
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2016 QAware GmbH
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+package de.qaware.chronix.solr.type.metric.functions.transformation
+
+import de.qaware.chronix.server.functions.FunctionValueMap
+import de.qaware.chronix.timeseries.MetricTimeSeries
+import spock.lang.Specification
+
+/**
+ * Unit test for the largest triangle three buckets transformation
+ */
+class LttbTest extends Specification {
+
+    def "test transform"() {
+        given:
+        def timeSeriesBuilder = new MetricTimeSeries.Builder("Lttb", "metric")
+        //a flat line with a single peak in every 100 points
+        1000.times { timeSeriesBuilder.point(it * 1000l, it % 100 == 50 ? 100 : 0) }
+        def timeSeries = timeSeriesBuilder.build()
+        def functionValueMap = new FunctionValueMap(0, 0, 1)
+        def lttb = new Lttb(["52"] as String[])
+
+        when:
+        lttb.execute(timeSeries, functionValueMap)
+
+        then:
+        timeSeries.size() == 52
+        timeSeries.getTimestampsAsArray()[0] == 0l
+        timeSeries.getTimestampsAsArray()[51] == 999_000l
+        //every peak is kept
+        timeSeries.getValuesAsArray().toList().count { it == 100d } == 10
+        (1..<52).every { timeSeries.getTime(it) > timeSeries.getTime(it - 1) }
+        functionValueMap.getTransformation(0) == lttb
+    }
+
+    def "test transform unsorted points"() {
+        given:
+        def timeSeriesBuilder = new MetricTimeSeries.Builder("Lttb", "metric")
+        (0..<10).reverse().each { timeSeriesBuilder.point(it, it * it) }
+        def timeSeries = timeSeriesBuilder.build()
+
+        when:
+        new Lttb(["4"] as String[]).execute(timeSeries, new FunctionValueMap(0, 0, 1))
+
+        then:
+        timeSeries.size() == 4
+        timeSeries.getTime(0) == 0
+        timeSeries.getTime(3) == 9
+    }
+
+    def "test transform - too few points"() {
+        given:
+        def timeSeriesBuilder = new MetricTimeSeries.Builder("Lttb", "metric")
+        10.times { timeSeriesBuilder.point(it, it) }
+        def timeSeries = timeSeriesBuilder.build()
+
+        when:
+        new Lttb([threshold] as String[]).execute(timeSeries, new FunctionValueMap(0, 0, 1))
+
+        then:
+        timeSeries.size() == 10
+
+        where:
+        threshold << ["10", "1000", "2"]
+    }
+
+    def "test type"() {
+        when:
+        def lttb = new Lttb(["1000"] as String[])
+        then:
+        lttb.getQueryName() == "lttb"
+        lttb.getTimeSeriesType() == "metric"
+        lttb.getArguments() == ["threshold=1000"] as String[]
+    }
+
+    def "test equals and hash code"() {
+        expect:
+        def function = new Lttb(["4"] as String[])
+        !function.equals(null)
+        !function.equals(new Object())
+        function.equals(function)
+        function.equals(new Lttb(["4"] as String[]))
+        new Lttb(["4"] as String[]).hashCode() == new Lttb(["4"] as String[]).hashCode()
+        new Lttb(["4"] as String[]).hashCode() != new Lttb(["2"] as String[]).hashCode()
+    }
+
+    def "test string representation"() {
+        expect:
+        def string = new Lttb(["4"] as String[]).toString()
+        string.contains("threshold")
+    }
+}
@@ -18,6 +18,7 @@ package de.qaware.chronix.solr.type.metric.functions.transformation
 import de.qaware.chronix.server.functions.FunctionValueMap
 import de.qaware.chronix.timeseries.MetricTimeSeries
 import spock.lang.Specification
+import spock.lang.Unroll
 
 import java.time.Instant
 
@@ -174,6 +175,111 @@ class MovingAverageTest extends Specification {
     }
 
 
+    @Unroll
+    def "test sliding window equals summing up every window with #timeSpan #unit"() {
+        given:
+        def random = new Random(4711)
+        def timeSeriesBuilder = new MetricTimeSeries.Builder("Moving average", "metric")
+        long time = 0
+        2000.times {
+            //irregular intervals with some gaps that are larger than the window
+            time += random.nextInt(10) == 0 ? 60_000 : random.nextInt(3000)
+            timeSeriesBuilder.point(time, random.nextGaussian() * 1000)
+        }
+        def timeSeries = timeSeriesBuilder.build()
+        def expected = reference(timeSeries.getTimestampsAsArray(), timeSeries.getValuesAsArray(),
+                java.time.temporal.ChronoUnit.valueOf(unit).getDuration().toMillis() * timeSpan)
+
+        when:
+        new MovingAverage([timeSpan as String, unit] as String[]).execute(timeSeries, new FunctionValueMap(1, 1, 1))
+
+        then:
+        timeSeries.size() == expected.size()
+        timeSeries.getTimestampsAsArray() == expected.collect { it[0] as long } as long[]
+        (0..<timeSeries.size()).every { Math.abs(timeSeries.getValue(it) - (expected[it][1] as double)) < 1e-9 }
+
+        where:
+        timeSpan << [1, 5, 30, 1]
+        unit << ["SECONDS", "SECONDS", "SECONDS", "HOURS"]
+    }
+
+    def "test transform with a single point and an empty time series"() {
+        given:
+        def single = new MetricTimeSeries.Builder("Moving average", "metric").point(1, 4711).build()
+        def empty = new MetricTimeSeries.Builder("Moving average", "metric").build()
+
+        when:
+        new MovingAverage(["5", "SECONDS"] as String[]).execute(single, new FunctionValueMap(1, 1, 1))
+        new MovingAverage(["5", "SECONDS"] as String[]).execute(empty, new FunctionValueMap(1, 1, 1))
+
+        then:
+        single.size() == 1
+        single.getValue(0) == 4711d
+        empty.isEmpty()
+    }
+
+    def "test a value that is not a number only affects the windows that contain it"() {
+        given:
+        def timeSeriesBuilder = new MetricTimeSeries.Builder("Moving average", "metric")
+        10.times {
+            timeSeriesBuilder.point(it * 1000, it == 2 ? Double.NaN : it)
+        }
+        def timeSeries = timeSeriesBuilder.build()
+
+        when:
+        new MovingAverage(["1", "SECONDS"] as String[]).execute(timeSeries, new FunctionValueMap(1, 1, 1))
+
+        then:
+        timeSeries.getValue(0) == 0.5d
+        timeSeries.getValue(1).naN
+        timeSeries.getValue(2).naN
+        timeSeries.getValue(3) == 3.5d
+    }
+
+    /**
+     * The former implementation that sums up every window
+     */
+    static List<List<Number>> reference(long[] times, double[] values, long windowTime) {
+        def result = []
+        int timeSeriesSize = times.length
+        int startIdx = 0
+        long current = times[0]
+        long currentWindowEnd = current + windowTime
+        long last = times[timeSeriesSize - 1]
+        boolean lastWindowOnlyOnePoint = true
+
+        for (int i = 0; i < timeSeriesSize; i++) {
+            while (i < timeSeriesSize && !(currentWindowEnd < current)) {
+                current = times[i++]
+            }
+            i -= 1
+            result << average(times, values, startIdx, i)
+            startIdx++
+            currentWindowEnd = times[startIdx] + windowTime
+            if (currentWindowEnd >= last) {
+                lastWindowOnlyOnePoint = false
+                break
+            }
+        }
+
+        if (lastWindowOnlyOnePoint) {
+            result << [times[timeSeriesSize - 1], values[timeSeriesSize - 1]]
+        } else {
+            result << average(times, values, startIdx, timeSeriesSize)
+        }
+        result
+    }
+
+    static List<Number> average(long[] times, double[] values, int start, int end) {
+        double valueSum = 0
+        long timeSum = 0
+        for (int i = start; i < end; i++) {
+            valueSum += values[i]
+            timeSum += times[i]
+        }
+        [timeSum.intdiv(end - start), valueSum / (end - start)]
+    }
+
     long dateOf(format) {
         Instant.parse(format as String).toEpochMilli()
     }
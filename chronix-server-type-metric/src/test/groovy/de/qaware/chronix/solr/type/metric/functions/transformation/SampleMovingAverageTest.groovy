@@ -18,6 +18,7 @@ package de.qaware.chronix.solr.type.metric.functions.transformation
 import de.qaware.chronix.server.functions.FunctionValueMap
 import de.qaware.chronix.timeseries.MetricTimeSeries
 import spock.lang.Specification
+import spock.lang.Unroll
 
 import java.time.Instant
 
@@ -76,6 +77,63 @@ class SampleMovingAverageTest extends Specification {
         Instant.parse(format as String).toEpochMilli()
     }
 
+    @Unroll
+    def "test sliding window equals summing up every window with #samples samples"() {
+        given:
+        def random = new Random(4711)
+        def timeSeriesBuilder = new MetricTimeSeries.Builder("Sample moving average", "metric")
+        size.times {
+            timeSeriesBuilder.point(it * 1000 + random.nextInt(1000), random.nextGaussian() * 1000)
+        }
+        def timeSeries = timeSeriesBuilder.build()
+        def expected = reference(timeSeries.getTimestampsAsArray(), timeSeries.getValuesAsArray(), samples)
+
+        when:
+        new SampleMovingAverage([samples as String] as String[]).execute(timeSeries, new FunctionValueMap(1, 1, 1))
+
+        then:
+        timeSeries.size() == expected.size()
+        timeSeries.getTimestampsAsArray() == expected.collect { it[0] as long } as long[]
+        (0..<timeSeries.size()).every { Math.abs(timeSeries.getValue(it) - (expected[it][1] as double)) < 1e-9 }
+
+        where:
+        samples << [1, 2, 10, 100, 999, 1000]
+        size << [1000, 1000, 1000, 1000, 1000, 1000]
+    }
+
+    def "test more samples than points"() {
+        given:
+        def timeSeries = new MetricTimeSeries.Builder("Sample moving average", "metric")
+                .point(1000, 1).point(2000, 2).point(3000, 6).build()
+
+        when:
+        new SampleMovingAverage(["5"] as String[]).execute(timeSeries, new FunctionValueMap(1, 1, 1))
+
+        then:
+        timeSeries.size() == 2
+        timeSeries.getValue(0) == 3d
+        timeSeries.getTime(0) == 2000
+        timeSeries.getValue(1) == 4d
+        timeSeries.getTime(1) == 2500
+    }
+
+    /**
+     * The former implementation that sums up every window
+     */
+    static List<List<Number>> reference(long[] times, double[] values, int samples) {
+        def result = []
+        int timeSeriesSize = times.length
+        for (int start = 0; start < timeSeriesSize; start++) {
+            int end = start + samples
+            result << MovingAverageTest.average(times, values, start, end)
+            if (end + 1 >= timeSeriesSize) {
+                result << MovingAverageTest.average(times, values, start + 1, timeSeriesSize)
+                break
+            }
+        }
+        result
+    }
+
     def "test getType"() {
         when:
         def movAvg = new SampleMovingAverage(["4"] as String[])